@@ -173,7 +173,7 @@ public class UITestHelper {
      */
     public static int createCollection(String name, int typeIndex, int displayOrder, int displayType) {
         Context context = getInstrumentation().getTargetContext();
-        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES[typeIndex];
+        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES.get(typeIndex);
 
         // Generate default parameters and coin list
         ParcelableHashMap parameters = new ParcelableHashMap();
@@ -188,7 +188,7 @@ public class UITestHelper {
                 0,
                 typeIndex,
                 displayType,
-                0, 0, "", ""
+                0, 0, 0, 0
         );
 
         // Insert into database
@@ -215,7 +215,7 @@ public class UITestHelper {
     public static int createCollectionWithCollected(String name, int typeIndex, int displayOrder,
                                                      int displayType, double collectedFraction) {
         Context context = getInstrumentation().getTargetContext();
-        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES[typeIndex];
+        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES.get(typeIndex);
 
         // Generate default parameters and coin list
         ParcelableHashMap parameters = new ParcelableHashMap();
@@ -246,7 +246,7 @@ public class UITestHelper {
                 numCollected,
                 typeIndex,
                 displayType,
-                0, 0, "", ""
+                0, 0, 0, 0
         );
 
         // Insert into database
@@ -267,7 +267,7 @@ public class UITestHelper {
      * @return The number of coins in a default collection of this type
      */
     public static int getExpectedCoinCount(int typeIndex) {
-        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES[typeIndex];
+        CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES.get(typeIndex);
         ParcelableHashMap parameters = new ParcelableHashMap();
         collectionInfo.getCreationParameters(parameters);
         ArrayList<CoinSlot> coinList = new ArrayList<>();
@@ -0,0 +1,462 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.spencerpages.MainApplication.APP_NAME;
+
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the advanced-view edits that haven't been saved yet, with one file
+ * per collection. Each edit is appended by a background writer as it's made, so the edits
+ * survive the app process being killed and are replayed when the collection is next opened.
+ * Saving or discarding the edits deletes the journal.
+ * <p>
+ * Each record holds a coin's complete advanced info, so only the latest record for a coin
+ * matters. Once the file holds several records per coin it is compacted in the background
+ * by rewriting it with just the latest records. Records are length-prefixed and
+ * checksummed, so a record cut short by the process being killed mid-write is dropped.
+ */
+public class AdvInfoJournal {
+
+    // Folder under the app's files directory that holds the journals
+    public static final String JOURNAL_DIR = "adv_info_journals";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    // The journal is compacted once it holds COMPACT_RATIO records per coin, and at
+    // least MIN_RECORDS_TO_COMPACT records
+    static final int COMPACT_RATIO = 4;
+    static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    // Records larger than this can only come from a corrupt file
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    // Default production executor - a single thread, so appends are written in order
+    private final static Executor sDefaultExecutor = Executors.newSingleThreadExecutor();
+
+    private final File mDir;
+    private final Executor mExecutor;
+
+    // Number of records in each journal that has been opened, and the coins they're for, by
+    // collection name. Tracked as records are appended so that deciding whether to compact
+    // doesn't need to read the journal. Only accessed by the background writer.
+    private final HashMap<String, Integer> mNumRecords = new HashMap<>();
+    private final HashMap<String, HashSet<Long>> mCoinIds = new HashMap<>();
+
+    // Number of times a whole journal has been read by the background writer
+    private volatile int mNumFullReads = 0;
+
+    /**
+     * Constructor
+     *
+     * @param dir folder to keep the journals in
+     */
+    public AdvInfoJournal(File dir) {
+        this(dir, sDefaultExecutor);
+    }
+
+    /**
+     * Constructor allowing the executor to be injected. Used by tests to run the
+     * background writer directly.
+     *
+     * @param dir      folder to keep the journals in
+     * @param executor executor used to run the background writer
+     */
+    AdvInfoJournal(File dir, Executor executor) {
+        mDir = dir;
+        mExecutor = executor;
+    }
+
+    /**
+     * Append a coin's current advanced info to the collection's journal. The coin is copied
+     * on the calling thread and written in the background.
+     *
+     * @param collectionName the collection name
+     * @param coinSlot       the coin that was edited
+     */
+    void append(String collectionName, CoinSlot coinSlot) {
+        final byte[] record = encodeRecord(coinSlot);
+        final long databaseId = coinSlot.getDatabaseId();
+        mExecutor.execute(() -> {
+            File journalFile = getJournalFile(collectionName);
+            try {
+                int numRecords = openJournal(collectionName);
+                try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile, true))) {
+                    writeRecord(out, record);
+                }
+                numRecords++;
+                mNumRecords.put(collectionName, numRecords);
+                HashSet<Long> coinIds = mCoinIds.get(collectionName);
+                coinIds.add(databaseId);
+                if (numRecords >= MIN_RECORDS_TO_COMPACT) {
+                    compactIfNeeded(collectionName, numRecords, coinIds.size());
+                }
+            } catch (IOException e) {
+                Log.e(APP_NAME, "Failed to write the edit journal for " + collectionName, e);
+            }
+        });
+    }
+
+    /**
+     * Read the latest journaled edit for each coin in a collection, waiting for any
+     * appends that are still being written
+     *
+     * @param collectionName the collection name
+     * @return the edited coins (only the database ID and advanced info are set)
+     */
+    ArrayList<CoinSlot> read(String collectionName) {
+        FutureTask<ArrayList<CoinSlot>> readTask = new FutureTask<>(() -> {
+            openJournal(collectionName);
+            return new ArrayList<>(readLatestRecords(getJournalFile(collectionName)).values());
+        });
+        mExecutor.execute(readTask);
+        try {
+            return readTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(APP_NAME, "Failed to read the edit journal for " + collectionName, e);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Delete a collection's journal (Ex: once the edits have been saved or discarded)
+     *
+     * @param collectionName the collection name
+     */
+    void clear(String collectionName) {
+        mExecutor.execute(() -> {
+            mNumRecords.remove(collectionName);
+            mCoinIds.remove(collectionName);
+            File journalFile = getJournalFile(collectionName);
+            if (journalFile.exists() && !journalFile.delete()) {
+                Log.e(APP_NAME, "Failed to delete the edit journal for " + collectionName);
+            }
+        });
+    }
+
+    /**
+     * Delete the journals for all collections (Ex: when the collections are replaced
+     * by an import)
+     */
+    void clearAll() {
+        mExecutor.execute(() -> {
+            mNumRecords.clear();
+            mCoinIds.clear();
+            File[] journalFiles = mDir.listFiles();
+            if (journalFiles == null) {
+                return;
+            }
+            for (File journalFile : journalFiles) {
+                if (!journalFile.delete()) {
+                    Log.e(APP_NAME, "Failed to delete the edit journal " + journalFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Move a collection's journal when the collection is renamed
+     *
+     * @param oldCollectionName the old collection name
+     * @param newCollectionName the new collection name
+     */
+    void rename(String oldCollectionName, String newCollectionName) {
+        mExecutor.execute(() -> {
+            mNumRecords.remove(oldCollectionName);
+            mNumRecords.remove(newCollectionName);
+            mCoinIds.remove(oldCollectionName);
+            mCoinIds.remove(newCollectionName);
+            File oldFile = getJournalFile(oldCollectionName);
+            if (oldFile.exists() && !oldFile.renameTo(getJournalFile(newCollectionName))) {
+                Log.e(APP_NAME, "Failed to rename the edit journal for " + oldCollectionName);
+            }
+        });
+    }
+
+    /**
+     * @return the number of times the background writer has read a whole journal, when
+     * opening or compacting it
+     */
+    int getNumFullReads() {
+        return mNumFullReads;
+    }
+
+    /**
+     * Get the journal file for a collection. The name is hex-encoded since collection
+     * names can contain any characters.
+     *
+     * @param collectionName the collection name
+     * @return the journal file
+     */
+    File getJournalFile(String collectionName) {
+        StringBuilder fileName = new StringBuilder();
+        for (byte b : collectionName.getBytes(StandardCharsets.UTF_8)) {
+            fileName.append(Character.forDigit((b >> 4) & 0xF, 16));
+            fileName.append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(mDir, fileName.append(JOURNAL_SUFFIX).toString());
+    }
+
+    /**
+     * Count the records in a journal and the coins they're for the first time it's used.
+     * This is the only time the whole journal is read, besides compaction. If the journal
+     * ends with a partly-written record, it is rewritten without it so that new records can
+     * be appended.
+     * Must be called on the background writer.
+     *
+     * @param collectionName the collection name
+     * @return the number of records in the journal
+     * @throws IOException if the journal couldn't be read or rewritten
+     */
+    private int openJournal(String collectionName) throws IOException {
+        Integer numRecords = mNumRecords.get(collectionName);
+        if (numRecords != null) {
+            return numRecords;
+        }
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+        File journalFile = getJournalFile(collectionName);
+        int[] recordCount = {0};
+        LinkedHashMap<Long, CoinSlot> latestRecords = new LinkedHashMap<>();
+        mNumFullReads++;
+        boolean isComplete = readRecords(journalFile, recordCount, latestRecords);
+        if (!isComplete) {
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Dropping a partly-written record from the edit journal for " + collectionName);
+            }
+            recordCount[0] = compact(journalFile);
+        }
+        mNumRecords.put(collectionName, recordCount[0]);
+        mCoinIds.put(collectionName, new HashSet<>(latestRecords.keySet()));
+        return recordCount[0];
+    }
+
+    /**
+     * Compact a journal if it holds too many superseded records
+     *
+     * @param collectionName the collection name
+     * @param numRecords     number of records in the journal
+     * @param numCoins       number of coins with records in the journal
+     * @throws IOException if the journal couldn't be rewritten
+     */
+    private void compactIfNeeded(String collectionName, int numRecords, int numCoins) throws IOException {
+        if (numRecords >= COMPACT_RATIO * numCoins) {
+            File journalFile = getJournalFile(collectionName);
+            int numCompacted = compact(journalFile);
+            mNumRecords.put(collectionName, numCompacted);
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Compacted the edit journal for " + collectionName + " from "
+                        + numRecords + " to " + numCompacted + " records");
+            }
+        }
+    }
+
+    /**
+     * Rewrite a journal with only the latest complete record for each coin. The new journal
+     * is written to a temporary file first and then renamed over the old one, so a crash
+     * during compaction leaves the old journal in place.
+     *
+     * @param journalFile the journal file
+     * @return the number of records in the compacted journal
+     * @throws IOException if the journal couldn't be rewritten
+     */
+    int compact(File journalFile) throws IOException {
+        mNumFullReads++;
+        LinkedHashMap<Long, CoinSlot> latestRecords = readLatestRecords(journalFile);
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            for (CoinSlot coinSlot : latestRecords.values()) {
+                writeRecord(out, encodeRecord(coinSlot));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            throw new IOException("Unable to replace " + journalFile);
+        }
+        return latestRecords.size();
+    }
+
+    /**
+     * Read the latest complete record for each coin in a journal
+     *
+     * @param journalFile the journal file
+     * @return the latest edit for each coin by database ID, in the order first edited
+     * @throws IOException if the journal couldn't be read
+     */
+    private static LinkedHashMap<Long, CoinSlot> readLatestRecords(File journalFile) throws IOException {
+        LinkedHashMap<Long, CoinSlot> latestRecords = new LinkedHashMap<>();
+        readRecords(journalFile, new int[1], latestRecords);
+        return latestRecords;
+    }
+
+    /**
+     * Read the records in a journal, stopping at the first one that is incomplete or
+     * doesn't match its checksum
+     *
+     * @param journalFile   the journal file
+     * @param recordCount   set to the number of complete records
+     * @param latestRecords if not null, filled in with the latest record for each coin
+     * @return true if the whole file was read, false if it ended with a bad record
+     * @throws IOException if the journal couldn't be read
+     */
+    private static boolean readRecords(File journalFile, int[] recordCount,
+                                       LinkedHashMap<Long, CoinSlot> latestRecords) throws IOException {
+        recordCount[0] = 0;
+        if (!journalFile.exists()) {
+            return true;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return true;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    return false;
+                }
+                byte[] record = new byte[length];
+                long checksum;
+                try {
+                    in.readFully(record);
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                } catch (EOFException e) {
+                    return false;
+                }
+                if (checksum != getChecksum(record)) {
+                    return false;
+                }
+                recordCount[0]++;
+                if (latestRecords != null) {
+                    CoinSlot coinSlot = decodeRecord(record);
+                    latestRecords.put(coinSlot.getDatabaseId(), coinSlot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a record followed by its checksum
+     *
+     * @param out    stream to write to
+     * @param record the encoded record
+     * @throws IOException if the record couldn't be written
+     */
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeInt((int) getChecksum(record));
+    }
+
+    /**
+     * Encode a coin's advanced info as a journal record
+     *
+     * @param coinSlot the coin
+     * @return the encoded record
+     */
+    static byte[] encodeRecord(CoinSlot coinSlot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(coinSlot.getDatabaseId());
+            out.writeBoolean(coinSlot.isInCollection());
+            out.writeInt(coinSlot.getAdvancedGrades() != null ? coinSlot.getAdvancedGrades() : 0);
+            out.writeInt(coinSlot.getAdvancedQuantities() != null ? coinSlot.getAdvancedQuantities() : 0);
+            out.writeBoolean(coinSlot.isAdvancedNotesLoaded());
+            if (coinSlot.isAdvancedNotesLoaded()) {
+                byte[] notes = coinSlot.getAdvancedNotes().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(notes.length);
+                out.write(notes);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array doesn't fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a journal record
+     *
+     * @param record the encoded record
+     * @return a coin with the database ID and advanced info from the record
+     * @throws IOException if the record is malformed
+     */
+    static CoinSlot decodeRecord(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        long databaseId = in.readLong();
+        boolean inCollection = in.readBoolean();
+        int grades = in.readInt();
+        int quantities = in.readInt();
+        boolean notesLoaded = in.readBoolean();
+        String notes = "";
+        if (notesLoaded) {
+            byte[] notesBytes = new byte[in.readInt()];
+            in.readFully(notesBytes);
+            notes = new String(notesBytes, StandardCharsets.UTF_8);
+        }
+        CoinSlot coinSlot = new CoinSlot(databaseId, "", "", inCollection, grades, quantities, notes,
+                0, false, -1);
+        if (!notesLoaded) {
+            coinSlot.setAdvancedNotesNotLoaded();
+        }
+        return coinSlot;
+    }
+
+    /**
+     * @param record the encoded record
+     * @return the CRC32 checksum of the record
+     */
+    private static long getChecksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return crc.getValue();
+    }
+}
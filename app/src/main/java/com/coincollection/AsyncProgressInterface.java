@@ -42,4 +42,24 @@ public interface AsyncProgressInterface {
      * @param resultStr a string result to display, or "" if no result
      */
     void asyncProgressOnPostExecute(int taskId, String resultStr);
+
+    /**
+     * Method to perform on the UI thread when the async task reports progress
+     *
+     * @param taskId      an integer representing the task ID
+     * @param progressStr a string describing the progress
+     */
+    default void asyncProgressOnProgressUpdate(int taskId, String progressStr) {
+    }
+
+    /**
+     * Method called on the UI thread to get the resource key for a task. Tasks only wait
+     * for other tasks with the same key, or for tasks that use the whole database.
+     *
+     * @param taskId an integer representing the task ID
+     * @return the task key (see TaskScheduler)
+     */
+    default String asyncProgressGetTaskKey(int taskId) {
+        return TaskScheduler.getDefaultTaskKey(taskId);
+    }
 }
@@ -20,23 +20,21 @@
 package com.coincollection;
 
 import static com.coincollection.BaseActivity.TASK_NONE;
+import static com.spencerpages.MainApplication.APP_NAME;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
 
 import java.lang.ref.WeakReference;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
 
 public class AsyncTaskRunner {
     private WeakReference<AsyncProgressInterface> mListenerRef;
-    private final Executor mExecutor;
+    private final TaskScheduler mScheduler;
     private final Handler mMainHandler;
-    private final static Semaphore sDoInBackgroundSemaphore = new Semaphore(1, true);
-
-    // Default production executor, shared across runners
-    private final static Executor sDefaultExecutor = Executors.newCachedThreadPool();
 
     // The most recent task ID handled by this runner. Kept per-instance (not
     // static) so a task started in one activity can't surface progress UI in an
@@ -51,21 +49,32 @@ public class AsyncTaskRunner {
     private String mPendingResultString = "";
 
     AsyncTaskRunner(AsyncProgressInterface listener) {
-        this(listener, sDefaultExecutor, new Handler(Looper.getMainLooper()));
+        this(listener, TaskScheduler.getDefault(), new Handler(Looper.getMainLooper()));
     }
 
     /**
      * Constructor allowing the executor and main-thread handler to be injected.
      * Used by tests to run the background work synchronously and drive the main
      * looper deterministically. Production code uses the single-argument
-     * constructor with the shared thread pool.
+     * constructor with the shared task scheduler.
      *
      * @param listener    the initial listener
      * @param executor    executor used to run the background work
      * @param mainHandler handler used to post work to the main thread
      */
     AsyncTaskRunner(AsyncProgressInterface listener, Executor executor, Handler mainHandler) {
-        mExecutor = executor;
+        this(listener, new TaskScheduler(executor), mainHandler);
+    }
+
+    /**
+     * Constructor allowing the task scheduler and main-thread handler to be injected
+     *
+     * @param listener    the initial listener
+     * @param scheduler   scheduler used to run the background work
+     * @param mainHandler handler used to post work to the main thread
+     */
+    AsyncTaskRunner(AsyncProgressInterface listener, TaskScheduler scheduler, Handler mainHandler) {
+        mScheduler = scheduler;
         mMainHandler = mainHandler;
         setListener(listener);
     }
@@ -113,7 +122,8 @@ public class AsyncTaskRunner {
     }
 
     /**
-     * Execute the task with the given task ID.
+     * Execute the task with the given task ID. The task only waits for running tasks
+     * that use the same resources (see asyncProgressGetTaskKey).
      *
      * @param taskId an integer representing the task ID
      */
@@ -126,10 +136,19 @@ public class AsyncTaskRunner {
             // it finishes. The result is delivered to whichever listener is
             // attached when the work completes (see onPostExecute).
             final AsyncProgressInterface listener = getListener();
+            String taskKey = TaskScheduler.getDefaultTaskKey(taskId);
             if (listener != null) {
                 listener.asyncProgressOnPreExecute(taskId);
+                taskKey = listener.asyncProgressGetTaskKey(taskId);
             }
-            mExecutor.execute(() -> {
+            // Only this runner's own tasks can supersede each other, since a skipped task
+            // relies on the newer one to deliver the result and clear mLatestTaskId
+            final long scheduledNs = System.nanoTime();
+            mScheduler.schedule(taskKey, taskId, this, () -> {
+                if (BuildConfig.DEBUG) {
+                    Log.d(APP_NAME, "Task " + taskId + " waited " + (System.nanoTime() - scheduledNs) / 1000000
+                            + " ms to start (" + mScheduler.getQueueDepth() + " tasks waiting)");
+                }
                 final String resultString = doInBackground(taskId, listener);
                 mMainHandler.post(() -> {
                     onPostExecute(taskId, resultString);
@@ -144,8 +163,25 @@ public class AsyncTaskRunner {
     }
 
     /**
-     * Perform the background task using the supplied listener.
-     * This method uses a semaphore to ensure that background tasks are atomic.
+     * Report progress for a running task. May be called from the background thread.
+     * The update is dropped if the task is no longer the latest, or if no listener is
+     * attached (a newly attached listener re-shows the progress UI from scratch).
+     *
+     * @param taskId      an integer representing the task ID
+     * @param progressStr a string describing the progress
+     */
+    protected void publishProgress(int taskId, String progressStr) {
+        mMainHandler.post(() -> {
+            AsyncProgressInterface listener = getListener();
+            if (listener != null && mLatestTaskId == taskId) {
+                listener.asyncProgressOnProgressUpdate(taskId, progressStr);
+            }
+        });
+    }
+
+    /**
+     * Perform the background task using the supplied listener. The task scheduler
+     * ensures that no conflicting task runs at the same time.
      *
      * @param taskId   an integer representing the task ID
      * @param listener the listener captured when the task started
@@ -155,15 +191,7 @@ public class AsyncTaskRunner {
         if (listener == null) {
             return "";
         }
-        try {
-            sDoInBackgroundSemaphore.acquire();
-            return listener.asyncProgressDoInBackground(taskId);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return "";
-        } finally {
-            sDoInBackgroundSemaphore.release();
-        }
+        return listener.asyncProgressDoInBackground(taskId);
     }
 
     /**
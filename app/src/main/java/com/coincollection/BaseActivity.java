@@ -92,6 +92,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     public static final int TASK_IMPORT_COLLECTIONS = 1;
     public static final int TASK_CREATE_UPDATE_COLLECTION = 2;
     public static final int TASK_EXPORT_COLLECTIONS = 3;
+    public static final int TASK_SAVE_COIN_CHANGES = 4;
 
     // Common activity variables
     protected final Context mContext = this;
@@ -99,6 +100,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     public Resources mRes;
     protected Intent mCallingIntent;
     public DatabaseAdapter mDbAdapter = null;
+    protected CollectionRepository mCollectionRepository = null;
     protected ActionBar mActionBar;
 
     @Override
@@ -107,19 +109,24 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
 
         // Initialize the database adapter
         mDbAdapter = ((MainApplication) getApplication()).getDbAdapter();
+        mCollectionRepository = ((MainApplication) getApplication()).getCollectionRepository();
 
         // Add a manual inset handler
         WindowCompat.setDecorFitsSystemWindows(getWindow(), false);
 
         if (BuildConfig.DEBUG) {
-            // Set StrictMode policies to help debug potential issues
-            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+            // Set StrictMode policies to help debug potential issues. The activities access
+            // the database through CollectionRepository and the preferences are loaded when
+            // the app starts, so any disk access on the UI thread is a bug and crashes debug
+            // builds.
+            StrictMode.ThreadPolicy.Builder threadPolicy = new StrictMode.ThreadPolicy.Builder()
                     .detectAll()
-                    .permitDiskReads() // TODO - Fix these and remove
-                    .permitDiskWrites() // TODO - Fix these and remove
-                    .penaltyLog()
-                    //.penaltyDeath() // TODO - Uncomment once fixed
-                    .build());
+                    .penaltyLog();
+            if (!isUnitTest) {
+                // Unit tests access the database directly from the test thread
+                threadPolicy.penaltyDeath();
+            }
+            StrictMode.setThreadPolicy(threadPolicy.build());
             StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
                     .detectAll()
                     .penaltyLog()
@@ -157,10 +164,16 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
      * @return An error message if the open failed, otherwise -1
      */
     public String openDbAdapterForAsyncThread() {
+        // Show how far along the upgrade is if the app was just updated
+        mDbAdapter.setUpgradeProgressListener((numUpgraded, numCollections) ->
+                publishAsyncProgress(TASK_OPEN_DATABASE, mRes.getString(
+                        R.string.upgrading_collections_progress, numUpgraded, numCollections)));
         try {
             mDbAdapter.open();
         } catch (SQLException e) {
             return mRes.getString(R.string.error_opening_database);
+        } finally {
+            mDbAdapter.setUpgradeProgressListener(null);
         }
         return "";
     }
@@ -223,6 +236,34 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
         }
     }
 
+    /**
+     * Updates the progress dialog message as the async task reports progress
+     *
+     * @param taskId      an integer representing the task ID
+     * @param progressStr a string describing the progress
+     */
+    @Override
+    public void asyncProgressOnProgressUpdate(int taskId, String progressStr) {
+        if (mProgressDialog != null && mProgressDialog.isShowing()) {
+            mProgressDialog.setMessage(progressStr);
+        }
+    }
+
+    /**
+     * Reports progress from the async task's background work. The task runner is taken
+     * from the view model so that progress still reaches the new activity after a
+     * configuration change.
+     *
+     * @param taskId      an integer representing the task ID
+     * @param progressStr a string describing the progress
+     */
+    protected void publishAsyncProgress(int taskId, String progressStr) {
+        AsyncTaskRunner taskRunner = mActivityViewModel.mSavedTaskRunner;
+        if (taskRunner != null) {
+            taskRunner.publishProgress(taskId, progressStr);
+        }
+    }
+
     /**
      * Activities that make use of the async task should call this once their UI state
      * is ready for an already running async task to call back
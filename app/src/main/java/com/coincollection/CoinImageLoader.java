@@ -0,0 +1,399 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads coin images for the collection page. Images are decoded off the main thread at
+ * the size they're shown at, and kept in an LRU cache bounded by a fraction of the heap.
+ * Coins that aren't in the collection are shown with a pre-rendered dimmed copy of the
+ * image, so no alpha blending is needed when drawing.
+ * <p>
+ * Images can also be prefetched into the cache ahead of being shown. Prefetches run on a
+ * separate thread so they never hold up the images for the views on screen. If an image
+ * is requested while it's already being decoded, the request waits for that decode
+ * rather than decoding it again.
+ */
+class CoinImageLoader {
+
+    // Alpha of the images for coins that aren't in the collection
+    static final int DIMMED_ALPHA = 64;
+
+    // The cache uses at most 1/CACHE_HEAP_FRACTION of the maximum heap size
+    private static final int CACHE_HEAP_FRACTION = 8;
+
+    // Most prefetches that can be waiting at once
+    static final int MAX_PENDING_PREFETCHES = 200;
+
+    // Default production loader, shared so the cache is kept between collection pages
+    private static CoinImageLoader sDefaultLoader = null;
+
+    private final LruCache<String, Bitmap> mCache;
+    private final Executor mExecutor;
+    private final Executor mPrefetchExecutor;
+    private final Handler mMainHandler;
+
+    // Cache keys of the images being prefetched, and a count that is incremented to skip
+    // the prefetches that haven't started yet. Guarded by mPrefetchKeys.
+    private final HashSet<String> mPrefetchKeys = new HashSet<>();
+    private int mPrefetchGeneration = 0;
+
+    // The decode each view is waiting on. Only accessed on the main thread.
+    private final WeakHashMap<ImageView, Request> mPendingRequests = new WeakHashMap<>();
+
+    // Decodes in progress by cache key, and the number of decodes run. Guarded by mDecodes.
+    private final HashMap<String, FutureTask<Bitmap>> mDecodes = new HashMap<>();
+    private int mNumDecodes = 0;
+
+    /**
+     * An image decode for a view, which is cancelled if the view is reused first
+     */
+    private static class Request {
+        volatile boolean mCancelled = false;
+    }
+
+    /**
+     * Constructor allowing the executors, main-thread handler and cache size to be
+     * injected. Used by tests to run the decodes deterministically.
+     *
+     * @param executor         executor used to decode the images for views
+     * @param prefetchExecutor executor used to decode prefetched images
+     * @param mainHandler      handler used to show the decoded images
+     * @param maxCacheBytes    maximum size of the cached images in bytes
+     */
+    CoinImageLoader(Executor executor, Executor prefetchExecutor, Handler mainHandler, int maxCacheBytes) {
+        mExecutor = executor;
+        mPrefetchExecutor = prefetchExecutor;
+        mMainHandler = mainHandler;
+        mCache = new LruCache<String, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Get the shared loader, which decodes on two background threads plus one for prefetches
+     *
+     * @return the default loader
+     */
+    static synchronized CoinImageLoader getDefault() {
+        if (sDefaultLoader == null) {
+            int maxCacheBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / CACHE_HEAP_FRACTION,
+                    Integer.MAX_VALUE);
+            sDefaultLoader = new CoinImageLoader(Executors.newFixedThreadPool(2),
+                    Executors.newSingleThreadExecutor(), new Handler(Looper.getMainLooper()), maxCacheBytes);
+        }
+        return sDefaultLoader;
+    }
+
+    /**
+     * Get the cache key for an image
+     *
+     * @param resId       image resource ID
+     * @param targetWidth width the image is decoded at
+     * @param dimmed      whether this is the dimmed copy
+     * @return cache key
+     */
+    private static String getCacheKey(int resId, int targetWidth, boolean dimmed) {
+        return resId + ":" + targetWidth + (dimmed ? ":dimmed" : "");
+    }
+
+    /**
+     * Show a coin image in a view. Must be called on the main thread. If the image isn't
+     * cached, a blank placeholder is shown until it has been decoded.
+     *
+     * @param res         resources to decode from
+     * @param imageView   view to show the image in
+     * @param resId       image resource ID
+     * @param dimmed      true to show the dimmed copy of the image
+     * @param targetWidth width to decode the image at in pixels (images are never enlarged)
+     */
+    void loadInto(Resources res, ImageView imageView, int resId, boolean dimmed, int targetWidth) {
+        // Any decode for the view's previous coin is no longer needed
+        Request pendingRequest = mPendingRequests.remove(imageView);
+        if (pendingRequest != null) {
+            pendingRequest.mCancelled = true;
+        }
+        imageView.setImageAlpha(255);
+
+        Bitmap bitmap = mCache.get(getCacheKey(resId, targetWidth, dimmed));
+        if (bitmap == null && dimmed) {
+            // Dimming a cached image is quick, so don't wait for the background thread
+            Bitmap original = mCache.get(getCacheKey(resId, targetWidth, false));
+            if (original != null) {
+                bitmap = createDimmedCopy(original);
+                mCache.put(getCacheKey(resId, targetWidth, true), bitmap);
+            }
+        }
+        if (bitmap != null) {
+            imageView.setImageDrawable(new BitmapDrawable(res, bitmap));
+            return;
+        }
+
+        ShapeDrawable placeholder = new ShapeDrawable();
+        placeholder.setIntrinsicWidth(targetWidth);
+        placeholder.setIntrinsicHeight(targetWidth);
+        placeholder.getPaint().setColor(Color.TRANSPARENT);
+        imageView.setImageDrawable(placeholder);
+
+        final Request request = new Request();
+        mPendingRequests.put(imageView, request);
+        mExecutor.execute(() -> {
+            if (request.mCancelled) {
+                return;
+            }
+            final Bitmap decoded = getOrDecode(res, resId, dimmed, targetWidth);
+            mMainHandler.post(() -> {
+                if (!request.mCancelled && mPendingRequests.get(imageView) == request) {
+                    mPendingRequests.remove(imageView);
+                    imageView.setImageDrawable((decoded != null) ? new BitmapDrawable(res, decoded) : null);
+                }
+            });
+        });
+    }
+
+    /**
+     * Decode an image into the cache in the background, if it isn't already cached or
+     * being prefetched. The prefetch is dropped if too many are already waiting.
+     *
+     * @param res         resources to decode from
+     * @param resId       image resource ID
+     * @param dimmed      true to prefetch the dimmed copy of the image
+     * @param targetWidth width to decode the image at in pixels
+     */
+    void prefetch(Resources res, int resId, boolean dimmed, int targetWidth) {
+        final String key = getCacheKey(resId, targetWidth, dimmed);
+        if (mCache.get(key) != null) {
+            return;
+        }
+        final int generation;
+        synchronized (mPrefetchKeys) {
+            if (mPrefetchKeys.size() >= MAX_PENDING_PREFETCHES || !mPrefetchKeys.add(key)) {
+                return;
+            }
+            generation = mPrefetchGeneration;
+        }
+        mPrefetchExecutor.execute(() -> {
+            boolean cancelled;
+            synchronized (mPrefetchKeys) {
+                cancelled = (generation != mPrefetchGeneration);
+            }
+            if (!cancelled) {
+                getOrDecode(res, resId, dimmed, targetWidth);
+            }
+            synchronized (mPrefetchKeys) {
+                mPrefetchKeys.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Skip any prefetches that haven't started yet (Ex: if the scroll direction changed)
+     */
+    void cancelPrefetches() {
+        synchronized (mPrefetchKeys) {
+            mPrefetchGeneration++;
+        }
+    }
+
+    /**
+     * Get an image from the cache, decoding it if needed. Called on the background thread.
+     *
+     * @param res         resources to decode from
+     * @param resId       image resource ID
+     * @param dimmed      true to get the dimmed copy of the image
+     * @param targetWidth width to decode the image at in pixels
+     * @return the image, or null if it couldn't be decoded
+     */
+    private Bitmap getOrDecode(Resources res, int resId, boolean dimmed, int targetWidth) {
+        String key = getCacheKey(resId, targetWidth, dimmed);
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        String originalKey = getCacheKey(resId, targetWidth, false);
+        Bitmap original = mCache.get(originalKey);
+        if (original == null) {
+            original = decodeOnce(res, resId, targetWidth);
+            if (original == null) {
+                return null;
+            }
+        }
+        if (!dimmed) {
+            return original;
+        }
+        bitmap = createDimmedCopy(original);
+        mCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decode an image into the cache, or wait for the decode if another thread is already
+     * decoding it. Called on the background threads.
+     *
+     * @param res         resources to decode from
+     * @param resId       image resource ID
+     * @param targetWidth width to decode the image at in pixels
+     * @return the image, or null if it couldn't be decoded
+     */
+    private Bitmap decodeOnce(Resources res, int resId, int targetWidth) {
+        String key = getCacheKey(resId, targetWidth, false);
+        FutureTask<Bitmap> decode;
+        boolean isNewDecode = false;
+        synchronized (mDecodes) {
+            decode = mDecodes.get(key);
+            if (decode == null) {
+                // A decode may have finished since the cache was checked
+                Bitmap bitmap = mCache.get(key);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+                decode = new FutureTask<>(() -> decodeResource(res, resId, targetWidth));
+                mDecodes.put(key, decode);
+                mNumDecodes++;
+                isNewDecode = true;
+            }
+        }
+        if (isNewDecode) {
+            decode.run();
+        }
+        Bitmap bitmap = null;
+        try {
+            bitmap = decode.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Treated like an image that couldn't be decoded
+        }
+        if (isNewDecode) {
+            // Cache the image before the decode is removed, so it's always found in one
+            synchronized (mDecodes) {
+                if (bitmap != null) {
+                    mCache.put(key, bitmap);
+                }
+                mDecodes.remove(key);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode an image resource, scaling it down to the target width if it's wider. The
+     * image is scaled while it's decoded, so the full-size image is never allocated.
+     *
+     * @param res         resources to decode from
+     * @param resId       image resource ID
+     * @param targetWidth width to decode the image at in pixels
+     * @return the image, or null if it couldn't be decoded
+     */
+    private static Bitmap decodeResource(Resources res, int resId, int targetWidth) {
+        // Read the width the image would be decoded at for the screen density
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+        options.inJustDecodeBounds = false;
+        if (options.outWidth <= 0 || targetWidth <= 0 || options.outWidth <= targetWidth) {
+            return BitmapFactory.decodeResource(res, resId, options);
+        }
+
+        // Get the width of the image as stored, before the density scaling
+        int screenDensity = options.inTargetDensity;
+        int srcWidth = options.outWidth;
+        if (options.inDensity > 0 && screenDensity > 0) {
+            srcWidth = Math.round((float) options.outWidth * options.inDensity / screenDensity);
+        }
+
+        // Subsample by the largest power of 2 that keeps the image at least as wide as the
+        // target, then let the decoder scale the rest of the way by treating the widths as
+        // densities
+        int sampleSize = 1;
+        while (srcWidth / (sampleSize * 2) >= targetWidth) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        options.inScaled = true;
+        options.inDensity = srcWidth / sampleSize;
+        options.inTargetDensity = targetWidth;
+        Bitmap bitmap = BitmapFactory.decodeResource(res, resId, options);
+        if (bitmap != null && screenDensity > 0) {
+            // Show the image at the size it was decoded at
+            bitmap.setDensity(screenDensity);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Create a copy of an image drawn at DIMMED_ALPHA
+     *
+     * @param original image to copy
+     * @return the dimmed image
+     */
+    private static Bitmap createDimmedCopy(Bitmap original) {
+        Bitmap dimmed = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
+        dimmed.setDensity(original.getDensity());
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        paint.setAlpha(DIMMED_ALPHA);
+        new Canvas(dimmed).drawBitmap(original, 0, 0, paint);
+        return dimmed;
+    }
+
+    /**
+     * Check whether an image is in the cache
+     *
+     * @param resId       image resource ID
+     * @param dimmed      whether to check for the dimmed copy
+     * @param targetWidth width the image was decoded at
+     * @return true if the image is cached
+     */
+    boolean isCached(int resId, boolean dimmed, int targetWidth) {
+        return mCache.get(getCacheKey(resId, targetWidth, dimmed)) != null;
+    }
+
+    /**
+     * @return the number of images that have been decoded
+     */
+    int getNumDecodes() {
+        synchronized (mDecodes) {
+            return mNumDecodes;
+        }
+    }
+}
@@ -49,8 +49,11 @@ import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Activity responsible for managing the collection creation page
@@ -649,26 +652,27 @@ public class CoinPageCreator extends BaseActivity {
         }
 
         // Make sure the collection name is good to use
-        int checkNameResult = mDbAdapter.checkCollectionName(collectionName);
+        mCollectionRepository.checkCollectionName(collectionName, checkNameResult -> {
 
-        // Allow updates to the same collection name
-        boolean allowExistingNameForUpdate = (mExistingCollection != null) &&
-                (checkNameResult == R.string.collection_name_exists) &&
-                (collectionName.equals(mExistingCollection.getName()));
+            // Allow updates to the same collection name
+            boolean allowExistingNameForUpdate = (mExistingCollection != null) &&
+                    (checkNameResult == R.string.collection_name_exists) &&
+                    (collectionName.equals(mExistingCollection.getName()));
 
-        if (checkNameResult != -1 && !allowExistingNameForUpdate) {
-            Toast.makeText(CoinPageCreator.this,
-                    mRes.getString(checkNameResult),
-                    Toast.LENGTH_SHORT).show();
-            return;
-        }
+            if (checkNameResult != -1 && !allowExistingNameForUpdate) {
+                Toast.makeText(CoinPageCreator.this,
+                        mRes.getString(checkNameResult),
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
 
-        // Capture the collection name (read from the EditText on the UI thread) as a
-        // task input so the background thread never has to touch a View
-        mActivityViewModel.mTaskRequest.collectionName = collectionName;
+            // Capture the collection name (read from the EditText on the UI thread) as a
+            // task input so the background thread never has to touch a View
+            mActivityViewModel.mTaskRequest.collectionName = collectionName;
 
-        // Passed all checks - start the creation/update and wait for callbacks to be called
-        kickOffAsyncTaskRunner(TASK_CREATE_UPDATE_COLLECTION);
+            // Passed all checks - start the creation/update and wait for callbacks to be called
+            kickOffAsyncTaskRunner(TASK_CREATE_UPDATE_COLLECTION);
+        });
     }
 
     @Override
@@ -683,6 +687,10 @@ public class CoinPageCreator extends BaseActivity {
             // performCreateOrUpdateCollection) - never read a View off the UI thread
             String collectionName = mActivityViewModel.mTaskRequest.collectionName;
 
+            // Coin changes are written in the background, so make sure the existing coins
+            // are up to date before they're merged into the updated collection
+            ((MainApplication) getApplication()).getCoinWriteQueue().flush();
+
             // Get the new display order for new collections (display order is preserved
             // for existing collections)
             int newDisplayOrder = (mExistingCollection == null) ?
@@ -698,6 +706,17 @@ public class CoinPageCreator extends BaseActivity {
         return "";
     }
 
+    @Override
+    public String asyncProgressGetTaskKey(int taskId) {
+        if (taskId == TASK_CREATE_UPDATE_COLLECTION) {
+            // Only wait for other changes to this collection
+            String collectionName = (mExistingCollection != null) ?
+                    mExistingCollection.getName() : mActivityViewModel.mTaskRequest.collectionName;
+            return TaskScheduler.getCollectionKey(collectionName);
+        }
+        return super.asyncProgressGetTaskKey(taskId);
+    }
+
     @Override
     public void asyncProgressOnPostExecute(int taskId, String resultStr) {
         super.asyncProgressOnPostExecute(taskId, resultStr);
@@ -742,7 +761,7 @@ public class CoinPageCreator extends BaseActivity {
         mParameters = new ParcelableHashMap();
 
         if (mCoinTypeIndex != -1) {
-            mCollectionObj = MainApplication.COLLECTION_TYPES[mCoinTypeIndex];
+            mCollectionObj = MainApplication.COLLECTION_TYPES.get(mCoinTypeIndex);
             mCollectionObj.getCreationParameters(mDefaults);
             if (parameters == null) {
                 mCollectionObj.getCreationParameters(mParameters);
@@ -956,77 +975,119 @@ public class CoinPageCreator extends BaseActivity {
             boolean hasMintMarks = (getMintMarkFlagsFromParameters(mParameters) & CollectionListInfo.SHOW_MINT_MARKS) != 0;
             ArrayList<CoinSlot> existingCoinList = mDbAdapter.getCoinList(
                     mExistingCollection.getName(), true);
-            ArrayList<CoinSlot> mergedCoinList = new ArrayList<>();
+            ArrayList<CoinSlot> mergedCoinList = mergeCoinLists(mCoinList, existingCoinList,
+                    mExistingCollection.hasMintMarks(), hasMintMarks);
 
-            // Add any custom coins at the beginning of the list
-            while ((!existingCoinList.isEmpty()) && existingCoinList.get(0).isCustomCoin()) {
-                mergedCoinList.add(existingCoinList.remove(0));
-            }
+            // Replace the coin list with the merged coin list
+            mCoinList = mergedCoinList;
+        }
+    }
 
-            for (int i = 0; i < mCoinList.size(); i++) {
-                CoinSlot newCoin = mCoinList.get(i);
-                boolean foundExistingCoinMatch = false;
-                for (int j = 0; j < existingCoinList.size(); j++) {
-                    CoinSlot existingCoin = existingCoinList.get(j);
+    /**
+     * Merges a newly generated coin list with the coins in an existing collection, so that
+     * data the user has already entered is kept:
+     * - If going from no mint marks to mint marks, each new coin copies the progress of the
+     *   existing coin with the same identifier
+     * - If going from mint marks to no mint marks, each new coin is replaced by the existing
+     *   coins with the same identifier, merging whether they're in the collection
+     * - Otherwise, new coins are replaced by the existing coin with the same identifier and mint
+     * Custom coins are placed ahead of the first matched coin with a higher sort order, and any
+     * left over are added at the end.
+     * <p>
+     * The existing coins are indexed by identifier (and mint), so this runs in linear time.
+     * NOTE: This is public so we can use it with our current test bench
+     *
+     * @param newCoinList          newly generated coins
+     * @param existingCoinList     existing coins, in sort order. Matched coins may be modified.
+     * @param existingHasMintMarks whether the existing collection shows mint marks
+     * @param hasMintMarks         whether the updated collection shows mint marks
+     * @return the merged coin list
+     */
+    public static ArrayList<CoinSlot> mergeCoinLists(ArrayList<CoinSlot> newCoinList, ArrayList<CoinSlot> existingCoinList,
+                                                     boolean existingHasMintMarks, boolean hasMintMarks) {
+        ArrayList<CoinSlot> mergedCoinList = new ArrayList<>(newCoinList.size() + existingCoinList.size());
+
+        // Add any custom coins at the beginning of the list
+        int firstIndex = 0;
+        while (firstIndex < existingCoinList.size() && existingCoinList.get(firstIndex).isCustomCoin()) {
+            mergedCoinList.add(existingCoinList.get(firstIndex++));
+        }
 
-                    // Skip custom coins added by the user, as those may spuriously match
-                    if (existingCoin.isCustomCoin()) {
-                        continue;
-                    }
+        // Index the rest of the existing coins. Custom coins added by the user are skipped,
+        // as those may spuriously match, and kept in sort order to be placed later.
+        HashMap<String, ArrayList<CoinSlot>> coinsByIdentifier = new HashMap<>();
+        HashMap<List<String>, ArrayDeque<CoinSlot>> coinsByIdentifierAndMint = new HashMap<>();
+        ArrayList<CoinSlot> customCoins = new ArrayList<>();
+        for (int j = firstIndex; j < existingCoinList.size(); j++) {
+            CoinSlot existingCoin = existingCoinList.get(j);
+            if (existingCoin.isCustomCoin()) {
+                customCoins.add(existingCoin);
+                continue;
+            }
+            ArrayList<CoinSlot> identifierCoins = coinsByIdentifier.get(existingCoin.getIdentifier());
+            if (identifierCoins == null) {
+                identifierCoins = new ArrayList<>();
+                coinsByIdentifier.put(existingCoin.getIdentifier(), identifierCoins);
+            }
+            identifierCoins.add(existingCoin);
+            List<String> key = Arrays.asList(existingCoin.getIdentifier(), existingCoin.getMint());
+            ArrayDeque<CoinSlot> keyCoins = coinsByIdentifierAndMint.get(key);
+            if (keyCoins == null) {
+                keyCoins = new ArrayDeque<>();
+                coinsByIdentifierAndMint.put(key, keyCoins);
+            }
+            keyCoins.add(existingCoin);
+        }
 
-                    if (!mExistingCollection.hasMintMarks() && hasMintMarks) {
-                        // If going from no mint marks to having mint marks, copy the coin progress
-                        // for the existing identifier into each of the coin mints selected.
-                        if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
-                            foundExistingCoinMatch = true;
-                            newCoin = existingCoin.copy(newCoin.getIdentifier(), newCoin.getMint(), false);
-                            break;
-                        }
-                    } else if (mExistingCollection.hasMintMarks() && !hasMintMarks) {
-                        // If going from mint marks to no mint marks, copy at least 1 of the existing
-                        // coin's advanced info and merge the inCollection attribute
-                        if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
-                            existingCoin.setInCollection(existingCoin.isInCollection() || newCoin.isInCollection());
-                            existingCoin.setMint(newCoin.getMint());
-                            foundExistingCoinMatch = true;
-                            newCoin = existingCoin;
-                            // No break here to allow merging across all mints
-                        }
-                    } else {
-                        // In all other cases, copy any coins that match identifier and mint
-                        if (newCoin.equals(existingCoin)) {
-                            foundExistingCoinMatch = true;
-                            newCoin = existingCoin;
-                            existingCoinList.remove(j);
-                            break;
-                        }
-                    }
+        int nextCustomCoin = 0;
+        for (CoinSlot newCoin : newCoinList) {
+            boolean foundExistingCoinMatch = false;
+            if (!existingHasMintMarks && hasMintMarks) {
+                // If going from no mint marks to having mint marks, copy the coin progress
+                // for the existing identifier into each of the coin mints selected.
+                ArrayList<CoinSlot> identifierCoins = coinsByIdentifier.get(newCoin.getIdentifier());
+                if (identifierCoins != null) {
+                    foundExistingCoinMatch = true;
+                    newCoin = identifierCoins.get(0).copy(newCoin.getIdentifier(), newCoin.getMint(), false);
                 }
-
-                if (foundExistingCoinMatch) {
-                    // When a match is found, insert any custom coins with a lower display order ahead
-                    // of the match and remove from the list
-                    for (int j = 0; j < existingCoinList.size(); j++) {
-                        CoinSlot existingCoin = existingCoinList.get(j);
-                        if (existingCoin.isCustomCoin() && existingCoin.getSortOrder() < newCoin.getSortOrder()) {
-                            mergedCoinList.add(existingCoinList.remove(j--));
-                        }
+            } else if (existingHasMintMarks && !hasMintMarks) {
+                // If going from mint marks to no mint marks, copy at least 1 of the existing
+                // coin's advanced info and merge the inCollection attribute across all mints
+                ArrayList<CoinSlot> identifierCoins = coinsByIdentifier.get(newCoin.getIdentifier());
+                if (identifierCoins != null) {
+                    for (CoinSlot existingCoin : identifierCoins) {
+                        existingCoin.setInCollection(existingCoin.isInCollection() || newCoin.isInCollection());
+                        existingCoin.setMint(newCoin.getMint());
+                        newCoin = existingCoin;
                     }
+                    foundExistingCoinMatch = true;
+                }
+            } else {
+                // In all other cases, copy any coins that match identifier and mint
+                ArrayDeque<CoinSlot> keyCoins = coinsByIdentifierAndMint.get(
+                        Arrays.asList(newCoin.getIdentifier(), newCoin.getMint()));
+                if (keyCoins != null && !keyCoins.isEmpty()) {
+                    foundExistingCoinMatch = true;
+                    newCoin = keyCoins.poll();
                 }
-                mergedCoinList.add(newCoin);
             }
 
-            // Add any remaining custom coins to the end of the list
-            for (int j = 0; j < existingCoinList.size(); j++) {
-                CoinSlot existingCoin = existingCoinList.get(j);
-                if (existingCoin.isCustomCoin()) {
-                    mergedCoinList.add(existingCoin);
+            if (foundExistingCoinMatch) {
+                // When a match is found, insert any custom coins with a lower display order ahead
+                // of the match. The custom coins are in sort order, so these are the next ones.
+                while (nextCustomCoin < customCoins.size()
+                        && customCoins.get(nextCustomCoin).getSortOrder() < newCoin.getSortOrder()) {
+                    mergedCoinList.add(customCoins.get(nextCustomCoin++));
                 }
             }
+            mergedCoinList.add(newCoin);
+        }
 
-            // Replace the coin list with the merged coin list
-            mCoinList = mergedCoinList;
+        // Add any remaining custom coins to the end of the list
+        while (nextCustomCoin < customCoins.size()) {
+            mergedCoinList.add(customCoins.get(nextCustomCoin++));
         }
+        return mergedCoinList;
     }
 
     /**
@@ -1230,8 +1291,8 @@ public class CoinPageCreator extends BaseActivity {
                 displayType,
                 (startYear != null) ? startYear : 0,
                 (stopYear != null) ? stopYear : 0,
-                Long.toString(mintMarkFlags),
-                Long.toString(checkboxFlags));
+                mintMarkFlags,
+                checkboxFlags);
     }
 
     /**
@@ -1431,7 +1492,10 @@ public class CoinPageCreator extends BaseActivity {
                 mDbAdapter.createAndPopulateNewTable(collectionListInfo, displayOrder, coinList);
             } else {
                 String oldTableName = mExistingCollection.getName();
-                mDbAdapter.updateExistingCollection(oldTableName, collectionListInfo, coinList);
+                int rowsTouched = mDbAdapter.updateExistingCollection(oldTableName, collectionListInfo, coinList);
+                if (BuildConfig.DEBUG) {
+                    Log.d(APP_NAME, "Updated " + rowsTouched + " coin rows");
+                }
             }
         } catch (SQLException e) {
             return mRes.getString(R.string.error_creating_database);
@@ -1451,8 +1515,8 @@ public class CoinPageCreator extends BaseActivity {
         mCoinValues.add(-1);
         for (int i = 0; i < MainApplication.BASIC_COLLECTIONS.length; i++) {
             int idx = MainApplication.getIndexFromCollectionClass(MainApplication.BASIC_COLLECTIONS[i]);
-            mCoinNames.add(MainApplication.COLLECTION_TYPES[idx].getCoinType());
-            mCoinImages.add(MainApplication.COLLECTION_TYPES[idx].getCoinImageIdentifier());
+            mCoinNames.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinType());
+            mCoinImages.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinImageIdentifier());
             mCoinValues.add(idx);
         }
         mCoinNames.add(getResources().getString(R.string.advanced_collections));
@@ -1460,8 +1524,8 @@ public class CoinPageCreator extends BaseActivity {
         mCoinValues.add(-1);
         for (int i = 0; i < MainApplication.ADVANCED_COLLECTIONS.length; i++) {
             int idx = MainApplication.getIndexFromCollectionClass(MainApplication.ADVANCED_COLLECTIONS[i]);
-            mCoinNames.add(MainApplication.COLLECTION_TYPES[idx].getCoinType());
-            mCoinImages.add(MainApplication.COLLECTION_TYPES[idx].getCoinImageIdentifier());
+            mCoinNames.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinType());
+            mCoinImages.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinImageIdentifier());
             mCoinValues.add(idx);
         }
         mCoinNames.add(getResources().getString(R.string.more_collections));
@@ -1469,8 +1533,8 @@ public class CoinPageCreator extends BaseActivity {
         mCoinValues.add(-1);
         for (int i = 0; i < MainApplication.MORE_COLLECTIONS.length; i++) {
             int idx = MainApplication.getIndexFromCollectionClass(MainApplication.MORE_COLLECTIONS[i]);
-            mCoinNames.add(MainApplication.COLLECTION_TYPES[idx].getCoinType());
-            mCoinImages.add(MainApplication.COLLECTION_TYPES[idx].getCoinImageIdentifier());
+            mCoinNames.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinType());
+            mCoinImages.add(MainApplication.COLLECTION_TYPES.get(idx).getCoinImageIdentifier());
             mCoinValues.add(idx);
         }
     }
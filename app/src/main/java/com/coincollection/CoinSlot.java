@@ -28,6 +28,7 @@ import android.util.JsonWriter;
 import com.spencerpages.R;
 
 import java.io.IOException;
+import java.util.Locale;
 
 /**
  * Coin contained in a collection
@@ -66,6 +67,12 @@ public class CoinSlot implements Parcelable {
     private Integer mAdvancedQuantities = 0;
     private String mAdvancedNotes = "";
 
+    /**
+     * Whether the advanced notes have been read from the database. The collection page
+     * defers reading notes until the coin is displayed, since they can be large.
+     */
+    private boolean mAdvancedNotesLoaded = true;
+
     /**
      * Sort order
      **/
@@ -81,6 +88,11 @@ public class CoinSlot implements Parcelable {
      */
     private boolean mCustomCoin = false;
 
+    // Lower case copies of the identifier and mint used for searching. These are computed
+    // the first time they're needed and cleared when the identifier or mint changes.
+    private String mSearchIdentifier = null;
+    private String mSearchMint = null;
+
     // Database keys
     public final static String COL_COIN_ID = "_id";
     public final static String COL_COIN_IDENTIFIER = "coinIdentifier";
@@ -195,6 +207,7 @@ public class CoinSlot implements Parcelable {
 
     public void setIdentifier(String identifier) {
         this.mIdentifier = identifier;
+        this.mSearchIdentifier = null;
     }
 
     public String getIdentifier() {
@@ -203,6 +216,23 @@ public class CoinSlot implements Parcelable {
 
     public void setMint(String mint) {
         this.mMint = mint;
+        this.mSearchMint = null;
+    }
+
+    /**
+     * Returns true if the coin identifier or mint contains the search query
+     *
+     * @param lowerCaseQuery search query, already converted to lower case
+     * @return true if the coin matches the query
+     */
+    boolean matchesSearchQuery(String lowerCaseQuery) {
+        if (mSearchIdentifier == null) {
+            mSearchIdentifier = (mIdentifier != null) ? mIdentifier.toLowerCase(Locale.ROOT) : "";
+        }
+        if (mSearchMint == null) {
+            mSearchMint = (mMint != null) ? mMint.toLowerCase(Locale.ROOT) : "";
+        }
+        return mSearchIdentifier.contains(lowerCaseQuery) || mSearchMint.contains(lowerCaseQuery);
     }
 
     public String getMint() {
@@ -251,6 +281,19 @@ public class CoinSlot implements Parcelable {
 
     public void setAdvancedNotes(String advancedNotes) {
         this.mAdvancedNotes = advancedNotes;
+        this.mAdvancedNotesLoaded = true;
+    }
+
+    /**
+     * Marks the advanced notes as not yet read from the database
+     */
+    void setAdvancedNotesNotLoaded() {
+        this.mAdvancedNotes = "";
+        this.mAdvancedNotesLoaded = false;
+    }
+
+    boolean isAdvancedNotesLoaded() {
+        return mAdvancedNotesLoaded;
     }
 
     public int getSortOrder() {
@@ -488,6 +531,7 @@ public class CoinSlot implements Parcelable {
             mAdvancedQuantities = in.readInt();
         }
         mAdvancedNotes = in.readString();
+        mAdvancedNotesLoaded = in.readByte() != 0;
         mSortOrder = in.readInt();
         mCustomCoin = in.readByte() != 0;
         mImageId = in.readInt();
@@ -530,6 +574,7 @@ public class CoinSlot implements Parcelable {
             dest.writeInt(mAdvancedQuantities);
         }
         dest.writeString(mAdvancedNotes);
+        dest.writeByte((byte) (mAdvancedNotesLoaded ? 1 : 0));
         dest.writeInt(mSortOrder);
         dest.writeByte((byte) (mCustomCoin ? 1 : 0));
         dest.writeInt(mImageId);
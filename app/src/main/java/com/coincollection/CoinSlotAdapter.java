@@ -20,11 +20,14 @@
 
 package com.coincollection;
 
+import static com.spencerpages.MainApplication.APP_NAME;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -33,6 +36,7 @@ import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.ArrayAdapter;
 import android.widget.BaseAdapter;
 import android.widget.EditText;
+import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -40,10 +44,13 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 
+import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Locale;
 
 /**
@@ -65,6 +72,19 @@ class CoinSlotAdapter extends BaseAdapter {
 
     private final ArrayList<CoinSlot> mOriginalCoinList;
     private final ArrayList<CoinSlot> mFilteredCoinList;
+    // Position of each coin in the original list, rebuilt whenever the filter is fully
+    // re-applied. The filtered list is kept in original list order, so this lets coins be
+    // located in the filtered list with a binary search.
+    private final IdentityHashMap<CoinSlot, Integer> mOriginalPositions = new IdentityHashMap<>();
+
+    // Number of coins on either side of a displayed coin whose notes are read along with it
+    static final int NOTES_PREFETCH_MARGIN = 25;
+    // Database IDs of the coins whose notes are being read. Only accessed on the main thread.
+    private final HashSet<Long> mNotesPendingIds = new HashSet<>();
+
+    // Width that the coin images are drawn at, and are decoded at if the cell isn't narrower
+    private static final int COIN_IMAGE_WIDTH_DP = 92;
+    private final CoinImageLoader mImageLoader = CoinImageLoader.getDefault();
     
     private int mCurrentFilter = CollectionPage.FILTER_SHOW_ALL;
     private String mSearchQuery = "";
@@ -100,6 +120,7 @@ class CoinSlotAdapter extends BaseAdapter {
         mOriginalCoinList = coinList;
         mFilteredCoinList = new ArrayList<>(coinList); // Start with showing all coins
         mDisplayType = displayType;
+        indexOriginalPositions();
 
         mRes = mCollectionPageContext.getResources();
         SharedPreferences mainPreferences = mCollectionPageContext.getSharedPreferences(MainApplication.PREFS, Context.MODE_PRIVATE);
@@ -191,8 +212,8 @@ class CoinSlotAdapter extends BaseAdapter {
         //Set this image based on whether the coin has been obtained
         ImageView coinImage = coinView.findViewById(R.id.coinImage);
         int imageIdentifier = mCollectionTypeObj.getCoinSlotImage(coinSlot, false);
-        coinImage.setImageResource(imageIdentifier);
-        coinImage.setImageAlpha(coinSlot.isInCollection() ? 255 : 64);
+        mImageLoader.loadInto(mRes, coinImage, imageIdentifier, !coinSlot.isInCollection(),
+                getCoinImageWidth(parent));
 
         // Add an accessibility string to indicate that the coin has been found or not
         String contextDesc = mRes.getString(coinSlot.isInCollectionStringRes());
@@ -201,12 +222,94 @@ class CoinSlotAdapter extends BaseAdapter {
 
         // Setup the rest of the view if it is the advanced view
         if (mDisplayType == CollectionPage.ADVANCED_DISPLAY) {
+            if (!coinSlot.isAdvancedNotesLoaded()) {
+                loadAdvancedNotesAround(position);
+            }
             setupAdvancedView(coinView, position, coinViewWasRecycled);
         }
 
         return coinView;
     }
 
+    /**
+     * Get the width to decode the coin images at, which is the width they're drawn at
+     * unless the grid columns are narrower
+     *
+     * @param parent the view containing the coin views
+     * @return width in pixels
+     */
+    private int getCoinImageWidth(ViewGroup parent) {
+        int imageWidth = Math.round(COIN_IMAGE_WIDTH_DP * mRes.getDisplayMetrics().density);
+        if (parent instanceof GridView) {
+            int columnWidth = ((GridView) parent).getColumnWidth();
+            if (columnWidth > 0) {
+                return Math.min(columnWidth, imageWidth);
+            }
+        }
+        return imageWidth;
+    }
+
+    /**
+     * Decodes the images for a range of coins in the filtered list into the image cache,
+     * so that they're ready when scrolled into view
+     *
+     * @param parent the view containing the coin views
+     * @param start  first position to prefetch (clamped to the list)
+     * @param end    position after the last one to prefetch (clamped to the list)
+     */
+    void prefetchImages(ViewGroup parent, int start, int end) {
+        int imageWidth = getCoinImageWidth(parent);
+        int lastPosition = Math.min(mFilteredCoinList.size(), end);
+        for (int i = Math.max(0, start); i < lastPosition; i++) {
+            CoinSlot coinSlot = mFilteredCoinList.get(i);
+            mImageLoader.prefetch(mRes, mCollectionTypeObj.getCoinSlotImage(coinSlot, false),
+                    !coinSlot.isInCollection(), imageWidth);
+        }
+    }
+
+    /**
+     * Skips any image prefetches that haven't started yet
+     */
+    void cancelImagePrefetches() {
+        mImageLoader.cancelPrefetches();
+    }
+
+    /**
+     * Reads the advanced notes for the coins around a position in the filtered list, so
+     * that neighbouring coins are ready by the time they're scrolled into view
+     *
+     * @param position position in the filtered list
+     */
+    private void loadAdvancedNotesAround(int position) {
+        int start = Math.max(0, position - NOTES_PREFETCH_MARGIN);
+        int end = Math.min(mFilteredCoinList.size(), position + NOTES_PREFETCH_MARGIN + 1);
+        final ArrayList<Long> ids = new ArrayList<>();
+        for (CoinSlot coinSlot : mFilteredCoinList.subList(start, end)) {
+            if (!coinSlot.isAdvancedNotesLoaded() && mNotesPendingIds.add(coinSlot.getDatabaseId())) {
+                ids.add(coinSlot.getDatabaseId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        mCollectionPageContext.mCollectionRepository.readAdvancedNotes(mTableName, ids, notesById -> {
+            mNotesPendingIds.removeAll(ids);
+            for (CoinSlot coinSlot : mOriginalCoinList) {
+                String notes = notesById.get(coinSlot.getDatabaseId());
+                if (notes != null && !coinSlot.isAdvancedNotesLoaded()) {
+                    coinSlot.setAdvancedNotes(notes);
+                }
+            }
+            notifyDataSetChanged();
+        }, () -> {
+            // Show the coins without their notes - the read is retried the next time they're shown
+            mNotesPendingIds.removeAll(ids);
+            if (BuildConfig.DEBUG) {
+                Log.e(APP_NAME, "Failed to read notes for " + ids.size() + " coins");
+            }
+        });
+    }
+
     /**
      * Setup advanced view state shared by all views in the adapter
      */
@@ -230,10 +333,7 @@ class CoinSlotAdapter extends BaseAdapter {
                     // Update the data structure and set index changed
                     // - Changes will be committed to the database when the user presses save
                     coinSlot.setAdvancedGrades(pos);
-                    coinSlot.setAdvInfoChanged(true);
-
-                    // Tell the parent page to show the unsaved changes view
-                    mCollectionPageContext.showUnsavedTextView();
+                    onCoinSlotAdvInfoEdited(coinSlot);
                 }
             }
 
@@ -260,10 +360,7 @@ class CoinSlotAdapter extends BaseAdapter {
                     // Update the data structure and set index changed
                     // - Changes will be committed to the database when the user presses save
                     coinSlot.setAdvancedQuantities(pos);
-                    coinSlot.setAdvInfoChanged(true);
-
-                    // Tell the parent page to show the unsaved changes view
-                    mCollectionPageContext.showUnsavedTextView();
+                    onCoinSlotAdvInfoEdited(coinSlot);
                 }
             }
 
@@ -300,17 +397,12 @@ class CoinSlotAdapter extends BaseAdapter {
                 CoinSlot viewTagCoinSlot = (CoinSlot) view.getTag();
                 boolean oldValue = viewTagCoinSlot.isInCollection();
                 viewTagCoinSlot.setInCollection(!oldValue);
-                viewTagCoinSlot.setAdvInfoChanged(true);
+                onCoinSlotAdvInfoEdited(viewTagCoinSlot);
 
                 // Update the filtered list and filter status if needed
-                applyFilter();
+                // - This also notifies the adapter to re-draw the view
+                onCoinSlotInCollectionChanged(viewTagCoinSlot);
                 mCollectionPageContext.updateFilterStatusIndicator();
-
-                // Notify the adapter to re-draw the view
-                CoinSlotAdapter.this.notifyDataSetChanged();
-
-                // Tell the parent page to show the unsaved changes view
-                mCollectionPageContext.showUnsavedTextView();
             }
         });
 
@@ -375,6 +467,8 @@ class CoinSlotAdapter extends BaseAdapter {
         String advancedNotesText = coinSlot.getAdvancedNotes();
         notesEditText.setText(advancedNotesText);
         notesEditText.setSelection(advancedNotesText.length());
+        // Don't allow editing until the notes have been read, so they aren't overwritten
+        notesEditText.setEnabled(coinSlot.isAdvancedNotesLoaded());
 
         // Make the hint specific for this coin's notes field
         String notes = mRes.getString(R.string.notes);
@@ -435,7 +529,18 @@ class CoinSlotAdapter extends BaseAdapter {
         // Update the data structure and set index changed
         // - Changes will be committed to the database when the user presses save
         coinSlot.setAdvancedNotes(newText);
+        onCoinSlotAdvInfoEdited(coinSlot);
+    }
+
+    /**
+     * Mark a coin as having unsaved advanced-info changes, append it to the edit journal
+     * so the changes survive the app being killed, and show the unsaved changes view
+     *
+     * @param coinSlot the coin that was edited
+     */
+    private void onCoinSlotAdvInfoEdited(CoinSlot coinSlot) {
         coinSlot.setAdvInfoChanged(true);
+        mCollectionPageContext.getAdvInfoJournal().append(mTableName, coinSlot);
 
         // Tell the parent page to show the unsaved changes view
         mCollectionPageContext.showUnsavedTextView();
@@ -464,36 +569,118 @@ class CoinSlotAdapter extends BaseAdapter {
      */
     private void applyFilter() {
         mFilteredCoinList.clear();
+        indexOriginalPositions();
 
         for (CoinSlot coin : mOriginalCoinList) {
-            // Check filter
-            boolean matchesFilter = false;
-            switch (mCurrentFilter) {
-                case CollectionPage.FILTER_SHOW_ALL:
-                    matchesFilter = true;
-                    break;
-                case CollectionPage.FILTER_SHOW_COLLECTED:
-                    if (coin.isInCollection()) {
-                        matchesFilter = true;
-                    }
-                    break;
-                case CollectionPage.FILTER_SHOW_MISSING:
-                    if (!coin.isInCollection()) {
-                        matchesFilter = true;
-                    }
-                    break;
+            if (matchesFilter(coin)) {
+                mFilteredCoinList.add(coin);
             }
+        }
+        
+        notifyDataSetChanged();
+    }
 
-            if (matchesFilter) {
-                // Check search query
-                if (mSearchQuery.isEmpty() ||
-                    coin.getIdentifier().toLowerCase(Locale.ROOT).contains(mSearchQuery) ||
-                    (coin.getMint() != null && coin.getMint().toLowerCase(Locale.ROOT).contains(mSearchQuery))) {
-                    mFilteredCoinList.add(coin);
+    /**
+     * Check whether a coin should be shown with the current filter and search query
+     *
+     * @param coin The coin to check
+     * @return true if the coin should be in the filtered list
+     */
+    private boolean matchesFilter(CoinSlot coin) {
+        // Check filter
+        boolean matchesFilter = false;
+        switch (mCurrentFilter) {
+            case CollectionPage.FILTER_SHOW_ALL:
+                matchesFilter = true;
+                break;
+            case CollectionPage.FILTER_SHOW_COLLECTED:
+                if (coin.isInCollection()) {
+                    matchesFilter = true;
+                }
+                break;
+            case CollectionPage.FILTER_SHOW_MISSING:
+                if (!coin.isInCollection()) {
+                    matchesFilter = true;
                 }
+                break;
+        }
+
+        // Check search query
+        return matchesFilter && (mSearchQuery.isEmpty() || coin.matchesSearchQuery(mSearchQuery));
+    }
+
+    /**
+     * Record the position of each coin in the original list
+     */
+    private void indexOriginalPositions() {
+        mOriginalPositions.clear();
+        for (int i = 0; i < mOriginalCoinList.size(); i++) {
+            mOriginalPositions.put(mOriginalCoinList.get(i), i);
+        }
+    }
+
+    /**
+     * Get the position of a coin in the original list
+     *
+     * @param coin The coin to find
+     * @return The position in the original list, or -1 if the coin isn't indexed
+     */
+    private int getOriginalPosition(CoinSlot coin) {
+        Integer position = mOriginalPositions.get(coin);
+        if (position == null || position >= mOriginalCoinList.size()
+                || mOriginalCoinList.get(position) != coin) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * Binary search the filtered list for a coin, using each coin's original list position
+     *
+     * @param originalPosition The position of the coin in the original list
+     * @return The position in the filtered list if present, otherwise (-(insertion point) - 1)
+     */
+    private int searchFilteredList(int originalPosition) {
+        int low = 0;
+        int high = mFilteredCoinList.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Integer midPosition = mOriginalPositions.get(mFilteredCoinList.get(mid));
+            int midValue = (midPosition != null) ? midPosition : -1;
+            if (midValue < originalPosition) {
+                low = mid + 1;
+            } else if (midValue > originalPosition) {
+                high = mid - 1;
+            } else {
+                return mid;
             }
         }
-        
+        return -(low + 1);
+    }
+
+    /**
+     * Update the filtered list after a single coin's collected state has changed. Rather than
+     * re-scanning the whole collection, the coin is added to or removed from the filtered list
+     * at its sorted position.
+     *
+     * @param coin The coin that changed
+     */
+    public void onCoinSlotInCollectionChanged(CoinSlot coin) {
+        int originalPosition = getOriginalPosition(coin);
+        if (originalPosition == -1) {
+            // The list has changed since it was indexed, so rebuild everything
+            applyFilter();
+            return;
+        }
+
+        int filteredPosition = searchFilteredList(originalPosition);
+        boolean shouldShow = matchesFilter(coin);
+        if (filteredPosition >= 0 && !shouldShow) {
+            mFilteredCoinList.remove(filteredPosition);
+        } else if (filteredPosition < 0 && shouldShow) {
+            mFilteredCoinList.add(-(filteredPosition + 1), coin);
+        }
+
         notifyDataSetChanged();
     }
     
@@ -519,6 +706,12 @@ class CoinSlotAdapter extends BaseAdapter {
      * @return The position in the filtered list, or -1 if not found
      */
     public int getPositionInFilteredList(CoinSlot coin) {
-        return mFilteredCoinList.indexOf(coin);
+        int originalPosition = getOriginalPosition(coin);
+        if (originalPosition == -1) {
+            // Not a coin from the current list, so fall back to matching on name and mint
+            return mFilteredCoinList.indexOf(coin);
+        }
+        int filteredPosition = searchFilteredList(originalPosition);
+        return (filteredPosition >= 0) ? filteredPosition : -1;
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_ID;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+
+/**
+ * Maps rows of a collection table query to CoinSlots. The column indexes are looked up
+ * once when the mapper is created, rather than for every row.
+ * <p>
+ * Which CoinSlot fields are populated depends on the columns in the query:
+ * - The id, identifier, mint and inCollection columns are required
+ * - If the grade and quantity columns are present, the advanced info is populated. The
+ * notes are populated if that column is also present, and are otherwise marked as not
+ * loaded (see DatabaseAdapter.fetchAdvancedNotes)
+ * - If the custom coin or image id columns are missing, the defaults are used
+ */
+class CoinSlotRowMapper {
+
+    private final int mIdIndex;
+    private final int mIdentifierIndex;
+    private final int mMintIndex;
+    private final int mInCollectionIndex;
+    // Set to -1 if the coin id is used as the sort order
+    private final int mSortOrderIndex;
+    private final int mCustomCoinIndex;
+    private final int mImageIdIndex;
+    // Set to -1 if the advanced info isn't in the query
+    private final int mGradeIndex;
+    private final int mQuantityIndex;
+    private final int mNotesIndex;
+
+    /**
+     * Constructor
+     *
+     * @param cursor       cursor from a collection table query
+     * @param useSortOrder if true, the sort order column is used for the sort order.
+     *                     Otherwise the coin id is used.
+     * @throws IllegalArgumentException if a required column is missing
+     */
+    CoinSlotRowMapper(Cursor cursor, boolean useSortOrder) {
+        mIdIndex = cursor.getColumnIndexOrThrow(COL_COIN_ID);
+        mIdentifierIndex = cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER);
+        mMintIndex = cursor.getColumnIndexOrThrow(COL_COIN_MINT);
+        mInCollectionIndex = cursor.getColumnIndexOrThrow(COL_IN_COLLECTION);
+        mSortOrderIndex = useSortOrder ? cursor.getColumnIndexOrThrow(COL_SORT_ORDER) : -1;
+        mCustomCoinIndex = cursor.getColumnIndex(COL_CUSTOM_COIN);
+        mImageIdIndex = cursor.getColumnIndex(COL_IMAGE_ID);
+        mGradeIndex = cursor.getColumnIndex(COL_ADV_GRADE_INDEX);
+        mQuantityIndex = cursor.getColumnIndex(COL_ADV_QUANTITY_INDEX);
+        mNotesIndex = cursor.getColumnIndex(COL_ADV_NOTES);
+    }
+
+    /**
+     * Create a CoinSlot from the cursor's current row
+     *
+     * @param cursor cursor positioned on a row
+     * @return the CoinSlot
+     */
+    CoinSlot map(Cursor cursor) {
+        long databaseId = cursor.getLong(mIdIndex);
+        int sortOrder = (mSortOrderIndex != -1) ? cursor.getInt(mSortOrderIndex) : (int) databaseId;
+        boolean inCollection = (cursor.getInt(mInCollectionIndex) != 0);
+        boolean customCoin = (mCustomCoinIndex != -1) && (cursor.getInt(mCustomCoinIndex) != 0);
+        int imageId = (mImageIdIndex != -1) ? cursor.getInt(mImageIdIndex) : -1;
+
+        if (mGradeIndex == -1 || mQuantityIndex == -1) {
+            return new CoinSlot(databaseId, cursor.getString(mIdentifierIndex), cursor.getString(mMintIndex),
+                    inCollection, sortOrder, customCoin, imageId);
+        }
+        CoinSlot coinSlot = new CoinSlot(databaseId, cursor.getString(mIdentifierIndex),
+                cursor.getString(mMintIndex), inCollection, cursor.getInt(mGradeIndex),
+                cursor.getInt(mQuantityIndex), (mNotesIndex != -1) ? cursor.getString(mNotesIndex) : "",
+                sortOrder, customCoin, imageId);
+        if (mNotesIndex == -1) {
+            coinSlot.setAdvancedNotesNotLoaded();
+        }
+        return coinSlot;
+    }
+
+    /**
+     * Create CoinSlots from all rows of a cursor. The cursor isn't closed.
+     *
+     * @param cursor       cursor from a collection table query
+     * @param useSortOrder if true, the sort order column is used for the sort order.
+     *                     Otherwise the coin id is used.
+     * @return CoinSlot list
+     */
+    static ArrayList<CoinSlot> mapAll(Cursor cursor, boolean useSortOrder) {
+        ArrayList<CoinSlot> coinList = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        if (cursor.moveToFirst()) {
+            CoinSlotRowMapper mapper = new CoinSlotRowMapper(cursor, useSortOrder);
+            do {
+                coinList.add(mapper.map(cursor));
+            } while (cursor.moveToNext());
+        }
+        return coinList;
+    }
+}
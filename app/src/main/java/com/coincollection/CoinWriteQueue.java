@@ -0,0 +1,509 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.coincollection.BaseActivity.TASK_SAVE_COIN_CHANGES;
+import static com.spencerpages.MainApplication.APP_NAME;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Write-behind queue for coin changes made on the collection page. Changes are queued on
+ * the UI thread and written to the database by a single background writer, with each batch
+ * written in one transaction. Repeated changes to the same coin are collapsed so that only
+ * the latest state is written. Toggles of whether a coin is in the collection are applied to
+ * the stored value, so the state the database ends up with is passed back once committed.
+ */
+public class CoinWriteQueue {
+
+    // Delay before a batch is written, so that rapid changes are grouped together
+    static final long FLUSH_DELAY_MS = 500;
+
+    // Number of times a coin write is attempted before it is dropped, so that a write that
+    // can never succeed (Ex: the collection was deleted) doesn't block all later writes
+    static final int MAX_WRITE_ATTEMPTS = 3;
+
+    // Default production executor - a single thread, so there is only ever one writer. The
+    // collection repository runs on the same thread, so its work is ordered with the writes.
+    final static Executor sDefaultExecutor = createDefaultExecutor();
+
+    private final DatabaseAdapter mDbAdapter;
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+    private final String mErrorMessage;
+
+    // Held while writing to the database. Background and forced flushes both take this, so
+    // a forced flush waits for any batch that is already being written.
+    private final Object mWriteLock = new Object();
+
+    // Taken before mWriteLock, so writes don't run at the same time as a whole-database
+    // task (Ex: import)
+    private final Lock mDatabaseLock = TaskScheduler.getDefault().getDatabaseReadLock();
+
+    // Pending writes by table name, then by coin database id. Guarded by 'this'.
+    private HashMap<String, LinkedHashMap<Long, PendingWrite>> mPendingWrites = new HashMap<>();
+    private boolean mFlushScheduled = false;
+
+    // The batch being written, until it's committed or put back in the queue. Guarded by 'this'.
+    private HashMap<String, LinkedHashMap<Long, PendingWrite>> mWritingBatch = null;
+
+    // Callbacks to run on the main thread once the pending writes are committed. Guarded by 'this'.
+    private ArrayList<Runnable> mPendingCallbacks = new ArrayList<>();
+
+    // Listener to report failures to, and whether a failure occurred while no listener was
+    // attached. Only accessed on the main thread.
+    private WeakReference<AsyncProgressInterface> mListenerRef = null;
+    private boolean mHasPendingFailure = false;
+
+    /**
+     * Callback for a queued toggle, run on the main thread once it has been committed
+     */
+    public interface InCollectionCallback {
+        /**
+         * @param inCollection whether the coin is in the collection in the database
+         */
+        void onInCollectionWritten(boolean inCollection);
+    }
+
+    /**
+     * Coin change waiting to be written to the database. A change is a snapshot of the coin
+     * to write (if any), followed by a number of toggles applied to the stored value.
+     */
+    private static class PendingWrite {
+        final long mDatabaseId;
+        final CoinSlot mCoinSlot;
+        final boolean mIncludesAdvInfo;
+        final int mNumToggles;
+        final InCollectionCallback mOnToggled;
+        final int mNumFailures;
+
+        PendingWrite(long databaseId, CoinSlot coinSlot, boolean includesAdvInfo, int numToggles,
+                     InCollectionCallback onToggled, int numFailures) {
+            mDatabaseId = databaseId;
+            mCoinSlot = coinSlot;
+            mIncludesAdvInfo = includesAdvInfo;
+            mNumToggles = numToggles;
+            mOnToggled = onToggled;
+            mNumFailures = numFailures;
+        }
+
+        /**
+         * Combine this change with a newer change to the same coin. A newer snapshot replaces
+         * this one and any toggles queued before it, and newer toggles apply on top.
+         *
+         * @param newer       the newer change
+         * @param numFailures number of failed attempts for the combined change
+         * @return the combined change
+         */
+        PendingWrite mergeWith(PendingWrite newer, int numFailures) {
+            boolean writeAdvInfo = newer.mIncludesAdvInfo || mIncludesAdvInfo;
+            InCollectionCallback onToggled = (newer.mOnToggled != null) ? newer.mOnToggled : mOnToggled;
+            if (newer.mCoinSlot != null) {
+                return new PendingWrite(mDatabaseId, newer.mCoinSlot, writeAdvInfo, newer.mNumToggles,
+                        onToggled, numFailures);
+            }
+            return new PendingWrite(mDatabaseId, mCoinSlot, writeAdvInfo, mNumToggles + newer.mNumToggles,
+                    onToggled, numFailures);
+        }
+    }
+
+    /**
+     * Create the default executor. The thread exits once it has been idle for a while, and is
+     * a daemon so that it never keeps the process (or a test JVM) alive on its own.
+     *
+     * @return a single-thread executor
+     */
+    private static Executor createDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "CoinWriteQueue");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param dbAdapter    database to write to
+     * @param errorMessage message reported to the listener if a write fails
+     */
+    public CoinWriteQueue(DatabaseAdapter dbAdapter, String errorMessage) {
+        this(dbAdapter, errorMessage, sDefaultExecutor, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Constructor allowing the executor and main-thread handler to be injected. Used by
+     * tests to run the background writer and main looper deterministically.
+     *
+     * @param dbAdapter    database to write to
+     * @param errorMessage message reported to the listener if a write fails
+     * @param executor     executor used to run the background writer
+     * @param mainHandler  handler used to delay flushes and report failures
+     */
+    CoinWriteQueue(DatabaseAdapter dbAdapter, String errorMessage, Executor executor, Handler mainHandler) {
+        mDbAdapter = dbAdapter;
+        mErrorMessage = errorMessage;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    /**
+     * Set the listener that failures are reported to. If a write failed while no listener
+     * was attached, the failure is reported to the new listener.
+     *
+     * @param listener the listener, which receives TASK_SAVE_COIN_CHANGES on failure
+     */
+    void setListener(AsyncProgressInterface listener) {
+        mListenerRef = new WeakReference<>(listener);
+        if (mHasPendingFailure) {
+            mHasPendingFailure = false;
+            listener.asyncProgressOnPostExecute(TASK_SAVE_COIN_CHANGES, mErrorMessage);
+        }
+    }
+
+    /**
+     * Clear the listener reference to avoid memory leaks
+     */
+    void clearListener() {
+        mListenerRef = null;
+    }
+
+    /**
+     * Queue a change to whether a coin is in the collection
+     *
+     * @param tableName the collection name
+     * @param coinSlot  the coin that changed
+     */
+    void queueInCollectionChange(String tableName, CoinSlot coinSlot) {
+        queueWrite(tableName, new PendingWrite(coinSlot.getDatabaseId(),
+                CollectionRepository.snapshot(coinSlot), false, 0, null, 0));
+    }
+
+    /**
+     * Queue a toggle of whether a coin is in the collection. The stored value is flipped in
+     * place, and the new value is passed to the callback once it has been committed.
+     *
+     * @param tableName the collection name
+     * @param coinSlot  the coin to toggle
+     * @param onToggled callback run on the main thread with the committed state (may be null)
+     */
+    void queueInCollectionToggle(String tableName, CoinSlot coinSlot, InCollectionCallback onToggled) {
+        queueWrite(tableName, new PendingWrite(coinSlot.getDatabaseId(), null, false, 1, onToggled, 0));
+    }
+
+    /**
+     * Queue a change to a coin's advanced info (including whether it is in the collection)
+     *
+     * @param tableName the collection name
+     * @param coinSlot  the coin that changed
+     */
+    void queueAdvInfoChange(String tableName, CoinSlot coinSlot) {
+        queueWrite(tableName, new PendingWrite(coinSlot.getDatabaseId(),
+                CollectionRepository.snapshot(coinSlot), true, 0, null, 0));
+    }
+
+    /**
+     * Queue a coin write, combining it with any write already pending for the coin. Coins
+     * are copied when queued, so later changes on the UI thread don't race with the writer.
+     *
+     * @param tableName the collection name
+     * @param write     the change to write
+     */
+    private synchronized void queueWrite(String tableName, PendingWrite write) {
+        LinkedHashMap<Long, PendingWrite> tableWrites = mPendingWrites.get(tableName);
+        if (tableWrites == null) {
+            tableWrites = new LinkedHashMap<>();
+            mPendingWrites.put(tableName, tableWrites);
+        }
+
+        PendingWrite existing = tableWrites.get(write.mDatabaseId);
+        tableWrites.put(write.mDatabaseId, (existing != null) ? existing.mergeWith(write, 0) : write);
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mMainHandler.postDelayed(() -> mExecutor.execute(this::flush), FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Run a callback on the main thread once the writes queued so far have been committed
+     * to the database. If the writes fail, the callback is kept with them and runs when
+     * they are retried successfully (or never, if they are dropped.)
+     *
+     * @param onWritten the callback
+     */
+    void runWhenWritten(Runnable onWritten) {
+        synchronized (this) {
+            if (!mPendingWrites.isEmpty()) {
+                mPendingCallbacks.add(onWritten);
+                return;
+            }
+        }
+        mMainHandler.post(onWritten);
+    }
+
+    /**
+     * Check whether a coin has a change that hasn't been committed yet, either waiting in
+     * the queue or in the batch being written
+     *
+     * @param tableName  the collection name
+     * @param databaseId the coin's database ID
+     * @return true if the coin has an uncommitted change
+     */
+    synchronized boolean hasPendingWrite(String tableName, long databaseId) {
+        LinkedHashMap<Long, PendingWrite> tableWrites = mPendingWrites.get(tableName);
+        if (tableWrites != null && tableWrites.containsKey(databaseId)) {
+            return true;
+        }
+        tableWrites = (mWritingBatch != null) ? mWritingBatch.get(tableName) : null;
+        return (tableWrites != null) && tableWrites.containsKey(databaseId);
+    }
+
+    /**
+     * @return the number of coin writes waiting to be written
+     */
+    synchronized int getNumPendingWrites() {
+        int numPending = 0;
+        for (LinkedHashMap<Long, PendingWrite> tableWrites : mPendingWrites.values()) {
+            numPending += tableWrites.size();
+        }
+        return numPending;
+    }
+
+    /**
+     * Writes all pending changes to the database in a single transaction, blocking until
+     * they have been written. This is run by the background writer, and can also be called
+     * directly to force pending changes out (Ex: before an import.)
+     *
+     * @return true if the changes were written successfully
+     */
+    boolean flush() {
+        boolean isEmpty;
+        synchronized (this) {
+            isEmpty = mPendingWrites.isEmpty();
+        }
+        if (isEmpty) {
+            // Nothing to write, so there's no need to wait for a whole-database task. Just
+            // wait for any batch that is already being written.
+            synchronized (mWriteLock) {
+                return true;
+            }
+        }
+
+        mDatabaseLock.lock();
+        try {
+            return flushBatch();
+        } finally {
+            mDatabaseLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending changes in the background, without waiting for them to be written
+     * (Ex: when the activity is paused.) Work queued with the collection repository
+     * afterwards runs once the changes have been written.
+     */
+    void flushAsync() {
+        mExecutor.execute(this::flush);
+    }
+
+    /**
+     * Writes all pending changes. Must be called while holding the database read lock.
+     *
+     * @return true if the changes were written successfully
+     */
+    private boolean flushBatch() {
+        synchronized (mWriteLock) {
+            HashMap<String, LinkedHashMap<Long, PendingWrite>> batch;
+            ArrayList<Runnable> callbacks;
+            synchronized (this) {
+                batch = mPendingWrites;
+                callbacks = mPendingCallbacks;
+                mPendingWrites = new HashMap<>();
+                mPendingCallbacks = new ArrayList<>();
+                mFlushScheduled = false;
+                mWritingBatch = batch;
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    writeBatch(batch, callbacks);
+                } catch (RuntimeException e) {
+                    // Keep the changes for the next flush, which happens when another change
+                    // is queued or the collection page is paused. Besides SQLException, this
+                    // covers errors like the database being closed, which would otherwise
+                    // kill the writer thread and lose the batch.
+                    if (BuildConfig.DEBUG) {
+                        Log.d(APP_NAME, "Failed to write coin changes", e);
+                    }
+                    requeue(batch, callbacks);
+                    mMainHandler.post(this::onFlushFailed);
+                    return false;
+                }
+            }
+            synchronized (this) {
+                mWritingBatch = null;
+            }
+            runCallbacks(callbacks);
+            return true;
+        }
+    }
+
+    /**
+     * Put a batch that failed to write back in the queue. Changes queued since the batch
+     * was taken are newer, so they replace the failed writes for the same coins.
+     *
+     * @param batch     the failed writes by table name
+     * @param callbacks the callbacks waiting on the failed writes
+     */
+    private synchronized void requeue(HashMap<String, LinkedHashMap<Long, PendingWrite>> batch,
+                                      ArrayList<Runnable> callbacks) {
+        mWritingBatch = null;
+        boolean isDropped = false;
+        for (Map.Entry<String, LinkedHashMap<Long, PendingWrite>> failedWrites : batch.entrySet()) {
+            String tableName = failedWrites.getKey();
+            LinkedHashMap<Long, PendingWrite> tableWrites = new LinkedHashMap<>();
+            for (PendingWrite write : failedWrites.getValue().values()) {
+                if (write.mNumFailures + 1 >= MAX_WRITE_ATTEMPTS) {
+                    isDropped = true;
+                    continue;
+                }
+                // The transaction was rolled back, so the toggles still need to be applied
+                tableWrites.put(write.mDatabaseId, new PendingWrite(write.mDatabaseId, write.mCoinSlot,
+                        write.mIncludesAdvInfo, write.mNumToggles, write.mOnToggled, write.mNumFailures + 1));
+            }
+            LinkedHashMap<Long, PendingWrite> newerWrites = mPendingWrites.get(tableName);
+            if (newerWrites != null) {
+                for (PendingWrite write : newerWrites.values()) {
+                    PendingWrite failedWrite = tableWrites.get(write.mDatabaseId);
+                    tableWrites.put(write.mDatabaseId, (failedWrite != null)
+                            ? failedWrite.mergeWith(write, write.mNumFailures) : write);
+                }
+            }
+            if (tableWrites.isEmpty()) {
+                mPendingWrites.remove(tableName);
+            } else {
+                mPendingWrites.put(tableName, tableWrites);
+            }
+        }
+
+        // If any of the writes were given up on, the callbacks never run, so callers
+        // keep whatever backs up the changes (Ex: the advanced info journal)
+        if (isDropped) {
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Dropped coin writes after " + MAX_WRITE_ATTEMPTS + " failed attempts");
+            }
+        } else {
+            callbacks.addAll(mPendingCallbacks);
+            mPendingCallbacks = callbacks;
+        }
+    }
+
+    /**
+     * Run the callbacks for committed writes on the main thread
+     *
+     * @param callbacks the callbacks to run
+     */
+    private void runCallbacks(ArrayList<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            if (Looper.myLooper() == mMainHandler.getLooper()) {
+                callback.run();
+            } else {
+                mMainHandler.post(callback);
+            }
+        }
+    }
+
+    /**
+     * Write a batch of changes in one transaction, then update the collected counts
+     *
+     * @param batch     pending writes by table name
+     * @param callbacks callbacks to run once the batch is committed, which the toggle
+     *                  callbacks are added to
+     * @throws SQLException if a database error occurs
+     */
+    private void writeBatch(HashMap<String, LinkedHashMap<Long, PendingWrite>> batch,
+                            ArrayList<Runnable> callbacks) throws SQLException {
+        ArrayList<Runnable> toggleCallbacks = new ArrayList<>();
+        mDbAdapter.beginTransaction();
+        try {
+            for (Map.Entry<String, LinkedHashMap<Long, PendingWrite>> tableWrites : batch.entrySet()) {
+                String tableName = tableWrites.getKey();
+                for (PendingWrite write : tableWrites.getValue().values()) {
+                    if (write.mCoinSlot != null) {
+                        if (write.mIncludesAdvInfo) {
+                            mDbAdapter.writeAdvInfo(tableName, write.mCoinSlot);
+                        } else {
+                            mDbAdapter.writeInCollection(tableName, write.mCoinSlot);
+                        }
+                    }
+                    // Toggling twice leaves the stored value as it was
+                    int numToggled = 1;
+                    if (write.mNumToggles % 2 != 0) {
+                        numToggled = mDbAdapter.toggleInCollection(tableName, write.mDatabaseId);
+                    }
+                    if (write.mOnToggled != null && numToggled > 0) {
+                        boolean inCollection = mDbAdapter.fetchIsInCollection(tableName, write.mDatabaseId) != 0;
+                        InCollectionCallback onToggled = write.mOnToggled;
+                        toggleCallbacks.add(() -> onToggled.onInCollectionWritten(inCollection));
+                    }
+                }
+                mDbAdapter.updateCollectedCount(tableName);
+            }
+            mDbAdapter.setTransactionSuccessful();
+        } finally {
+            mDbAdapter.endTransaction();
+        }
+        callbacks.addAll(0, toggleCallbacks);
+    }
+
+    /**
+     * Report a failed write to the listener, or hold it until a listener attaches.
+     * Must be called on the main thread.
+     */
+    private void onFlushFailed() {
+        AsyncProgressInterface listener = (mListenerRef != null) ? mListenerRef.get() : null;
+        if (listener != null) {
+            listener.asyncProgressOnPostExecute(TASK_SAVE_COIN_CHANGES, mErrorMessage);
+        } else {
+            mHasPendingFailure = true;
+        }
+    }
+}
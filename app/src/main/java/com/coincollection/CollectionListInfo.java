@@ -88,8 +88,9 @@ public class CollectionListInfo implements Parcelable {
     private final int mDisplayType;
     private int mStartYear;
     private int mEndYear;
-    private String mMintMarkFlags;
-    private String mCheckboxFlags;
+    // Flags are parsed once when the object is created, so the checks below are bit tests
+    private long mMintMarkFlags;
+    private long mCheckboxFlags;
     private final CollectionInfo mCollectionInfo;
 
     // Flags for selected mint marks
@@ -177,6 +178,7 @@ public class CollectionListInfo implements Parcelable {
     public final static String COL_NAME = "name";
     public final static String COL_COIN_TYPE = "coinType";
     public final static String COL_TOTAL = "total";
+    public final static String COL_COLLECTED = "collected";
     public final static String COL_DISPLAY_ORDER = "displayOrder";
     public final static String COL_DISPLAY = "display";
     public final static String COL_START_YEAR = "startYear";
@@ -185,6 +187,8 @@ public class CollectionListInfo implements Parcelable {
     public final static String COL_SHOW_MINT_MARKS = "showMintMarksStr";
     public final static String COL_SHOW_CHECKBOXES_LEGACY = "showCheckboxes";
     public final static String COL_SHOW_CHECKBOXES = "showCheckboxesStr";
+    public final static String COL_MINT_MARK_FLAGS = "mintMarkFlags";
+    public final static String COL_CHECKBOX_FLAGS = "checkboxFlags";
     public final static String JSON_KEY_COLLECTED = "collected";
 
     // Collections in this list use the start/end years
@@ -232,8 +236,8 @@ public class CollectionListInfo implements Parcelable {
 
 
     public CollectionListInfo(String name, int max, int collected, int index, int displayType,
-                              int startYear, int stopYear, String mintMarkFlags,
-                              String checkboxFlags) {
+                              int startYear, int stopYear, long mintMarkFlags,
+                              long checkboxFlags) {
         mCollectionName = name;
         mTotalCoinsInCollection = max;
         mTotalCoinsCollected = collected;
@@ -243,7 +247,7 @@ public class CollectionListInfo implements Parcelable {
         mEndYear = stopYear;
         mMintMarkFlags = mintMarkFlags;
         mCheckboxFlags = checkboxFlags;
-        mCollectionInfo = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        mCollectionInfo = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
     }
 
     /**
@@ -318,28 +322,23 @@ public class CollectionListInfo implements Parcelable {
         return mEndYear;
     }
 
-    public String getMintMarkFlags() {
+    public long getMintMarkFlags() {
         return mMintMarkFlags;
     }
 
-    public long getMintMarkFlagsAsLong() {
-        return parseFlagString(mMintMarkFlags);
-    }
-
-    public String getCheckboxFlags() {
+    public long getCheckboxFlags() {
         return mCheckboxFlags;
     }
 
-    public long getCheckboxFlagsAsLong() {
-        return parseFlagString(mCheckboxFlags);
-    }
-
     /**
      * Safely parses a mint-mark / checkbox flag string into a long, returning 0
-     * for null, empty, or unrecoverable values instead of throwing.
+     * for null, empty, or unrecoverable values instead of throwing. This is only
+     * used where flag strings come into the app (CSV/JSON import, and migrating
+     * the flag strings stored by older database versions) - the flags are kept
+     * as numbers everywhere else.
      * <p>
-     * Flag strings are written verbatim from imported files (CSV/JSON) with no
-     * validation, so they can be corrupted by spreadsheets. Excel/Sheets commonly
+     * Flag strings in imported files aren't validated by anything, so they can be
+     * corrupted by spreadsheets. Excel/Sheets commonly
      * rewrite large integers as a trailing-decimal ("268435456.0"), with stray
      * surrounding whitespace, or in scientific notation ("2.68435E+8"). Such a
      * value would otherwise throw {@link NumberFormatException} during a database
@@ -378,255 +377,255 @@ public class CollectionListInfo implements Parcelable {
     }
 
     public boolean hasMintMarks() {
-        return (getMintMarkFlagsAsLong() & SHOW_MINT_MARKS) != 0;
+        return (mMintMarkFlags & SHOW_MINT_MARKS) != 0;
     }
 
     public boolean hasPMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_P) != 0;
+        return (mMintMarkFlags & MINT_P) != 0;
     }
 
     public boolean hasDMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_D) != 0;
+        return (mMintMarkFlags & MINT_D) != 0;
     }
 
     public boolean hasSMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_S) != 0;
+        return (mMintMarkFlags & MINT_S) != 0;
     }
 
     public boolean hasOMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_O) != 0;
+        return (mMintMarkFlags & MINT_O) != 0;
     }
 
     public boolean hasCCMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_CC) != 0;
+        return (mMintMarkFlags & MINT_CC) != 0;
     }
 
     public boolean hasWMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_W) != 0;
+        return (mMintMarkFlags & MINT_W) != 0;
     }
 
     public boolean hasSProofMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_S_PROOF) != 0;
+        return (mMintMarkFlags & MINT_S_PROOF) != 0;
     }
 
     public boolean hasSilverProofMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_SILVER_PROOF) != 0;
+        return (mMintMarkFlags & MINT_SILVER_PROOF) != 0;
     }
 
     public boolean hasRevProofMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_REV_PROOF) != 0;
+        return (mMintMarkFlags & MINT_REV_PROOF) != 0;
     }
 
     public boolean hasMemProofMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_MEM_PROOF) != 0;
+        return (mMintMarkFlags & MINT_MEM_PROOF) != 0;
     }
 
     public boolean hasSatinMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_SATIN) != 0;
+        return (mMintMarkFlags & MINT_SATIN) != 0;
     }
 
     public boolean hasFranklinProofMintMarks() {
-        return (getMintMarkFlagsAsLong() & MINT_FRANKLIN_PROOF) != 0;
+        return (mMintMarkFlags & MINT_FRANKLIN_PROOF) != 0;
     }
 
     public boolean hasCustomDates() {
-        return (getCheckboxFlagsAsLong() & CUSTOM_DATES) != 0;
+        return (mCheckboxFlags & CUSTOM_DATES) != 0;
     }
 
     public boolean hasBurnishedCoins() {
-        return (getCheckboxFlagsAsLong() & BURNISHED) != 0;
+        return (mCheckboxFlags & BURNISHED) != 0;
     }
 
     public boolean hasTerritoryCoins() {
-        return (getCheckboxFlagsAsLong() & TERRITORIES) != 0;
+        return (mCheckboxFlags & TERRITORIES) != 0;
     }
 
     public boolean hasSilverCoins() {
-        return (getCheckboxFlagsAsLong() & SILVER_COINS) != 0;
+        return (mCheckboxFlags & SILVER_COINS) != 0;
     }
 
     public boolean hasNickelCoins() {
-        return (getCheckboxFlagsAsLong() & NICKEL_COINS) != 0;
+        return (mCheckboxFlags & NICKEL_COINS) != 0;
     }
 
     public boolean hasOldCoins() {
-        return (getCheckboxFlagsAsLong() & OLD_COINS) != 0;
+        return (mCheckboxFlags & OLD_COINS) != 0;
     }
 
     public boolean hasBustCoins() {
-        return (getCheckboxFlagsAsLong() & BUST_COINS) != 0;
+        return (mCheckboxFlags & BUST_COINS) != 0;
     }
 
     public boolean hasDrapedBustCoins() {
-        return (getCheckboxFlagsAsLong() & DRAPED_BUST_COINS) != 0;
+        return (mCheckboxFlags & DRAPED_BUST_COINS) != 0;
     }
 
     public boolean hasCappedBustCoins() {
-        return (getCheckboxFlagsAsLong() & CAPPED_BUST_COINS) != 0;
+        return (mCheckboxFlags & CAPPED_BUST_COINS) != 0;
     }
 
     public boolean hasSeatedCoins() {
-        return (getCheckboxFlagsAsLong() & SEATED_COINS) != 0;
+        return (mCheckboxFlags & SEATED_COINS) != 0;
     }
 
     public boolean hasCoronetCoins() {
-        return (getCheckboxFlagsAsLong() & CORONET_COINS) != 0;
+        return (mCheckboxFlags & CORONET_COINS) != 0;
     }
 
     public boolean hasBarberQuarters() {
-        return (getCheckboxFlagsAsLong() & BARBER_QUARTERS) != 0;
+        return (mCheckboxFlags & BARBER_QUARTERS) != 0;
     }
 
     public boolean hasStandingQuarters() {
-        return (getCheckboxFlagsAsLong() & STANDING_QUARTERS) != 0;
+        return (mCheckboxFlags & STANDING_QUARTERS) != 0;
     }
 
     public boolean hasClassicQuarters() {
-        return (getCheckboxFlagsAsLong() & CLASSIC_QUARTERS) != 0;
+        return (mCheckboxFlags & CLASSIC_QUARTERS) != 0;
     }
 
     public boolean hasStatesQuarters() {
-        return (getCheckboxFlagsAsLong() & STATES_QUARTERS) != 0;
+        return (mCheckboxFlags & STATES_QUARTERS) != 0;
     }
 
     public boolean hasParksQuarters() {
-        return (getCheckboxFlagsAsLong() & PARKS_QUARTERS) != 0;
+        return (mCheckboxFlags & PARKS_QUARTERS) != 0;
     }
 
     public boolean hasWomenQuarters() {
-        return (getCheckboxFlagsAsLong() & WOMEN_QUARTERS) != 0;
+        return (mCheckboxFlags & WOMEN_QUARTERS) != 0;
     }
 
     public boolean hasEagleCents() {
-        return (getCheckboxFlagsAsLong() & EAGLE_CENTS) != 0;
+        return (mCheckboxFlags & EAGLE_CENTS) != 0;
     }
 
     public boolean hasIndianCents() {
-        return (getCheckboxFlagsAsLong() & INDIAN_CENTS) != 0;
+        return (mCheckboxFlags & INDIAN_CENTS) != 0;
     }
 
     public boolean hasWheatCents() {
-        return (getCheckboxFlagsAsLong() & WHEAT_CENTS) != 0;
+        return (mCheckboxFlags & WHEAT_CENTS) != 0;
     }
 
     public boolean hasMemorialCents() {
-        return (getCheckboxFlagsAsLong() & MEMORIAL_CENTS) != 0;
+        return (mCheckboxFlags & MEMORIAL_CENTS) != 0;
     }
 
     public boolean hasShieldCents() {
-        return (getCheckboxFlagsAsLong() & SHIELD_CENTS) != 0;
+        return (mCheckboxFlags & SHIELD_CENTS) != 0;
     }
 
     public boolean hasBarberHalf() {
-        return (getCheckboxFlagsAsLong() & BARBER_HALF) != 0;
+        return (mCheckboxFlags & BARBER_HALF) != 0;
     }
 
     public boolean hasWalkerHalf() {
-        return (getCheckboxFlagsAsLong() & WALKER_HALF) != 0;
+        return (mCheckboxFlags & WALKER_HALF) != 0;
     }
 
     public boolean hasFranklinHalf() {
-        return (getCheckboxFlagsAsLong() & FRANKLIN_HALF) != 0;
+        return (mCheckboxFlags & FRANKLIN_HALF) != 0;
     }
 
     public boolean hasKennedyHalf() {
-        return (getCheckboxFlagsAsLong() & KENNEDY_HALF) != 0;
+        return (mCheckboxFlags & KENNEDY_HALF) != 0;
     }
 
     public boolean hasShieldNickels() {
-        return (getCheckboxFlagsAsLong() & SHIELD_NICKELS) != 0;
+        return (mCheckboxFlags & SHIELD_NICKELS) != 0;
     }
 
     public boolean hasLibertyNickels() {
-        return (getCheckboxFlagsAsLong() & LIBERTY_NICKELS) != 0;
+        return (mCheckboxFlags & LIBERTY_NICKELS) != 0;
     }
 
     public boolean hasBuffaloNickels() {
-        return (getCheckboxFlagsAsLong() & BUFFALO_NICKELS) != 0;
+        return (mCheckboxFlags & BUFFALO_NICKELS) != 0;
     }
 
     public boolean hasJeffersonNickels() {
-        return (getCheckboxFlagsAsLong() & JEFFERSON_NICKELS) != 0;
+        return (mCheckboxFlags & JEFFERSON_NICKELS) != 0;
     }
 
     public boolean hasBarberDimes() {
-        return (getCheckboxFlagsAsLong() & BARBER_DIMES) != 0;
+        return (mCheckboxFlags & BARBER_DIMES) != 0;
     }
 
     public boolean hasMercuryDimes() {
-        return (getCheckboxFlagsAsLong() & MERCURY_DIMES) != 0;
+        return (mCheckboxFlags & MERCURY_DIMES) != 0;
     }
 
     public boolean hasRooseveltDimes() {
-        return (getCheckboxFlagsAsLong() & ROOSEVELT_DIMES) != 0;
+        return (mCheckboxFlags & ROOSEVELT_DIMES) != 0;
     }
 
     public boolean hasMorganDollars() {
-        return (getCheckboxFlagsAsLong() & MORGAN_DOLLARS) != 0;
+        return (mCheckboxFlags & MORGAN_DOLLARS) != 0;
     }
 
     public boolean hasPeaceDollars() {
-        return (getCheckboxFlagsAsLong() & PEACE_DOLLARS) != 0;
+        return (mCheckboxFlags & PEACE_DOLLARS) != 0;
     }
 
     public boolean hasIkeDollars() {
-        return (getCheckboxFlagsAsLong() & IKE_DOLLARS) != 0;
+        return (mCheckboxFlags & IKE_DOLLARS) != 0;
     }
 
     public boolean hasEagleDollars() {
-        return (getCheckboxFlagsAsLong() & EAGLE_DOLLARS) != 0;
+        return (mCheckboxFlags & EAGLE_DOLLARS) != 0;
     }
 
     public boolean hasSBADollars() {
-        return (getCheckboxFlagsAsLong() & SBA_DOLLARS) != 0;
+        return (mCheckboxFlags & SBA_DOLLARS) != 0;
     }
 
     public boolean hasSACDollars() {
-        return (getCheckboxFlagsAsLong() & SAC_DOLLARS) != 0;
+        return (mCheckboxFlags & SAC_DOLLARS) != 0;
     }
 
     public boolean hasPresDollars() {
-        return (getCheckboxFlagsAsLong() & PRES_DOLLARS) != 0;
+        return (mCheckboxFlags & PRES_DOLLARS) != 0;
     }
 
     public boolean hasTradeDollars() {
-        return (getCheckboxFlagsAsLong() & TRADE_DOLLARS) != 0;
+        return (mCheckboxFlags & TRADE_DOLLARS) != 0;
     }
 
     public boolean hasStatesQuartersProof() {
-        return (getCheckboxFlagsAsLong() & STATES_QUARTERS_PROOF) != 0;
+        return (mCheckboxFlags & STATES_QUARTERS_PROOF) != 0;
     }
 
     public boolean hasParksQuartersProof() {
-        return (getCheckboxFlagsAsLong() & PARKS_QUARTERS_PROOF) != 0;
+        return (mCheckboxFlags & PARKS_QUARTERS_PROOF) != 0;
     }
 
     public boolean hasWomenQuartersProof() {
-        return (getCheckboxFlagsAsLong() & WOMEN_QUARTERS_PROOF) != 0;
+        return (mCheckboxFlags & WOMEN_QUARTERS_PROOF) != 0;
     }
 
     public boolean hasTerritoriesQuartersProof() {
-        return (getCheckboxFlagsAsLong() & TERRITORIES_QUARTERS_PROOF) != 0;
+        return (mCheckboxFlags & TERRITORIES_QUARTERS_PROOF) != 0;
     }
 
     public boolean hasCladCoins() {
-        return (getCheckboxFlagsAsLong() & CLAD_COINS) != 0;
+        return (mCheckboxFlags & CLAD_COINS) != 0;
     }
 
     public boolean hasMintSets() {
-        return (getCheckboxFlagsAsLong() & MINT_SETS) != 0;
+        return (mCheckboxFlags & MINT_SETS) != 0;
     }
 
     public boolean hasProofSets() {
-        return (getCheckboxFlagsAsLong() & PROOF_SETS) != 0;
+        return (mCheckboxFlags & PROOF_SETS) != 0;
     }
 
     public boolean hasSilverProofSets() {
-        return (getCheckboxFlagsAsLong() & SILVER_PROOF_SETS) != 0;
+        return (mCheckboxFlags & SILVER_PROOF_SETS) != 0;
     }
 
     public boolean hasSemiqCoins() {
-        return (getCheckboxFlagsAsLong() & SEMIQ_COINS) != 0;
+        return (mCheckboxFlags & SEMIQ_COINS) != 0;
     }
 
     public void setEndYear(int endYear) {
@@ -635,13 +634,13 @@ public class CollectionListInfo implements Parcelable {
 
     /* setMintMarkFlags() used in unit tests
      */
-    public void setMintMarkFlags(String flags) {
+    public void setMintMarkFlags(long flags) {
         mMintMarkFlags = flags;
     }
 
     /* setCheckboxFlags() used in unit tests
      */
-    public void setCheckboxFlags(String flags) {
+    public void setCheckboxFlags(long flags) {
         mCheckboxFlags = flags;
     }
 
@@ -747,8 +746,8 @@ public class CollectionListInfo implements Parcelable {
         this.setCreationParameters(
                 startYear,
                 endYear,
-                Long.toString(mintMarkFlags),
-                Long.toString(checkboxFlags)
+                mintMarkFlags,
+                checkboxFlags
         );
     }
 
@@ -805,7 +804,7 @@ public class CollectionListInfo implements Parcelable {
      * @param mintMarkFlags int flags indicating which mint marks were used
      * @param checkboxFlags int flags indicating which checkboxes were check
      */
-    void setCreationParameters(int startYear, int endYear, String mintMarkFlags, String checkboxFlags) {
+    void setCreationParameters(int startYear, int endYear, long mintMarkFlags, long checkboxFlags) {
         mStartYear = startYear;
         mEndYear = endYear;
         mMintMarkFlags = mintMarkFlags;
@@ -836,8 +835,8 @@ public class CollectionListInfo implements Parcelable {
                 String.valueOf(mEndYear),
                 "0", // Legacy mint mark flags
                 "0", // Legacy checkbox flags
-                mMintMarkFlags,
-                mCheckboxFlags};
+                Long.toString(mMintMarkFlags),
+                Long.toString(mCheckboxFlags)};
     }
 
     /**
@@ -879,8 +878,8 @@ public class CollectionListInfo implements Parcelable {
         // Return true if:
         // - A mint mark that is set is unset
         // - a checkbox option that is set is unset (ignores custom dates)
-        return ((getMintMarkFlagsAsLong() & ~mintMarkFlags)
-                | (getCheckboxFlagsAsLong() & ~checkboxFlags & ~CUSTOM_DATES)) != 0;
+        return ((mMintMarkFlags & ~mintMarkFlags)
+                | (mCheckboxFlags & ~checkboxFlags & ~CUSTOM_DATES)) != 0;
     }
 
     /**
@@ -892,6 +891,37 @@ public class CollectionListInfo implements Parcelable {
      * @throws IOException if an error occurred
      */
     public void writeToJson(JsonWriter writer, DatabaseAdapter dbAdapter, ArrayList<CoinSlot> coinList) throws IOException {
+        beginJson(writer, dbAdapter);
+        for (CoinSlot coinSlot : coinList) {
+            coinSlot.writeToJson(writer);
+        }
+        endJson(writer);
+    }
+
+    /**
+     * Write out the JSON representation (for exporting), with the coins streamed from
+     * the database rather than read into a list first
+     *
+     * @param writer    JsonWriter to write to
+     * @param dbAdapter database adapter
+     * @return the number of coins written
+     * @throws IOException if an error occurred
+     */
+    public int writeToJson(JsonWriter writer, DatabaseAdapter dbAdapter) throws IOException {
+        beginJson(writer, dbAdapter);
+        int numCoins = dbAdapter.streamCoins(mCollectionName, coinSlot -> coinSlot.writeToJson(writer));
+        endJson(writer);
+        return numCoins;
+    }
+
+    /**
+     * Write the collection properties and start the coin list
+     *
+     * @param writer    JsonWriter to write to
+     * @param dbAdapter database adapter
+     * @throws IOException if an error occurred
+     */
+    private void beginJson(JsonWriter writer, DatabaseAdapter dbAdapter) throws IOException {
 
         // NOTE For display, don't use item.getDisplayType bc I don't
         // think we populate that value except when importing...
@@ -907,13 +937,20 @@ public class CollectionListInfo implements Parcelable {
         writer.name(COL_DISPLAY).value(displayType);
         writer.name(COL_START_YEAR).value(mStartYear);
         writer.name(COL_END_YEAR).value(mEndYear);
-        writer.name(COL_SHOW_MINT_MARKS).value(mMintMarkFlags);
-        writer.name(COL_SHOW_CHECKBOXES).value(mCheckboxFlags);
+        // The flags are written as strings, which is what older versions of the app expect
+        writer.name(COL_SHOW_MINT_MARKS).value(Long.toString(mMintMarkFlags));
+        writer.name(COL_SHOW_CHECKBOXES).value(Long.toString(mCheckboxFlags));
         writer.name(JSON_COIN_LIST);
         writer.beginArray();
-        for (CoinSlot coinSlot : coinList) {
-            coinSlot.writeToJson(writer);
-        }
+    }
+
+    /**
+     * End the coin list and the collection
+     *
+     * @param writer JsonWriter to write to
+     * @throws IOException if an error occurred
+     */
+    private void endJson(JsonWriter writer) throws IOException {
         writer.endArray();
         writer.endObject();
     }
@@ -1000,10 +1037,10 @@ public class CollectionListInfo implements Parcelable {
         mDisplayType = displayType;
         mStartYear = startYear;
         mEndYear = endYear;
-        mMintMarkFlags = Long.toString(parseFlagString(mintMarkFlags));
-        mCheckboxFlags = Long.toString(parseFlagString(checkboxFlags));
+        mMintMarkFlags = parseFlagString(mintMarkFlags);
+        mCheckboxFlags = parseFlagString(checkboxFlags);
         mCollectionTypeIndex = collectionTypeIndex;
-        mCollectionInfo = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        mCollectionInfo = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
     }
 
     /**
@@ -1025,13 +1062,13 @@ public class CollectionListInfo implements Parcelable {
         mEndYear = (in.length > 6) ? Integer.parseInt(in[6]) : 0;
         int mintMarkFlagsLegacy = (in.length > 7) ? Integer.parseInt(in[7]) : 0;
         int checkboxFlagsLegacy = (in.length > 8) ? Integer.parseInt(in[8]) : 0;
-        mMintMarkFlags = Long.toString(parseFlagString((in.length > 9) ? in[9] : Integer.toString(mintMarkFlagsLegacy)));
-        mCheckboxFlags = Long.toString(parseFlagString((in.length > 10) ? in[10] : Integer.toString(checkboxFlagsLegacy)));
+        mMintMarkFlags = (in.length > 9) ? parseFlagString(in[9]) : mintMarkFlagsLegacy;
+        mCheckboxFlags = (in.length > 10) ? parseFlagString(in[10]) : checkboxFlagsLegacy;
 
         // If the coin type isn't recognized, an error occurred so just choose a safe value
         int collectionTypeIndex = MainApplication.getIndexFromCollectionNameStr(in[1]);
         mCollectionTypeIndex = (collectionTypeIndex != -1) ? collectionTypeIndex : 0;
-        mCollectionInfo = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        mCollectionInfo = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
     }
 
     /**
@@ -1047,9 +1084,9 @@ public class CollectionListInfo implements Parcelable {
         mDisplayType = in.readInt();
         mStartYear = in.readInt();
         mEndYear = in.readInt();
-        mMintMarkFlags = in.readString();
-        mCheckboxFlags = in.readString();
-        mCollectionInfo = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        mMintMarkFlags = in.readLong();
+        mCheckboxFlags = in.readLong();
+        mCollectionInfo = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
     }
 
     @Override
@@ -1061,8 +1098,8 @@ public class CollectionListInfo implements Parcelable {
         dest.writeInt(mDisplayType);
         dest.writeInt(mStartYear);
         dest.writeInt(mEndYear);
-        dest.writeString(mMintMarkFlags);
-        dest.writeString(mCheckboxFlags);
+        dest.writeLong(mMintMarkFlags);
+        dest.writeLong(mCheckboxFlags);
     }
 
     @Override
@@ -25,7 +25,6 @@ import static com.spencerpages.MainApplication.APP_NAME;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.SQLException;
 import android.os.Bundle;
 import android.text.InputFilter;
 import android.text.InputType;
@@ -56,7 +55,9 @@ import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Activity for managing each collection page
@@ -79,6 +80,10 @@ public class CollectionPage extends BaseActivity {
     // initializing the fields setupFromDatabase() depends on.
     private boolean mSetupFromDatabasePending = false;
 
+    // Queue used to write coin toggles and advanced info changes in the background
+    private CoinWriteQueue mCoinWriteQueue;
+    private AdvInfoJournal mAdvInfoJournal;
+
     // Saved Instance State Keywords
 
     // Intent Argument Keywords
@@ -86,7 +91,9 @@ public class CollectionPage extends BaseActivity {
     public final static String COLLECTION_TYPE_INDEX = "Collection_Type_Index";
     private final static String VIEW_INDEX = "view_index";
     private final static String VIEW_POSITION = "view_position";
-    private final static String COIN_LIST = "coin_list";
+    final static String DIRTY_COIN_SLOTS = "dirty_coin_slots";
+    final static String PENDING_COIN_IDS = "pending_coin_ids";
+    final static String PENDING_IN_COLLECTION = "pending_in_collection";
 
     // Global "enum" values
     public static final int SIMPLE_DISPLAY = 0;
@@ -179,6 +186,9 @@ public class CollectionPage extends BaseActivity {
 
         // At this point the UI is ready to handle any async callbacks
         setActivityReadyForAsyncCallbacks();
+        mCoinWriteQueue = ((MainApplication) getApplication()).getCoinWriteQueue();
+        mCoinWriteQueue.setListener(this);
+        mAdvInfoJournal = ((MainApplication) getApplication()).getAdvInfoJournal();
 
         // Defer database-dependent setup until the database is confirmed open. On a
         // warm start the database is already open, so run it directly (no behavior
@@ -199,11 +209,29 @@ public class CollectionPage extends BaseActivity {
      * after the OS has killed the app process).
      */
     private void setupFromDatabase() {
+        // The advanced notes are read by the adapter as coins are shown, so the time to open
+        // the page and the memory used don't depend on how much text is in the collection
+        mCollectionRepository.loadCollection(mCollectionName, contents -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            setupFromDatabase(contents.mDisplayType, contents.mCoinList, contents.mJournalEdits);
+        }, () -> showCancelableAlert(mRes.getString(R.string.error_reading_database)));
+    }
+
+    /**
+     * Sets up the views once the collection has been read from the database
+     *
+     * @param displayType  whether to show the advanced view or the basic view
+     * @param coinList     the coins in the collection
+     * @param journalEdits the unsaved advanced-view edits read from the journal
+     */
+    private void setupFromDatabase(int displayType, ArrayList<CoinSlot> coinList, ArrayList<CoinSlot> journalEdits) {
 
-        CollectionInfo collectionTypeObj = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        CollectionInfo collectionTypeObj = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
 
         // Determine whether we should show the advanced view or the basic view
-        mDisplayType = mDbAdapter.fetchTableDisplay(mCollectionName);
+        mDisplayType = displayType;
 
         // Update the icon
         if (mActionBar != null) {
@@ -215,36 +243,37 @@ public class CollectionPage extends BaseActivity {
 
         // Populate the coin list
         boolean showUnsavedChanges = false;
-        boolean populateAdvInfo = (mDisplayType == ADVANCED_DISPLAY);
-        if (mSavedInstanceState == null) {
-            mCoinList = mDbAdapter.getCoinList(mCollectionName, populateAdvInfo);
-        } else {
-
-            // We have already loaded the advanced lists, so use those instead.
-            // That way we have all of the state from before the page loaded.
-            // yay
-            if (BuildConfig.DEBUG) {
-                Log.d(APP_NAME, "Successfully restored previous state");
+        mCoinList = coinList;
+        if (mSavedInstanceState != null) {
+            // Only the coins with uncommitted advanced-info changes are saved off, so
+            // reapply those on top of the list read from the database. The list is
+            // null if the state was saved before the deferred database setup ran
+            // (e.g. the activity was stopped while the async database open was
+            // still pending).
+            int numRequeued = requeuePendingWrites(mSavedInstanceState.getLongArray(PENDING_COIN_IDS),
+                    mSavedInstanceState.getBooleanArray(PENDING_IN_COLLECTION));
+            if (BuildConfig.DEBUG && numRequeued != 0) {
+                Log.d(APP_NAME, "Requeued " + numRequeued + " coin changes that may not have been written");
             }
-            mCoinList = mSavedInstanceState.getParcelableArrayList(COIN_LIST);
-            if (mCoinList == null) {
-                // The state was saved before the deferred database setup had
-                // populated the coin list (e.g. the activity was stopped while
-                // the async database open was still pending), so load the list
-                // from the database instead
-                mCoinList = mDbAdapter.getCoinList(mCollectionName, populateAdvInfo);
+            ArrayList<CoinSlot> dirtyCoinSlots = mSavedInstanceState.getParcelableArrayList(DIRTY_COIN_SLOTS);
+            int numApplied = applyDirtyCoinSlots(mCoinList, dirtyCoinSlots);
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Restored " + numApplied + " coins with unsaved changes");
             }
-            // Search through the hasChanged history and see whether we should
-            // re-display the "Unsaved Changes" view. Defer the actual view update
-            // until after setContentView() has run below, otherwise
-            // findViewById() returns null and showUnsavedTextView() crashes.
-            if (mCoinList != null) {
-                for (int i = 0; i < mCoinList.size(); i++) {
-                    if (mCoinList.get(i).hasAdvInfoChanged()) {
-                        showUnsavedChanges = true;
-                        break;
-                    }
+            // Re-display the "Unsaved Changes" view if any edits were restored. Defer
+            // the actual view update until after setContentView() has run below,
+            // otherwise findViewById() returns null and showUnsavedTextView() crashes.
+            showUnsavedChanges = (numApplied != 0);
+        }
+        if (mDisplayType == ADVANCED_DISPLAY) {
+            // Replay any edits left in the journal, in case the app was killed before they
+            // were saved. These are at least as new as the saved instance state.
+            int numReplayed = applyDirtyCoinSlots(mCoinList, journalEdits);
+            if (numReplayed != 0) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(APP_NAME, "Replayed " + numReplayed + " unsaved coin edits from the journal");
                 }
+                showUnsavedChanges = true;
             }
         }
 
@@ -266,11 +295,12 @@ public class CollectionPage extends BaseActivity {
         mOriginalCoinList = mCoinSlotAdapter.getOriginalCoinList();
         mCoinList = mCoinSlotAdapter.getFilteredCoinList();
 
+        final ScrollPrefetcher scrollPrefetcher = new ScrollPrefetcher(mCoinSlotAdapter);
         OnScrollListener scrollListener = new OnScrollListener() {
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
-                // Auto-generated method stub
-                // TODO Something we can put here that isn't slow but fixes the scrolling issue
-                // Anything we put here is going to be hit a lot :(
+                // Decode the images ahead of the scroll. This is hit a lot, so the
+                // prefetcher only does work when the first visible coin changes.
+                scrollPrefetcher.onScroll(view, firstVisibleItem, visibleItemCount);
             }
 
             public void onScrollStateChanged(AbsListView view, int scrollState) {
@@ -385,6 +415,9 @@ public class CollectionPage extends BaseActivity {
 
         // Scroll to the last position viewed (if saved)
         scrollToIndex(mViewIndex, mViewPosition, false);
+
+        // The menu depends on the display type
+        invalidateOptionsMenu();
     }
 
     /**
@@ -406,25 +439,113 @@ public class CollectionPage extends BaseActivity {
             if (resultStr.isEmpty()) {
                 setupFromDatabase();
             }
+        } else if (taskId == TASK_SAVE_COIN_CHANGES && !resultStr.isEmpty()) {
+            // A background write failed, so the coins shown may not match the database
+            reloadInCollectionFromDatabase();
         }
     }
 
     /**
-     * Report unsaved changes to the user
+     * Resets whether each coin is shown as collected to match the database. Coins with
+     * unsaved advanced info changes are left alone.
      */
-    public void showUnsavedTextView() {
+    private void reloadInCollectionFromDatabase() {
+        if (mCoinSlotAdapter == null || !mDbAdapter.isOpen()) {
+            return;
+        }
+        mCollectionRepository.getInCollectionStates(mCollectionName, dbInCollection -> {
+            if (isDestroyed()) {
+                return;
+            }
+            for (CoinSlot coinSlot : mOriginalCoinList) {
+                Boolean inCollection = dbInCollection.get(coinSlot.getDatabaseId());
+                if (inCollection != null && !coinSlot.hasAdvInfoChanged()) {
+                    coinSlot.setInCollection(inCollection);
+                }
+            }
+            mCoinSlotAdapter.setFilter(mCoinFilter);
+            mCoinList = mCoinSlotAdapter.getFilteredCoinList();
+            updateFilterStatusIndicator();
+        });
+    }
 
-        TextView unsavedMessageView = findViewById(R.id.unsaved_message_textview);
-        unsavedMessageView.setVisibility(View.VISIBLE);
+    /**
+     * Queues a coin's change to be written to the database in the background
+     *
+     * @param coinSlot        the coin that changed
+     * @param includesAdvInfo true if the advanced info changed, not just the collected state
+     */
+    private void queueCoinSlotWrite(CoinSlot coinSlot, boolean includesAdvInfo) {
+        if (includesAdvInfo) {
+            mCoinWriteQueue.queueAdvInfoChange(mCollectionName, coinSlot);
+        } else {
+            mCoinWriteQueue.queueInCollectionChange(mCollectionName, coinSlot);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        // Start writing any queued changes without waiting for them. If the process is
+        // killed before they're written, they're restored from the saved instance state
+        // (or, for the advanced info, from the journal.)
+        if (mCoinWriteQueue != null) {
+            mCoinWriteQueue.flushAsync();
+        }
+        super.onPause();
+    }
+
+    /**
+     * Reapply coin changes that hadn't been written when the instance state was saved, and
+     * queue them again. The writes set absolute values, so they can safely be repeated if
+     * they were written before the process was killed.
+     *
+     * @param coinIds      database IDs of the coins with uncommitted changes (may be null)
+     * @param inCollection whether each coin is in the collection (may be null)
+     * @return the number of changes queued
+     */
+    private int requeuePendingWrites(long[] coinIds, boolean[] inCollection) {
+        if (coinIds == null || inCollection == null || coinIds.length != inCollection.length) {
+            return 0;
+        }
+        HashMap<Long, Boolean> pendingById = new HashMap<>();
+        for (int i = 0; i < coinIds.length; i++) {
+            pendingById.put(coinIds[i], inCollection[i]);
+        }
+        int numRequeued = 0;
+        for (CoinSlot coinSlot : mCoinList) {
+            Boolean pendingInCollection = pendingById.get(coinSlot.getDatabaseId());
+            if (pendingInCollection != null) {
+                coinSlot.setInCollection(pendingInCollection);
+                queueCoinSlotWrite(coinSlot, false);
+                numRequeued++;
+            }
+        }
+        return numRequeued;
+    }
+
+    @Override
+    public void onDestroy() {
+        // Queued changes were already flushed in onPause
+        if (mCoinWriteQueue != null) {
+            mCoinWriteQueue.clearListener();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * @return the journal that unsaved advanced-view edits are appended to
+     */
+    AdvInfoJournal getAdvInfoJournal() {
+        return mAdvInfoJournal;
     }
 
     /**
-     * Hide the unsaved changes view
+     * Report unsaved changes to the user
      */
-    private void hideUnsavedTextView() {
+    public void showUnsavedTextView() {
 
         TextView unsavedMessageView = findViewById(R.id.unsaved_message_textview);
-        unsavedMessageView.setVisibility(View.GONE);
+        unsavedMessageView.setVisibility(View.VISIBLE);
     }
 
     @Override
@@ -474,7 +595,6 @@ public class CollectionPage extends BaseActivity {
             SharedPreferences.Editor editor = mainPreferences.edit();
 
             boolean isLocked = mainPreferences.getBoolean(mCollectionName + IS_LOCKED, false);
-            boolean finishedSuccessfully = true;
 
             // If we are going from unlocked to lock in advance mode, we need to save the
             // changes the user may have made (if any)
@@ -482,51 +602,49 @@ public class CollectionPage extends BaseActivity {
                     !isLocked &&
                     this.doUnsavedChangesExist()) {
 
-                // In the advanced display case, we also need to save
-
-                // TODO Show some kind of spinner
-
+                // In the advanced display case, we also need to save. The changes are
+                // queued and written together in one transaction, at the latest when
+                // this activity is paused for the restart below. Any failure is reported
+                // to the restarted page.
+                final ArrayList<CoinSlot> savedCoinSlots = new ArrayList<>();
                 for (int i = 0; i < mOriginalCoinList.size(); i++) {
                     CoinSlot coinSlot = mOriginalCoinList.get(i);
                     if (coinSlot.hasAdvInfoChanged()) {
-                        try {
-                            mDbAdapter.updateAdvInfo(mCollectionName, coinSlot);
-                        } catch (SQLException e) {
-                            finishedSuccessfully = false;
-                            // Keep going, though
-                            continue;
-                        }
-                        // Mark this data as being unchanged
-                        coinSlot.setAdvInfoChanged(false);
+                        queueCoinSlotWrite(coinSlot, true);
+                        savedCoinSlots.add(coinSlot);
                     }
                 }
 
-                if (finishedSuccessfully) {
-                    // Hide the unsaved changes view
-                    Toast.makeText(this, mRes.getString(R.string.changes_saved), Toast.LENGTH_SHORT).show();
-                    this.hideUnsavedTextView();
-                } else {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
-                }
+                // Once the edits are committed, mark them as saved and remove the journal.
+                // Until then, the journal keeps the edits in case the write fails or the
+                // app is killed, and the restarted page replays them.
+                final Context appContext = getApplicationContext();
+                final AdvInfoJournal advInfoJournal = mAdvInfoJournal;
+                final String collectionName = mCollectionName;
+                mCoinWriteQueue.runWhenWritten(() -> {
+                    for (CoinSlot coinSlot : savedCoinSlots) {
+                        coinSlot.setAdvInfoChanged(false);
+                    }
+                    advInfoJournal.clear(collectionName);
+                    Toast.makeText(appContext, appContext.getString(R.string.changes_saved), Toast.LENGTH_SHORT).show();
+                });
             }
 
-            if (finishedSuccessfully) {
-                if (isLocked) {
-                    // Locked, change to unlocked
-                    editor.putBoolean(mCollectionName + IS_LOCKED, false);
-                    // Change the text for next time
-                    if (mDisplayType == SIMPLE_DISPLAY) {
-                        item.setTitle(R.string.lock_collection);
-                    }
-                    // Don't update in the advance case, because we are going to blow
-                    // away this
-                } else {
-                    // Unlocked or preference doesn't exist, change preference to locked
-                    editor.putBoolean(mCollectionName + IS_LOCKED, true);
-                    // Change the text for next time
-                    if (mDisplayType == SIMPLE_DISPLAY) {
-                        item.setTitle(R.string.unlock_collection);
-                    }
+            if (isLocked) {
+                // Locked, change to unlocked
+                editor.putBoolean(mCollectionName + IS_LOCKED, false);
+                // Change the text for next time
+                if (mDisplayType == SIMPLE_DISPLAY) {
+                    item.setTitle(R.string.lock_collection);
+                }
+                // Don't update in the advance case, because we are going to blow
+                // away this
+            } else {
+                // Unlocked or preference doesn't exist, change preference to locked
+                editor.putBoolean(mCollectionName + IS_LOCKED, true);
+                // Change the text for next time
+                if (mDisplayType == SIMPLE_DISPLAY) {
+                    item.setTitle(R.string.unlock_collection);
                 }
             }
 
@@ -554,25 +672,12 @@ public class CollectionPage extends BaseActivity {
             return true;
         } else if (itemId == R.id.change_view) {
             if (mDisplayType == SIMPLE_DISPLAY) {
-                // Setup the advanced view
-                try {
-                    mDbAdapter.updateTableDisplay(mCollectionName, ADVANCED_DISPLAY);
-                } catch (SQLException e) {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
-                }
-
                 // Save the position that the user was at for convenience
                 GridView gridview = findViewById(R.id.standard_collection_page);
                 Integer[] viewPos = getAbsListViewPosition(gridview);
 
-                mCallingIntent.putExtra(VIEW_INDEX, viewPos[0]);
-                mCallingIntent.putExtra(VIEW_POSITION, viewPos[1]);
-                mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
-
-                // Restart the activity
-                finish();
-                startActivity(mCallingIntent);
-
+                // Setup the advanced view
+                changeDisplayType(ADVANCED_DISPLAY, viewPos);
                 return true;
 
             } else if (mDisplayType == ADVANCED_DISPLAY) {
@@ -589,23 +694,11 @@ public class CollectionPage extends BaseActivity {
 
                 // The user doesn't have any unsaved changes
 
-                try {
-                    mDbAdapter.updateTableDisplay(mCollectionName, SIMPLE_DISPLAY);
-                } catch (SQLException e) {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
-                }
-
                 // Save the position that the user was at for convenience
                 ListView listview = findViewById(R.id.advanced_collection_page);
                 Integer[] viewPos = getAbsListViewPosition(listview);
 
-                mCallingIntent.putExtra(VIEW_INDEX, viewPos[0]);
-                mCallingIntent.putExtra(VIEW_POSITION, viewPos[1]);
-                mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
-
-                // Restart the activity
-                finish();
-                startActivity(mCallingIntent);
+                changeDisplayType(SIMPLE_DISPLAY, viewPos);
                 return true;
             }
 
@@ -640,6 +733,24 @@ public class CollectionPage extends BaseActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Saves the new display type and restarts the activity to show it
+     *
+     * @param displayType SIMPLE_DISPLAY or ADVANCED_DISPLAY
+     * @param viewPos     the position that the user was at, to restore after restarting
+     */
+    private void changeDisplayType(int displayType, Integer[] viewPos) {
+        mCollectionRepository.setDisplayType(mCollectionName, displayType, () -> {
+            mCallingIntent.putExtra(VIEW_INDEX, viewPos[0]);
+            mCallingIntent.putExtra(VIEW_POSITION, viewPos[1]);
+            mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
+
+            // Restart the activity
+            finish();
+            startActivity(mCallingIntent);
+        }, () -> showCancelableAlert(mRes.getString(R.string.error_updating_database)));
+    }
+
     /**
      * Updates the collection name when the user renames a collection
      *
@@ -654,21 +765,26 @@ public class CollectionPage extends BaseActivity {
             return;
         }
 
-        // Make sure the new name isn't taken and is valid
-        int checkNameResult = mDbAdapter.checkCollectionName(newCollectionName);
-        if (checkNameResult != -1) {
-            Toast.makeText(this, mRes.getString(checkNameResult), Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        // Perform all actions needed to rename the collection
+        // Make sure the new name isn't taken and is valid, then update the database. Any
+        // changes queued under the old name are written first.
+        mCollectionRepository.renameCollection(oldCollectionName, newCollectionName, checkNameResult -> {
+            if (checkNameResult != -1) {
+                Toast.makeText(this, mRes.getString(checkNameResult), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            onCollectionRenamed(oldCollectionName, newCollectionName);
+        }, () -> showCancelableAlert(mRes.getString(R.string.error_updating_database)));
+    }
 
-        // Update database
-        try {
-            mDbAdapter.updateCollectionName(oldCollectionName, newCollectionName);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_updating_database));
-        }
+    /**
+     * Perform the rest of the actions needed to rename the collection, once the database
+     * has been updated
+     *
+     * @param oldCollectionName Name of the collection before renaming
+     * @param newCollectionName Name of the new collection
+     */
+    private void onCollectionRenamed(String oldCollectionName, String newCollectionName) {
+        mAdvInfoJournal.rename(oldCollectionName, newCollectionName);
 
         // Update app state
         SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
@@ -711,16 +827,12 @@ public class CollectionPage extends BaseActivity {
             return;
         }
 
-        // Update the coin in the coin list
-        try {
-            coinSlot.setIdentifier(coinName);
-            coinSlot.setMint(coinMint);
-            coinSlot.setImageId(imageId);
-            mDbAdapter.updateCoinNameMintImage(mCollectionName, coinSlot);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_updating_coin));
-            return;
-        }
+        // Update the coin in the coin list and the database
+        coinSlot.setIdentifier(coinName);
+        coinSlot.setMint(coinMint);
+        coinSlot.setImageId(imageId);
+        mCollectionRepository.updateCoinDetails(mCollectionName, coinSlot,
+                () -> showCancelableAlert(mRes.getString(R.string.error_updating_coin)));
 
         // Update the view
         mCoinSlotAdapter.notifyDataSetChanged();
@@ -734,21 +846,16 @@ public class CollectionPage extends BaseActivity {
      * @param imageId  coin image id
      */
     public void addNewCoin(String newName, String coinMint, int imageId) {
-        int sortOrder = mDbAdapter.getNextCoinSortOrder(mCollectionName);
-        CoinSlot newCoinSlot = new CoinSlot(newName, coinMint, sortOrder, imageId);
-        try {
-            // Insert the new coin into the database
-            mDbAdapter.addCoinSlotToCollection(newCoinSlot, mCollectionName, true, mOriginalCoinList.size() + 1);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_editing_coin));
-            return;
-        }
-        // Insert the new coin and update the view
-        mOriginalCoinList.add(newCoinSlot);
-        mCoinSlotAdapter.setFilter(mCoinFilter); // Refresh filter to update filtered list
-        mCoinList = mCoinSlotAdapter.getFilteredCoinList(); // Update reference
-        updateFilterStatusIndicator(); // Update filter status counts
-        scrollToIndex(mCoinList.size() - 1, 0, true);
+        // Insert the new coin into the database
+        mCollectionRepository.addCoin(mCollectionName, newName, coinMint, imageId, mOriginalCoinList.size() + 1,
+                newCoinSlot -> {
+                    // Insert the new coin and update the view
+                    mOriginalCoinList.add(newCoinSlot);
+                    mCoinSlotAdapter.setFilter(mCoinFilter); // Refresh filter to update filtered list
+                    mCoinList = mCoinSlotAdapter.getFilteredCoinList(); // Update reference
+                    updateFilterStatusIndicator(); // Update filter status counts
+                    scrollToIndex(mCoinList.size() - 1, 0, true);
+                }, () -> showCancelableAlert(mRes.getString(R.string.error_editing_coin)));
     }
 
     /**
@@ -807,6 +914,61 @@ public class CollectionPage extends BaseActivity {
         }
     }
 
+    /**
+     * Get the coins that have uncommitted advanced-info changes
+     *
+     * @param coinList coin list to search (may be null)
+     * @return the coins with changes
+     */
+    static ArrayList<CoinSlot> getDirtyCoinSlots(List<CoinSlot> coinList) {
+        ArrayList<CoinSlot> dirtyCoinSlots = new ArrayList<>();
+        if (coinList != null) {
+            for (CoinSlot coinSlot : coinList) {
+                if (coinSlot.hasAdvInfoChanged()) {
+                    dirtyCoinSlots.add(coinSlot);
+                }
+            }
+        }
+        return dirtyCoinSlots;
+    }
+
+    /**
+     * Reapply saved uncommitted advanced-info changes to a coin list read from the
+     * database. Coins are matched by database ID, and changes for coins that are no
+     * longer in the list are dropped.
+     *
+     * @param coinList       coin list read from the database
+     * @param dirtyCoinSlots coins with uncommitted changes (may be null)
+     * @return the number of coins updated
+     */
+    static int applyDirtyCoinSlots(List<CoinSlot> coinList, List<CoinSlot> dirtyCoinSlots) {
+        if (coinList == null || dirtyCoinSlots == null || dirtyCoinSlots.isEmpty()) {
+            return 0;
+        }
+        HashMap<Long, CoinSlot> dirtyById = new HashMap<>();
+        for (CoinSlot dirtyCoinSlot : dirtyCoinSlots) {
+            dirtyById.put(dirtyCoinSlot.getDatabaseId(), dirtyCoinSlot);
+        }
+        int numApplied = 0;
+        for (CoinSlot coinSlot : coinList) {
+            CoinSlot dirtyCoinSlot = dirtyById.get(coinSlot.getDatabaseId());
+            if (dirtyCoinSlot == null) {
+                continue;
+            }
+            coinSlot.setInCollection(dirtyCoinSlot.isInCollection());
+            coinSlot.setAdvancedGrades(dirtyCoinSlot.getAdvancedGrades());
+            coinSlot.setAdvancedQuantities(dirtyCoinSlot.getAdvancedQuantities());
+            // If the notes were never read they can't have been edited, so leave
+            // them to be read from the database
+            if (dirtyCoinSlot.isAdvancedNotesLoaded()) {
+                coinSlot.setAdvancedNotes(dirtyCoinSlot.getAdvancedNotes());
+            }
+            coinSlot.setAdvInfoChanged(true);
+            numApplied++;
+        }
+        return numApplied;
+    }
+
     /**
      * Set up the OnBackPressedCallback to handle unsaved changes in the advanced view.
      * Replaces the legacy onKeyDown(KEYCODE_BACK) approach which no longer works
@@ -865,9 +1027,28 @@ public class CollectionPage extends BaseActivity {
             viewPos = new Integer[]{mViewIndex, mViewPosition};
         }
 
-        // Save off these lists that may have unsaved user data
-        // Save the original coin list, not the filtered one, to avoid double-filtering after rotation
-        outState.putParcelableArrayList(COIN_LIST, mOriginalCoinList);
+        // Save off the coins that have unsaved user data. Everything else is read
+        // back from the database, so the saved state stays small for large collections
+        outState.putParcelableArrayList(DIRTY_COIN_SLOTS, getDirtyCoinSlots(mOriginalCoinList));
+
+        // Save the collected state of the coins whose changes may not have been written
+        // yet, since the writer may not finish before the process is killed
+        ArrayList<CoinSlot> pendingCoinSlots = new ArrayList<>();
+        if (mOriginalCoinList != null && mCoinWriteQueue != null) {
+            for (CoinSlot coinSlot : mOriginalCoinList) {
+                if (mCoinWriteQueue.hasPendingWrite(mCollectionName, coinSlot.getDatabaseId())) {
+                    pendingCoinSlots.add(coinSlot);
+                }
+            }
+        }
+        long[] pendingCoinIds = new long[pendingCoinSlots.size()];
+        boolean[] pendingInCollection = new boolean[pendingCoinSlots.size()];
+        for (int i = 0; i < pendingCoinSlots.size(); i++) {
+            pendingCoinIds[i] = pendingCoinSlots.get(i).getDatabaseId();
+            pendingInCollection[i] = pendingCoinSlots.get(i).isInCollection();
+        }
+        outState.putLongArray(PENDING_COIN_IDS, pendingCoinIds);
+        outState.putBooleanArray(PENDING_IN_COLLECTION, pendingInCollection);
         outState.putInt(VIEW_INDEX, viewPos[0]);
         outState.putInt(VIEW_POSITION, viewPos[1]);
         outState.putString(COLLECTION_NAME, mCollectionName);
@@ -915,6 +1096,8 @@ public class CollectionPage extends BaseActivity {
                 .setCancelable(false)
                 .setPositiveButton(mRes.getString(R.string.okay), (dialog, id) -> {
                     dialog.dismiss();
+                    // The edits are being discarded, so don't replay them next time
+                    mAdvInfoJournal.clear(mCollectionName);
                     finish();
                 })
                 .setNegativeButton(mRes.getString(R.string.cancel), (dialog, id) -> dialog.cancel()));
@@ -947,19 +1130,15 @@ public class CollectionPage extends BaseActivity {
             int coinPositionInCurrentList = mCoinSlotAdapter.getPositionInFilteredList(coinSlot);
             
             // Preference doesn't exist or Collection is unlocked
-            try {
-                mDbAdapter.toggleInCollection(mCollectionName, coinSlot);
-            } catch (SQLException e) {
-                showCancelableAlert(mRes.getString(R.string.error_updating_database));
-            }
-
-            // Update the coin's collection status
-            boolean oldValue = coinSlot.isInCollection();
-            coinSlot.setInCollection(!oldValue);
+            // Show the change right away and queue the toggle. Once it's committed, the coin
+            // is updated to match the value stored in the database.
+            coinSlot.setInCollection(!coinSlot.isInCollection());
+            mCoinWriteQueue.queueInCollectionToggle(mCollectionName, coinSlot,
+                    inCollection -> onCoinSlotToggleWritten(coinSlot, inCollection));
             
             // Since the adapter holds the original list, the change is automatically reflected
-            // Just reapply the current filter to update the filtered view
-            mCoinSlotAdapter.setFilter(mCoinFilter);
+            // Just add or remove this coin from the filtered view
+            mCoinSlotAdapter.onCoinSlotInCollectionChanged(coinSlot);
             mCoinList = mCoinSlotAdapter.getFilteredCoinList();
             
             // Update filter status indicator
@@ -970,6 +1149,26 @@ public class CollectionPage extends BaseActivity {
         }
     }
 
+    /**
+     * Called once a queued toggle is committed, to make the coin match the database
+     *
+     * @param coinSlot     the coin that was toggled
+     * @param inCollection whether the coin is in the collection in the database
+     */
+    private void onCoinSlotToggleWritten(CoinSlot coinSlot, boolean inCollection) {
+        if (isDestroyed() || mCoinSlotAdapter == null
+                || mCoinWriteQueue.hasPendingWrite(mCollectionName, coinSlot.getDatabaseId())) {
+            // A newer change to the coin is still being written, which reports back itself
+            return;
+        }
+        if (coinSlot.isInCollection() != inCollection) {
+            coinSlot.setInCollection(inCollection);
+            mCoinSlotAdapter.onCoinSlotInCollectionChanged(coinSlot);
+            mCoinList = mCoinSlotAdapter.getFilteredCoinList();
+            updateFilterStatusIndicator();
+        }
+    }
+
     /**
      * Makes a copy of the coin slot in the collection
      *
@@ -983,31 +1182,24 @@ public class CollectionPage extends BaseActivity {
             // Collection is locked
             showLockedMessage();
         } else {
-            // Create the new coin slot
-            // - copy() also sets the sort order to original + 1
-            // - Mark as custom coin since it wasn't added when the collection was created
-            CoinSlot newCoinSlot = coinSlot.copy(coinSlot.getIdentifier(), coinSlot.getMint(), true);
-            try {
-                // Update the sort order in the database and coin list
-                mDbAdapter.updateCoinSortOrderForInsert(mCollectionName, newCoinSlot.getSortOrder());
+            // The copy includes the notes, which are read first if needed
+            mCollectionRepository.copyCoin(mCollectionName, coinSlot, mOriginalCoinList.size() + 1, newCoinSlot -> {
+                // Update the sort order in the coin list to match the database
                 for (CoinSlot currCoinSlot : mOriginalCoinList) {
                     if (currCoinSlot.getSortOrder() >= newCoinSlot.getSortOrder()) {
                         currCoinSlot.setSortOrder(currCoinSlot.getSortOrder() + 1);
                     }
                 }
+                if (!coinSlot.isAdvancedNotesLoaded()) {
+                    coinSlot.setAdvancedNotes(newCoinSlot.getAdvancedNotes());
+                }
 
-                // Insert the new coin into the database
-                mDbAdapter.addCoinSlotToCollection(newCoinSlot, mCollectionName, true, mOriginalCoinList.size() + 1);
-            } catch (SQLException e) {
-                showCancelableAlert(mRes.getString(R.string.error_copying_coin));
-                return;
-            }
-
-            // Insert the new coin and update the view
-            mOriginalCoinList.add(coinListInsertIndex, newCoinSlot);
-            mCoinSlotAdapter.setFilter(mCoinFilter); // Refresh filter to update filtered list
-            mCoinList = mCoinSlotAdapter.getFilteredCoinList(); // Update reference
-            updateFilterStatusIndicator(); // Update filter status counts
+                // Insert the new coin and update the view
+                mOriginalCoinList.add(Math.min(coinListInsertIndex, mOriginalCoinList.size()), newCoinSlot);
+                mCoinSlotAdapter.setFilter(mCoinFilter); // Refresh filter to update filtered list
+                mCoinList = mCoinSlotAdapter.getFilteredCoinList(); // Update reference
+                updateFilterStatusIndicator(); // Update filter status counts
+            }, () -> showCancelableAlert(mRes.getString(R.string.error_copying_coin)));
         }
     }
 
@@ -1040,13 +1232,10 @@ public class CollectionPage extends BaseActivity {
                     break;
                 }
             }
-            try {
-                mDbAdapter.removeCoinSlotFromCollection(coinSlot, mCollectionName, mOriginalCoinList.size());
-            } catch (SQLException e) {
-                showCancelableAlert(mRes.getString(R.string.error_delete_coin));
-                return;
-            }
-            
+            // Any queued changes are written first, since the delete reads the coin's state
+            mCollectionRepository.deleteCoin(mCollectionName, coinSlot, mOriginalCoinList.size(),
+                    () -> showCancelableAlert(mRes.getString(R.string.error_delete_coin)));
+
             // Refresh the filter to update the filtered list
             mCoinSlotAdapter.setFilter(mCoinFilter);
             mCoinList = mCoinSlotAdapter.getFilteredCoinList(); // Update reference
@@ -1153,7 +1342,7 @@ public class CollectionPage extends BaseActivity {
      * @param imgSpinner coin image spinner
      */
     private void setupCoinImageSpinner(CoinSlot coinSlot, Spinner imgSpinner, LinearLayout imgRow) {
-        CollectionInfo collectionTypeObj = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        CollectionInfo collectionTypeObj = MainApplication.COLLECTION_TYPES.get(mCollectionTypeIndex);
         Object[][] imageIdData = collectionTypeObj.getImageIds();
 
         if (imageIdData.length != 0) {
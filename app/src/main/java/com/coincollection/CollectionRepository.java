@@ -0,0 +1,449 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CollectionListInfo.COL_NAME;
+import static com.spencerpages.MainApplication.APP_NAME;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Asynchronous access to the collections in the database for the activities. Database
+ * work is run on a background thread and the results are delivered on the main thread, so
+ * that slow storage never blocks the UI.
+ * <p>
+ * The work runs on the same single thread as the coin write queue, so it runs in the order
+ * it was requested and after any coin writes that were flushed before it. In unit tests the
+ * work runs right away on the calling thread, like the async task runner.
+ */
+public class CollectionRepository {
+
+    /**
+     * Receives the result of a database operation on the main thread
+     *
+     * @param <T> result type
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Database work that is run on the background thread
+     *
+     * @param <T> result type
+     */
+    private interface Operation<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Coins and display type read to show a collection, along with any unsaved advanced-view
+     * edits left in the journal
+     */
+    public static class CollectionContents {
+        public final int mDisplayType;
+        public final ArrayList<CoinSlot> mCoinList;
+        public final ArrayList<CoinSlot> mJournalEdits;
+
+        CollectionContents(int displayType, ArrayList<CoinSlot> coinList, ArrayList<CoinSlot> journalEdits) {
+            mDisplayType = displayType;
+            mCoinList = coinList;
+            mJournalEdits = journalEdits;
+        }
+    }
+
+    private final DatabaseAdapter mDbAdapter;
+    private final CoinWriteQueue mCoinWriteQueue;
+    private final AdvInfoJournal mAdvInfoJournal;
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+
+    // Held while the database work runs, so it doesn't overlap a whole-database task (Ex: import)
+    private final Lock mDatabaseLock = TaskScheduler.getDefault().getDatabaseReadLock();
+
+    /**
+     * Constructor
+     *
+     * @param dbAdapter      database to access
+     * @param coinWriteQueue queue of coin writes, flushed before work that reads the coins
+     * @param advInfoJournal journal of unsaved advanced-view edits, read with the collection
+     */
+    public CollectionRepository(DatabaseAdapter dbAdapter, CoinWriteQueue coinWriteQueue,
+                                AdvInfoJournal advInfoJournal) {
+        this(dbAdapter, coinWriteQueue, advInfoJournal, CoinWriteQueue.sDefaultExecutor,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Constructor allowing the executor and main-thread handler to be injected. Used by
+     * tests to run the background work and main looper deterministically.
+     *
+     * @param dbAdapter      database to access
+     * @param coinWriteQueue queue of coin writes, flushed before work that reads the coins
+     * @param advInfoJournal journal of unsaved advanced-view edits, read with the collection
+     * @param executor       executor used to run the database work
+     * @param mainHandler    handler used to deliver the results
+     */
+    CollectionRepository(DatabaseAdapter dbAdapter, CoinWriteQueue coinWriteQueue, AdvInfoJournal advInfoJournal,
+                         Executor executor, Handler mainHandler) {
+        mDbAdapter = dbAdapter;
+        mCoinWriteQueue = coinWriteQueue;
+        mAdvInfoJournal = advInfoJournal;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    /**
+     * Take a copy of a coin that can be handed to the background thread, so later changes on
+     * the UI thread don't race with the database work
+     *
+     * @param coinSlot coin to copy
+     * @return the copy, with the same database ID
+     */
+    static CoinSlot snapshot(CoinSlot coinSlot) {
+        CoinSlot snapshot = new CoinSlot(coinSlot.getDatabaseId(), coinSlot.getIdentifier(), coinSlot.getMint(),
+                coinSlot.isInCollection(), coinSlot.getAdvancedGrades(), coinSlot.getAdvancedQuantities(),
+                coinSlot.getAdvancedNotes(), coinSlot.getSortOrder(), coinSlot.isCustomCoin(),
+                coinSlot.getImageId());
+        if (!coinSlot.isAdvancedNotesLoaded()) {
+            snapshot.setAdvancedNotesNotLoaded();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Run database work while holding the database read lock
+     *
+     * @param operation the database work
+     * @param <T>       result type
+     * @return the result
+     * @throws SQLException if a database error occurs
+     */
+    private <T> T runLocked(Operation<T> operation) throws SQLException {
+        mDatabaseLock.lock();
+        try {
+            return operation.run();
+        } finally {
+            mDatabaseLock.unlock();
+        }
+    }
+
+    /**
+     * Run database work in the background and deliver the result on the main thread
+     *
+     * @param operation the database work
+     * @param onResult  called with the result if the work succeeded
+     * @param onError   called if a database error occurred
+     * @param <T>       result type
+     */
+    private <T> void run(Operation<T> operation, Callback<T> onResult, Runnable onError) {
+        if (BaseActivity.isUnitTest && BuildConfig.DEBUG) {
+            // Run on the current thread (used for unit tests)
+            T result;
+            try {
+                result = runLocked(operation);
+            } catch (SQLException e) {
+                onError.run();
+                return;
+            }
+            onResult.onResult(result);
+            return;
+        }
+        mExecutor.execute(() -> {
+            try {
+                final T result = runLocked(operation);
+                mMainHandler.post(() -> onResult.onResult(result));
+            } catch (SQLException e) {
+                mMainHandler.post(onError);
+            }
+        });
+    }
+
+    /**
+     * Read the list of collections, in display order
+     *
+     * @param onResult called with the collections
+     * @param onError  called if a database error occurred
+     */
+    public void getAllCollections(Callback<ArrayList<CollectionListInfo>> onResult, Runnable onError) {
+        run(() -> {
+            ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+            mDbAdapter.getAllTables(collectionListEntries);
+            return collectionListEntries;
+        }, onResult, onError);
+    }
+
+    /**
+     * Check whether a name can be used for a new collection
+     *
+     * @param name     the collection name
+     * @param onResult called with -1 if the name can be used, otherwise the string resource
+     *                 ID of the reason it can't
+     */
+    public void checkCollectionName(String name, Callback<Integer> onResult) {
+        run(() -> mDbAdapter.checkCollectionName(name), onResult, () -> onResult.onResult(-1));
+    }
+
+    /**
+     * Delete a collection and close the gap it leaves in the display order
+     *
+     * @param name    the collection name
+     * @param onDone  called once the collection has been deleted
+     * @param onError called if a database error occurred
+     */
+    public void deleteCollection(String name, Runnable onDone, Runnable onError) {
+        run(() -> {
+            mDbAdapter.dropCollectionTable(name);
+            ArrayList<String> names = new ArrayList<>();
+            try (Cursor cursor = mDbAdapter.getAllCollectionNames()) {
+                while (cursor.moveToNext()) {
+                    names.add(cursor.getString(cursor.getColumnIndexOrThrow(COL_NAME)));
+                }
+            }
+            mDbAdapter.updateDisplayOrders(names);
+            return null;
+        }, result -> onDone.run(), onError);
+    }
+
+    /**
+     * Make a copy of a collection with the first free name of the form base name, suffix,
+     * then a number if needed (Ex: "Pennies Copy", "Pennies Copy1"). The copy is placed
+     * right after the source in the display order.
+     *
+     * @param source   the collection to copy
+     * @param baseName the name to add the suffix to
+     * @param suffix   the copy suffix
+     * @param onResult called with the new collection
+     * @param onError  called if a database error occurred
+     */
+    public void copyCollection(CollectionListInfo source, String baseName, String suffix,
+                               Callback<CollectionListInfo> onResult, Runnable onError) {
+        run(() -> {
+            String newName;
+            int attemptNumber = 0;
+            do {
+                String suffixIndex = (attemptNumber == 0) ? "" : Integer.toString(attemptNumber);
+                newName = baseName + suffix + suffixIndex;
+                attemptNumber++;
+            } while (mDbAdapter.checkCollectionName(newName) != -1);
+            return mDbAdapter.createCollectionCopy(source, newName);
+        }, onResult, onError);
+    }
+
+    /**
+     * Update the display order of the collections to match a list. Only the collections
+     * that moved are written, in a single transaction.
+     *
+     * @param names   the collection names in their new order
+     * @param onDone  called once the display order has been updated
+     * @param onError called if a database error occurred
+     */
+    public void reorderCollections(List<String> names, Runnable onDone, Runnable onError) {
+        final ArrayList<String> namesCopy = new ArrayList<>(names);
+        run(() -> {
+            int numUpdated = mDbAdapter.updateDisplayOrders(namesCopy);
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Reordered " + numUpdated + " of " + namesCopy.size() + " collections");
+            }
+            return null;
+        }, result -> onDone.run(), onError);
+    }
+
+    /**
+     * Read a collection's display type and the coins to show. The advanced notes aren't
+     * read (see readAdvancedNotes). In the advanced view, the edits left in the journal
+     * are read too, so the caller can replay them without blocking on the journal.
+     *
+     * @param name     the collection name
+     * @param onResult called with the collection contents
+     * @param onError  called if a database error occurred
+     */
+    public void loadCollection(String name, Callback<CollectionContents> onResult, Runnable onError) {
+        run(() -> {
+            int displayType = mDbAdapter.fetchTableDisplay(name);
+            boolean populateAdvInfo = (displayType == CollectionPage.ADVANCED_DISPLAY);
+            ArrayList<CoinSlot> coinList = mDbAdapter.getCoinListForDisplay(name, populateAdvInfo);
+            // Only the advanced view has edits that can be left unsaved
+            ArrayList<CoinSlot> journalEdits = populateAdvInfo ? mAdvInfoJournal.read(name) : new ArrayList<>();
+            return new CollectionContents(displayType, coinList, journalEdits);
+        }, onResult, onError);
+    }
+
+    /**
+     * Read whether each coin is in the collection, after writing any queued coin changes
+     *
+     * @param name     the collection name
+     * @param onResult called with whether each coin is in the collection, by database ID
+     */
+    public void getInCollectionStates(String name, Callback<HashMap<Long, Boolean>> onResult) {
+        run(() -> {
+            mCoinWriteQueue.flush();
+            HashMap<Long, Boolean> inCollection = new HashMap<>();
+            for (CoinSlot coinSlot : mDbAdapter.getCoinList(name, false)) {
+                inCollection.put(coinSlot.getDatabaseId(), coinSlot.isInCollection());
+            }
+            return inCollection;
+        }, onResult, () -> {
+        });
+    }
+
+    /**
+     * Read the advanced notes for coins
+     *
+     * @param name     the collection name
+     * @param ids      database IDs of the coins
+     * @param onResult called with the notes by database ID
+     * @param onError  called if a database error occurred
+     */
+    public void readAdvancedNotes(String name, List<Long> ids, Callback<HashMap<Long, String>> onResult,
+                                  Runnable onError) {
+        run(() -> mDbAdapter.readAdvancedNotes(name, ids), onResult, onError);
+    }
+
+    /**
+     * Set whether a collection is shown with the simple or advanced view
+     *
+     * @param name        the collection name
+     * @param displayType SIMPLE_DISPLAY or ADVANCED_DISPLAY
+     * @param onDone      called once the display type has been written
+     * @param onError     called if a database error occurred
+     */
+    public void setDisplayType(String name, int displayType, Runnable onDone, Runnable onError) {
+        run(() -> {
+            mDbAdapter.updateTableDisplay(name, displayType);
+            return null;
+        }, result -> onDone.run(), onError);
+    }
+
+    /**
+     * Rename a collection, after writing any coin changes queued under the old name
+     *
+     * @param oldName  the current collection name
+     * @param newName  the new collection name
+     * @param onResult called with -1 if the collection was renamed, otherwise the string
+     *                 resource ID of the reason the new name can't be used
+     * @param onError  called if a database error occurred
+     */
+    public void renameCollection(String oldName, String newName, Callback<Integer> onResult, Runnable onError) {
+        run(() -> {
+            int checkNameResult = mDbAdapter.checkCollectionName(newName);
+            if (checkNameResult != -1) {
+                return checkNameResult;
+            }
+            mCoinWriteQueue.flush();
+            mDbAdapter.updateCollectionName(oldName, newName);
+            return -1;
+        }, onResult, onError);
+    }
+
+    /**
+     * Update a coin's identifier, mint and image
+     *
+     * @param name     the collection name
+     * @param coinSlot the coin with the new details
+     * @param onError  called if a database error occurred
+     */
+    public void updateCoinDetails(String name, CoinSlot coinSlot, Runnable onError) {
+        final CoinSlot snapshot = snapshot(coinSlot);
+        run(() -> {
+            mDbAdapter.updateCoinNameMintImage(name, snapshot);
+            return null;
+        }, result -> {
+        }, onError);
+    }
+
+    /**
+     * Add a new coin at the end of a collection
+     *
+     * @param name              the collection name
+     * @param identifier        the coin identifier
+     * @param mint              the coin mint
+     * @param imageId           the coin image ID
+     * @param newCollectionSize number of coins in the collection after adding
+     * @param onResult          called with the new coin
+     * @param onError           called if a database error occurred
+     */
+    public void addCoin(String name, String identifier, String mint, int imageId, int newCollectionSize,
+                        Callback<CoinSlot> onResult, Runnable onError) {
+        run(() -> {
+            int sortOrder = mDbAdapter.getNextCoinSortOrder(name);
+            CoinSlot newCoinSlot = new CoinSlot(identifier, mint, sortOrder, imageId);
+            mDbAdapter.addCoinSlotToCollection(newCoinSlot, name, true, newCollectionSize);
+            return newCoinSlot;
+        }, onResult, onError);
+    }
+
+    /**
+     * Add a copy of a coin after it in a collection, making room in the sort order. The
+     * copy includes the coin's notes, which are read first if needed.
+     *
+     * @param name              the collection name
+     * @param coinSlot          the coin to copy
+     * @param newCollectionSize number of coins in the collection after adding
+     * @param onResult          called with the new coin
+     * @param onError           called if a database error occurred
+     */
+    public void copyCoin(String name, CoinSlot coinSlot, int newCollectionSize, Callback<CoinSlot> onResult,
+                         Runnable onError) {
+        final CoinSlot snapshot = snapshot(coinSlot);
+        run(() -> {
+            ArrayList<CoinSlot> coinSlots = new ArrayList<>();
+            coinSlots.add(snapshot);
+            mDbAdapter.fetchAdvancedNotes(name, coinSlots);
+
+            // - copy() also sets the sort order to original + 1
+            // - Mark as custom coin since it wasn't added when the collection was created
+            CoinSlot newCoinSlot = snapshot.copy(snapshot.getIdentifier(), snapshot.getMint(), true);
+            mDbAdapter.updateCoinSortOrderForInsert(name, newCoinSlot.getSortOrder());
+            mDbAdapter.addCoinSlotToCollection(newCoinSlot, name, true, newCollectionSize);
+            return newCoinSlot;
+        }, onResult, onError);
+    }
+
+    /**
+     * Delete a coin from a collection, after writing any queued coin changes
+     *
+     * @param name              the collection name
+     * @param coinSlot          the coin to delete
+     * @param newCollectionSize number of coins in the collection after deleting
+     * @param onError           called if a database error occurred
+     */
+    public void deleteCoin(String name, CoinSlot coinSlot, int newCollectionSize, Runnable onError) {
+        final CoinSlot snapshot = snapshot(coinSlot);
+        run(() -> {
+            mCoinWriteQueue.flush();
+            mDbAdapter.removeCoinSlotFromCollection(snapshot, name, newCollectionSize);
+            return null;
+        }, result -> {
+        }, onError);
+    }
+}
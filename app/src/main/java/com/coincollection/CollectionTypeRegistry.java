@@ -0,0 +1,227 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Registry of the supported collection types, indexed in the order they were added.
+ * <p>
+ * Each collection type is only created the first time it's used. Creating one runs its
+ * static tables (Ex: the coin identifier lists and image maps), so this keeps app startup
+ * from paying for every collection type when only the ones in the user's database are
+ * needed. The type names are compile-time constants, so the name lookup table is built
+ * without loading any of the collection classes.
+ */
+public class CollectionTypeRegistry implements Iterable<CollectionInfo> {
+
+    /**
+     * Creates a collection type object
+     */
+    public interface Factory {
+        CollectionInfo create();
+    }
+
+    /**
+     * A collection type, created on first use
+     */
+    private static class Holder {
+        final String mName;
+        final Class<? extends CollectionInfo> mClass;
+        final Factory mFactory;
+        volatile CollectionInfo mInstance = null;
+
+        Holder(String name, Class<? extends CollectionInfo> collectionClass, Factory factory) {
+            mName = name;
+            mClass = collectionClass;
+            mFactory = factory;
+        }
+
+        CollectionInfo get() {
+            CollectionInfo instance = mInstance;
+            if (instance == null) {
+                synchronized (this) {
+                    instance = mInstance;
+                    if (instance == null) {
+                        instance = mFactory.create();
+                        mInstance = instance;
+                    }
+                }
+            }
+            return instance;
+        }
+    }
+
+    private final Holder[] mHolders;
+    private final HashMap<String, Integer> mIndexByName;
+
+    /**
+     * Builds a registry. Collection types must be added in index order.
+     */
+    public static class Builder {
+        private final ArrayList<Holder> mHolders = new ArrayList<>();
+
+        /**
+         * Add a collection type
+         *
+         * @param name            the collection type name (Ex: LincolnCents.COLLECTION_TYPE)
+         * @param collectionClass the collection type class
+         * @param factory         creates the collection type (Ex: LincolnCents::new)
+         * @return this builder
+         */
+        public Builder add(String name, Class<? extends CollectionInfo> collectionClass, Factory factory) {
+            mHolders.add(new Holder(name, collectionClass, factory));
+            return this;
+        }
+
+        /**
+         * @return the registry
+         */
+        public CollectionTypeRegistry build() {
+            return new CollectionTypeRegistry(mHolders.toArray(new Holder[0]));
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param holders the collection types in index order
+     */
+    private CollectionTypeRegistry(Holder[] holders) {
+        mHolders = holders;
+        mIndexByName = new HashMap<>(holders.length * 2);
+        for (int i = 0; i < holders.length; i++) {
+            if (mIndexByName.put(holders[i].mName, i) != null) {
+                throw new IllegalArgumentException("Duplicate collection type " + holders[i].mName);
+            }
+        }
+    }
+
+    /**
+     * @return the number of collection types
+     */
+    public int size() {
+        return mHolders.length;
+    }
+
+    /**
+     * Get a collection type, creating it if this is its first use
+     *
+     * @param index the collection type index
+     * @return the collection type
+     */
+    public CollectionInfo get(int index) {
+        return mHolders[index].get();
+    }
+
+    /**
+     * Get the name of a collection type without creating it
+     *
+     * @param index the collection type index
+     * @return the collection type name
+     */
+    public String getName(int index) {
+        return mHolders[index].mName;
+    }
+
+    /**
+     * Get the index of a collection type from its name
+     *
+     * @param collectionTypeName the collection type name
+     * @return the index, or -1 if not found
+     */
+    public int indexOf(String collectionTypeName) {
+        Integer index = mIndexByName.get(collectionTypeName);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Get the index of a collection type from its class, without creating it
+     *
+     * @param collectionClass the collection type class (or a superclass of it)
+     * @return the index, or -1 if not found
+     */
+    public int indexOf(Class<?> collectionClass) {
+        for (int i = 0; i < mHolders.length; i++) {
+            if (collectionClass.isAssignableFrom(mHolders[i].mClass)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of collection types that have been created
+     */
+    public int getNumCreated() {
+        int numCreated = 0;
+        for (Holder holder : mHolders) {
+            if (holder.mInstance != null) {
+                numCreated++;
+            }
+        }
+        return numCreated;
+    }
+
+    /**
+     * Get all the collection types, creating any that haven't been used yet
+     *
+     * @return the collection types in index order
+     */
+    public ArrayList<CollectionInfo> getAll() {
+        ArrayList<CollectionInfo> collectionTypes = new ArrayList<>(mHolders.length);
+        for (Holder holder : mHolders) {
+            collectionTypes.add(holder.get());
+        }
+        return collectionTypes;
+    }
+
+    /**
+     * Iterates over all the collection types, creating any that haven't been used yet
+     *
+     * @return the iterator
+     */
+    @NonNull
+    @Override
+    public Iterator<CollectionInfo> iterator() {
+        return new Iterator<CollectionInfo>() {
+            private int mNextIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mNextIndex < mHolders.length;
+            }
+
+            @Override
+            public CollectionInfo next() {
+                if (mNextIndex >= mHolders.length) {
+                    throw new NoSuchElementException();
+                }
+                return get(mNextIndex++);
+            }
+        };
+    }
+}
@@ -28,13 +28,14 @@ import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
 import static com.coincollection.CoinSlot.COL_IMAGE_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
 import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CollectionListInfo.COL_CHECKBOX_FLAGS;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
+import static com.coincollection.CollectionListInfo.COL_MINT_MARK_FLAGS;
 import static com.coincollection.CollectionListInfo.COL_NAME;
-import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
-import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
 import static com.coincollection.CollectionListInfo.COL_START_YEAR;
 import static com.coincollection.CollectionListInfo.COL_TOTAL;
 import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
@@ -51,10 +52,18 @@ import android.database.sqlite.SQLiteStatement;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Adapter based on the Simple Notes Database Access Helper Class on the Android site.
@@ -66,6 +75,60 @@ public class DatabaseAdapter {
 
     private final DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb = null;
+    private DatabaseHelper.UpgradeProgressListener mUpgradeProgressListener = null;
+
+    // Maximum number of compiled statements to keep. Since table names are part of the SQL,
+    // each collection that is used needs its own statements.
+    static final int MAX_CACHED_STATEMENTS = 32;
+
+    // Maximum number of coins to read notes for in one query (older SQLite versions limit
+    // a statement to 999 bound parameters)
+    static final int MAX_NOTES_PER_QUERY = 500;
+
+    // Number of coins read per query when streaming a collection. Each query only fills
+    // a cursor window with this many rows, so large collections (or long notes) don't
+    // need to fit in memory at once.
+    static final int STREAM_CHUNK_SIZE = 250;
+
+    /**
+     * Receives each coin as a collection is streamed
+     */
+    public interface CoinVisitor {
+        /**
+         * Called for each coin, in sort order
+         *
+         * @param coinSlot the coin, which isn't retained after the call
+         * @throws IOException if the coin can't be written
+         */
+        void visit(CoinSlot coinSlot) throws IOException;
+    }
+
+    /**
+     * Compiled statements for frequently run SQL, keyed by the SQL text, with the least
+     * recently used statement closed once the cache is full. Guarded by mStatementCacheLock,
+     * which stays held while a cached statement is in use. SQLiteConnection also keeps its
+     * own prepared statement cache, but each SQLiteStatement still has to be created (and
+     * its SQL looked up) on every use, which this avoids for the hot single-coin queries.
+     */
+    private final LinkedHashMap<String, SQLiteStatement> mStatementCache =
+            new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_CACHED_STATEMENTS) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private final ReentrantLock mStatementCacheLock = new ReentrantLock();
+    private final AtomicLong mStatementCacheHits = new AtomicLong();
+    private final AtomicLong mStatementCacheMisses = new AtomicLong();
+    private boolean mStatementCacheEnabled = true;
+
+    // Names of tables renamed or dropped since the cache was last used, whose statements
+    // must be dropped. Guarded by itself.
+    private final HashSet<String> mStaleTables = new HashSet<>();
 
     /**
      * Record any internal DB names here!
@@ -101,6 +164,17 @@ public class DatabaseAdapter {
         }
     }
 
+    /**
+     * Sets the listener notified of progress if the database is upgraded, either when
+     * opened or after an import
+     *
+     * @param upgradeProgressListener the listener, or null for none
+     */
+    public void setUpgradeProgressListener(DatabaseHelper.UpgradeProgressListener upgradeProgressListener) {
+        mUpgradeProgressListener = upgradeProgressListener;
+        mDbHelper.setUpgradeProgressListener(upgradeProgressListener);
+    }
+
     /**
      * Check if the database is open
      *
@@ -114,6 +188,7 @@ public class DatabaseAdapter {
      * Close the current database connection
      */
     public void close() {
+        clearStatementCache();
         if (mDb != null && mDb.isOpen()) {
             mDb.close();
             mDb = null;
@@ -132,29 +207,20 @@ public class DatabaseAdapter {
     // TODO Retrieving the coin information individually (and onScroll) is inefficient... We should
     // instead have one query that returns all of the info.
     public int fetchIsInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM [" + removeBrackets(tableName) + "] WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE + " LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, String.valueOf(coinSlot.getDatabaseId()));
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        return fetchIsInCollection(tableName, coinSlot.getDatabaseId());
     }
 
     /**
-     * Updates a coins presence in the database.
+     * Returns whether a coin is in the collection, by database ID
      *
-     * @param tableName The name of the collection of interest
-     * @param coinSlot  The coin we want to retrieve data for
-     * @throws SQLException if the database update was not successful
+     * @param tableName  The name of the collection of interest
+     * @param databaseId The coin's database ID
+     * @return 1 if the coin is in the collection, 0 otherwise
+     * @throws SQLException if coin could not be found
      */
-    public void toggleInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        int result = fetchIsInCollection(tableName, coinSlot);
-        int toggleResult = (result + 1) % 2;
-        ContentValues args = new ContentValues();
-        args.put(COL_IN_COLLECTION, toggleResult);
-        String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+    int fetchIsInCollection(String tableName, long databaseId) throws SQLException {
+        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM [" + removeBrackets(tableName) + "] WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE + " LIMIT 1";
+        return queryForInt(sqlCmd, String.valueOf(databaseId));
     }
 
     /**
@@ -167,12 +233,7 @@ public class DatabaseAdapter {
     public int fetchTableDisplay(String tableName) throws SQLException {
         // The database will only be set up this way in this case
         String sqlCmd = "SELECT " + COL_DISPLAY + " FROM " + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=? LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, tableName);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        return queryForInt(sqlCmd, tableName);
     }
 
     /**
@@ -202,22 +263,107 @@ public class DatabaseAdapter {
     }
 
     /**
-     * Updates the info for the coin in table 'name' where the coin is identified with
-     * coinIdentifier and coinMint. This includes the advanced info (coin grade, quantity, and
-     * notes) in addition to whether it is inc the collection.
+     * Updates the order in which the collections appear in the list of collections. Only
+     * the collections whose display order changed are written, in a single transaction.
+     *
+     * @param orderedNames - The collection names in their new order
+     * @return the number of collections whose display order changed
+     * @throws SQLException if a collection doesn't exist or the update was not successful
+     */
+    public int updateDisplayOrders(List<String> orderedNames) throws SQLException {
+        mDb.beginTransaction();
+        try {
+            HashMap<String, Integer> currentDisplayOrders = new HashMap<>();
+            try (Cursor cursor = mDb.query(TBL_COLLECTION_INFO, new String[]{COL_NAME, COL_DISPLAY_ORDER},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(1)) {
+                        currentDisplayOrders.put(cursor.getString(0), cursor.getInt(1));
+                    }
+                }
+            }
+            String sqlCmd = "UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_DISPLAY_ORDER + " = ? WHERE "
+                    + COL_NAME + " = ?";
+            int numUpdated = 0;
+            for (int i = 0; i < orderedNames.size(); i++) {
+                String tableName = orderedNames.get(i);
+                Integer currentDisplayOrder = currentDisplayOrders.get(tableName);
+                if (currentDisplayOrder != null && currentDisplayOrder == i) {
+                    continue;
+                }
+                if (updateOrDelete(sqlCmd, String.valueOf(i), tableName) <= 0) {
+                    throw new SQLException();
+                }
+                numUpdated++;
+            }
+            mDb.setTransactionSuccessful();
+            return numUpdated;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Writes the advanced info and collected state for a coin. This doesn't update the
+     * collected count, so callers should call updateCollectedCount once they are done.
      *
      * @param tableName The collection name
      * @param coinSlot  Coin slot
-     * @throws SQLException if the database update was not successful
+     * @return the number of rows updated (0 if the coin no longer exists)
+     * @throws SQLException if a database error occurs
      */
-    void updateAdvInfo(String tableName, CoinSlot coinSlot) throws SQLException {
+    int writeAdvInfo(String tableName, CoinSlot coinSlot) throws SQLException {
         ContentValues args = new ContentValues();
         args.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
         args.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
         args.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
-        args.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
+        if (coinSlot.isAdvancedNotesLoaded()) {
+            // Don't overwrite notes that were never read from the database
+            args.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
+        }
         String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+        return DatabaseHelper.runSqlUpdate(mDb, tableName, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+    }
+
+    /**
+     * Writes the collected state for a coin. This doesn't update the collected count, so
+     * callers should call updateCollectedCount once they are done.
+     *
+     * @param tableName The collection name
+     * @param coinSlot  Coin slot
+     * @return the number of rows updated (0 if the coin no longer exists)
+     * @throws SQLException if a database error occurs
+     */
+    int writeInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
+        return updateOrDelete("UPDATE [" + removeBrackets(tableName) + "] SET " + COL_IN_COLLECTION
+                        + " = ? WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE,
+                String.valueOf(coinSlot.isInCollectionInt()), String.valueOf(coinSlot.getDatabaseId()));
+    }
+
+    /**
+     * Toggles whether a coin is in the collection with a single in-place UPDATE, rather than
+     * reading the value and writing back the opposite. This doesn't update the collected
+     * count, so callers should call updateCollectedCount once they are done.
+     *
+     * @param tableName  The collection name
+     * @param databaseId The coin's database ID
+     * @return the number of rows updated (0 if the coin no longer exists)
+     * @throws SQLException if a database error occurs
+     */
+    public int toggleInCollection(String tableName, long databaseId) throws SQLException {
+        return updateOrDelete("UPDATE [" + removeBrackets(tableName) + "] SET " + COL_IN_COLLECTION
+                        + " = 1 - " + COL_IN_COLLECTION + " WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE,
+                String.valueOf(databaseId));
+    }
+
+    /**
+     * Recomputes the collected count stored for a collection
+     *
+     * @param tableName The collection name
+     * @throws SQLException if a database error occurs
+     */
+    public void updateCollectedCount(String tableName) throws SQLException {
+        DatabaseHelper.updateCollectedCount(mDb, tableName);
     }
 
     /**
@@ -253,29 +399,56 @@ public class DatabaseAdapter {
      */
     public void createAndPopulateNewTable(CollectionListInfo collectionListInfo, int displayOrder, ArrayList<CoinSlot> coinData) throws SQLException {
 
-        // Actually make the table
-        String tableName = collectionListInfo.getName();
-        createCollectionTable(tableName);
+        // Create and populate the table in a single transaction so that a failure
+        // doesn't leave behind a partially populated collection
+        mDb.beginTransaction();
+        try {
+            // Actually make the table
+            String tableName = collectionListInfo.getName();
+            createCollectionTable(tableName);
+
+            // We have the list of identifiers, now set them correctly
+            if (coinData != null) {
+                DatabaseHelper.insertCoinSlots(mDb, tableName, coinData);
+            }
 
-        // We have the list of identifiers, now set them correctly
+            // We also need to add the table to the list of tables
+            ContentValues values = new ContentValues();
+            values.put(COL_NAME, collectionListInfo.getName());
+            values.put(COL_COIN_TYPE, collectionListInfo.getType());
+            values.put(COL_TOTAL, collectionListInfo.getMax());
+            values.put(COL_COLLECTED, getNumCollected(coinData));
+            values.put(COL_DISPLAY_ORDER, displayOrder);
+            values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
+            values.put(COL_START_YEAR, collectionListInfo.getStartYear());
+            values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            values.put(COL_MINT_MARK_FLAGS, collectionListInfo.getMintMarkFlags());
+            values.put(COL_CHECKBOX_FLAGS, collectionListInfo.getCheckboxFlags());
+            long collectionId = runSqlInsert(TBL_COLLECTION_INFO, values);
+
+            // Index the table after it's populated, since that's faster than updating the
+            // indexes on each insert
+            DatabaseHelper.createCoinIndexes(mDb, tableName, collectionId);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Counts the coins marked as collected
+     *
+     * @param coinData list of coins (may be null)
+     * @return number of coins collected
+     */
+    private static int getNumCollected(ArrayList<CoinSlot> coinData) {
+        int numCollected = 0;
         if (coinData != null) {
             for (CoinSlot coinSlot : coinData) {
-                addCoinSlotToCollection(coinSlot, tableName, false, 0);
+                numCollected += coinSlot.isInCollectionInt();
             }
         }
-
-        // We also need to add the table to the list of tables
-        ContentValues values = new ContentValues();
-        values.put(COL_NAME, collectionListInfo.getName());
-        values.put(COL_COIN_TYPE, collectionListInfo.getType());
-        values.put(COL_TOTAL, collectionListInfo.getMax());
-        values.put(COL_DISPLAY_ORDER, displayOrder);
-        values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
-        values.put(COL_START_YEAR, collectionListInfo.getStartYear());
-        values.put(COL_END_YEAR, collectionListInfo.getEndYear());
-        values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
-        values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
-        runSqlInsert(TBL_COLLECTION_INFO, values);
+        return numCollected;
     }
 
     /**
@@ -287,6 +460,7 @@ public class DatabaseAdapter {
     public void dropCollectionTable(String tableName) throws SQLException {
         String dropTableCmd = "DROP TABLE [" + removeBrackets(tableName) + "];";
         mDb.execSQL(dropTableCmd);
+        dropCachedStatements(tableName);
         runSqlDeleteAndCheck(TBL_COLLECTION_INFO, COL_NAME + "=?", new String[]{tableName});
     }
 
@@ -298,6 +472,7 @@ public class DatabaseAdapter {
     void dropCollectionInfoTable() throws SQLException {
         String dropTableCmd = "DROP TABLE [" + TBL_COLLECTION_INFO + "];";
         mDb.execSQL(dropTableCmd);
+        dropCachedStatements(TBL_COLLECTION_INFO);
     }
 
     /**
@@ -315,7 +490,18 @@ public class DatabaseAdapter {
      * @param oldVersion the db version to upgrade from
      */
     void upgradeDbForImport(int oldVersion) {
-        DatabaseHelper.upgradeDb(mDb, oldVersion, MainApplication.DATABASE_VERSION, true);
+        DatabaseHelper.upgradeDb(mDb, oldVersion, MainApplication.DATABASE_VERSION, true,
+                mUpgradeProgressListener);
+    }
+
+    /**
+     * Recomputes the collected count of every collection, repairing any that are incorrect
+     *
+     * @return the number of collections whose count was repaired
+     * @throws SQLException if a database error occurs
+     */
+    int repairCollectedCounts() throws SQLException {
+        return DatabaseHelper.repairCollectedCounts(mDb);
     }
 
     /**
@@ -355,11 +541,7 @@ public class DatabaseAdapter {
      */
     public int getNextDisplayOrder() throws SQLException {
         String sqlCmd = "SELECT MAX(" + COL_DISPLAY_ORDER + ") FROM " + TBL_COLLECTION_INFO;
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result + 1;
+        return queryForInt(sqlCmd) + 1;
     }
 
     /**
@@ -370,28 +552,42 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurred
      */
     public int getNextCoinSortOrder(String tableName) throws SQLException {
-        return DatabaseHelper.getNextCoinSortOrder(mDb, tableName);
+        String sqlCmd = "SELECT MAX(" + COL_SORT_ORDER + ") FROM [" + removeBrackets(tableName) + "]";
+        return queryForInt(sqlCmd) + 1;
     }
 
     /**
-     * Copy collection
+     * Copy collection. The copy is placed right after the source collection in the display
+     * order, and the collections after it are moved down with a single update.
      *
      * @param sourceCollectionListInfo Source table info
      * @param newTableName             Name of the new table to create
-     * @param insertIndex              index to place the new collection at
      * @return the newly created CollectionListInfo
      * @throws SQLException if a database error occurs
      */
-    CollectionListInfo createCollectionCopy(CollectionListInfo sourceCollectionListInfo, String newTableName, int insertIndex) throws SQLException {
+    CollectionListInfo createCollectionCopy(CollectionListInfo sourceCollectionListInfo, String newTableName) throws SQLException {
 
-        // Add the new table but don't populate
+        String sourceTableName = sourceCollectionListInfo.getName();
         CollectionListInfo newCollectionListInfo = sourceCollectionListInfo.copy(newTableName);
-        createAndPopulateNewTable(newCollectionListInfo, insertIndex, null);
+        mDb.beginTransaction();
+        try {
+            // Make room in the display order after the source collection
+            int insertDisplayOrder = queryForInt("SELECT " + COL_DISPLAY_ORDER + " FROM " + TBL_COLLECTION_INFO
+                    + " WHERE " + COL_NAME + " = ?", sourceTableName) + 1;
+            updateOrDelete("UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_DISPLAY_ORDER + " = "
+                    + COL_DISPLAY_ORDER + " + 1 WHERE " + COL_DISPLAY_ORDER + " >= ?", String.valueOf(insertDisplayOrder));
 
-        // Populate the contents use SQL commands
-        String sourceTableName = sourceCollectionListInfo.getName();
-        String populateDbCmd = "INSERT INTO [" + removeBrackets(newTableName) + "] SELECT * FROM [" + removeBrackets(sourceTableName) + "];";
-        mDb.execSQL(populateDbCmd);
+            // Add the new table but don't populate
+            createAndPopulateNewTable(newCollectionListInfo, insertDisplayOrder, null);
+
+            // Populate the contents use SQL commands
+            String populateDbCmd = "INSERT INTO [" + removeBrackets(newTableName) + "] SELECT * FROM [" + removeBrackets(sourceTableName) + "];";
+            mDb.execSQL(populateDbCmd);
+            DatabaseHelper.updateCollectedCount(mDb, newTableName);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
 
         // Return the newly created object
         return newCollectionListInfo;
@@ -406,6 +602,8 @@ public class DatabaseAdapter {
      */
     public void updateCollectionName(String oldName, String newName) throws SQLException {
         DatabaseHelper.updateCollectionName(mDb, oldName, newName);
+        dropCachedStatements(oldName);
+        dropCachedStatements(newName);
     }
 
     /**
@@ -430,10 +628,11 @@ public class DatabaseAdapter {
      * @param oldTableName       the original collection name
      * @param collectionListInfo new collection info
      * @param coinData           new coin data
+     * @return the number of coin rows inserted, updated or deleted
      * @throws SQLException if a database error occurs
      */
-    public void updateExistingCollection(String oldTableName, CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinData) throws SQLException {
-        DatabaseHelper.updateExistingCollection(mDb, oldTableName, collectionListInfo, coinData, false);
+    public int updateExistingCollection(String oldTableName, CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinData) throws SQLException {
+        return DatabaseHelper.updateExistingCollection(mDb, oldTableName, collectionListInfo, coinData, false);
     }
 
     /**
@@ -485,14 +684,23 @@ public class DatabaseAdapter {
         values.put(COL_CUSTOM_COIN, coinSlot.isCustomCoinInt());
         values.put(COL_IMAGE_ID, coinSlot.getImageId());
 
-        // Add coin into database and record database id in CoinSlot object
-        coinSlot.setDatabaseId(runSqlInsert(tableName, values));
+        mDb.beginTransaction();
+        try {
+            // Add coin into database and record database id in CoinSlot object
+            coinSlot.setDatabaseId(runSqlInsert(tableName, values));
+            if (coinSlot.isInCollection()) {
+                DatabaseHelper.adjustCollectedCount(mDb, tableName, 1);
+            }
 
-        // Update the collection total if needed
-        if (updateTotal) {
-            values = new ContentValues();
-            values.put(COL_TOTAL, newCollectionSize);
-            runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            // Update the collection total if needed
+            if (updateTotal) {
+                values = new ContentValues();
+                values.put(COL_TOTAL, newCollectionSize);
+                runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
         }
     }
 
@@ -504,15 +712,25 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void removeCoinSlotFromCollection(CoinSlot coinSlot, String tableName, int newCollectionSize) throws SQLException {
-        String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlDeleteAndCheck(tableName, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
-        // Note: This doesn't update the sort order of all remaining coins, which means there
-        //       may be holes in the sort order after this.
+        mDb.beginTransaction();
+        try {
+            int wasInCollection = fetchIsInCollection(tableName, coinSlot);
+            String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
+            runSqlDeleteAndCheck(tableName, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+            // Note: This doesn't update the sort order of all remaining coins, which means there
+            //       may be holes in the sort order after this.
 
-        // Update the collection total
-        ContentValues values = new ContentValues();
-        values.put(COL_TOTAL, newCollectionSize);
-        runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            // Update the collection total and collected count
+            ContentValues values = new ContentValues();
+            values.put(COL_TOTAL, newCollectionSize);
+            runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            if (wasInCollection != 0) {
+                DatabaseHelper.adjustCollectedCount(mDb, tableName, -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
     }
 
     /**
@@ -538,6 +756,135 @@ public class DatabaseAdapter {
         return DatabaseHelper.getCoinList(mDb, tableName, populateAdvInfo, true);
     }
 
+    /**
+     * Get the coin information used to display a collection. The advanced notes aren't
+     * read, and should be loaded with fetchAdvancedNotes() once the coins are shown.
+     *
+     * @param tableName       The name of the collection
+     * @param populateAdvInfo If true, includes the advanced grades and quantities
+     * @return CoinSlot list
+     */
+    public ArrayList<CoinSlot> getCoinListForDisplay(String tableName, boolean populateAdvInfo) {
+        return DatabaseHelper.getCoinList(mDb, tableName, populateAdvInfo, true, false);
+    }
+
+    /**
+     * Reads all of a collection's coins, with the advanced info, without building a list.
+     * The coins are read STREAM_CHUNK_SIZE at a time in sort order (with the coin id as
+     * the tie-breaker), each query continuing after the last coin of the previous one.
+     *
+     * @param tableName The name of the collection
+     * @param visitor   called with each coin
+     * @return the number of coins read
+     * @throws IOException  if the visitor fails
+     * @throws SQLException if a database error occurs
+     */
+    public int streamCoins(String tableName, CoinVisitor visitor) throws IOException, SQLException {
+        String[] dbColumns = new String[]{COL_COIN_ID, COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
+                COL_SORT_ORDER, COL_CUSTOM_COIN, COL_IMAGE_ID, COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX,
+                COL_ADV_NOTES};
+        String table = "[" + removeBrackets(tableName) + "]";
+        String orderBy = COL_SORT_ORDER + "," + COL_COIN_ID;
+        String afterLastCoin = COL_SORT_ORDER + ">? OR (" + COL_SORT_ORDER + "=? AND " + COL_COIN_ID + ">?)";
+        String limit = String.valueOf(STREAM_CHUNK_SIZE);
+        int numCoins = 0;
+        CoinSlot lastCoinSlot = null;
+        while (true) {
+            Cursor cursor = (lastCoinSlot == null)
+                    ? mDb.query(table, dbColumns, null, null, null, null, orderBy, limit)
+                    : mDb.query(table, dbColumns, afterLastCoin, new String[]{
+                            String.valueOf(lastCoinSlot.getSortOrder()),
+                            String.valueOf(lastCoinSlot.getSortOrder()),
+                            String.valueOf(lastCoinSlot.getDatabaseId())},
+                    null, null, orderBy, limit);
+            int numRead = 0;
+            try {
+                if (cursor.moveToFirst()) {
+                    CoinSlotRowMapper mapper = new CoinSlotRowMapper(cursor, true);
+                    do {
+                        lastCoinSlot = mapper.map(cursor);
+                        visitor.visit(lastCoinSlot);
+                        numRead++;
+                    } while (cursor.moveToNext());
+                }
+            } finally {
+                cursor.close();
+            }
+            numCoins += numRead;
+            if (numRead < STREAM_CHUNK_SIZE) {
+                return numCoins;
+            }
+        }
+    }
+
+    /**
+     * Reads the advanced notes for coins whose notes haven't been loaded yet
+     *
+     * @param tableName The name of the collection
+     * @param coinSlots Coins to load the notes for
+     * @throws SQLException if a database error occurs
+     */
+    public void fetchAdvancedNotes(String tableName, List<CoinSlot> coinSlots) throws SQLException {
+        HashMap<Long, CoinSlot> coinsById = new HashMap<>();
+        for (CoinSlot coinSlot : coinSlots) {
+            if (!coinSlot.isAdvancedNotesLoaded()) {
+                coinsById.put(coinSlot.getDatabaseId(), coinSlot);
+            }
+        }
+        if (coinsById.isEmpty()) {
+            return;
+        }
+        HashMap<Long, String> notesById = readAdvancedNotes(tableName, new ArrayList<>(coinsById.keySet()));
+        for (Map.Entry<Long, CoinSlot> entry : coinsById.entrySet()) {
+            entry.getValue().setAdvancedNotes(notesById.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Reads the advanced notes for coins by database ID, without modifying any coins. This
+     * lets the notes be read on a background thread and applied on the UI thread.
+     *
+     * @param tableName The name of the collection
+     * @param ids       Database IDs of the coins to read the notes for
+     * @return notes by database ID, with "" for coins that are no longer in the database
+     * @throws SQLException if a database error occurs
+     */
+    public HashMap<Long, String> readAdvancedNotes(String tableName, List<Long> ids) throws SQLException {
+        HashMap<Long, String> notesById = new HashMap<>();
+
+        // Query in chunks to stay under the SQLite bound parameter limit
+        for (int start = 0; start < ids.size(); start += MAX_NOTES_PER_QUERY) {
+            int end = Math.min(start + MAX_NOTES_PER_QUERY, ids.size());
+            StringBuilder placeholders = new StringBuilder();
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                placeholders.append(i == start ? "?" : ",?");
+                args[i - start] = String.valueOf(ids.get(i));
+            }
+            Cursor cursor = mDb.query("[" + removeBrackets(tableName) + "]",
+                    new String[]{COL_COIN_ID, COL_ADV_NOTES},
+                    COL_COIN_ID + " IN (" + placeholders + ")", args, null, null, null);
+            try {
+                int idIndex = cursor.getColumnIndexOrThrow(COL_COIN_ID);
+                int notesIndex = cursor.getColumnIndexOrThrow(COL_ADV_NOTES);
+                while (cursor.moveToNext()) {
+                    String notes = cursor.getString(notesIndex);
+                    notesById.put(cursor.getLong(idIndex), (notes != null) ? notes : "");
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Coins that are no longer in the database have no notes to load
+        for (Long id : ids) {
+            if (!notesById.containsKey(id)) {
+                notesById.put(id, "");
+            }
+        }
+        return notesById;
+    }
+
     /**
      * Executes the SQL insert command and returns false if an error occurs
      *
@@ -579,6 +926,207 @@ public class DatabaseAdapter {
         }
     }
 
+    /**
+     * Begins a database transaction. Used to group multiple adapter calls (such as an
+     * import) so that they can be rolled back together. Transactions may be nested.
+     */
+    void beginTransaction() {
+        mDb.beginTransaction();
+    }
+
+    /**
+     * Marks the current transaction as successful so that it's committed by endTransaction
+     */
+    void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+    }
+
+    /**
+     * Ends the current transaction, rolling back any changes if setTransactionSuccessful
+     * wasn't called
+     */
+    void endTransaction() {
+        mDb.endTransaction();
+    }
+
+    /**
+     * Runs a query that returns a single number, using the statement cache
+     *
+     * @param sql      SQL text
+     * @param bindArgs values to bind to the statement
+     * @return the query result
+     * @throws SQLException if a database error occurs or no rows are returned
+     */
+    private int queryForInt(String sql, String... bindArgs) throws SQLException {
+        try (StatementHandle handle = acquireStatement(sql)) {
+            handle.mStatement.bindAllArgsAsStrings(bindArgs);
+            return simpleQueryForLong(handle.mStatement);
+        }
+    }
+
+    /**
+     * Runs an UPDATE or DELETE statement, using the statement cache
+     *
+     * @param sql      SQL text
+     * @param bindArgs values to bind to the statement
+     * @return the number of rows affected
+     * @throws SQLException if a database error occurs
+     */
+    private int updateOrDelete(String sql, String... bindArgs) throws SQLException {
+        try (StatementHandle handle = acquireStatement(sql)) {
+            handle.mStatement.bindAllArgsAsStrings(bindArgs);
+            return handle.mStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * A compiled statement in use, and whether it came from the statement cache. Closing
+     * the handle keeps a cached statement for reuse and releases the cache, or closes a
+     * one-off statement.
+     */
+    private final class StatementHandle implements AutoCloseable {
+        final SQLiteStatement mStatement;
+        final boolean mIsCached;
+
+        StatementHandle(SQLiteStatement statement, boolean isCached) {
+            mStatement = statement;
+            mIsCached = isCached;
+        }
+
+        @Override
+        public void close() {
+            mStatement.clearBindings();
+            if (mIsCached) {
+                mStatementCacheLock.unlock();
+            } else {
+                mStatement.close();
+            }
+        }
+    }
+
+    /**
+     * Get a compiled statement for the SQL text, from the statement cache if possible.
+     * If another thread is using the cache, a one-off statement is compiled rather than
+     * waiting, so that the cache can never deadlock with a database transaction. The
+     * handle must be closed once the caller is done with the statement.
+     *
+     * @param sql SQL text to compile
+     * @return a handle to the compiled statement
+     * @throws SQLException if the statement could not be compiled
+     */
+    private StatementHandle acquireStatement(String sql) throws SQLException {
+        if (mStatementCacheEnabled && mStatementCacheLock.tryLock()) {
+            try {
+                removeStaleStatements();
+                SQLiteStatement statement = mStatementCache.get(sql);
+                if (statement != null) {
+                    mStatementCacheHits.incrementAndGet();
+                } else {
+                    mStatementCacheMisses.incrementAndGet();
+                    statement = mDb.compileStatement(sql);
+                    mStatementCache.put(sql, statement);
+                }
+                return new StatementHandle(statement, true);
+            } catch (RuntimeException e) {
+                mStatementCacheLock.unlock();
+                throw e;
+            }
+        }
+        mStatementCacheMisses.incrementAndGet();
+        return new StatementHandle(mDb.compileStatement(sql), false);
+    }
+
+    /**
+     * Drop any cached statements that use a table, once it has been renamed or dropped.
+     * If another thread is using the cache, the statements are dropped the next time the
+     * cache is used instead of waiting.
+     *
+     * @param tableName the table name
+     */
+    private void dropCachedStatements(String tableName) {
+        synchronized (mStaleTables) {
+            mStaleTables.add(removeBrackets(tableName));
+        }
+        if (mStatementCacheLock.tryLock()) {
+            try {
+                removeStaleStatements();
+            } finally {
+                mStatementCacheLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Close and remove the cached statements for the tables that have been renamed or
+     * dropped. Collection tables are always bracketed in the SQL, but the collection info
+     * table isn't, so unbracketed names are matched too. Dropping an extra statement just
+     * means it's compiled again.
+     * Must be called while holding mStatementCacheLock.
+     */
+    private void removeStaleStatements() {
+        ArrayList<String> staleTables;
+        synchronized (mStaleTables) {
+            if (mStaleTables.isEmpty()) {
+                return;
+            }
+            staleTables = new ArrayList<>(mStaleTables);
+            mStaleTables.clear();
+        }
+        Iterator<Map.Entry<String, SQLiteStatement>> iterator = mStatementCache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, SQLiteStatement> entry = iterator.next();
+            String sql = entry.getKey() + " ";
+            for (String staleTable : staleTables) {
+                if (sql.contains("[" + staleTable + "]") || sql.contains(" " + staleTable + " ")) {
+                    entry.getValue().close();
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes and removes all cached statements
+     */
+    private void clearStatementCache() {
+        mStatementCacheLock.lock();
+        try {
+            for (SQLiteStatement statement : mStatementCache.values()) {
+                statement.close();
+            }
+            mStatementCache.clear();
+        } finally {
+            mStatementCacheLock.unlock();
+        }
+    }
+
+    /**
+     * Enables or disables the statement cache (used for benchmarking)
+     *
+     * @param enabled true to use the cache
+     */
+    public void setStatementCacheEnabled(boolean enabled) {
+        mStatementCacheEnabled = enabled;
+        if (!enabled) {
+            clearStatementCache();
+        }
+    }
+
+    /**
+     * @return the number of statements served from the statement cache
+     */
+    public long getStatementCacheHits() {
+        return mStatementCacheHits.get();
+    }
+
+    /**
+     * @return the number of statements that had to be compiled
+     */
+    public long getStatementCacheMisses() {
+        return mStatementCacheMisses.get();
+    }
+
     /**
      * Remove square brackets from a string
      * Note: None of the uses of this should be necessary, but adding to prevent unintentional bugs
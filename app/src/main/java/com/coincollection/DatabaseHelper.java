@@ -1,5 +1,6 @@
 package com.coincollection;
 
+import static com.coincollection.CoinSlot.COIN_SLOT_COIN_ID_WHERE_CLAUSE;
 import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
 import static com.coincollection.CoinSlot.COL_ADV_NOTES;
 import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
@@ -11,10 +12,13 @@ import static com.coincollection.CoinSlot.COL_IMAGE_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
 import static com.coincollection.CoinSlot.COL_SORT_ORDER;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
+import static com.coincollection.CollectionListInfo.COL_CHECKBOX_FLAGS;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
 import static com.coincollection.CollectionListInfo.COL_ID;
+import static com.coincollection.CollectionListInfo.COL_MINT_MARK_FLAGS;
 import static com.coincollection.CollectionListInfo.COL_NAME;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES_LEGACY;
@@ -31,6 +35,7 @@ import static com.spencerpages.MainApplication.DATABASE_VERSION;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDoneException;
@@ -53,15 +58,107 @@ import com.spencerpages.collections.SmallCents;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    // Prefixes for the per-collection index names (followed by the collection info id)
+    private final static String IDX_SORT_ORDER_PREFIX = "idx_sort_order_";
+    // Only used to remove the index from version 25-26 databases
+    private final static String IDX_IN_COLLECTION_PREFIX = "idx_in_collection_";
+
+    // Upgrade step names reported to UpgradeProgressListener.onUpgradeStepFinished
+    public final static String UPGRADE_STEP_STRUCTURE = "structure";
+    public final static String UPGRADE_STEP_COLLECTION = "collection";
+    public final static String UPGRADE_STEP_COLLECTED_COUNTS = "collectedCounts";
+
+    private UpgradeProgressListener mUpgradeProgressListener = null;
+
+    /**
+     * Receives progress updates while the collections are upgraded
+     */
+    public interface UpgradeProgressListener {
+        /**
+         * Called on the upgrade thread each time a collection has been upgraded
+         *
+         * @param numUpgraded    number of collections upgraded so far
+         * @param numCollections total number of collections to upgrade
+         */
+        void onCollectionUpgraded(int numUpgraded, int numCollections);
+
+        /**
+         * Called on the upgrade thread after each upgrade step, for timing upgrades. The
+         * steps are the structure upgrade, each collection and the collected count repair.
+         *
+         * @param stepName       one of the UPGRADE_STEP_ names
+         * @param collectionType the collection type for collection steps, otherwise null
+         * @param elapsedNs      time taken by the step in nanoseconds
+         * @param rowsChanged    number of rows inserted, updated or deleted by the step
+         */
+        default void onUpgradeStepFinished(String stepName, String collectionType, long elapsedNs,
+                                           long rowsChanged) {
+        }
+    }
+
+    /**
+     * Times the steps of an upgrade and reports them to the listener, if there is one
+     */
+    private static class UpgradeStepTimer {
+        private final SQLiteDatabase mDb;
+        private final UpgradeProgressListener mListener;
+        private long mStartNs;
+        private long mStartChanges;
+
+        UpgradeStepTimer(SQLiteDatabase db, UpgradeProgressListener listener) {
+            mDb = db;
+            mListener = listener;
+            startStep();
+        }
+
+        /**
+         * Starts timing the next step
+         */
+        void startStep() {
+            if (mListener != null) {
+                mStartChanges = getTotalChanges(mDb);
+                mStartNs = System.nanoTime();
+            }
+        }
+
+        /**
+         * Reports the current step to the listener and starts timing the next one
+         *
+         * @param stepName       one of the UPGRADE_STEP_ names
+         * @param collectionType the collection type for collection steps, otherwise null
+         */
+        void finishStep(String stepName, String collectionType) {
+            if (mListener != null) {
+                long elapsedNs = System.nanoTime() - mStartNs;
+                mListener.onUpgradeStepFinished(stepName, collectionType, elapsedNs,
+                        getTotalChanges(mDb) - mStartChanges);
+                startStep();
+            }
+        }
+    }
+
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Sets the listener notified of progress if the database is upgraded when opened
+     *
+     * @param upgradeProgressListener the listener, or null for none
+     */
+    void setUpgradeProgressListener(UpgradeProgressListener upgradeProgressListener) {
+        mUpgradeProgressListener = upgradeProgressListener;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         // This is called if the DB doesn't exist (A fresh installation)
@@ -83,12 +180,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + " " + COL_NAME + " text not null,"
                 + " " + COL_COIN_TYPE + " text not null,"
                 + " " + COL_TOTAL + " integer,"
+                + " " + COL_COLLECTED + " integer not null default 0,"
                 + " " + COL_DISPLAY + " integer default " + SIMPLE_DISPLAY + ","
                 + " " + COL_DISPLAY_ORDER + " integer,"
                 + " " + COL_START_YEAR + " integer default 0,"
                 + " " + COL_END_YEAR + " integer default 0,"
-                + " " + COL_SHOW_MINT_MARKS + " text not null default '',"
-                + " " + COL_SHOW_CHECKBOXES + " text not null default ''"
+                + " " + COL_MINT_MARK_FLAGS + " integer not null default 0,"
+                + " " + COL_CHECKBOX_FLAGS + " integer not null default 0"
                 + ");";
 
         db.execSQL(makeCollectionInfoTable);
@@ -96,7 +194,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        DatabaseHelper.upgradeDb(db, oldVersion, newVersion, false);
+        DatabaseHelper.upgradeDb(db, oldVersion, newVersion, false, mUpgradeProgressListener);
     }
 
     /**
@@ -313,27 +411,122 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     AllNickels.COLLECTION_TYPE
             ));
 
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO,
-                    new String[]{COL_NAME, COL_COIN_TYPE, COL_SHOW_CHECKBOXES},
-                    null, null, null, null, COL_DISPLAY_ORDER);
+            if (fromImport) {
+                // Imported databases store the flags as numbers, so set the bit in place
+                StringBuilder typeList = new StringBuilder();
+                for (String coinType : semiqTypes) {
+                    typeList.append((typeList.length() == 0) ? "" : ",").append(DatabaseUtils.sqlEscapeString(coinType));
+                }
+                db.execSQL("UPDATE [" + TBL_COLLECTION_INFO + "] SET " + COL_CHECKBOX_FLAGS + " = "
+                        + COL_CHECKBOX_FLAGS + " | " + CollectionListInfo.SEMIQ_COINS
+                        + " WHERE " + COL_COIN_TYPE + " IN (" + typeList + ")");
+            } else {
+                Cursor resultCursor = db.query(TBL_COLLECTION_INFO,
+                        new String[]{COL_NAME, COL_COIN_TYPE, COL_SHOW_CHECKBOXES},
+                        null, null, null, null, COL_DISPLAY_ORDER);
+                if (resultCursor.moveToFirst()) {
+                    do {
+                        String coinType = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_COIN_TYPE));
+                        if (semiqTypes.contains(coinType)) {
+                            String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
+                            String checkboxStr = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_SHOW_CHECKBOXES));
+                            long checkboxFlags = CollectionListInfo.parseFlagString(checkboxStr);
+                            checkboxFlags |= CollectionListInfo.SEMIQ_COINS;
+                            ContentValues values = new ContentValues();
+                            values.put(COL_SHOW_CHECKBOXES, Long.toString(checkboxFlags));
+                            runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{name});
+                        }
+                    } while (resultCursor.moveToNext());
+                }
+                resultCursor.close();
+            }
+        }
+
+        // Add an index to each collection for sorting coins, and a column to keep track of
+        // the number of coins collected (populated in upgradeDb)
+        // - Skip if importing, since the tables will be created with the index
+        if (oldVersion <= 24 && !fromImport) {
+            db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_COLLECTED + " INTEGER NOT NULL DEFAULT 0");
+
+            // Get all of the created tables
+            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_ID, COL_NAME}, null, null, null, null, COL_DISPLAY_ORDER);
             if (resultCursor.moveToFirst()) {
                 do {
-                    String coinType = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_COIN_TYPE));
-                    if (semiqTypes.contains(coinType)) {
-                        String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
-                        String checkboxStr = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_SHOW_CHECKBOXES));
-                        long checkboxFlags = CollectionListInfo.parseFlagString(checkboxStr);
-                        checkboxFlags |= CollectionListInfo.SEMIQ_COINS;
-                        ContentValues values = new ContentValues();
-                        values.put(COL_SHOW_CHECKBOXES, Long.toString(checkboxFlags));
-                        runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{name});
-                    }
+                    long collectionId = resultCursor.getLong(resultCursor.getColumnIndexOrThrow(COL_ID));
+                    String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
+                    createCoinIndexes(db, name, collectionId);
+
+                    // Move to the next collection
+                } while (resultCursor.moveToNext());
+            }
+            resultCursor.close();
+        }
+
+        // Store the mint mark/checkbox flags as numbers, so they don't need to be parsed
+        // each time they're checked. The string columns are left in existing databases
+        // since SQLite doesn't support changing column types.
+        // - Skip if importing, since the database will be created with the latest structure
+        if (oldVersion <= 25 && !fromImport) {
+            db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_MINT_MARK_FLAGS + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_CHECKBOX_FLAGS + " INTEGER NOT NULL DEFAULT 0");
+            migrateFlagStrings(db);
+        }
+
+        // Remove the in-collection index that version 25 added to each collection. The
+        // column only has two values, so the index didn't help the queries and every
+        // toggle had to update it. Collected counts come from the collected column instead.
+        // - Skip if importing, since the tables will be created without the index
+        if (oldVersion <= 26 && !fromImport) {
+            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_ID}, null, null, null, null, null);
+            if (resultCursor.moveToFirst()) {
+                do {
+                    long collectionId = resultCursor.getLong(0);
+                    db.execSQL("DROP INDEX IF EXISTS [" + IDX_IN_COLLECTION_PREFIX + collectionId + "]");
                 } while (resultCursor.moveToNext());
             }
             resultCursor.close();
         }
     }
 
+    /**
+     * Copies the mint mark/checkbox flag strings into the numeric flag columns. The strings
+     * may have come from a hand-edited import file (see CollectionListInfo.parseFlagString),
+     * so any that can't be recovered are stored as 0.
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    static void migrateFlagStrings(SQLiteDatabase db) throws SQLException {
+        Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_ID, COL_SHOW_MINT_MARKS, COL_SHOW_CHECKBOXES},
+                null, null, null, null, null);
+        if (resultCursor.moveToFirst()) {
+            do {
+                long collectionId = resultCursor.getLong(0);
+                ContentValues values = new ContentValues();
+                values.put(COL_MINT_MARK_FLAGS, CollectionListInfo.parseFlagString(resultCursor.getString(1)));
+                values.put(COL_CHECKBOX_FLAGS, CollectionListInfo.parseFlagString(resultCursor.getString(2)));
+                runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_ID + "=?", new String[]{String.valueOf(collectionId)});
+            } while (resultCursor.moveToNext());
+        }
+        resultCursor.close();
+    }
+
+    /**
+     * Creates the index on a collection table used for sorting coins. The index name is
+     * based on the collection's id in the collection info table (rather than the collection
+     * name) so it stays unique if the collection is renamed.
+     *
+     * @param db           database
+     * @param tableName    the collection name
+     * @param collectionId the collection's id in the collection info table
+     * @throws SQLException if a database error occurs
+     */
+    static void createCoinIndexes(SQLiteDatabase db, String tableName, long collectionId) throws SQLException {
+        String safeTableName = DatabaseAdapter.removeBrackets(tableName);
+        db.execSQL("CREATE INDEX IF NOT EXISTS [" + IDX_SORT_ORDER_PREFIX + collectionId + "] ON ["
+                + safeTableName + "] (" + COL_SORT_ORDER + ")");
+    }
+
     /**
      * Get the next sort order for a new coin
      *
@@ -360,18 +553,37 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param fromImport if true, indicates that the upgrade is part of a collection import
      */
     public static void upgradeDb(SQLiteDatabase db, int oldVersion, int newVersion, boolean fromImport) {
+        upgradeDb(db, oldVersion, newVersion, fromImport, null);
+    }
+
+    /**
+     * Upgrades the database, reporting progress as each collection is upgraded
+     *
+     * @param db               the database to upgrade
+     * @param oldVersion       the database's current version
+     * @param newVersion       the version to upgrade to
+     * @param fromImport       if true, indicates that the upgrade is part of a collection import
+     * @param progressListener listener for upgrade progress, or null for none
+     */
+    public static void upgradeDb(SQLiteDatabase db, int oldVersion, int newVersion, boolean fromImport,
+                                 UpgradeProgressListener progressListener) {
 
         if (BuildConfig.DEBUG) {
             Log.i(APP_NAME, "Upgrading database from version " + oldVersion + " to " + newVersion);
         }
 
+        UpgradeStepTimer stepTimer = new UpgradeStepTimer(db, progressListener);
+
         // First call the MainApplication's onDatabaseUpgrade to ensure that any changes necessary
         // for the app to work are done.
         upgradeDbStructure(db, oldVersion, fromImport);
+        stepTimer.finishStep(UPGRADE_STEP_STRUCTURE, null);
 
         // Now get a list of the collections and call each one's onCollectionDatabaseUpgrade method
         ArrayList<CollectionListInfo> collectionList = new ArrayList<>();
         getAllTables(db, collectionList, false);
+        int numUpgraded = 0;
+        stepTimer.startStep();
         for (CollectionListInfo collectionListInfo : collectionList) {
             String tableName = collectionListInfo.getName();
             int numCoinsAdded = collectionListInfo.getCollectionObj().onCollectionDatabaseUpgrade(
@@ -384,7 +596,89 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 values.put(COL_TOTAL, newTotal);
                 runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
             }
+            stepTimer.finishStep(UPGRADE_STEP_COLLECTION, collectionListInfo.getType());
+            if (progressListener != null) {
+                progressListener.onCollectionUpgraded(++numUpgraded, collectionList.size());
+            }
+            stepTimer.startStep();
+        }
+
+        // Collection upgrades may add, remove or merge coins, so recompute the collected counts
+        repairCollectedCounts(db);
+        stepTimer.finishStep(UPGRADE_STEP_COLLECTED_COUNTS, null);
+    }
+
+    /**
+     * Get the number of rows inserted, updated or deleted since the connection was opened
+     *
+     * @param db database
+     * @return the total number of changes
+     * @throws SQLException if a database error occurs
+     */
+    private static long getTotalChanges(SQLiteDatabase db) throws SQLException {
+        SQLiteStatement compiledStatement = db.compileStatement("SELECT total_changes()");
+        try {
+            return compiledStatement.simpleQueryForLong();
+        } finally {
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Sets the collected count stored in the collection info table from the coins
+     * marked as collected in the collection
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @throws SQLException if a database error occurs
+     */
+    static void updateCollectedCount(SQLiteDatabase db, String tableName) throws SQLException {
+        db.execSQL("UPDATE [" + TBL_COLLECTION_INFO + "] SET " + COL_COLLECTED + " = (SELECT COUNT("
+                        + COL_COIN_ID + ") FROM [" + DatabaseAdapter.removeBrackets(tableName) + "] WHERE "
+                        + COL_IN_COLLECTION + "=1) WHERE " + COL_NAME + "=?",
+                new Object[]{tableName});
+    }
+
+    /**
+     * Adds to (or subtracts from) the collected count stored in the collection info table
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @param delta     the number of coins to add to the count
+     * @throws SQLException if a database error occurs
+     */
+    static void adjustCollectedCount(SQLiteDatabase db, String tableName, int delta) throws SQLException {
+        db.execSQL("UPDATE [" + TBL_COLLECTION_INFO + "] SET " + COL_COLLECTED + " = " + COL_COLLECTED
+                + " + ? WHERE " + COL_NAME + "=?", new Object[]{delta, tableName});
+    }
+
+    /**
+     * Consistency check that recomputes the collected count of every collection, fixing any
+     * counts that no longer match the collection contents
+     *
+     * @param db database
+     * @return the number of collections whose count was repaired
+     * @throws SQLException if a database error occurs
+     */
+    static int repairCollectedCounts(SQLiteDatabase db) throws SQLException {
+        int numRepaired = 0;
+        Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME, COL_COLLECTED},
+                null, null, null, null, COL_DISPLAY_ORDER);
+        if (resultCursor.moveToFirst()) {
+            do {
+                String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
+                int storedCollected = resultCursor.getInt(resultCursor.getColumnIndexOrThrow(COL_COLLECTED));
+                if (storedCollected != fetchTotalCollected(db, name)) {
+                    updateCollectedCount(db, name);
+                    numRepaired++;
+                }
+            } while (resultCursor.moveToNext());
         }
+        resultCursor.close();
+        if (BuildConfig.DEBUG && numRepaired != 0) {
+            Log.i(APP_NAME, "Repaired collected counts for " + numRepaired + " collections");
+        }
+        return numRepaired;
     }
 
     /**
@@ -553,7 +847,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                                   int previousYear, int year, String identifier,
                                   LinkedHashMap<Long, String> mintVariants, int imageId) {
         return addFromYear(db, collectionListInfo, previousYear, year, identifier,
-                mintVariants, imageId, collectionListInfo.getMintMarkFlagsAsLong());
+                mintVariants, imageId, collectionListInfo.getMintMarkFlags());
     }
 
     /**
@@ -619,14 +913,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         // Add the new coin entries
         String tableName = collectionListInfo.getName();
         int newSortOrder = getNextCoinSortOrder(db, tableName);
+        ArrayList<CoinSlot> newCoins = new ArrayList<>();
         for (Map.Entry<Long, String> entry : mintVariants.entrySet()) {
             if ((flags & entry.getKey()) == entry.getKey()) {
                 int imageId = (variantImageIds != null && variantImageIds.containsKey(entry.getKey()))
                         ? variantImageIds.get(entry.getKey()) : -1;
-                newSortOrder = addCoin(db, tableName, identifier, entry.getValue(), imageId, newSortOrder);
-                total++;
+                newCoins.add(new CoinSlot(identifier, entry.getValue(), newSortOrder++, imageId));
             }
         }
+        insertCoinSlots(db, tableName, newCoins);
+        total += newCoins.size();
 
         // Update the collection's end year
         updateEndYear(db, collectionListInfo, year);
@@ -651,7 +947,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                                        ArrayList<String> values, ArrayList<Integer> imageIds,
                                        LinkedHashMap<Long, String> mintVariants) {
         return addFromArrayList(db, collectionListInfo, values, imageIds, mintVariants,
-                collectionListInfo.getMintMarkFlagsAsLong());
+                collectionListInfo.getMintMarkFlags());
     }
 
     /**
@@ -671,44 +967,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static int addFromArrayList(SQLiteDatabase db, CollectionListInfo collectionListInfo,
                                        ArrayList<String> values, ArrayList<Integer> imageIds,
                                        LinkedHashMap<Long, String> mintVariants, long flags) {
-        int total = 0;
         String tableName = collectionListInfo.getName();
         int newSortOrder = getNextCoinSortOrder(db, tableName);
+        // Insert the coins together with one compiled statement
+        ArrayList<CoinSlot> newCoins = new ArrayList<>();
         for (int i = 0; i < values.size(); i++) {
             int imageId = (imageIds != null && i < imageIds.size()) ? imageIds.get(i) : -1;
             for (Map.Entry<Long, String> entry : mintVariants.entrySet()) {
                 if ((flags & entry.getKey()) == entry.getKey()) {
-                    newSortOrder = addCoin(db, tableName, values.get(i), entry.getValue(), imageId, newSortOrder);
-                    total++;
+                    newCoins.add(new CoinSlot(values.get(i), entry.getValue(), newSortOrder++, imageId));
                 }
             }
         }
-        return total;
-    }
-
-    /**
-     * Insert a single coin row into a collection table
-     *
-     * @param db         database
-     * @param tableName  collection table name
-     * @param identifier coin identifier (e.g., year string or coin name)
-     * @param mint       mint mark or coin type label
-     * @param imageId    image ID to assign, or -1 for default
-     * @param sortOrder  sort order for this coin
-     * @return the next sort order value to use
-     */
-    public static int addCoin(SQLiteDatabase db, String tableName, String identifier,
-                              String mint, int imageId, int sortOrder) {
-        ContentValues insertValues = new ContentValues();
-        insertValues.put(COL_COIN_IDENTIFIER, identifier);
-        insertValues.put(COL_IN_COLLECTION, 0);
-        insertValues.put(COL_COIN_MINT, mint);
-        insertValues.put(COL_SORT_ORDER, sortOrder);
-        if (imageId >= 0) {
-            insertValues.put(COL_IMAGE_ID, imageId);
-        }
-        db.insert("[" + tableName + "]", null, insertValues);
-        return sortOrder + 1;
+        insertCoinSlots(db, tableName, newCoins);
+        return newCoins.size();
     }
 
     /**
@@ -736,48 +1008,42 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return CoinSlot list
      */
     static ArrayList<CoinSlot> getCoinList(SQLiteDatabase db, String tableName, boolean populateAdvInfo, boolean useSortOrder) {
+        return getCoinList(db, tableName, populateAdvInfo, useSortOrder, true);
+    }
+
+    /**
+     * Get the basic coin information
+     *
+     * @param db               database
+     * @param tableName        The name of the collection
+     * @param populateAdvInfo  If true, includes advanced attributes
+     * @param useSortOrder     If true, includes sort order and uses it for sorting
+     * @param populateAdvNotes If false, the advanced notes are left unloaded so they can be
+     *                         read later for just the coins that are shown
+     * @return CoinSlot list
+     */
+    static ArrayList<CoinSlot> getCoinList(SQLiteDatabase db, String tableName, boolean populateAdvInfo,
+                                           boolean useSortOrder, boolean populateAdvNotes) {
 
         ArrayList<String> dbColumns = new ArrayList<>(
                 Arrays.asList(COL_COIN_ID, COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
                         COL_SORT_ORDER, COL_CUSTOM_COIN, COL_IMAGE_ID));
         if (populateAdvInfo) {
-            dbColumns.addAll(
-                    Arrays.asList(COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES));
+            dbColumns.addAll(Arrays.asList(COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX));
+            if (populateAdvNotes) {
+                dbColumns.add(COL_ADV_NOTES);
+            }
         }
 
-        ArrayList<CoinSlot> coinList = new ArrayList<>();
         String sortColumn = useSortOrder ? COL_SORT_ORDER : COL_COIN_ID;
         Cursor cursor = db.query("[" + tableName + "]", dbColumns.toArray(new String[0]),
                 null, null, null, null, sortColumn);
-        if (cursor.moveToFirst()) {
-            do {
-                int sortOrder = useSortOrder ? cursor.getInt(cursor.getColumnIndexOrThrow(COL_SORT_ORDER))
-                        : (int) cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID));
-                if (populateAdvInfo) {
-                    coinList.add(new CoinSlot(
-                            cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX)),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_ADV_NOTES)),
-                            sortOrder,
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
-                } else {
-                    coinList.add(new CoinSlot(
-                            cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
-                            sortOrder,
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
-                }
-            } while (cursor.moveToNext());
+        ArrayList<CoinSlot> coinList;
+        try {
+            coinList = CoinSlotRowMapper.mapAll(cursor, useSortOrder);
+        } finally {
+            cursor.close();
         }
-        cursor.close();
         return coinList;
     }
 
@@ -794,22 +1060,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         ArrayList<String> dbColumns = new ArrayList<>(
                 Arrays.asList(COL_COIN_ID, COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION));
 
-        ArrayList<CoinSlot> coinList = new ArrayList<>();
         Cursor cursor = db.query("[" + tableName + "]", dbColumns.toArray(new String[0]),
                 null, null, null, null, COL_COIN_ID);
-        if (cursor.moveToFirst()) {
-            do {
-                coinList.add(new CoinSlot(
-                        cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) == 1),
-                        (int) cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                        false,
-                        -1));
-            } while (cursor.moveToNext());
+        ArrayList<CoinSlot> coinList;
+        try {
+            // Without the newer columns, coins use the coin id as the sort order, aren't
+            // custom coins and have no image id
+            coinList = CoinSlotRowMapper.mapAll(cursor, false);
+        } finally {
+            cursor.close();
         }
-        cursor.close();
         return coinList;
     }
 
@@ -842,16 +1102,30 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         // Get rid of the other items in the list (if any)
         collectionListEntries.clear();
-        String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_SHOW_MINT_MARKS;
-        String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_SHOW_CHECKBOXES;
-        Cursor cursor = db.query(TBL_COLLECTION_INFO,
-                new String[]{COL_NAME, COL_COIN_TYPE, COL_TOTAL, COL_DISPLAY, COL_START_YEAR,
-                        COL_END_YEAR, colShowMintMarks, colShowCheckboxes},
+        String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_MINT_MARK_FLAGS;
+        String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_CHECKBOX_FLAGS;
+        // Databases using the legacy columns predate the collected count column, so the
+        // count is queried from each collection instead
+        ArrayList<String> dbColumns = new ArrayList<>(Arrays.asList(COL_NAME, COL_COIN_TYPE,
+                COL_TOTAL, COL_DISPLAY, COL_START_YEAR, COL_END_YEAR, colShowMintMarks, colShowCheckboxes));
+        if (!legacyOptions) {
+            dbColumns.add(COL_COLLECTED);
+        }
+        Cursor cursor = db.query(TBL_COLLECTION_INFO, dbColumns.toArray(new String[0]),
                 null, null, null, null, COL_DISPLAY_ORDER);
         if (cursor.moveToFirst()) {
+            int nameIndex = cursor.getColumnIndexOrThrow(COL_NAME);
+            int coinTypeIndex = cursor.getColumnIndexOrThrow(COL_COIN_TYPE);
+            int collectedIndex = legacyOptions ? -1 : cursor.getColumnIndexOrThrow(COL_COLLECTED);
+            int totalIndex = cursor.getColumnIndexOrThrow(COL_TOTAL);
+            int displayIndex = cursor.getColumnIndexOrThrow(COL_DISPLAY);
+            int startYearIndex = cursor.getColumnIndexOrThrow(COL_START_YEAR);
+            int endYearIndex = cursor.getColumnIndexOrThrow(COL_END_YEAR);
+            int showMintMarksIndex = cursor.getColumnIndexOrThrow(colShowMintMarks);
+            int showCheckboxesIndex = cursor.getColumnIndexOrThrow(colShowCheckboxes);
             do {
-                String tableName = cursor.getString(cursor.getColumnIndexOrThrow(COL_NAME));
-                String coinType = cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_TYPE));
+                String tableName = cursor.getString(nameIndex);
+                String coinType = cursor.getString(coinTypeIndex);
                 // Figure out what collection type maps to this
                 int index = MainApplication.getIndexFromCollectionNameStr(coinType);
                 if (index == -1) {
@@ -859,7 +1133,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     throw new SQLException();
                 }
                 // Get the number of coins collected
-                int collected = fetchTotalCollected(db, tableName);
+                int collected = legacyOptions ? fetchTotalCollected(db, tableName)
+                        : cursor.getInt(collectedIndex);
                 if (collected == -1) {
                     cursor.close();
                     throw new SQLException();
@@ -867,14 +1142,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 // Add it to the list of collections
                 collectionListEntries.add(new CollectionListInfo(
                         tableName,
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_TOTAL)),
+                        cursor.getInt(totalIndex),
                         collected,
                         index,
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_DISPLAY)),
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_START_YEAR)),
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_END_YEAR)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(colShowMintMarks)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(colShowCheckboxes))));
+                        cursor.getInt(displayIndex),
+                        cursor.getInt(startYearIndex),
+                        cursor.getInt(endYearIndex),
+                        cursor.getLong(showMintMarksIndex),
+                        cursor.getLong(showCheckboxesIndex)));
             } while (cursor.moveToNext());
         }
         cursor.close();
@@ -900,35 +1175,224 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Updates an existing coin list
+     * Updates an existing coin list. The new coins are compared with the current rows by
+     * database id, and only the rows that differ are written:
+     * - Coins without a matching row (Ex: new coins) are inserted, and their ids updated
+     * - Coins whose row has different values are updated
+     * - Rows that don't match any coin are deleted
      *
      * @param db          database
      * @param tableName   the collection name
      * @param coinData    coin data to use for updates
      * @param updateTotal if true, updates the collection info total
+     * @return the number of rows inserted, updated or deleted
      * @throws SQLException if a database error occurs
      */
-    public static void updateCoinList(SQLiteDatabase db, String tableName, ArrayList<CoinSlot> coinData, boolean updateTotal) throws SQLException {
-        runSqlDelete(db, tableName, "1", null);
-        for (CoinSlot coinSlot : coinData) {
-            ContentValues values = new ContentValues();
-            values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
-            values.put(COL_COIN_MINT, coinSlot.getMint());
-            values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
-            values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
-            values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
-            values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
-            values.put(COL_SORT_ORDER, coinSlot.getSortOrder());
-            values.put(COL_CUSTOM_COIN, coinSlot.isCustomCoin());
-            values.put(COL_IMAGE_ID, coinSlot.getImageId());
-            coinSlot.setDatabaseId(runSqlInsert(db, tableName, values));
+    public static int updateCoinList(SQLiteDatabase db, String tableName, ArrayList<CoinSlot> coinData, boolean updateTotal) throws SQLException {
+        int rowsTouched;
+        db.beginTransaction();
+        try {
+            // Index the current rows by database id
+            HashMap<Long, CoinSlot> currentCoins = new HashMap<>();
+            for (CoinSlot currentCoin : getCoinList(db, tableName, true, true)) {
+                currentCoins.put(currentCoin.getDatabaseId(), currentCoin);
+            }
+
+            // Find the coins that need to be written. Each row can only match one coin, so
+            // if a coin appears twice the second copy is inserted.
+            ArrayList<CoinSlot> coinsToInsert = new ArrayList<>();
+            ArrayList<CoinSlot> coinsToUpdate = new ArrayList<>();
+            for (CoinSlot coinSlot : coinData) {
+                CoinSlot currentCoin = currentCoins.remove(coinSlot.getDatabaseId());
+                if (currentCoin == null) {
+                    coinsToInsert.add(coinSlot);
+                } else {
+                    if (!coinSlot.isAdvancedNotesLoaded()) {
+                        // Keep the stored notes, since these were never read
+                        coinSlot.setAdvancedNotes(currentCoin.getAdvancedNotes());
+                    }
+                    if (!hasSameRowValues(coinSlot, currentCoin)) {
+                        coinsToUpdate.add(coinSlot);
+                    }
+                }
+            }
+
+            // Any rows left over are no longer in the collection
+            deleteCoinSlots(db, tableName, currentCoins.keySet());
+            updateCoinSlots(db, tableName, coinsToUpdate);
+            insertCoinSlots(db, tableName, coinsToInsert);
+            rowsTouched = currentCoins.size() + coinsToUpdate.size() + coinsToInsert.size();
+            updateCollectedCount(db, tableName);
+
+            // Update the collection total if needed
+            if (updateTotal) {
+                ContentValues values = new ContentValues();
+                values.put(COL_TOTAL, coinData.size());
+                runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        return rowsTouched;
+    }
 
-        // Update the collection total if needed
-        if (updateTotal) {
-            ContentValues values = new ContentValues();
-            values.put(COL_TOTAL, coinData.size());
-            runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+    /**
+     * Returns true if a coin has the same values as those stored in its row
+     *
+     * @param coinSlot   coin to check
+     * @param currentCoin coin read from the database
+     * @return true if no update is needed
+     */
+    private static boolean hasSameRowValues(CoinSlot coinSlot, CoinSlot currentCoin) {
+        return Objects.equals(coinSlot.getIdentifier(), currentCoin.getIdentifier())
+                && Objects.equals(coinSlot.getMint(), currentCoin.getMint())
+                && coinSlot.isInCollection() == currentCoin.isInCollection()
+                && Objects.equals(coinSlot.getAdvancedGrades(), currentCoin.getAdvancedGrades())
+                && Objects.equals(coinSlot.getAdvancedQuantities(), currentCoin.getAdvancedQuantities())
+                && Objects.equals(coinSlot.getAdvancedNotes(), currentCoin.getAdvancedNotes())
+                && coinSlot.getSortOrder() == currentCoin.getSortOrder()
+                && coinSlot.isCustomCoin() == currentCoin.isCustomCoin()
+                && coinSlot.getImageId() == currentCoin.getImageId();
+    }
+
+    /**
+     * Updates the rows for a list of coins using a single compiled statement
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @param coinData  coins to write, matched to rows by database id
+     * @throws SQLException if a database error occurs
+     */
+    private static void updateCoinSlots(SQLiteDatabase db, String tableName, List<CoinSlot> coinData) throws SQLException {
+        if (coinData.isEmpty()) {
+            return;
+        }
+        String sqlCmd = "UPDATE [" + DatabaseAdapter.removeBrackets(tableName) + "] SET "
+                + COL_COIN_IDENTIFIER + " = ?, " + COL_COIN_MINT + " = ?, " + COL_IN_COLLECTION + " = ?, "
+                + COL_ADV_GRADE_INDEX + " = ?, " + COL_ADV_QUANTITY_INDEX + " = ?, " + COL_ADV_NOTES + " = ?, "
+                + COL_SORT_ORDER + " = ?, " + COL_CUSTOM_COIN + " = ?, " + COL_IMAGE_ID + " = ? WHERE "
+                + COIN_SLOT_COIN_ID_WHERE_CLAUSE;
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        try {
+            for (CoinSlot coinSlot : coinData) {
+                bindCoinSlot(compiledStatement, coinSlot);
+                compiledStatement.bindLong(10, coinSlot.getDatabaseId());
+                if (compiledStatement.executeUpdateDelete() != 1) {
+                    throw new SQLException();
+                }
+                compiledStatement.clearBindings();
+            }
+        } finally {
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Deletes coin rows by database id using a single compiled statement
+     *
+     * @param db          database
+     * @param tableName   the collection name
+     * @param databaseIds ids of the rows to delete
+     * @throws SQLException if a database error occurs
+     */
+    private static void deleteCoinSlots(SQLiteDatabase db, String tableName, Collection<Long> databaseIds) throws SQLException {
+        if (databaseIds.isEmpty()) {
+            return;
+        }
+        String sqlCmd = "DELETE FROM [" + DatabaseAdapter.removeBrackets(tableName) + "] WHERE "
+                + COIN_SLOT_COIN_ID_WHERE_CLAUSE;
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        try {
+            for (long databaseId : databaseIds) {
+                compiledStatement.bindLong(1, databaseId);
+                compiledStatement.executeUpdateDelete();
+                compiledStatement.clearBindings();
+            }
+        } finally {
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Inserts a list of coins into a collection using a single compiled statement. All rows
+     * are written in one transaction, so if any insert fails none of the coins are added.
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @param coinData  coins to insert (the database id of each is updated)
+     * @throws SQLException if a database error occurs
+     */
+    public static void insertCoinSlots(SQLiteDatabase db, String tableName, List<CoinSlot> coinData) throws SQLException {
+        String sqlCmd = "INSERT INTO [" + DatabaseAdapter.removeBrackets(tableName) + "] ("
+                + COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ", " + COL_IN_COLLECTION + ", "
+                + COL_ADV_GRADE_INDEX + ", " + COL_ADV_QUANTITY_INDEX + ", " + COL_ADV_NOTES + ", "
+                + COL_SORT_ORDER + ", " + COL_CUSTOM_COIN + ", " + COL_IMAGE_ID
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        db.beginTransaction();
+        try {
+            for (CoinSlot coinSlot : coinData) {
+                bindCoinSlot(compiledStatement, coinSlot);
+                long rowId = compiledStatement.executeInsert();
+                if (rowId == -1) {
+                    throw new SQLException();
+                }
+                coinSlot.setDatabaseId(rowId);
+                compiledStatement.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Binds the coin slot values in the column order used by insertCoinSlots
+     *
+     * @param compiledStatement statement to bind to
+     * @param coinSlot          coin to bind
+     */
+    private static void bindCoinSlot(SQLiteStatement compiledStatement, CoinSlot coinSlot) {
+        bindStringOrNull(compiledStatement, 1, coinSlot.getIdentifier());
+        bindStringOrNull(compiledStatement, 2, coinSlot.getMint());
+        compiledStatement.bindLong(3, coinSlot.isInCollectionInt());
+        bindIntegerOrNull(compiledStatement, 4, coinSlot.getAdvancedGrades());
+        bindIntegerOrNull(compiledStatement, 5, coinSlot.getAdvancedQuantities());
+        bindStringOrNull(compiledStatement, 6, coinSlot.getAdvancedNotes());
+        compiledStatement.bindLong(7, coinSlot.getSortOrder());
+        compiledStatement.bindLong(8, coinSlot.isCustomCoinInt());
+        compiledStatement.bindLong(9, coinSlot.getImageId());
+    }
+
+    /**
+     * Binds a string to a statement, binding null if the value is null (bindString throws)
+     *
+     * @param compiledStatement statement to bind to
+     * @param index             1-based parameter index
+     * @param value             value to bind
+     */
+    static void bindStringOrNull(SQLiteStatement compiledStatement, int index, String value) {
+        if (value == null) {
+            compiledStatement.bindNull(index);
+        } else {
+            compiledStatement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Binds an integer to a statement, binding null if the value is null
+     *
+     * @param compiledStatement statement to bind to
+     * @param index             1-based parameter index
+     * @param value             value to bind
+     */
+    static void bindIntegerOrNull(SQLiteStatement compiledStatement, int index, Integer value) {
+        if (value == null) {
+            compiledStatement.bindNull(index);
+        } else {
+            compiledStatement.bindLong(index, value);
         }
     }
 
@@ -940,34 +1404,45 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param collectionListInfo new collection info
      * @param coinData           new coin data
      * @param legacyOptions      if true, uses the legacy mint marks / checkbox columns
+     * @return the number of coin rows inserted, updated or deleted
      * @throws SQLException if a database error occurs
      */
-    public static void updateExistingCollection(SQLiteDatabase db, String oldTableName, CollectionListInfo collectionListInfo,
-                                                ArrayList<CoinSlot> coinData, boolean legacyOptions) throws SQLException {
+    public static int updateExistingCollection(SQLiteDatabase db, String oldTableName, CollectionListInfo collectionListInfo,
+                                               ArrayList<CoinSlot> coinData, boolean legacyOptions) throws SQLException {
 
-        // Update the coin data
-        if (coinData != null) {
-            updateCoinList(db, oldTableName, coinData, false);
-        }
+        String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_MINT_MARK_FLAGS;
+        String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_CHECKBOX_FLAGS;
+
+        // Apply the coin and collection info changes together so a failure part way
+        // through doesn't leave the collection half updated
+        int rowsTouched = 0;
+        db.beginTransaction();
+        try {
+            // Update the coin data
+            if (coinData != null) {
+                rowsTouched = updateCoinList(db, oldTableName, coinData, false);
+            }
 
-        String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_SHOW_MINT_MARKS;
-        String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_SHOW_CHECKBOXES;
-
-        // Update the collection info
-        ContentValues values = new ContentValues();
-        values.put(COL_COIN_TYPE, collectionListInfo.getType());
-        values.put(COL_TOTAL, collectionListInfo.getMax());
-        values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
-        values.put(COL_START_YEAR, collectionListInfo.getStartYear());
-        values.put(COL_END_YEAR, collectionListInfo.getEndYear());
-        values.put(colShowMintMarks, collectionListInfo.getMintMarkFlags());
-        values.put(colShowCheckboxes, collectionListInfo.getCheckboxFlags());
-        runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{oldTableName});
-
-        // Rename the collection if needed
-        if (!oldTableName.equals(collectionListInfo.getName())) {
-            updateCollectionName(db, oldTableName, collectionListInfo.getName());
+            // Update the collection info
+            ContentValues values = new ContentValues();
+            values.put(COL_COIN_TYPE, collectionListInfo.getType());
+            values.put(COL_TOTAL, collectionListInfo.getMax());
+            values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
+            values.put(COL_START_YEAR, collectionListInfo.getStartYear());
+            values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            values.put(colShowMintMarks, collectionListInfo.getMintMarkFlags());
+            values.put(colShowCheckboxes, collectionListInfo.getCheckboxFlags());
+            runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{oldTableName});
+
+            // Rename the collection if needed
+            if (!oldTableName.equals(collectionListInfo.getName())) {
+                updateCollectionName(db, oldTableName, collectionListInfo.getName());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        return rowsTouched;
     }
 
     /**
@@ -20,11 +20,14 @@
 
 package com.coincollection;
 
+import static com.spencerpages.MainApplication.APP_NAME;
+
 import android.content.res.Resources;
 import android.database.SQLException;
 import android.os.Environment;
 import android.util.JsonReader;
 import android.util.JsonWriter;
+import android.util.Log;
 
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
@@ -32,9 +35,11 @@ import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
+import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -44,12 +49,30 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Locale;
 
 public class ExportImportHelper {
 
     // Internal state
     final Resources mRes;
     final DatabaseAdapter mDbAdapter;
+    private ProgressListener mProgressListener = null;
+    private ExportStats mLastExportStats = null;
+
+    // Size of the buffer between the export writers and the output stream
+    final static int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives progress updates during long running imports and exports
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the import/export thread each time a collection has been processed
+         *
+         * @param numCollections number of collections processed so far
+         */
+        void onCollectionProgress(int numCollections);
+    }
 
     public final static String JSON_CHARSET = "UTF-8";
 
@@ -89,11 +112,42 @@ public class ExportImportHelper {
     public final static String LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT = ".csv";
     public final static String LEGACY_EXPORT_DB_VERSION_FILE = "database_version.txt";
 
+    /**
+     * Counts of what an export wrote, and how long it took
+     */
+    public static class ExportStats {
+        public final int mNumCollections;
+        public final int mNumCoins;
+        public final long mElapsedNs;
+
+        ExportStats(int numCollections, int numCoins, long elapsedNs) {
+            mNumCollections = numCollections;
+            mNumCoins = numCoins;
+            mElapsedNs = elapsedNs;
+        }
+
+        /**
+         * @return the export throughput in coins per second
+         */
+        public double getCoinsPerSec() {
+            return (mElapsedNs > 0) ? mNumCoins * 1e9 / mElapsedNs : 0;
+        }
+    }
+
     public ExportImportHelper(Resources res, DatabaseAdapter dbAdapter) {
         mRes = res;
         mDbAdapter = dbAdapter;
     }
 
+    /**
+     * Sets the listener that is told as each collection is imported or exported
+     *
+     * @param progressListener the listener, or null for none
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
     /**
      * This method imports collections from the external storage (legacy storage). New versions
      * of the app export to JSON and store in a user-accessible storage location
@@ -291,10 +345,15 @@ public class ExportImportHelper {
     public String importCollectionsFromJson(InputStream inputStream) {
 
         int importDatabaseVersion = 0;
-        ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
+        int numImported = 0;
 
+        // Collections are written to the database as they're parsed, so only one collection
+        // is held in memory at a time. Everything happens in a single transaction, so the
+        // user's existing collections are only replaced once the whole file has imported.
+        mDbAdapter.beginTransaction();
         try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, JSON_CHARSET))) {
+            clearDatabaseForImport();
+
             // Parse the JSON file
             reader.beginObject();
             while (reader.hasNext()) {
@@ -307,8 +366,12 @@ public class ExportImportHelper {
                         reader.beginArray();
                         while (reader.hasNext()) {
                             ArrayList<CoinSlot> coinList = new ArrayList<>();
-                            importedCollectionInfoList.add(new CollectionListInfo(reader, coinList));
-                            importedCollectionContents.add(coinList);
+                            CollectionListInfo collectionListInfo = new CollectionListInfo(reader, coinList);
+                            if (!importCollection(collectionListInfo, numImported, coinList)) {
+                                return mRes.getString(R.string.error_import);
+                            }
+                            numImported++;
+                            reportProgress(numImported);
                         }
                         reader.endArray();
                         break;
@@ -318,12 +381,22 @@ public class ExportImportHelper {
                 }
             }
             reader.endObject();
-            // All data has been parsed from CSV files so perform the DB steps to import
-            return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                    importedCollectionContents);
+
+            // The database version may come after the collections, so any upgrade is
+            // done once everything has been read
+            finishImport(importDatabaseVersion);
+            mDbAdapter.setTransactionSuccessful();
         } catch (IOException e) {
             return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
         }
+
+        // Success!
+        return "";
     }
 
     /**
@@ -338,44 +411,120 @@ public class ExportImportHelper {
                                             ArrayList<CollectionListInfo> importedCollectionInfoList,
                                             ArrayList<ArrayList<CoinSlot>> importedCollectionContents) {
 
-        // Drop existing tables
-        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
-        mDbAdapter.getAllTables(existingCollections);
-        for (int i = 0; i < existingCollections.size(); i++) {
-            CollectionListInfo info = existingCollections.get(i);
-            mDbAdapter.dropCollectionTable(info.getName());
-        }
-        mDbAdapter.dropCollectionInfoTable();
-
-        // Take the data we've stored and replace what's in the database with it
+        // Replace the database contents in a single transaction, so that if any part of the
+        // import fails the user's existing collections are left untouched
+        mDbAdapter.beginTransaction();
         try {
-            // Add new collections
-            mDbAdapter.createCollectionInfoTable();
-            for (int i = 0; i < importedCollectionInfoList.size(); i++) {
-                CollectionListInfo collectionListInfo = importedCollectionInfoList.get(i);
-                ArrayList<CoinSlot> collectionContent = importedCollectionContents.get(i);
+            clearDatabaseForImport();
 
-                // Check for duplicate or illegal names
-                int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
-                if (checkName != -1) {
+            // Take the data we've stored and replace what's in the database with it
+            for (int i = 0; i < importedCollectionInfoList.size(); i++) {
+                if (!importCollection(importedCollectionInfoList.get(i), i, importedCollectionContents.get(i))) {
                     return mRes.getString(R.string.error_import);
                 }
-                mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, collectionContent);
+                reportProgress(i + 1);
             }
 
-            // Update any imported tables, if necessary
-            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
-                mDbAdapter.upgradeDbForImport(importDatabaseVersion);
-            }
+            finishImport(importDatabaseVersion);
+            mDbAdapter.setTransactionSuccessful();
         } catch (SQLException e) {
             // Report an import error message to display on the UI thread
             return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
         }
 
         // Success!
         return "";
     }
 
+    /**
+     * Drops the existing collections and recreates an empty collection info table.
+     * Must be called inside the import transaction.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    private void clearDatabaseForImport() throws SQLException {
+        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
+        mDbAdapter.getAllTables(existingCollections);
+        for (int i = 0; i < existingCollections.size(); i++) {
+            CollectionListInfo info = existingCollections.get(i);
+            mDbAdapter.dropCollectionTable(info.getName());
+        }
+        mDbAdapter.dropCollectionInfoTable();
+        mDbAdapter.createCollectionInfoTable();
+    }
+
+    /**
+     * Adds an imported collection to the database. Must be called inside the import
+     * transaction.
+     *
+     * @param collectionListInfo imported collection
+     * @param displayOrder       display order of the collection
+     * @param coinList           imported coins
+     * @return false if the collection name is a duplicate or is illegal
+     * @throws SQLException if a database error occurs
+     */
+    private boolean importCollection(CollectionListInfo collectionListInfo, int displayOrder,
+                                     ArrayList<CoinSlot> coinList) throws SQLException {
+        // Check for duplicate or illegal names
+        if (mDbAdapter.checkCollectionName(collectionListInfo.getName()) != -1) {
+            return false;
+        }
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, displayOrder, coinList);
+        return true;
+    }
+
+    /**
+     * Updates the imported tables, if necessary (this also repairs the collected counts).
+     * Must be called inside the import transaction, once all collections are added.
+     *
+     * @param importDatabaseVersion imported database version
+     * @throws SQLException if a database error occurs
+     */
+    private void finishImport(int importDatabaseVersion) throws SQLException {
+        if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+            mDbAdapter.upgradeDbForImport(importDatabaseVersion);
+        } else {
+            mDbAdapter.repairCollectedCounts();
+        }
+    }
+
+    /**
+     * Reports the number of collections imported or exported so far to the progress listener
+     *
+     * @param numCollections number of collections imported or exported
+     */
+    private void reportProgress(int numCollections) {
+        if (mProgressListener != null) {
+            mProgressListener.onCollectionProgress(numCollections);
+        }
+    }
+
+    /**
+     * Records the stats for a finished export
+     *
+     * @param format         export format, for logging
+     * @param numCollections number of collections exported
+     * @param numCoins       number of coins exported
+     * @param startNs        System.nanoTime() when the export started
+     */
+    private void finishExport(String format, int numCollections, int numCoins, long startNs) {
+        mLastExportStats = new ExportStats(numCollections, numCoins, System.nanoTime() - startNs);
+        if (BuildConfig.DEBUG) {
+            Log.d(APP_NAME, String.format(Locale.US, "%s export: %d collections, %d coins in %d ms (%.0f coins/s)",
+                    format, numCollections, numCoins, mLastExportStats.mElapsedNs / 1000000,
+                    mLastExportStats.getCoinsPerSec()));
+        }
+    }
+
+    /**
+     * @return the stats from the last successful JSON or CSV export, or null if none
+     */
+    public ExportStats getLastExportStats() {
+        return mLastExportStats;
+    }
+
     /**
      * Exports the collection information to JSON
      *
@@ -389,18 +538,22 @@ public class ExportImportHelper {
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
         mDbAdapter.getAllTables(collectionListEntries);
 
-        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(outputStream, JSON_CHARSET))) {
+        long startNs = System.nanoTime();
+        int numCoins = 0;
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(outputStream, JSON_CHARSET), EXPORT_BUFFER_SIZE))) {
             writer.beginObject();
             writer.name(JSON_DB_VERSION).value(MainApplication.DATABASE_VERSION);
             writer.name(JSON_COLLECTIONS).beginArray();
             for (int i = 0; i < collectionListEntries.size(); i++) {
-                // Add the collection and coin info
-                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
-                ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(collectionListInfo.getName(), true);
-                collectionListInfo.writeToJson(writer, mDbAdapter, coinList);
+                // Add the collection and coin info, streaming the coins from the database
+                numCoins += collectionListEntries.get(i).writeToJson(writer, mDbAdapter);
+                reportProgress(i + 1);
             }
             writer.endArray();
             writer.endObject();
+            writer.flush();
+            finishExport("JSON", collectionListEntries.size(), numCoins, startNs);
             return mRes.getString(R.string.success_export, filePath);
         } catch (IOException e) {
             return mRes.getString(R.string.error_exporting, e.getMessage());
@@ -536,7 +689,10 @@ public class ExportImportHelper {
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
         mDbAdapter.getAllTables(collectionListEntries);
 
-        try (CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(outputStream))) {
+        long startNs = System.nanoTime();
+        int numCoins = 0;
+        try (CSVWriter csvWriter = new CSVWriter(new BufferedWriter(
+                new OutputStreamWriter(outputStream), EXPORT_BUFFER_SIZE))) {
 
             // Write database version
             csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.DATABASE_VERSION.label});
@@ -546,20 +702,20 @@ public class ExportImportHelper {
 
             // Write collections
             for (int i = 0; i < collectionListEntries.size(); i++) {
-                // Get the collection and coin info
+                // Write the collection info, then stream the coins from the database
                 CollectionListInfo collectionListInfo = collectionListEntries.get(i);
-                ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(collectionListInfo.getName(), true);
-
                 csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COLLECTIONS.label});
                 csvWriter.writeNext(CollectionListInfo.getCsvExportHeader());
                 csvWriter.writeNext(collectionListInfo.getCsvExportProperties(mDbAdapter));
 
                 csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COIN_LIST.label});
                 csvWriter.writeNext(CoinSlot.getCsvExportHeader());
-                for (CoinSlot coinSlot : coinList) {
-                    csvWriter.writeNext(coinSlot.getCsvExportProperties());
-                }
+                numCoins += mDbAdapter.streamCoins(collectionListInfo.getName(),
+                        coinSlot -> csvWriter.writeNext(coinSlot.getCsvExportProperties()));
+                reportProgress(i + 1);
             }
+            csvWriter.flush();
+            finishExport("CSV", collectionListEntries.size(), numCoins, startNs);
             return mRes.getString(R.string.success_export, filePath);
         } catch (IOException e) {
             return mRes.getString(R.string.error_exporting, e.getMessage());
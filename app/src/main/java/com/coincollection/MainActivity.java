@@ -20,7 +20,6 @@
 
 package com.coincollection;
 
-import static com.coincollection.CollectionListInfo.COL_NAME;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_FOLDER_NAME;
 import static com.coincollection.ReorderCollections.REORDER_COLLECTION;
 import static com.spencerpages.MainApplication.APP_NAME;
@@ -33,17 +32,18 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.StrictMode;
 import android.provider.DocumentsContract;
 import android.provider.OpenableColumns;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
@@ -127,6 +127,16 @@ public class MainActivity extends BaseActivity {
         View rootView = findViewById(R.id.main_activity_frame);
         applyWindowInsets(rootView);
 
+        // End the app startup trace when the first frame is about to be drawn
+        rootView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                rootView.getViewTreeObserver().removeOnPreDrawListener(this);
+                ((MainApplication) getApplication()).onFirstFrame();
+                return true;
+            }
+        });
+
         // In legacy code we used first_Time_screen2 here so that the message would be displayed
         // until they made it to the create collection screen.  That isn't necessary anymore, but
         // if they are upgrading from that don't show them the help screen if first_Time_screen1
@@ -282,9 +292,16 @@ public class MainActivity extends BaseActivity {
         if (!parentResult.isEmpty()) {
             return parentResult;
         }
+        if (taskId == TASK_IMPORT_COLLECTIONS || taskId == TASK_EXPORT_COLLECTIONS) {
+            // Coin changes are written in the background, so make sure the last changes
+            // made on a collection page are in the database first
+            ((MainApplication) getApplication()).getCoinWriteQueue().flush();
+        }
         switch (taskId) {
             case TASK_IMPORT_COLLECTIONS: {
                 ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                helper.setProgressListener(numCollections -> publishAsyncProgress(TASK_IMPORT_COLLECTIONS,
+                        mRes.getString(R.string.importing_collections_progress, numCollections)));
                 if (mActivityViewModel.mTaskRequest.importExportLegacyCsv) {
                     return helper.importCollectionsFromLegacyCSV(getLegacyExportFolderName());
                 } else {
@@ -307,6 +324,8 @@ public class MainActivity extends BaseActivity {
             }
             case TASK_EXPORT_COLLECTIONS: {
                 ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                helper.setProgressListener(numCollections -> publishAsyncProgress(TASK_EXPORT_COLLECTIONS,
+                        mRes.getString(R.string.exporting_collections_progress, numCollections)));
                 if (mActivityViewModel.mTaskRequest.importExportLegacyCsv) {
                     return helper.exportCollectionsToLegacyCSV(getLegacyExportFolderName());
                 } else {
@@ -337,6 +356,11 @@ public class MainActivity extends BaseActivity {
         dismissProgressDialog();
         if (taskId == TASK_IMPORT_COLLECTIONS) {
             mActivityViewModel.mTaskRequest.isImportingCollection = false;
+            if (resultStr.isEmpty()) {
+                // The imported collections replace the old ones, so any unsaved edits
+                // journaled for the old collections no longer apply
+                ((MainApplication) getApplication()).getAdvInfoJournal().clearAll();
+            }
         }
         updateCollectionListFromDatabaseAndUpdateViewForUIThread();
     }
@@ -472,9 +496,17 @@ public class MainActivity extends BaseActivity {
             // Indicate that we're using the legacy CSV
             mActivityViewModel.mTaskRequest.importExportLegacyCsv = true;
 
-            // Check to see if the folder exists already
+            // Check to see if the folder exists already. This is a single stat on the legacy
+            // (pre-scoped storage) path, so it's allowed on the UI thread.
             File dir = new File(getLegacyExportFolderName());
-            if (dir.isDirectory() || dir.exists()) {
+            StrictMode.ThreadPolicy oldPolicy = StrictMode.allowThreadDiskReads();
+            boolean dirExists;
+            try {
+                dirExists = dir.isDirectory() || dir.exists();
+            } finally {
+                StrictMode.setThreadPolicy(oldPolicy);
+            }
+            if (dirExists) {
                 // Let the user decide whether they want to delete this
                 showExportConfirmation();
             } else {
@@ -683,18 +715,35 @@ public class MainActivity extends BaseActivity {
     }
 
     /**
-     * Reloads the collection list from the database.  This is useful after changes have been made
-     * (collections reordered, deleted, etc.)
+     * Reloads the collection list from the database and updates the list adapter once it has
+     * been read.  This is useful after changes have been made (collections reordered, deleted,
+     * etc.)
      */
     public void updateCollectionListFromDatabase() {
 
-        //Get a list of all the database tables
-        try {
-            mDbAdapter.getAllTables(mCollectionListEntries);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_reading_database));
+        // This may be called in some corner cases before the database has been opened or
+        // after it has closed - ignore the update in that case
+        if (!mDbAdapter.isOpen()) {
+            if (BuildConfig.DEBUG) {
+                Log.e(APP_NAME, "Called updateCollectionListFromDatabase() before the database was opened");
+            }
+            return;
         }
 
+        //Get a list of all the database tables
+        mCollectionRepository.getAllCollections(this::onCollectionListRead,
+                () -> showCancelableAlert(mRes.getString(R.string.error_reading_database)));
+    }
+
+    /**
+     * Updates the list with the collections read from the database
+     *
+     * @param collectionListEntries the collections, in display order
+     */
+    private void onCollectionListRead(ArrayList<CollectionListInfo> collectionListEntries) {
+        mCollectionListEntries.clear();
+        mCollectionListEntries.addAll(collectionListEntries);
+
         // Record the actual number of collections before spacers are added
         mNumberOfCollections = mCollectionListEntries.size();
 
@@ -704,26 +753,6 @@ public class MainActivity extends BaseActivity {
         for (int i = 0; i < NUMBER_OF_COLLECTION_LIST_SPACERS; i++) {
             mCollectionListEntries.add(null);
         }
-    }
-
-    /**
-     * Reloads the collection list from the database and updates the list adapter. This method
-     * should only be called from the UI Thread
-     */
-    public void updateCollectionListFromDatabaseAndUpdateViewForUIThread() {
-
-        // mDbAdapter may be null in some corner cases where this method gets called
-        // before the DB has been opened or after it has closed - ignore the update
-        // in that case
-        try {
-            // Refresh mCollectionListEntries and mNumberOfCollections from the database
-            updateCollectionListFromDatabase();
-        } catch (NullPointerException e) {
-            if (BuildConfig.DEBUG) {
-                Log.e(APP_NAME, "Called updateCollectionListFromDatabaseAndUpdateViewForUIThread() before mDbAdapter initialized ");
-            }
-            return;
-        }
 
         // Update the list view adapter
         if (mListAdapter != null) {
@@ -733,6 +762,14 @@ public class MainActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Reloads the collection list from the database and updates the list adapter. This method
+     * should only be called from the UI Thread
+     */
+    public void updateCollectionListFromDatabaseAndUpdateViewForUIThread() {
+        updateCollectionListFromDatabase();
+    }
+
     /**
      * Show dialog for user to confirm export
      */
@@ -780,28 +817,11 @@ public class MainActivity extends BaseActivity {
                 .setCancelable(false)
                 .setPositiveButton(mRes.getString(R.string.yes), (dialog, id) -> {
                     dialog.dismiss();
-                    //Do the deleting
-                    Cursor cursor = null;
-                    try {
-                        mDbAdapter.dropCollectionTable(name);
-                        //Get a list of all the database tables
-                        cursor = mDbAdapter.getAllCollectionNames();
-                        int i = 0;
-                        if (cursor.moveToFirst()) {
-                            do {
-                                String name1 = cursor.getString(cursor.getColumnIndexOrThrow(COL_NAME));
-                                // Fix up the displayOrder
-                                mDbAdapter.updateDisplayOrder(name1, i);
-                                i++;
-                            } while (cursor.moveToNext());
-                        }
-                        cursor.close();
-                    } catch (SQLException e) {
-                        showCancelableAlert(mRes.getString(R.string.error_delete_database));
-                        if (cursor != null) {
-                            cursor.close();
-                        }
-                    }
+                    //Do the deleting, then show the updated list
+                    mCollectionRepository.deleteCollection(name, () -> {
+                        ((MainApplication) getApplication()).getAdvInfoJournal().clear(name);
+                        updateCollectionListFromDatabaseAndUpdateViewForUIThread();
+                    }, () -> showCancelableAlert(mRes.getString(R.string.error_delete_database)));
                 })
                 .setNegativeButton(mRes.getString(R.string.no), (dialog, id) -> dialog.cancel()));
     }
@@ -839,30 +859,18 @@ public class MainActivity extends BaseActivity {
             }
         }
 
-        // Pick a new table name
-        String newTableName;
-        int checkNameResult;
-        int attemptNumber = 0;
-        do {
-            String suffixIndex = (attemptNumber == 0) ? "" : Integer.toString(attemptNumber);
-            newTableName = baseNewTableName + mRes.getString(R.string.copy_name_suffix) + suffixIndex;
-            checkNameResult = mDbAdapter.checkCollectionName(newTableName);
-            attemptNumber++;
-        } while (checkNameResult != -1);
-
-        // Create the new table
-        CollectionListInfo newCollectionListInfo;
-        try {
-            newCollectionListInfo = mDbAdapter.createCollectionCopy(sourceCollectionListInfo, newTableName, insertIndex);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_copying_database));
-            return;
-        }
-
-        // Insert into the collection list and update the database sort order
-        mCollectionListEntries.add(insertIndex, newCollectionListInfo);
-        mNumberOfCollections += 1;
-        handleCollectionsReordered(new ArrayList<>(mCollectionListEntries.subList(0, mNumberOfCollections)));
+        // Pick a new table name and create the new table after the source collection (the
+        // database moves the later collections down), then insert it into the collection list
+        final int copyInsertIndex = insertIndex;
+        mCollectionRepository.copyCollection(sourceCollectionListInfo, baseNewTableName, suffixBase,
+                newCollectionListInfo -> {
+                    mCollectionListEntries.add(copyInsertIndex, newCollectionListInfo);
+                    mNumberOfCollections += 1;
+                    if (mListAdapter != null) {
+                        mListAdapter.numberOfCollections = mNumberOfCollections;
+                        mListAdapter.notifyDataSetChanged();
+                    }
+                }, () -> showCancelableAlert(mRes.getString(R.string.error_copying_database)));
     }
 
     /**
@@ -873,16 +881,19 @@ public class MainActivity extends BaseActivity {
      */
     public void handleCollectionsReordered(ArrayList<CollectionListInfo> reorderedList) {
 
+        ArrayList<String> names = new ArrayList<>();
         for (int i = 0; i < reorderedList.size(); i++) {
             CollectionListInfo info = reorderedList.get(i);
-            try {
-                mDbAdapter.updateDisplayOrder(info.getName(), i);
-            } catch (SQLException e) {
-                showCancelableAlert(mRes.getString(R.string.error_reordering_databases));
-                return;
-            }
+            names.add(info.getName());
             mCollectionListEntries.set(i, info);
         }
+
+        // If the update fails, show the order that's in the database
+        mCollectionRepository.reorderCollections(names, () -> {
+        }, () -> {
+            showCancelableAlert(mRes.getString(R.string.error_reordering_databases));
+            updateCollectionListFromDatabaseAndUpdateViewForUIThread();
+        });
     }
 
     /**
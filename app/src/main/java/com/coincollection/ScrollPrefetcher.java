@@ -0,0 +1,125 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+
+/**
+ * Prefetches coin images ahead of the visible coins while a collection is scrolled. The
+ * number of coins prefetched scales with the scroll speed, so that the images are already
+ * decoded when a fling through a large collection reaches them.
+ */
+class ScrollPrefetcher {
+
+    // How far ahead to prefetch, as the time to reach the coins at the current scroll speed
+    static final int LOOKAHEAD_MS = 750;
+
+    // Most coins to prefetch ahead of the visible coins
+    static final int MAX_LOOKAHEAD_ITEMS = 150;
+
+    // Weight of the newest sample in the smoothed scroll speed
+    private static final float SPEED_SMOOTHING = 0.5f;
+
+    private final CoinSlotAdapter mAdapter;
+
+    // Scroll state from the last time the first visible coin changed
+    private int mLastFirstVisibleItem = -1;
+    private long mLastScrollTimeMs = 0;
+    private float mItemsPerSec = 0;
+    private int mLastDirection = 0;
+
+    /**
+     * Constructor
+     *
+     * @param adapter adapter for the coins being scrolled
+     */
+    ScrollPrefetcher(CoinSlotAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Called from the list's OnScrollListener.onScroll
+     *
+     * @param view             the list being scrolled
+     * @param firstVisibleItem position of the first visible coin
+     * @param visibleItemCount number of visible coins
+     */
+    void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount) {
+        onScroll(view, firstVisibleItem, visibleItemCount, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Called from the list's OnScrollListener.onScroll
+     *
+     * @param view             the list being scrolled
+     * @param firstVisibleItem position of the first visible coin
+     * @param visibleItemCount number of visible coins
+     * @param nowMs            current time in milliseconds
+     */
+    void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, long nowMs) {
+        // onScroll is called for every frame, so only act when the visible coins change
+        if (firstVisibleItem == mLastFirstVisibleItem || visibleItemCount == 0) {
+            return;
+        }
+        if (mLastFirstVisibleItem != -1) {
+            long elapsedMs = Math.max(1, nowMs - mLastScrollTimeMs);
+            float itemsPerSec = (firstVisibleItem - mLastFirstVisibleItem) * 1000f / elapsedMs;
+            mItemsPerSec = SPEED_SMOOTHING * itemsPerSec + (1 - SPEED_SMOOTHING) * mItemsPerSec;
+        }
+        mLastFirstVisibleItem = firstVisibleItem;
+        mLastScrollTimeMs = nowMs;
+
+        // Prefetches queued for the other direction are no longer useful
+        int direction = (mItemsPerSec < 0) ? -1 : 1;
+        if (direction != mLastDirection) {
+            mAdapter.cancelImagePrefetches();
+            mLastDirection = direction;
+        }
+
+        int lookahead = getLookaheadItems(mItemsPerSec, visibleItemCount);
+        if (direction > 0) {
+            int start = firstVisibleItem + visibleItemCount;
+            mAdapter.prefetchImages(view, start, start + lookahead);
+        } else {
+            mAdapter.prefetchImages(view, firstVisibleItem - lookahead, firstVisibleItem);
+        }
+    }
+
+    /**
+     * Get the number of coins to prefetch ahead of the visible coins, which is at least
+     * one screen and grows with the scroll speed
+     *
+     * @param itemsPerSec      scroll speed in coins per second
+     * @param visibleItemCount number of visible coins
+     * @return number of coins to prefetch
+     */
+    static int getLookaheadItems(float itemsPerSec, int visibleItemCount) {
+        int lookahead = (int) (Math.abs(itemsPerSec) * LOOKAHEAD_MS / 1000);
+        return Math.min(MAX_LOOKAHEAD_ITEMS, Math.max(visibleItemCount, lookahead));
+    }
+
+    /**
+     * @return the smoothed scroll speed in coins per second (negative when scrolling up)
+     */
+    float getItemsPerSec() {
+        return mItemsPerSec;
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.BaseActivity.TASK_EXPORT_COLLECTIONS;
+import static com.coincollection.BaseActivity.TASK_IMPORT_COLLECTIONS;
+import static com.coincollection.BaseActivity.TASK_OPEN_DATABASE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs background tasks so that only tasks using the same resource wait for each other.
+ * Each task is scheduled with a key:
+ * - KEY_DATABASE tasks (Ex: opening/upgrading the database, import) use the whole
+ * database, so they run alone
+ * - Tasks with any other key (Ex: a single collection) only wait for tasks with the
+ * same key and for KEY_DATABASE tasks
+ * <p>
+ * Tasks that can't run yet wait in the scheduler rather than on the executor, so they
+ * never hold a thread while waiting. Work that uses the database outside of the
+ * scheduler (Ex: the coin write queue) takes the database read lock, so it doesn't
+ * overlap KEY_DATABASE tasks either.
+ * <p>
+ * If a task is still waiting when the same owner (Ex: a task runner) schedules another
+ * task with the same key and task ID, the waiting task is cancelled since its work has
+ * been superseded. Tasks from different owners never supersede each other, since each
+ * owner waits for its own tasks to complete.
+ */
+class TaskScheduler {
+
+    // Key for tasks that need exclusive use of the database
+    static final String KEY_DATABASE = "database";
+
+    // Key for exports, which only read the database
+    static final String KEY_EXPORT = "export";
+
+    private static final String KEY_COLLECTION_PREFIX = "collection:";
+    private static final String KEY_TASK_PREFIX = "task:";
+
+    // Number of background threads used by the default scheduler
+    static final int MAX_THREADS = 4;
+
+    // Default production scheduler, shared across task runners so that tasks started
+    // from different activities are coordinated
+    private static TaskScheduler sDefaultScheduler = null;
+
+    private final Executor mExecutor;
+
+    // Held for writing while a KEY_DATABASE task runs
+    private final ReentrantReadWriteLock mDatabaseLock = new ReentrantReadWriteLock(true);
+
+    // Tasks waiting to start, in the order they were scheduled, and the keys of the tasks
+    // that have started. Guarded by this.
+    private final ArrayList<ScheduledTask> mWaitingTasks = new ArrayList<>();
+    private final HashSet<String> mRunningKeys = new HashSet<>();
+    private int mNumStarted = 0;
+
+    // Schedule state for each owner, key and task ID with tasks that haven't finished.
+    // Entries are removed once all of their tasks are done. Guarded by this.
+    private final HashMap<ScheduleKey, ScheduleState> mSchedules = new HashMap<>();
+
+    // Metrics. Guarded by this.
+    private int mQueueDepth = 0;
+    private int mNumRun = 0;
+    private int mNumCancelled = 0;
+    private long mTotalWaitNs = 0;
+    private long mMaxWaitNs = 0;
+
+    /**
+     * A task that has been scheduled
+     */
+    private static class ScheduledTask {
+        final String mKey;
+        final ScheduleKey mScheduleKey;
+        final int mScheduleCount;
+        final Runnable mTask;
+        final long mQueuedNs;
+
+        ScheduledTask(String key, ScheduleKey scheduleKey, int scheduleCount, Runnable task) {
+            mKey = key;
+            mScheduleKey = scheduleKey;
+            mScheduleCount = scheduleCount;
+            mTask = task;
+            mQueuedNs = System.nanoTime();
+        }
+
+        boolean isDatabaseTask() {
+            return KEY_DATABASE.equals(mKey);
+        }
+    }
+
+    /**
+     * Identifies the tasks that supersede each other: the same owner, key and task ID.
+     * Owners are compared by identity.
+     */
+    private static class ScheduleKey {
+        final Object mOwner;
+        final String mKey;
+        final int mTaskId;
+
+        ScheduleKey(Object owner, String key, int taskId) {
+            mOwner = owner;
+            mKey = key;
+            mTaskId = taskId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ScheduleKey)) {
+                return false;
+            }
+            ScheduleKey otherKey = (ScheduleKey) other;
+            return (mOwner == otherKey.mOwner) && mKey.equals(otherKey.mKey) && (mTaskId == otherKey.mTaskId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(mOwner) + mKey.hashCode()) + mTaskId;
+        }
+    }
+
+    /**
+     * The latest schedule count for an owner, key and task ID, and how many of its tasks
+     * haven't finished
+     */
+    private static class ScheduleState {
+        int mLatestCount = 0;
+        int mNumUnfinished = 0;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor executor used to run the tasks
+     */
+    TaskScheduler(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Get the shared scheduler, which runs tasks on a bounded thread pool
+     *
+     * @return the default scheduler
+     */
+    static synchronized TaskScheduler getDefault() {
+        if (sDefaultScheduler == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sDefaultScheduler = new TaskScheduler(executor);
+        }
+        return sDefaultScheduler;
+    }
+
+    /**
+     * Get the key for a task that only uses one collection
+     *
+     * @param collectionName the collection name
+     * @return the task key
+     */
+    static String getCollectionKey(String collectionName) {
+        return KEY_COLLECTION_PREFIX + collectionName;
+    }
+
+    /**
+     * Get the key used for a task if the activity doesn't provide a more specific one
+     *
+     * @param taskId the task ID
+     * @return the task key
+     */
+    static String getDefaultTaskKey(int taskId) {
+        switch (taskId) {
+            case TASK_OPEN_DATABASE:
+            case TASK_IMPORT_COLLECTIONS:
+                return KEY_DATABASE;
+            case TASK_EXPORT_COLLECTIONS:
+                return KEY_EXPORT;
+            default:
+                return KEY_TASK_PREFIX + taskId;
+        }
+    }
+
+    /**
+     * Get the lock that database work outside of the scheduler should hold, so that it
+     * doesn't run at the same time as a KEY_DATABASE task
+     *
+     * @return the database read lock
+     */
+    Lock getDatabaseReadLock() {
+        return mDatabaseLock.readLock();
+    }
+
+    /**
+     * Run a task once no conflicting task is running. The task is skipped if the same
+     * owner schedules a newer task with the same key and task ID before it starts.
+     *
+     * @param key    resource key for the task
+     * @param taskId the task ID, used to find superseded tasks
+     * @param owner  the object scheduling the task (Ex: the task runner), which must
+     *               handle its own superseded tasks
+     * @param task   the work to run
+     */
+    void schedule(String key, int taskId, Object owner, Runnable task) {
+        final ScheduleKey scheduleKey = new ScheduleKey(owner, key, taskId);
+        synchronized (this) {
+            ScheduleState state = mSchedules.get(scheduleKey);
+            if (state == null) {
+                state = new ScheduleState();
+                mSchedules.put(scheduleKey, state);
+            }
+            state.mLatestCount++;
+            state.mNumUnfinished++;
+            mQueueDepth++;
+            mWaitingTasks.add(new ScheduledTask(key, scheduleKey, state.mLatestCount, task));
+        }
+        dispatch();
+    }
+
+    /**
+     * Hand the waiting tasks that can run now to the executor. Tasks are considered in
+     * the order they were scheduled, and a waiting KEY_DATABASE task holds back the tasks
+     * scheduled after it so that it isn't starved.
+     */
+    private void dispatch() {
+        ArrayList<ScheduledTask> startedTasks = new ArrayList<>();
+        synchronized (this) {
+            HashSet<String> waitingKeys = new HashSet<>();
+            Iterator<ScheduledTask> iterator = mWaitingTasks.iterator();
+            while (iterator.hasNext()) {
+                ScheduledTask scheduledTask = iterator.next();
+                if (isSuperseded(scheduledTask)) {
+                    iterator.remove();
+                    mQueueDepth--;
+                    mNumCancelled++;
+                    onTaskFinished(scheduledTask);
+                    continue;
+                }
+                if (scheduledTask.isDatabaseTask()) {
+                    if (mNumStarted != 0) {
+                        break;
+                    }
+                } else if (mRunningKeys.contains(KEY_DATABASE)
+                        || mRunningKeys.contains(scheduledTask.mKey)
+                        || waitingKeys.contains(scheduledTask.mKey)) {
+                    waitingKeys.add(scheduledTask.mKey);
+                    continue;
+                }
+                iterator.remove();
+                mRunningKeys.add(scheduledTask.mKey);
+                mNumStarted++;
+                startedTasks.add(scheduledTask);
+                if (scheduledTask.isDatabaseTask()) {
+                    break;
+                }
+            }
+        }
+        for (ScheduledTask scheduledTask : startedTasks) {
+            mExecutor.execute(() -> run(scheduledTask));
+        }
+    }
+
+    /**
+     * Run a task that has been handed to the executor, then start any tasks it was
+     * holding back
+     *
+     * @param scheduledTask the task to run
+     */
+    private void run(ScheduledTask scheduledTask) {
+        boolean superseded;
+        synchronized (this) {
+            long waitNs = System.nanoTime() - scheduledTask.mQueuedNs;
+            mQueueDepth--;
+            mTotalWaitNs += waitNs;
+            mMaxWaitNs = Math.max(mMaxWaitNs, waitNs);
+            superseded = isSuperseded(scheduledTask);
+            if (superseded) {
+                mNumCancelled++;
+            } else {
+                mNumRun++;
+            }
+        }
+        try {
+            if (!superseded) {
+                if (scheduledTask.isDatabaseTask()) {
+                    // Wait for database work outside of the scheduler to finish
+                    Lock databaseLock = mDatabaseLock.writeLock();
+                    databaseLock.lock();
+                    try {
+                        scheduledTask.mTask.run();
+                    } finally {
+                        databaseLock.unlock();
+                    }
+                } else {
+                    scheduledTask.mTask.run();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mRunningKeys.remove(scheduledTask.mKey);
+                mNumStarted--;
+                onTaskFinished(scheduledTask);
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * Check whether the task's owner has scheduled a newer task with the same key and
+     * task ID.
+     * Must be called while holding this.
+     *
+     * @param scheduledTask the task
+     * @return true if the task has been superseded
+     */
+    private boolean isSuperseded(ScheduledTask scheduledTask) {
+        ScheduleState state = mSchedules.get(scheduledTask.mScheduleKey);
+        return (state != null) && (state.mLatestCount != scheduledTask.mScheduleCount);
+    }
+
+    /**
+     * Stop tracking a task's owner, key and task ID once all of its tasks are done. Must be
+     * called while holding this.
+     *
+     * @param scheduledTask the task that finished or was cancelled
+     */
+    private void onTaskFinished(ScheduledTask scheduledTask) {
+        ScheduleState state = mSchedules.get(scheduledTask.mScheduleKey);
+        if (state != null && --state.mNumUnfinished == 0) {
+            mSchedules.remove(scheduledTask.mScheduleKey);
+        }
+    }
+
+    /**
+     * @return the number of owners, keys and task IDs with tasks that haven't finished
+     */
+    synchronized int getNumTrackedSchedules() {
+        return mSchedules.size();
+    }
+
+    /**
+     * @return the number of tasks waiting to start
+     */
+    synchronized int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * @return the number of tasks that have been run
+     */
+    synchronized int getNumRun() {
+        return mNumRun;
+    }
+
+    /**
+     * @return the number of tasks cancelled because a newer task superseded them
+     */
+    synchronized int getNumCancelled() {
+        return mNumCancelled;
+    }
+
+    /**
+     * @return the total time tasks have waited to start, in nanoseconds
+     */
+    synchronized long getTotalWaitNs() {
+        return mTotalWaitNs;
+    }
+
+    /**
+     * @return the longest time a task has waited to start, in nanoseconds
+     */
+    synchronized long getMaxWaitNs() {
+        return mMaxWaitNs;
+    }
+}
@@ -21,8 +21,13 @@
 package com.spencerpages;
 
 import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
 
-import com.coincollection.CollectionInfo;
+import com.coincollection.AdvInfoJournal;
+import com.coincollection.CoinWriteQueue;
+import com.coincollection.CollectionRepository;
+import com.coincollection.CollectionTypeRegistry;
 import com.coincollection.DatabaseAdapter;
 import com.spencerpages.collections.AllNickels;
 import com.spencerpages.collections.AmericanEagleSilverDollars;
@@ -77,6 +82,8 @@ import com.spencerpages.collections.SilverQuarters;
 import com.spencerpages.collections.WashingtonQuarters;
 import com.spencerpages.collections.WestPoint;
 
+import java.io.File;
+
 public class MainApplication extends Application {
 
     // App name string, used when printing log messages
@@ -88,61 +95,63 @@ public class MainApplication extends Application {
     public static final String PREFS = "mainPreferences";
 
     // List of all the supported collection types by the app.  New collections
-    // should be added here, but don't reorder (reorder lists below)
-    public static final CollectionInfo[] COLLECTION_TYPES = {
-            new LincolnCents(),
-            new JeffersonNickels(),
-            new BasicDimes(),
-            new BasicQuarters(),
-            new StateQuarters(),
-            new NationalParkQuarters(),
-            new BasicHalfDollars(),
-            new EisenhowerDollar(),
-            new SusanBAnthonyDollars(),
-            new NativeAmericanDollars(),
-            new PresidentialDollars(),
-            new IndianHeadCents(),
-            new LibertyHeadNickels(),
-            new BuffaloNickels(),
-            new BarberDimes(),
-            new MercuryDimes(),
-            new BarberQuarters(),
-            new StandingLibertyQuarters(),
-            new BarberHalfDollars(),
-            new WalkingLibertyHalfDollars(),
-            new FranklinHalfDollars(),
-            new MorganDollars(),
-            new PeaceDollars(),
-            new AmericanEagleSilverDollars(),
-            new FirstSpouseGoldCoins(),
-            new BasicInnovationDollars(),
-            new AmericanWomenQuarters(),
-            new SmallCents(),
-            new LargeCents(),
-            new AllNickels(),
-            new HalfDimes(),
-            new SilverDimes(),
-            new EarlyDimes(),
-            new CladQuarters(),
-            new SilverQuarters(),
-            new EarlyQuarters(),
-            new SmallDollars(),
-            new SilverHalfDollars(),
-            new Trimes(),
-            new TwentyCents(),
-            new TwoCents(),
-            new WestPoint(),
-            new EarlyDollars(),
-            new EarlyHalfDollars(),
-            new Cartwheels(),
-            new HalfCents(),
-            new CoinSets(),
-            new KennedyHalfDollars(),
-            new RooseveltDimes(),
-            new WashingtonQuarters(),
-            new AmericanInnovationDollars(),
-            new Semiquincentennials(),
-    };
+    // should be added here, but don't reorder (reorder lists below). Each type is
+    // only created when first used, so app startup doesn't run the static tables of
+    // collection types that aren't in the user's database.
+    public static final CollectionTypeRegistry COLLECTION_TYPES = new CollectionTypeRegistry.Builder()
+            .add(LincolnCents.COLLECTION_TYPE, LincolnCents.class, LincolnCents::new)
+            .add(JeffersonNickels.COLLECTION_TYPE, JeffersonNickels.class, JeffersonNickels::new)
+            .add(BasicDimes.COLLECTION_TYPE, BasicDimes.class, BasicDimes::new)
+            .add(BasicQuarters.COLLECTION_TYPE, BasicQuarters.class, BasicQuarters::new)
+            .add(StateQuarters.COLLECTION_TYPE, StateQuarters.class, StateQuarters::new)
+            .add(NationalParkQuarters.COLLECTION_TYPE, NationalParkQuarters.class, NationalParkQuarters::new)
+            .add(BasicHalfDollars.COLLECTION_TYPE, BasicHalfDollars.class, BasicHalfDollars::new)
+            .add(EisenhowerDollar.COLLECTION_TYPE, EisenhowerDollar.class, EisenhowerDollar::new)
+            .add(SusanBAnthonyDollars.COLLECTION_TYPE, SusanBAnthonyDollars.class, SusanBAnthonyDollars::new)
+            .add(NativeAmericanDollars.COLLECTION_TYPE, NativeAmericanDollars.class, NativeAmericanDollars::new)
+            .add(PresidentialDollars.COLLECTION_TYPE, PresidentialDollars.class, PresidentialDollars::new)
+            .add(IndianHeadCents.COLLECTION_TYPE, IndianHeadCents.class, IndianHeadCents::new)
+            .add(LibertyHeadNickels.COLLECTION_TYPE, LibertyHeadNickels.class, LibertyHeadNickels::new)
+            .add(BuffaloNickels.COLLECTION_TYPE, BuffaloNickels.class, BuffaloNickels::new)
+            .add(BarberDimes.COLLECTION_TYPE, BarberDimes.class, BarberDimes::new)
+            .add(MercuryDimes.COLLECTION_TYPE, MercuryDimes.class, MercuryDimes::new)
+            .add(BarberQuarters.COLLECTION_TYPE, BarberQuarters.class, BarberQuarters::new)
+            .add(StandingLibertyQuarters.COLLECTION_TYPE, StandingLibertyQuarters.class, StandingLibertyQuarters::new)
+            .add(BarberHalfDollars.COLLECTION_TYPE, BarberHalfDollars.class, BarberHalfDollars::new)
+            .add(WalkingLibertyHalfDollars.COLLECTION_TYPE, WalkingLibertyHalfDollars.class, WalkingLibertyHalfDollars::new)
+            .add(FranklinHalfDollars.COLLECTION_TYPE, FranklinHalfDollars.class, FranklinHalfDollars::new)
+            .add(MorganDollars.COLLECTION_TYPE, MorganDollars.class, MorganDollars::new)
+            .add(PeaceDollars.COLLECTION_TYPE, PeaceDollars.class, PeaceDollars::new)
+            .add(AmericanEagleSilverDollars.COLLECTION_TYPE, AmericanEagleSilverDollars.class, AmericanEagleSilverDollars::new)
+            .add(FirstSpouseGoldCoins.COLLECTION_TYPE, FirstSpouseGoldCoins.class, FirstSpouseGoldCoins::new)
+            .add(BasicInnovationDollars.COLLECTION_TYPE, BasicInnovationDollars.class, BasicInnovationDollars::new)
+            .add(AmericanWomenQuarters.COLLECTION_TYPE, AmericanWomenQuarters.class, AmericanWomenQuarters::new)
+            .add(SmallCents.COLLECTION_TYPE, SmallCents.class, SmallCents::new)
+            .add(LargeCents.COLLECTION_TYPE, LargeCents.class, LargeCents::new)
+            .add(AllNickels.COLLECTION_TYPE, AllNickels.class, AllNickels::new)
+            .add(HalfDimes.COLLECTION_TYPE, HalfDimes.class, HalfDimes::new)
+            .add(SilverDimes.COLLECTION_TYPE, SilverDimes.class, SilverDimes::new)
+            .add(EarlyDimes.COLLECTION_TYPE, EarlyDimes.class, EarlyDimes::new)
+            .add(CladQuarters.COLLECTION_TYPE, CladQuarters.class, CladQuarters::new)
+            .add(SilverQuarters.COLLECTION_TYPE, SilverQuarters.class, SilverQuarters::new)
+            .add(EarlyQuarters.COLLECTION_TYPE, EarlyQuarters.class, EarlyQuarters::new)
+            .add(SmallDollars.COLLECTION_TYPE, SmallDollars.class, SmallDollars::new)
+            .add(SilverHalfDollars.COLLECTION_TYPE, SilverHalfDollars.class, SilverHalfDollars::new)
+            .add(Trimes.COLLECTION_TYPE, Trimes.class, Trimes::new)
+            .add(TwentyCents.COLLECTION_TYPE, TwentyCents.class, TwentyCents::new)
+            .add(TwoCents.COLLECTION_TYPE, TwoCents.class, TwoCents::new)
+            .add(WestPoint.COLLECTION_TYPE, WestPoint.class, WestPoint::new)
+            .add(EarlyDollars.COLLECTION_TYPE, EarlyDollars.class, EarlyDollars::new)
+            .add(EarlyHalfDollars.COLLECTION_TYPE, EarlyHalfDollars.class, EarlyHalfDollars::new)
+            .add(Cartwheels.COLLECTION_TYPE, Cartwheels.class, Cartwheels::new)
+            .add(HalfCents.COLLECTION_TYPE, HalfCents.class, HalfCents::new)
+            .add(CoinSets.COLLECTION_TYPE, CoinSets.class, CoinSets::new)
+            .add(KennedyHalfDollars.COLLECTION_TYPE, KennedyHalfDollars.class, KennedyHalfDollars::new)
+            .add(RooseveltDimes.COLLECTION_TYPE, RooseveltDimes.class, RooseveltDimes::new)
+            .add(WashingtonQuarters.COLLECTION_TYPE, WashingtonQuarters.class, WashingtonQuarters::new)
+            .add(AmericanInnovationDollars.COLLECTION_TYPE, AmericanInnovationDollars.class, AmericanInnovationDollars::new)
+            .add(Semiquincentennials.COLLECTION_TYPE, Semiquincentennials.class, Semiquincentennials::new)
+            .build();
 
     // Display order and groups in Collection Page Creator
     // Sorted roughly be denomination and alphabetical (can be re-ordered as needed)
@@ -211,11 +220,90 @@ public class MainApplication extends Application {
     public static final String DATABASE_NAME = "CoinCollection";
 
     private final DatabaseAdapter mDbAdapter = new DatabaseAdapter(this);
+    private CoinWriteQueue mCoinWriteQueue = null;
+    private AdvInfoJournal mAdvInfoJournal = null;
+    private CollectionRepository mCollectionRepository = null;
+
+    // Startup trace, from Application.onCreate until the first frame of the first activity
+    private long mStartUptimeMs = 0;
+    private long mStartupDurationMs = -1;
+
+    @Override
+    public void onCreate() {
+        mStartUptimeMs = SystemClock.uptimeMillis();
+        super.onCreate();
+        // Load the preferences now, before the activities turn on the StrictMode policy,
+        // so that reading them later on the UI thread doesn't touch the disk
+        getSharedPreferences(PREFS, MODE_PRIVATE).getAll();
+    }
+
+    /**
+     * Called when the first activity is about to draw its first frame, which ends the
+     * startup trace. Only the first call is recorded.
+     */
+    public void onFirstFrame() {
+        if (mStartupDurationMs != -1) {
+            return;
+        }
+        mStartupDurationMs = SystemClock.uptimeMillis() - mStartUptimeMs;
+        if (BuildConfig.DEBUG) {
+            Log.d(APP_NAME, "Startup to first frame took " + mStartupDurationMs + " ms with "
+                    + COLLECTION_TYPES.getNumCreated() + " of " + COLLECTION_TYPES.size()
+                    + " collection types created");
+        }
+    }
+
+    /**
+     * @return time from Application.onCreate to the first frame in milliseconds, or -1
+     * if the first frame hasn't been drawn yet
+     */
+    public long getStartupDurationMs() {
+        return mStartupDurationMs;
+    }
 
     public DatabaseAdapter getDbAdapter() {
         return mDbAdapter;
     }
 
+    /**
+     * Get the queue used to write coin changes to the database in the background.
+     * The queue is shared so that writes outlive the activity that queued them.
+     *
+     * @return the coin write queue
+     */
+    public synchronized CoinWriteQueue getCoinWriteQueue() {
+        if (mCoinWriteQueue == null) {
+            mCoinWriteQueue = new CoinWriteQueue(mDbAdapter, getString(R.string.error_updating_database));
+        }
+        return mCoinWriteQueue;
+    }
+
+    /**
+     * Get the repository the activities use to access the collections without blocking
+     * the UI thread. It shares the coin write queue's background thread.
+     *
+     * @return the collection repository
+     */
+    public synchronized CollectionRepository getCollectionRepository() {
+        if (mCollectionRepository == null) {
+            mCollectionRepository = new CollectionRepository(mDbAdapter, getCoinWriteQueue(), getAdvInfoJournal());
+        }
+        return mCollectionRepository;
+    }
+
+    /**
+     * Get the journal that unsaved advanced-view edits are appended to, so that they
+     * survive the app process being killed
+     *
+     * @return the edit journal
+     */
+    public synchronized AdvInfoJournal getAdvInfoJournal() {
+        if (mAdvInfoJournal == null) {
+            mAdvInfoJournal = new AdvInfoJournal(new File(getFilesDir(), AdvInfoJournal.JOURNAL_DIR));
+        }
+        return mAdvInfoJournal;
+    }
+
     /**
      * DATABASE_VERSION Tracks the current database version, and is essential for periodic
      * database updating.  It should be raised anytime we need to insert new
@@ -241,8 +329,11 @@ public class MainApplication extends Application {
      * Version 20 - Used in Version 3.6.0 of the app
      * Version 21-23 - Used in Version 3.7.0 of the app
      * Version 24 - Used in Version 3.8.0 of the app
+     * Version 25 - Adds collection indexes and the collected count column
+     * Version 26 - Stores the mint mark and checkbox flags as integers
+     * Version 27 - Removes the collected index added in version 25
      */
-    public static final int DATABASE_VERSION = 24;
+    public static final int DATABASE_VERSION = 27;
 
     /**
      * Get the collection index from collection type name
@@ -251,12 +342,7 @@ public class MainApplication extends Application {
      * @return int index or -1 if not found
      */
     public static int getIndexFromCollectionNameStr(String collectionTypeName) {
-        for (int i = 0; i < COLLECTION_TYPES.length; i++) {
-            if (COLLECTION_TYPES[i].getCoinType().equals(collectionTypeName)) {
-                return i;
-            }
-        }
-        return -1;
+        return COLLECTION_TYPES.indexOf(collectionTypeName);
     }
 
     /**
@@ -266,12 +352,7 @@ public class MainApplication extends Application {
      * @return int index or -1 if not found
      */
     public static int getIndexFromCollectionClass(Class<?> collectionClass) {
-        for (int i = 0; i < COLLECTION_TYPES.length; i++) {
-            if (collectionClass.isInstance(COLLECTION_TYPES[i])) {
-                return i;
-            }
-        }
-        return -1;
+        return COLLECTION_TYPES.indexOf(collectionClass);
     }
 
     @Override
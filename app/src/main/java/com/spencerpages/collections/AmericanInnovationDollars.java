@@ -267,29 +267,28 @@ public class AmericanInnovationDollars extends CollectionInfo {
             // in mint mark, so we need custom logic instead of addFromArrayList.
             String tableName = collectionListInfo.getName();
             int newSortOrder = DatabaseHelper.getNextCoinSortOrder(db, tableName);
+            ArrayList<CoinSlot> newCoins = new ArrayList<>();
             for (String identifier : TWENTY_SIX) {
                 int imageId = getImgId(identifier);
                 if (collectionListInfo.hasPMintMarks()) {
-                    newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                            String.format("P%n%s", identifier), imageId, newSortOrder);
-                    total++;
+                    newCoins.add(new CoinSlot("2026",
+                            String.format("P%n%s", identifier), newSortOrder++, imageId));
                 }
                 if (collectionListInfo.hasDMintMarks()) {
-                    newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                            String.format("D%n%s", identifier), imageId, newSortOrder);
-                    total++;
+                    newCoins.add(new CoinSlot("2026",
+                            String.format("D%n%s", identifier), newSortOrder++, imageId));
                 }
                 if (collectionListInfo.hasSProofMintMarks()) {
-                    newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                            String.format("S%nProof%n%s", identifier), imageId, newSortOrder);
-                    total++;
+                    newCoins.add(new CoinSlot("2026",
+                            String.format("S%nProof%n%s", identifier), newSortOrder++, imageId));
                 }
                 if (collectionListInfo.hasRevProofMintMarks()) {
-                    newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                            String.format("S%nReverse Proof%n%s", identifier), imageId, newSortOrder);
-                    total++;
+                    newCoins.add(new CoinSlot("2026",
+                            String.format("S%nReverse Proof%n%s", identifier), newSortOrder++, imageId));
                 }
             }
+            DatabaseHelper.insertCoinSlots(db, tableName, newCoins);
+            total += newCoins.size();
         }
 
         return total;
@@ -710,29 +710,28 @@ public class CladQuarters extends CollectionInfo {
             if (collectionListInfo.hasSemiqCoins()) {
                 String tableName = collectionListInfo.getName();
                 int newSortOrder = DatabaseHelper.getNextCoinSortOrder(db, tableName);
+                ArrayList<CoinSlot> newCoins = new ArrayList<>();
                 for (String identifier : TWENTYSIX) {
                     int imageId = getImgId(identifier);
                     if (collectionListInfo.hasPMintMarks()) {
-                        newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                                String.format("P%n%s", identifier), imageId, newSortOrder);
-                        total++;
+                        newCoins.add(new CoinSlot("2026",
+                                String.format("P%n%s", identifier), newSortOrder++, imageId));
                     }
                     if (collectionListInfo.hasDMintMarks()) {
-                        newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                                String.format("D%n%s", identifier), imageId, newSortOrder);
-                        total++;
+                        newCoins.add(new CoinSlot("2026",
+                                String.format("D%n%s", identifier), newSortOrder++, imageId));
                     }
                     if (collectionListInfo.hasSMintMarks()) {
-                        newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                                String.format("S%n%s", identifier), imageId, newSortOrder);
-                        total++;
+                        newCoins.add(new CoinSlot("2026",
+                                String.format("S%n%s", identifier), newSortOrder++, imageId));
                     }
                     if (collectionListInfo.hasSProofMintMarks()) {
-                        newSortOrder = DatabaseHelper.addCoin(db, tableName, "2026",
-                                String.format("S Proof%n%s", identifier), imageId, newSortOrder);
-                        total++;
+                        newCoins.add(new CoinSlot("2026",
+                                String.format("S Proof%n%s", identifier), newSortOrder++, imageId));
                     }
                 }
+                DatabaseHelper.insertCoinSlots(db, tableName, newCoins);
+                total += newCoins.size();
             }
         }
 
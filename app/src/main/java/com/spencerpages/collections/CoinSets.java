@@ -137,7 +137,7 @@ public class CoinSets extends CollectionInfo {
             variantImageIds.put(CollectionListInfo.SILVER_PROOF_SETS, getImgId("Silver Proof Set"));
             total += DatabaseHelper.addFromYear(db, collectionListInfo, 2025, 2026,
                     "2026", mintVariants, variantImageIds,
-                    collectionListInfo.getCheckboxFlagsAsLong());
+                    collectionListInfo.getCheckboxFlags());
         }
         return total;
     }
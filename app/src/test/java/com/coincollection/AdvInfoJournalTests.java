@@ -0,0 +1,165 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link AdvInfoJournal}. The background writer runs directly on the
+ * test thread.
+ */
+public class AdvInfoJournalTests {
+
+    private static final String COLLECTION_NAME = "My \"Coins\" / 2024";
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setup() {
+        mDir = new File(mTempFolder.getRoot(), AdvInfoJournal.JOURNAL_DIR);
+    }
+
+    private static CoinSlot newCoinSlot(long databaseId, boolean inCollection, int grade, int quantity, String notes) {
+        return new CoinSlot(databaseId, "2024", "P", inCollection, grade, quantity, notes, 0, false, -1);
+    }
+
+    @Test
+    public void test_latestEditPerCoinRead() {
+        AdvInfoJournal journal = new AdvInfoJournal(mDir, Runnable::run);
+        journal.append(COLLECTION_NAME, newCoinSlot(1, false, 2, 1, "First"));
+        journal.append(COLLECTION_NAME, newCoinSlot(2, true, 0, 0, ""));
+        journal.append(COLLECTION_NAME, newCoinSlot(1, true, 5, 3, "Second édit"));
+        CoinSlot notesNotLoaded = newCoinSlot(3, false, 1, 0, "");
+        notesNotLoaded.setAdvancedNotesNotLoaded();
+        journal.append(COLLECTION_NAME, notesNotLoaded);
+
+        // A new instance reads the journal back from the file
+        ArrayList<CoinSlot> edits = new AdvInfoJournal(mDir, Runnable::run).read(COLLECTION_NAME);
+        assertEquals(3, edits.size());
+        CoinSlot coin1 = edits.get(0);
+        assertEquals(1, coin1.getDatabaseId());
+        assertTrue(coin1.isInCollection());
+        assertEquals(Integer.valueOf(5), coin1.getAdvancedGrades());
+        assertEquals(Integer.valueOf(3), coin1.getAdvancedQuantities());
+        assertEquals("Second édit", coin1.getAdvancedNotes());
+        assertEquals(2, edits.get(1).getDatabaseId());
+        assertFalse(edits.get(2).isAdvancedNotesLoaded());
+
+        // Other collections have their own journal
+        assertTrue(journal.read("Other").isEmpty());
+    }
+
+    @Test
+    public void test_partlyWrittenRecordDropped() throws IOException {
+        AdvInfoJournal journal = new AdvInfoJournal(mDir, Runnable::run);
+        journal.append(COLLECTION_NAME, newCoinSlot(1, true, 1, 1, "Kept"));
+        journal.append(COLLECTION_NAME, newCoinSlot(2, true, 1, 1, "Cut short"));
+
+        // Simulate the process being killed partway through writing the second record
+        File journalFile = journal.getJournalFile(COLLECTION_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        AdvInfoJournal recovered = new AdvInfoJournal(mDir, Runnable::run);
+        ArrayList<CoinSlot> edits = recovered.read(COLLECTION_NAME);
+        assertEquals(1, edits.size());
+        assertEquals("Kept", edits.get(0).getAdvancedNotes());
+
+        // New edits are appended after the last complete record
+        recovered.append(COLLECTION_NAME, newCoinSlot(3, false, 0, 0, "After"));
+        edits = new AdvInfoJournal(mDir, Runnable::run).read(COLLECTION_NAME);
+        assertEquals(2, edits.size());
+        assertEquals(3, edits.get(1).getDatabaseId());
+    }
+
+    @Test
+    public void test_journalCompacted() {
+        AdvInfoJournal journal = new AdvInfoJournal(mDir, Runnable::run);
+        CoinSlot coinSlot = newCoinSlot(7, true, 0, 0, "");
+        for (int i = 0; i < AdvInfoJournal.MIN_RECORDS_TO_COMPACT; i++) {
+            coinSlot.setAdvancedNotes("Edit " + i);
+            journal.append(COLLECTION_NAME, coinSlot);
+        }
+
+        // Only the latest record is left (with its length and checksum)
+        File journalFile = journal.getJournalFile(COLLECTION_NAME);
+        assertEquals(AdvInfoJournal.encodeRecord(coinSlot).length + 8, journalFile.length());
+        ArrayList<CoinSlot> edits = journal.read(COLLECTION_NAME);
+        assertEquals(1, edits.size());
+        assertEquals("Edit " + (AdvInfoJournal.MIN_RECORDS_TO_COMPACT - 1), edits.get(0).getAdvancedNotes());
+    }
+
+    @Test
+    public void test_appendsDontReadJournal() {
+        AdvInfoJournal journal = new AdvInfoJournal(mDir, Runnable::run);
+
+        // Edits to different coins don't need compacting, so the journal is only read
+        // when it's first opened
+        int numCoins = 2 * AdvInfoJournal.MIN_RECORDS_TO_COMPACT;
+        for (int i = 1; i <= numCoins; i++) {
+            journal.append(COLLECTION_NAME, newCoinSlot(i, true, 1, 1, ""));
+        }
+        assertEquals(1, journal.getNumFullReads());
+
+        // Once there are enough records per coin, the journal is read to compact it
+        CoinSlot coinSlot = newCoinSlot(1, false, 2, 2, "");
+        for (int i = 0; i < (AdvInfoJournal.COMPACT_RATIO - 1) * numCoins; i++) {
+            journal.append(COLLECTION_NAME, coinSlot);
+        }
+        assertEquals(2, journal.getNumFullReads());
+        assertEquals(numCoins, journal.read(COLLECTION_NAME).size());
+    }
+
+    @Test
+    public void test_clearAndRename() {
+        AdvInfoJournal journal = new AdvInfoJournal(mDir, Runnable::run);
+        journal.append(COLLECTION_NAME, newCoinSlot(1, true, 1, 1, ""));
+        journal.rename(COLLECTION_NAME, "Renamed");
+        assertTrue(journal.read(COLLECTION_NAME).isEmpty());
+        assertEquals(1, journal.read("Renamed").size());
+
+        journal.clear("Renamed");
+        assertTrue(journal.read("Renamed").isEmpty());
+        assertFalse(journal.getJournalFile("Renamed").exists());
+
+        journal.append("A", newCoinSlot(1, true, 1, 1, ""));
+        journal.append("B", newCoinSlot(1, true, 1, 1, ""));
+        journal.clearAll();
+        assertTrue(journal.read("A").isEmpty());
+        assertTrue(journal.read("B").isEmpty());
+    }
+}
@@ -29,6 +29,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
 import java.util.concurrent.Executor;
 
 /**
@@ -181,6 +182,37 @@ public class AsyncTaskRunnerTests {
         assertEquals(BaseActivity.TASK_NONE, r2.getLatestTaskId());
     }
 
+    /**
+     * Runners sharing the scheduler don't supersede each other's tasks, so each one
+     * delivers its result (Ex: closing its progress dialog) even when two activities
+     * open the database at the same time.
+     */
+    @Test
+    public void tasksFromOtherRunnersNotSuperseded() {
+        ArrayList<Runnable> queuedWork = new ArrayList<>();
+        TaskScheduler scheduler = new TaskScheduler(queuedWork::add);
+        RecordingListener l1 = new RecordingListener("first");
+        RecordingListener l2 = new RecordingListener("second");
+        AsyncTaskRunner r1 = new AsyncTaskRunner(l1, scheduler, mainHandler());
+        AsyncTaskRunner r2 = new AsyncTaskRunner(l2, scheduler, mainHandler());
+
+        r1.execute(BaseActivity.TASK_OPEN_DATABASE);
+        r2.execute(BaseActivity.TASK_OPEN_DATABASE);
+        idleMainLooper();
+        for (int i = 0; i < queuedWork.size(); i++) {
+            queuedWork.get(i).run();
+        }
+        idleMainLooper();
+
+        assertEquals(0, scheduler.getNumCancelled());
+        assertEquals(1, l1.postCount);
+        assertEquals("first", l1.lastPostResult);
+        assertEquals(1, l2.postCount);
+        assertEquals("second", l2.lastPostResult);
+        assertEquals(BaseActivity.TASK_NONE, r1.getLatestTaskId());
+        assertEquals(BaseActivity.TASK_NONE, r2.getLatestTaskId());
+    }
+
     /**
      * Happy path: with a listener attached throughout, the task runs and delivers
      * its result, and the latest task id is cleared on completion.
@@ -0,0 +1,185 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.spencerpages.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link CoinImageLoader}. The decodes are run on the test thread and the
+ * main looper is idled to show the results.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CoinImageLoaderTests {
+
+    private static final int TARGET_WIDTH = 92;
+    private static final int CACHE_BYTES = 4 * 1024 * 1024;
+    private static final long TIMEOUT_SEC = 5;
+
+    private Context mContext;
+    private Resources mRes;
+
+    @Before
+    public void setup() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mRes = mContext.getResources();
+    }
+
+    private static void idleMainLooper() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void test_imagesCachedWithDimmedCopy() {
+        CoinImageLoader loader = new CoinImageLoader(Runnable::run, Runnable::run, new Handler(Looper.getMainLooper()), CACHE_BYTES);
+        ImageView imageView = new ImageView(mContext);
+
+        loader.loadInto(mRes, imageView, R.drawable.a1794r, false, TARGET_WIDTH);
+        idleMainLooper();
+        assertTrue(imageView.getDrawable() instanceof BitmapDrawable);
+        assertTrue(loader.isCached(R.drawable.a1794r, false, TARGET_WIDTH));
+        assertFalse(loader.isCached(R.drawable.a1794r, true, TARGET_WIDTH));
+
+        // The dimmed copy is made from the cached image without waiting for a decode
+        loader.loadInto(mRes, imageView, R.drawable.a1794r, true, TARGET_WIDTH);
+        assertTrue(imageView.getDrawable() instanceof BitmapDrawable);
+        assertTrue(loader.isCached(R.drawable.a1794r, true, TARGET_WIDTH));
+    }
+
+    @Test
+    public void test_reusedViewCancelsDecode() {
+        ArrayList<Runnable> queuedDecodes = new ArrayList<>();
+        CoinImageLoader loader = new CoinImageLoader(queuedDecodes::add, Runnable::run, new Handler(Looper.getMainLooper()), CACHE_BYTES);
+        ImageView imageView = new ImageView(mContext);
+
+        // The view is reused for another coin before the first image is decoded
+        loader.loadInto(mRes, imageView, R.drawable.a1794r, false, TARGET_WIDTH);
+        loader.loadInto(mRes, imageView, R.drawable.a1794_half_dime, true, TARGET_WIDTH);
+        assertFalse(imageView.getDrawable() instanceof BitmapDrawable);
+        for (Runnable decode : queuedDecodes) {
+            decode.run();
+        }
+        idleMainLooper();
+
+        assertFalse(loader.isCached(R.drawable.a1794r, false, TARGET_WIDTH));
+        assertTrue(loader.isCached(R.drawable.a1794_half_dime, true, TARGET_WIDTH));
+        assertTrue(imageView.getDrawable() instanceof BitmapDrawable);
+    }
+
+    @Test
+    public void test_prefetchWarmsCache() {
+        ArrayList<Runnable> queuedPrefetches = new ArrayList<>();
+        CoinImageLoader loader = new CoinImageLoader(Runnable::run, queuedPrefetches::add, new Handler(Looper.getMainLooper()), CACHE_BYTES);
+
+        // A duplicate prefetch isn't queued again
+        loader.prefetch(mRes, R.drawable.a1794r, false, TARGET_WIDTH);
+        loader.prefetch(mRes, R.drawable.a1794r, false, TARGET_WIDTH);
+        assertEquals(1, queuedPrefetches.size());
+
+        // Prefetches that haven't started when cancelled are skipped
+        loader.prefetch(mRes, R.drawable.a1794_half_dime, true, TARGET_WIDTH);
+        queuedPrefetches.get(0).run();
+        loader.cancelPrefetches();
+        queuedPrefetches.get(1).run();
+        assertTrue(loader.isCached(R.drawable.a1794r, false, TARGET_WIDTH));
+        assertFalse(loader.isCached(R.drawable.a1794_half_dime, true, TARGET_WIDTH));
+
+        // A prefetched image is shown without waiting for a decode
+        ImageView imageView = new ImageView(mContext);
+        loader.loadInto(mRes, imageView, R.drawable.a1794r, false, TARGET_WIDTH);
+        assertTrue(imageView.getDrawable() instanceof BitmapDrawable);
+    }
+
+    @Test
+    @GraphicsMode(GraphicsMode.Mode.NATIVE)
+    public void test_imageDecodedAtTargetWidth() {
+        CoinImageLoader loader = new CoinImageLoader(Runnable::run, Runnable::run, new Handler(Looper.getMainLooper()), CACHE_BYTES);
+        ImageView imageView = new ImageView(mContext);
+
+        int targetWidth = TARGET_WIDTH / 2 - 6;
+        loader.loadInto(mRes, imageView, R.drawable.a1794r, false, targetWidth);
+        idleMainLooper();
+        Bitmap bitmap = ((BitmapDrawable) imageView.getDrawable()).getBitmap();
+        assertEquals(targetWidth, bitmap.getWidth());
+        assertEquals(mRes.getDisplayMetrics().densityDpi, bitmap.getDensity());
+        assertEquals(targetWidth, imageView.getDrawable().getIntrinsicWidth());
+    }
+
+    @Test
+    public void test_concurrentRequestsShareDecode() throws InterruptedException {
+        // Hold the decodes until both have been requested, then run them at the same time
+        CountDownLatch startDecodes = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Executor threadExecutor = command -> new Thread(() -> {
+            try {
+                startDecodes.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            command.run();
+            done.countDown();
+        }).start();
+        CoinImageLoader loader = new CoinImageLoader(threadExecutor, threadExecutor, new Handler(Looper.getMainLooper()), CACHE_BYTES);
+
+        loader.loadInto(mRes, new ImageView(mContext), R.drawable.a1794r, false, TARGET_WIDTH);
+        loader.prefetch(mRes, R.drawable.a1794r, true, TARGET_WIDTH);
+        startDecodes.countDown();
+        assertTrue(done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        assertEquals(1, loader.getNumDecodes());
+        assertTrue(loader.isCached(R.drawable.a1794r, false, TARGET_WIDTH));
+        assertTrue(loader.isCached(R.drawable.a1794r, true, TARGET_WIDTH));
+    }
+
+    @Test
+    public void test_lookaheadScalesWithScrollSpeed() {
+        // At least one screen of coins is prefetched, and more when scrolling quickly
+        assertEquals(12, ScrollPrefetcher.getLookaheadItems(0, 12));
+        assertEquals(12, ScrollPrefetcher.getLookaheadItems(-4, 12));
+        assertEquals(75, ScrollPrefetcher.getLookaheadItems(100, 12));
+        assertEquals(75, ScrollPrefetcher.getLookaheadItems(-100, 12));
+        assertEquals(ScrollPrefetcher.MAX_LOOKAHEAD_ITEMS, ScrollPrefetcher.getLookaheadItems(10000, 12));
+    }
+}
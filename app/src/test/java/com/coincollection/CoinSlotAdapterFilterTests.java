@@ -0,0 +1,134 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import android.content.Intent;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.helper.ParcelableHashMap;
+import com.spencerpages.BaseTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Tests that the incremental filter updates in {@link CoinSlotAdapter} produce the same
+ * filtered list as re-applying the filter from scratch.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CoinSlotAdapterFilterTests extends BaseTestCase {
+
+    /**
+     * Get the coins expected to be shown by scanning the full list
+     *
+     * @param coinList    full coin list
+     * @param filter      current filter
+     * @param searchQuery current search query
+     * @return expected filtered list
+     */
+    private ArrayList<CoinSlot> getExpectedFilteredList(ArrayList<CoinSlot> coinList, int filter, String searchQuery) {
+        ArrayList<CoinSlot> expected = new ArrayList<>();
+        String query = searchQuery.toLowerCase(Locale.ROOT);
+        for (CoinSlot coin : coinList) {
+            boolean matchesFilter = (filter == CollectionPage.FILTER_SHOW_ALL)
+                    || ((filter == CollectionPage.FILTER_SHOW_COLLECTED) == coin.isInCollection());
+            boolean matchesQuery = coin.getIdentifier().toLowerCase(Locale.ROOT).contains(query)
+                    || coin.getMint().toLowerCase(Locale.ROOT).contains(query);
+            if (matchesFilter && matchesQuery) {
+                expected.add(coin);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Check that the adapter's filtered list and positions match the expected list
+     *
+     * @param adapter  adapter to check
+     * @param expected expected filtered list
+     */
+    private void checkFilteredList(CoinSlotAdapter adapter, ArrayList<CoinSlot> expected) {
+        ArrayList<CoinSlot> filtered = adapter.getFilteredCoinList();
+        assertEquals(expected.size(), filtered.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), filtered.get(i));
+            assertEquals(i, adapter.getPositionInFilteredList(expected.get(i)));
+        }
+    }
+
+    @Test
+    public void test_incrementalFilterMatchesFullFilter() {
+        CollectionListInfo info = COLLECTION_LIST_INFO_SCENARIOS[0];
+        String collectionName = info.getName();
+
+        try (ActivityScenario<CoinPageCreator> creatorScenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CoinPageCreator.class))) {
+            creatorScenario.onActivity(activity -> {
+                activity.mCoinList = new ArrayList<>();
+                ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(info);
+                int index = info.getCollectionTypeIndex();
+                activity.setInternalStateFromCollectionIndex(index, activity.getCollectionListPos(index), parameters);
+                activity.createOrUpdateCoinListForAsyncThread();
+                activity.mDbAdapter.createAndPopulateNewTable(info, 0, activity.mCoinList);
+            });
+        }
+
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, info.getCollectionTypeIndex())
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+            scenario.onActivity(activity -> {
+                CoinSlotAdapter adapter = activity.mCoinSlotAdapter;
+                ArrayList<CoinSlot> coinList = adapter.getOriginalCoinList();
+                assertFalse("Collection should have coins", coinList.isEmpty());
+
+                int[] filters = {CollectionPage.FILTER_SHOW_ALL, CollectionPage.FILTER_SHOW_COLLECTED,
+                        CollectionPage.FILTER_SHOW_MISSING};
+                String[] searchQueries = {"", coinList.get(0).getIdentifier().toUpperCase(Locale.ROOT)};
+                for (String searchQuery : searchQueries) {
+                    adapter.setSearchQuery(searchQuery);
+                    for (int filter : filters) {
+                        adapter.setFilter(filter);
+                        checkFilteredList(adapter, getExpectedFilteredList(coinList, filter, searchQuery));
+
+                        // Toggle coins one at a time and check the patched list each time
+                        for (int i = 0; i < 50; i++) {
+                            CoinSlot coin = coinList.get(random.nextInt(coinList.size()));
+                            coin.setInCollection(!coin.isInCollection());
+                            adapter.onCoinSlotInCollectionChanged(coin);
+                            checkFilteredList(adapter, getExpectedFilteredList(coinList, filter, searchQuery));
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
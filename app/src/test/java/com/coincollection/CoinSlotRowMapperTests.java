@@ -0,0 +1,188 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_ID;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.spencerpages.BaseTestCase;
+import com.spencerpages.DatabasePerformanceTests;
+import com.spencerpages.collections.AllNickels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests and a read benchmark for {@link CoinSlotRowMapper}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CoinSlotRowMapperTests extends BaseTestCase {
+
+    private static final int BENCHMARK_NUM_COINS = 10000;
+
+    private static final String[] ALL_COLUMNS = {COL_COIN_ID, COL_COIN_IDENTIFIER, COL_COIN_MINT,
+            COL_IN_COLLECTION, COL_SORT_ORDER, COL_CUSTOM_COIN, COL_IMAGE_ID, COL_ADV_GRADE_INDEX,
+            COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES};
+
+    private DatabaseAdapter mDbAdapter;
+    private DatabaseHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private String mTableName;
+    private ArrayList<CoinSlot> mCoinList;
+
+    @Before
+    public void setupCollection() {
+        mDbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        mDbAdapter.open();
+
+        // Build a synthetic collection by repeating the coins of a large collection type
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> baseList = new ArrayList<>();
+        collectionInfo.populateCollectionLists(getAllEnabledParams(collectionInfo), baseList);
+        mCoinList = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_NUM_COINS; i++) {
+            CoinSlot baseCoin = baseList.get(i % baseList.size());
+            CoinSlot coinSlot = new CoinSlot(baseCoin.getIdentifier(), baseCoin.getMint(), i, baseCoin.getImageId());
+            coinSlot.setInCollection(random.nextBoolean());
+            coinSlot.setAdvancedGrades(random.nextInt(5));
+            coinSlot.setAdvancedQuantities(random.nextInt(5));
+            coinSlot.setAdvancedNotes(Integer.toString(random.nextInt()));
+            mCoinList.add(coinSlot);
+        }
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Mapper", collectionInfo, mCoinList);
+        mTableName = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, mCoinList);
+
+        mDbHelper = new DatabaseHelper(ApplicationProvider.getApplicationContext());
+        mDb = mDbHelper.getReadableDatabase();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbHelper.close();
+        mDbAdapter.close();
+    }
+
+    private Cursor queryCoins(String[] columns) {
+        return mDb.query("[" + mTableName + "]", columns, null, null, null, null, COL_SORT_ORDER);
+    }
+
+    /**
+     * Maps the cursor the way the coin readers did before the mapper, looking up each
+     * column index for every row
+     *
+     * @param cursor cursor from a query of all columns
+     * @return CoinSlot list
+     */
+    private static ArrayList<CoinSlot> mapWithPerRowLookups(Cursor cursor) {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        if (cursor.moveToFirst()) {
+            do {
+                coinList.add(new CoinSlot(
+                        cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
+                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX)),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_ADV_NOTES)),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_SORT_ORDER)),
+                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
+            } while (cursor.moveToNext());
+        }
+        return coinList;
+    }
+
+    @Test
+    public void test_mapperMatchesStoredCoins() {
+        ArrayList<CoinSlot> advList = DatabaseHelper.getCoinList(mDb, mTableName, true, true);
+        compareCoinSlotLists(mCoinList, advList, true);
+
+        ArrayList<CoinSlot> basicList = DatabaseHelper.getCoinList(mDb, mTableName, false, true);
+        compareCoinSlotLists(mCoinList, basicList, false);
+
+        ArrayList<CoinSlot> displayList = DatabaseHelper.getCoinList(mDb, mTableName, true, true, false);
+        compareCoinSlotLists(mCoinList, displayList, false);
+        for (CoinSlot coinSlot : displayList) {
+            assertFalse(coinSlot.isAdvancedNotesLoaded());
+        }
+
+        // Legacy reads use the coin id for the sort order
+        ArrayList<CoinSlot> legacyList = DatabaseHelper.getCoinListForLegacyCollectionParams(mDb, mTableName);
+        assertEquals(mCoinList.size(), legacyList.size());
+        for (int i = 0; i < legacyList.size(); i++) {
+            CoinSlot legacyCoin = legacyList.get(i);
+            assertEquals(mCoinList.get(i).getIdentifier(), legacyCoin.getIdentifier());
+            assertEquals(mCoinList.get(i).isInCollection(), legacyCoin.isInCollection());
+            assertEquals(legacyCoin.getDatabaseId(), legacyCoin.getSortOrder());
+            assertEquals(-1, legacyCoin.getImageId());
+        }
+    }
+
+    /**
+     * Compare reading a large collection with per-row column lookups against the mapper
+     */
+    @Test
+    public void test_readThroughput() {
+        ArrayList<CoinSlot> perRowList;
+        ArrayList<CoinSlot> mapperList;
+
+        // Warm up the query so both runs read from the page cache
+        Cursor cursor = queryCoins(ALL_COLUMNS);
+        mapWithPerRowLookups(cursor);
+        cursor.close();
+
+        cursor = queryCoins(ALL_COLUMNS);
+        long startNs = System.nanoTime();
+        perRowList = mapWithPerRowLookups(cursor);
+        DatabasePerformanceTests.reportRowsPerSec("per-row column lookups", perRowList.size(), System.nanoTime() - startNs);
+        cursor.close();
+
+        cursor = queryCoins(ALL_COLUMNS);
+        startNs = System.nanoTime();
+        mapperList = CoinSlotRowMapper.mapAll(cursor, true);
+        DatabasePerformanceTests.reportRowsPerSec("CoinSlotRowMapper", mapperList.size(), System.nanoTime() - startNs);
+        cursor.close();
+
+        assertEquals(BENCHMARK_NUM_COINS, mapperList.size());
+        compareCoinSlotLists(perRowList, mapperList, true);
+    }
+}
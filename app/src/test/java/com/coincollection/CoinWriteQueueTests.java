@@ -0,0 +1,363 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.spencerpages.BaseTestCase;
+import com.spencerpages.collections.AllNickels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link CoinWriteQueue}. The background writer runs directly on the
+ * test thread, and the main looper is stepped to trigger the delayed flushes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CoinWriteQueueTests extends BaseTestCase {
+
+    private static final String ERROR_MESSAGE = "write failed";
+
+    /**
+     * Records the failures reported by the queue
+     */
+    private static class RecordingListener implements AsyncProgressInterface {
+        int postCount = 0;
+        int lastPostTaskId = BaseActivity.TASK_NONE;
+        String lastPostResult = null;
+
+        @Override
+        public String asyncProgressDoInBackground(int taskId) {
+            return "";
+        }
+
+        @Override
+        public void asyncProgressOnPreExecute(int taskId) {
+        }
+
+        @Override
+        public void asyncProgressOnPostExecute(int taskId, String resultStr) {
+            postCount++;
+            lastPostTaskId = taskId;
+            lastPostResult = resultStr;
+        }
+    }
+
+    private DatabaseAdapter mDbAdapter;
+    private CoinWriteQueue mQueue;
+    private String mTableName;
+    private ArrayList<CoinSlot> mCoinList;
+
+    @Before
+    public void setupQueue() {
+        mDbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        mDbAdapter.open();
+        mQueue = new CoinWriteQueue(mDbAdapter, ERROR_MESSAGE, Runnable::run,
+                new Handler(Looper.getMainLooper()));
+
+        CollectionInfo collectionInfo = new AllNickels();
+        mCoinList = new ArrayList<>();
+        collectionInfo.populateCollectionLists(getAllEnabledParams(collectionInfo), mCoinList);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Queue", collectionInfo, mCoinList);
+        mTableName = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, mCoinList);
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbAdapter.close();
+    }
+
+    private static void runDelayedFlush() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(CoinWriteQueue.FLUSH_DELAY_MS));
+    }
+
+    /**
+     * Check that the database matches the in-memory coins, including the collected count
+     */
+    private void checkDatabaseMatches() {
+        ArrayList<CoinSlot> dbCoinList = mDbAdapter.getCoinList(mTableName, true);
+        compareCoinSlotLists(mCoinList, dbCoinList, true);
+        int numCollected = 0;
+        for (CoinSlot coinSlot : mCoinList) {
+            numCollected += coinSlot.isInCollectionInt();
+        }
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+        assertEquals(numCollected, collectionListEntries.get(0).getCollected());
+    }
+
+    @Test
+    public void test_repeatedChangesCollapsed() {
+        CoinSlot coinSlot = mCoinList.get(0);
+        for (int i = 0; i < 3; i++) {
+            coinSlot.setInCollection(!coinSlot.isInCollection());
+            mQueue.queueInCollectionChange(mTableName, coinSlot);
+        }
+        CoinSlot otherCoinSlot = mCoinList.get(1);
+        otherCoinSlot.setInCollection(true);
+        otherCoinSlot.setAdvancedNotes("Notes");
+        mQueue.queueAdvInfoChange(mTableName, otherCoinSlot);
+        // A later toggle keeps the queued advanced info
+        otherCoinSlot.setInCollection(false);
+        mQueue.queueInCollectionChange(mTableName, otherCoinSlot);
+        assertEquals(2, mQueue.getNumPendingWrites());
+
+        runDelayedFlush();
+        assertEquals(0, mQueue.getNumPendingWrites());
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_togglesAppliedToStoredValue() {
+        ArrayList<Boolean> committedStates = new ArrayList<>();
+        CoinSlot coinSlot = mCoinList.get(0);
+        boolean wasInCollection = coinSlot.isInCollection();
+
+        // The toggle flips the stored value, so it doesn't depend on the queued coin's state
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+        runDelayedFlush();
+        assertEquals(1, committedStates.size());
+        assertEquals(!wasInCollection, committedStates.get(0));
+        coinSlot.setInCollection(!wasInCollection);
+        checkDatabaseMatches();
+
+        // An even number of toggles leaves the stored value unchanged
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+        assertEquals(1, mQueue.getNumPendingWrites());
+        runDelayedFlush();
+        assertEquals(2, committedStates.size());
+        assertEquals(!wasInCollection, committedStates.get(1));
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_togglesCombinedWithOtherChanges() {
+        ArrayList<Boolean> committedStates = new ArrayList<>();
+
+        // A toggle after an advanced info change is applied on top of it
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setInCollection(true);
+        coinSlot.setAdvancedNotes("Notes");
+        mQueue.queueAdvInfoChange(mTableName, coinSlot);
+        coinSlot.setInCollection(false);
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+
+        // A change after a toggle replaces it
+        CoinSlot otherCoinSlot = mCoinList.get(1);
+        mQueue.queueInCollectionToggle(mTableName, otherCoinSlot, committedStates::add);
+        otherCoinSlot.setInCollection(true);
+        mQueue.queueInCollectionChange(mTableName, otherCoinSlot);
+        assertEquals(2, mQueue.getNumPendingWrites());
+
+        assertTrue(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, committedStates.size());
+        assertFalse(committedStates.get(0));
+        assertTrue(committedStates.get(1));
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_failedTogglesRequeued() {
+        ArrayList<Boolean> committedStates = new ArrayList<>();
+        CoinSlot coinSlot = mCoinList.get(0);
+        boolean wasInCollection = coinSlot.isInCollection();
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+
+        // The failed toggle is rolled back, so it's applied again along with the newer one
+        mDbAdapter.updateCollectionName(mTableName, "Renamed");
+        assertFalse(mQueue.flush());
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+        mQueue.queueInCollectionToggle(mTableName, coinSlot, committedStates::add);
+        mDbAdapter.updateCollectionName("Renamed", mTableName);
+        assertTrue(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(1, committedStates.size());
+        assertEquals(!wasInCollection, committedStates.get(0));
+        coinSlot.setInCollection(!wasInCollection);
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_forcedFlushWritesImmediately() {
+        for (int i = 0; i < mCoinList.size(); i += 2) {
+            CoinSlot coinSlot = mCoinList.get(i);
+            coinSlot.setInCollection(true);
+            mQueue.queueInCollectionChange(mTableName, coinSlot);
+        }
+        assertTrue(mQueue.flush());
+        assertEquals(0, mQueue.getNumPendingWrites());
+        checkDatabaseMatches();
+
+        // The delayed flush that was scheduled finds nothing left to write
+        runDelayedFlush();
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_failureReportedToListener() {
+        RecordingListener listener = new RecordingListener();
+        mQueue.setListener(listener);
+        mQueue.queueInCollectionChange("Missing Table", mCoinList.get(0));
+        assertFalse(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, listener.postCount);
+        assertEquals(BaseActivity.TASK_SAVE_COIN_CHANGES, listener.lastPostTaskId);
+        assertEquals(ERROR_MESSAGE, listener.lastPostResult);
+    }
+
+    @Test
+    public void test_failureHeldUntilListenerAttaches() {
+        mQueue.queueInCollectionChange("Missing Table", mCoinList.get(0));
+        assertFalse(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+
+        RecordingListener listener = new RecordingListener();
+        mQueue.setListener(listener);
+        assertEquals(1, listener.postCount);
+        assertEquals(ERROR_MESSAGE, listener.lastPostResult);
+
+        // Only delivered once
+        mQueue.setListener(new RecordingListener());
+        assertEquals(1, listener.postCount);
+    }
+
+    @Test
+    public void test_unloadedNotesPreserved() {
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setAdvancedNotes("Notes");
+        mQueue.queueAdvInfoChange(mTableName, coinSlot);
+        assertTrue(mQueue.flush());
+
+        // Saving a coin whose notes haven't been read doesn't clear them
+        CoinSlot displayCoinSlot = mDbAdapter.getCoinListForDisplay(mTableName, true).get(0);
+        assertFalse(displayCoinSlot.isAdvancedNotesLoaded());
+        displayCoinSlot.setAdvancedGrades(2);
+        displayCoinSlot.setInCollection(true);
+        mQueue.queueAdvInfoChange(mTableName, displayCoinSlot);
+        assertTrue(mQueue.flush());
+
+        coinSlot.setAdvancedGrades(2);
+        coinSlot.setInCollection(true);
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_callbackRunsAfterCommit() {
+        int[] numCallbacks = new int[1];
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setAdvancedGrades(3);
+        mQueue.queueAdvInfoChange(mTableName, coinSlot);
+        mQueue.runWhenWritten(() -> numCallbacks[0]++);
+        assertEquals(0, numCallbacks[0]);
+
+        runDelayedFlush();
+        assertEquals(1, numCallbacks[0]);
+        checkDatabaseMatches();
+
+        // With nothing pending, the callback runs right away
+        mQueue.runWhenWritten(() -> numCallbacks[0]++);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, numCallbacks[0]);
+    }
+
+    @Test
+    public void test_failedWritesRequeued() {
+        int[] numCallbacks = new int[1];
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setAdvancedNotes("Notes");
+        mQueue.queueAdvInfoChange(mTableName, coinSlot);
+        mQueue.runWhenWritten(() -> numCallbacks[0]++);
+
+        // Writes fail while the collection has a different name
+        mDbAdapter.updateCollectionName(mTableName, "Renamed");
+        assertFalse(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, mQueue.getNumPendingWrites());
+        assertEquals(0, numCallbacks[0]);
+
+        // A newer change to the same coin replaces the failed write, but keeps its advanced info
+        coinSlot.setInCollection(true);
+        mQueue.queueInCollectionChange(mTableName, coinSlot);
+        assertEquals(1, mQueue.getNumPendingWrites());
+
+        mDbAdapter.updateCollectionName("Renamed", mTableName);
+        assertTrue(mQueue.flush());
+        assertEquals(0, mQueue.getNumPendingWrites());
+        assertEquals(1, numCallbacks[0]);
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_unexpectedErrorsRequeued() {
+        RecordingListener listener = new RecordingListener();
+        mQueue.setListener(listener);
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setInCollection(true);
+        mQueue.queueInCollectionChange(mTableName, coinSlot);
+
+        // Writing to a closed database fails with a runtime error rather than SQLException
+        mDbAdapter.close();
+        assertFalse(mQueue.flush());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, listener.postCount);
+        assertEquals(1, mQueue.getNumPendingWrites());
+
+        mDbAdapter.open();
+        assertTrue(mQueue.flush());
+        assertEquals(0, mQueue.getNumPendingWrites());
+        checkDatabaseMatches();
+    }
+
+    @Test
+    public void test_failedWritesDroppedAfterMaxAttempts() {
+        int[] numCallbacks = new int[1];
+        mQueue.queueInCollectionChange("Missing Table", mCoinList.get(0));
+        mQueue.runWhenWritten(() -> numCallbacks[0]++);
+        for (int i = 0; i < CoinWriteQueue.MAX_WRITE_ATTEMPTS; i++) {
+            assertEquals(1, mQueue.getNumPendingWrites());
+            assertFalse(mQueue.flush());
+        }
+        assertEquals(0, mQueue.getNumPendingWrites());
+
+        // The callback never runs, since the changes weren't written
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(mQueue.flush());
+        assertEquals(0, numCallbacks[0]);
+    }
+}
@@ -23,9 +23,14 @@ import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
 
 import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
 import android.view.View;
+import android.widget.GridView;
 import android.widget.TextView;
 
 import androidx.test.core.app.ActivityScenario;
@@ -33,12 +38,14 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.coincollection.helper.ParcelableHashMap;
 import com.spencerpages.BaseTestCase;
+import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.time.Duration;
 import java.util.ArrayList;
 
 /**
@@ -107,4 +114,228 @@ public class CollectionPageRestoreTests extends BaseTestCase {
             });
         }
     }
+
+    /**
+     * Test that only the coins with uncommitted advanced-info edits are saved off,
+     * and that their edits are reapplied to the list read back from the database
+     */
+    @Test
+    public void test_onlyDirtyCoinSlotsSavedAndRestored() {
+        CollectionListInfo info = COLLECTION_LIST_INFO_SCENARIOS[0];
+        String collectionName = info.getName();
+        int coinTypeIdx = info.getCollectionTypeIndex();
+
+        try (ActivityScenario<CoinPageCreator> creatorScenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CoinPageCreator.class))) {
+            creatorScenario.onActivity(activity -> {
+                activity.mCoinList = new ArrayList<>();
+                ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(info);
+                int index = info.getCollectionTypeIndex();
+                activity.setInternalStateFromCollectionIndex(index, activity.getCollectionListPos(index), parameters);
+                activity.createOrUpdateCoinListForAsyncThread();
+                activity.mDbAdapter.createAndPopulateNewTable(info, 0, activity.mCoinList);
+                activity.mDbAdapter.updateTableDisplay(collectionName, CollectionPage.ADVANCED_DISPLAY);
+            });
+        }
+
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, coinTypeIdx)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+
+            // Edit the second coin without saving
+            scenario.onActivity(activity -> {
+                assertTrue("Collection should have coins", activity.mOriginalCoinList.size() > 1);
+                CoinSlot coinSlot = activity.mOriginalCoinList.get(1);
+                coinSlot.setAdvancedGrades(3);
+                coinSlot.setAdvancedQuantities(2);
+                coinSlot.setAdvancedNotes("Unsaved notes");
+                coinSlot.setAdvInfoChanged(true);
+
+                Bundle outState = new Bundle();
+                activity.onSaveInstanceState(outState);
+                ArrayList<CoinSlot> savedCoinSlots = outState.getParcelableArrayList(CollectionPage.DIRTY_COIN_SLOTS);
+                assertNotNull(savedCoinSlots);
+                assertEquals(1, savedCoinSlots.size());
+            });
+
+            scenario.recreate();
+
+            scenario.onActivity(activity -> {
+                CoinSlot restored = activity.mOriginalCoinList.get(1);
+                assertTrue(restored.hasAdvInfoChanged());
+                assertEquals(Integer.valueOf(3), restored.getAdvancedGrades());
+                assertEquals(Integer.valueOf(2), restored.getAdvancedQuantities());
+                assertEquals("Unsaved notes", restored.getAdvancedNotes());
+                assertFalse(activity.mOriginalCoinList.get(0).hasAdvInfoChanged());
+            });
+        }
+    }
+
+    /**
+     * Test that edits left in the journal (Ex: if the app was killed before they were
+     * saved) are replayed when the collection page is opened
+     */
+    @Test
+    public void test_journaledEditsReplayed() {
+        CollectionListInfo info = COLLECTION_LIST_INFO_SCENARIOS[0];
+        String collectionName = info.getName();
+        int coinTypeIdx = info.getCollectionTypeIndex();
+
+        try (ActivityScenario<CoinPageCreator> creatorScenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CoinPageCreator.class))) {
+            creatorScenario.onActivity(activity -> {
+                activity.mCoinList = new ArrayList<>();
+                ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(info);
+                int index = info.getCollectionTypeIndex();
+                activity.setInternalStateFromCollectionIndex(index, activity.getCollectionListPos(index), parameters);
+                activity.createOrUpdateCoinListForAsyncThread();
+                activity.mDbAdapter.createAndPopulateNewTable(info, 0, activity.mCoinList);
+                activity.mDbAdapter.updateTableDisplay(collectionName, CollectionPage.ADVANCED_DISPLAY);
+            });
+        }
+
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, coinTypeIdx)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+
+            // Journal an edit without changing the coin in memory, as if it was made
+            // by an earlier instance of the app
+            long[] editedCoinId = new long[1];
+            scenario.onActivity(activity -> {
+                CoinSlot coinSlot = activity.mOriginalCoinList.get(0);
+                editedCoinId[0] = coinSlot.getDatabaseId();
+                CoinSlot edit = new CoinSlot(coinSlot.getDatabaseId(), coinSlot.getIdentifier(),
+                        coinSlot.getMint(), true, 4, 1, "Journaled notes", coinSlot.getSortOrder(),
+                        false, -1);
+                activity.getAdvInfoJournal().append(collectionName, edit);
+            });
+
+            scenario.recreate();
+
+            scenario.onActivity(activity -> {
+                CoinSlot restored = activity.mOriginalCoinList.get(0);
+                assertEquals(editedCoinId[0], restored.getDatabaseId());
+                assertTrue(restored.hasAdvInfoChanged());
+                assertTrue(restored.isInCollection());
+                assertEquals(Integer.valueOf(4), restored.getAdvancedGrades());
+                assertEquals("Journaled notes", restored.getAdvancedNotes());
+                TextView unsavedView = activity.findViewById(R.id.unsaved_message_textview);
+                assertEquals(View.VISIBLE, unsavedView.getVisibility());
+
+                // Discarding or saving the edits removes the journal
+                activity.getAdvInfoJournal().clear(collectionName);
+                assertTrue(activity.getAdvInfoJournal().read(collectionName).isEmpty());
+            });
+        }
+    }
+
+    /**
+     * Test that a coin toggle is written by the write queue's delayed flush, rather than
+     * right away
+     */
+    @Test
+    public void test_toggleWrittenByDelayedFlush() {
+        CollectionListInfo info = COLLECTION_LIST_INFO_SCENARIOS[0];
+        String collectionName = info.getName();
+        int coinTypeIdx = info.getCollectionTypeIndex();
+
+        try (ActivityScenario<CoinPageCreator> creatorScenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CoinPageCreator.class))) {
+            creatorScenario.onActivity(activity -> {
+                activity.mCoinList = new ArrayList<>();
+                ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(info);
+                int index = info.getCollectionTypeIndex();
+                activity.setInternalStateFromCollectionIndex(index, activity.getCollectionListPos(index), parameters);
+                activity.createOrUpdateCoinListForAsyncThread();
+                activity.mDbAdapter.createAndPopulateNewTable(info, 0, activity.mCoinList);
+                activity.mDbAdapter.updateTableDisplay(collectionName, CollectionPage.SIMPLE_DISPLAY);
+            });
+        }
+
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, coinTypeIdx)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+            scenario.onActivity(activity -> {
+                CoinWriteQueue queue = ((MainApplication) activity.getApplication()).getCoinWriteQueue();
+                boolean wasInCollection = activity.mCoinList.get(0).isInCollection();
+                GridView gridView = activity.findViewById(R.id.standard_collection_page);
+                gridView.performItemClick(null, 0, 0);
+
+                // The toggle is shown right away, but only queued for the database
+                assertEquals(!wasInCollection, activity.mOriginalCoinList.get(0).isInCollection());
+                assertEquals(1, queue.getNumPendingWrites());
+                assertEquals(wasInCollection, activity.mDbAdapter.getCoinList(collectionName, false).get(0).isInCollection());
+
+                // Run the delayed flush, then wait for the writer thread to finish the batch
+                shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(CoinWriteQueue.FLUSH_DELAY_MS));
+                assertTrue(queue.flush());
+                assertEquals(0, queue.getNumPendingWrites());
+                assertEquals(!wasInCollection, activity.mDbAdapter.getCoinList(collectionName, false).get(0).isInCollection());
+
+                // The committed state is passed back and matches what's shown
+                shadowOf(Looper.getMainLooper()).idle();
+                assertEquals(!wasInCollection, activity.mOriginalCoinList.get(0).isInCollection());
+            });
+        }
+    }
+
+    /**
+     * Test that coin toggles which may not have been written yet are saved in the instance
+     * state, so they survive the process being killed, and are restored when the page is
+     * recreated
+     */
+    @Test
+    public void test_pendingTogglesSavedAndRestored() {
+        CollectionListInfo info = COLLECTION_LIST_INFO_SCENARIOS[0];
+        String collectionName = info.getName();
+        int coinTypeIdx = info.getCollectionTypeIndex();
+
+        try (ActivityScenario<CoinPageCreator> creatorScenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CoinPageCreator.class))) {
+            creatorScenario.onActivity(activity -> {
+                activity.mCoinList = new ArrayList<>();
+                ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(info);
+                int index = info.getCollectionTypeIndex();
+                activity.setInternalStateFromCollectionIndex(index, activity.getCollectionListPos(index), parameters);
+                activity.createOrUpdateCoinListForAsyncThread();
+                activity.mDbAdapter.createAndPopulateNewTable(info, 0, activity.mCoinList);
+                activity.mDbAdapter.updateTableDisplay(collectionName, CollectionPage.SIMPLE_DISPLAY);
+            });
+        }
+
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, coinTypeIdx)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+            final boolean[] wasInCollection = new boolean[1];
+            scenario.onActivity(activity -> {
+                CoinSlot coinSlot = activity.mOriginalCoinList.get(0);
+                wasInCollection[0] = coinSlot.isInCollection();
+                GridView gridView = activity.findViewById(R.id.standard_collection_page);
+                gridView.performItemClick(null, 0, 0);
+
+                // Only the coin with the queued change is saved off
+                Bundle outState = new Bundle();
+                activity.onSaveInstanceState(outState);
+                long[] pendingCoinIds = outState.getLongArray(CollectionPage.PENDING_COIN_IDS);
+                boolean[] pendingInCollection = outState.getBooleanArray(CollectionPage.PENDING_IN_COLLECTION);
+                assertNotNull(pendingCoinIds);
+                assertNotNull(pendingInCollection);
+                assertEquals(1, pendingCoinIds.length);
+                assertEquals(coinSlot.getDatabaseId(), pendingCoinIds[0]);
+                assertEquals(!wasInCollection[0], pendingInCollection[0]);
+            });
+
+            // The recreated page shows the change whether or not it was written first
+            scenario.recreate();
+            scenario.onActivity(activity -> {
+                assertEquals(!wasInCollection[0], activity.mOriginalCoinList.get(0).isInCollection());
+                assertTrue(((MainApplication) activity.getApplication()).getCoinWriteQueue().flush());
+                assertEquals(!wasInCollection[0], activity.mDbAdapter.getCoinList(collectionName, false).get(0).isInCollection());
+            });
+        }
+    }
 }
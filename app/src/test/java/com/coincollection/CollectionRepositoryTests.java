@@ -0,0 +1,277 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.spencerpages.BaseTestCase;
+import com.spencerpages.collections.AllNickels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Unit tests for {@link CollectionRepository}. The background work is queued and run by
+ * the test, and the main looper is idled to deliver the results, so these check the
+ * asynchronous path rather than the inline path used by the activity tests.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionRepositoryTests extends BaseTestCase {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private final ArrayDeque<Runnable> mPendingWork = new ArrayDeque<>();
+    private DatabaseAdapter mDbAdapter;
+    private CoinWriteQueue mQueue;
+    private AdvInfoJournal mJournal;
+    private CollectionRepository mRepository;
+    private String mTableName;
+    private ArrayList<CoinSlot> mCoinList;
+
+    @Before
+    public void setupRepository() {
+        mDbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        mDbAdapter.open();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mQueue = new CoinWriteQueue(mDbAdapter, "write failed", Runnable::run, mainHandler);
+        mJournal = new AdvInfoJournal(new File(mTempFolder.getRoot(), AdvInfoJournal.JOURNAL_DIR), Runnable::run);
+        mRepository = new CollectionRepository(mDbAdapter, mQueue, mJournal, mPendingWork::add, mainHandler);
+
+        CollectionInfo collectionInfo = new AllNickels();
+        mCoinList = new ArrayList<>();
+        collectionInfo.populateCollectionLists(getAllEnabledParams(collectionInfo), mCoinList);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Repository", collectionInfo, mCoinList);
+        mTableName = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, mCoinList);
+
+        // Use the background path
+        BaseActivity.isUnitTest = false;
+    }
+
+    @After
+    public void closeDatabase() {
+        BaseActivity.isUnitTest = true;
+        mDbAdapter.close();
+    }
+
+    /**
+     * Run the queued background work and deliver the results
+     */
+    private void runPendingWork() {
+        while (!mPendingWork.isEmpty()) {
+            mPendingWork.poll().run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void test_resultDeliveredOnMainLooper() {
+        final CollectionRepository.CollectionContents[] result = {null};
+        mRepository.loadCollection(mTableName, contents -> result[0] = contents, () -> {
+            throw new AssertionError("Unexpected error");
+        });
+        assertEquals(1, mPendingWork.size());
+
+        // The result is posted, not delivered from the background thread
+        mPendingWork.poll().run();
+        assertNull(result[0]);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertNotNull(result[0]);
+        assertEquals(CollectionPage.SIMPLE_DISPLAY, result[0].mDisplayType);
+        assertEquals(mCoinList.size(), result[0].mCoinList.size());
+    }
+
+    @Test
+    public void test_journalEditsReadWithAdvancedCollection() {
+        CoinSlot edit = CollectionRepository.snapshot(mCoinList.get(0));
+        edit.setAdvancedGrades(4);
+        mJournal.append(mTableName, edit);
+
+        // The simple view doesn't replay the journal
+        final CollectionRepository.CollectionContents[] result = {null};
+        mRepository.loadCollection(mTableName, contents -> result[0] = contents, () -> {
+            throw new AssertionError("Unexpected error");
+        });
+        runPendingWork();
+        assertTrue(result[0].mJournalEdits.isEmpty());
+
+        mDbAdapter.updateTableDisplay(mTableName, CollectionPage.ADVANCED_DISPLAY);
+        mRepository.loadCollection(mTableName, contents -> result[0] = contents, () -> {
+            throw new AssertionError("Unexpected error");
+        });
+        runPendingWork();
+        assertEquals(CollectionPage.ADVANCED_DISPLAY, result[0].mDisplayType);
+        assertEquals(1, result[0].mJournalEdits.size());
+        assertEquals(edit.getDatabaseId(), result[0].mJournalEdits.get(0).getDatabaseId());
+        assertEquals(Integer.valueOf(4), result[0].mJournalEdits.get(0).getAdvancedGrades());
+    }
+
+    @Test
+    public void test_errorDeliveredOnMainLooper() {
+        final boolean[] failed = {false};
+        mRepository.readAdvancedNotes("Not a collection", Collections.singletonList(1L),
+                notes -> {
+                    throw new AssertionError("Unexpected result");
+                }, () -> failed[0] = true);
+        runPendingWork();
+        assertTrue(failed[0]);
+    }
+
+    @Test
+    public void test_queuedWritesReadBack() {
+        CoinSlot coinSlot = mCoinList.get(0);
+        coinSlot.setInCollection(true);
+        mQueue.queueInCollectionChange(mTableName, coinSlot);
+
+        final HashMap<Long, Boolean> inCollection = new HashMap<>();
+        mRepository.getInCollectionStates(mTableName, inCollection::putAll);
+        runPendingWork();
+        assertEquals(Boolean.TRUE, inCollection.get(coinSlot.getDatabaseId()));
+        assertEquals(0, mQueue.getNumPendingWrites());
+    }
+
+    /**
+     * Add two more collections after the one created in setup
+     *
+     * @return the collection names in display order
+     */
+    private ArrayList<String> addCollections() {
+        ArrayList<String> names = new ArrayList<>();
+        names.add(mTableName);
+        for (String name : new String[]{"Second", "Third"}) {
+            CollectionListInfo collectionListInfo = getCollectionListInfo(name, new AllNickels(), mCoinList);
+            mDbAdapter.createAndPopulateNewTable(collectionListInfo, names.size(), mCoinList);
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the collection names in display order, as read from the database
+     */
+    private ArrayList<String> getDatabaseOrder() {
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+        ArrayList<String> names = new ArrayList<>();
+        for (CollectionListInfo collectionListInfo : collectionListEntries) {
+            names.add(collectionListInfo.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void test_reorderWritesOnlyMovedCollections() {
+        ArrayList<String> names = addCollections();
+
+        // Nothing to write if the order is unchanged
+        assertEquals(0, mDbAdapter.updateDisplayOrders(names));
+
+        // Swap the last two
+        Collections.swap(names, 1, 2);
+        final boolean[] done = {false};
+        mRepository.reorderCollections(names, () -> done[0] = true, () -> {
+            throw new AssertionError("Unexpected error");
+        });
+        runPendingWork();
+        assertTrue(done[0]);
+        assertEquals(names, getDatabaseOrder());
+        assertEquals(0, mDbAdapter.updateDisplayOrders(names));
+
+        // An unknown collection fails the whole reorder
+        ArrayList<String> badNames = new ArrayList<>(names);
+        Collections.reverse(badNames);
+        badNames.add("Not a collection");
+        final boolean[] failed = {false};
+        mRepository.reorderCollections(badNames, () -> {
+            throw new AssertionError("Unexpected result");
+        }, () -> failed[0] = true);
+        runPendingWork();
+        assertTrue(failed[0]);
+        assertEquals(names, getDatabaseOrder());
+    }
+
+    @Test
+    public void test_copyCollectionPlacedAfterSource() {
+        ArrayList<String> names = addCollections();
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+
+        final CollectionListInfo[] copy = {null};
+        mRepository.copyCollection(collectionListEntries.get(0), mTableName, " Copy",
+                newCollectionListInfo -> copy[0] = newCollectionListInfo, () -> {
+                    throw new AssertionError("Unexpected error");
+                });
+        runPendingWork();
+        assertNotNull(copy[0]);
+        names.add(1, copy[0].getName());
+        assertEquals(names, getDatabaseOrder());
+        assertEquals(mCoinList.size(), mDbAdapter.getCoinList(copy[0].getName(), false).size());
+    }
+
+    @Test
+    public void test_copyCoinIncludesUnloadedNotes() {
+        ArrayList<CoinSlot> dbCoinList = mDbAdapter.getCoinList(mTableName, true);
+        CoinSlot source = dbCoinList.get(0);
+        source.setAdvancedNotes("Some notes");
+        mDbAdapter.writeAdvInfo(mTableName, source);
+
+        // Copy a coin whose notes haven't been read yet
+        CoinSlot shownCoinSlot = mDbAdapter.getCoinListForDisplay(mTableName, true).get(0);
+        assertFalse(shownCoinSlot.isAdvancedNotesLoaded());
+        final CoinSlot[] copy = {null};
+        mRepository.copyCoin(mTableName, shownCoinSlot, dbCoinList.size() + 1, newCoinSlot -> copy[0] = newCoinSlot,
+                () -> {
+                    throw new AssertionError("Unexpected error");
+                });
+        runPendingWork();
+        assertNotNull(copy[0]);
+        assertEquals("Some notes", copy[0].getAdvancedNotes());
+        assertEquals(source.getSortOrder() + 1, copy[0].getSortOrder());
+
+        // The copy was inserted after the source, and the later coins moved down
+        ArrayList<CoinSlot> updatedList = mDbAdapter.getCoinList(mTableName, true);
+        assertEquals(dbCoinList.size() + 1, updatedList.size());
+        assertEquals("Some notes", updatedList.get(1).getAdvancedNotes());
+        assertEquals(dbCoinList.get(1).getSortOrder() + 1, updatedList.get(2).getSortOrder());
+    }
+}
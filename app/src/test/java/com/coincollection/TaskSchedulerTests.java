@@ -0,0 +1,228 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Unit tests for {@link TaskScheduler}
+ */
+public class TaskSchedulerTests {
+
+    private static final long TIMEOUT_SEC = 5;
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void createExecutor() {
+        mExecutor = Executors.newFixedThreadPool(TaskScheduler.MAX_THREADS);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void test_differentKeysOverlap() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(mExecutor);
+        CountDownLatch otherTaskRan = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        AtomicBoolean firstTaskSawOther = new AtomicBoolean(false);
+
+        // The first task can only finish if the second runs while it is still running
+        scheduler.schedule(TaskScheduler.KEY_EXPORT, BaseActivity.TASK_EXPORT_COLLECTIONS, this, () -> {
+            try {
+                firstTaskSawOther.set(otherTaskRan.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        scheduler.schedule(TaskScheduler.getCollectionKey("Collection"),
+                BaseActivity.TASK_CREATE_UPDATE_COLLECTION, this, () -> {
+                    otherTaskRan.countDown();
+                    done.countDown();
+                });
+
+        assertTrue(done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertTrue(firstTaskSawOther.get());
+        assertEquals(2, scheduler.getNumRun());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void test_databaseTaskRunsAlone() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(mExecutor);
+        CountDownLatch collectionTaskStarted = new CountDownLatch(1);
+        CountDownLatch releaseCollectionTask = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        AtomicBoolean collectionTaskRunning = new AtomicBoolean(false);
+        AtomicBoolean overlapped = new AtomicBoolean(false);
+
+        scheduler.schedule(TaskScheduler.getCollectionKey("Collection"),
+                BaseActivity.TASK_CREATE_UPDATE_COLLECTION, this, () -> {
+                    collectionTaskRunning.set(true);
+                    collectionTaskStarted.countDown();
+                    try {
+                        releaseCollectionTask.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    collectionTaskRunning.set(false);
+                    done.countDown();
+                });
+        assertTrue(collectionTaskStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+        scheduler.schedule(TaskScheduler.KEY_DATABASE, BaseActivity.TASK_IMPORT_COLLECTIONS, this, () -> {
+            overlapped.set(collectionTaskRunning.get());
+            done.countDown();
+        });
+
+        // The import waits in the scheduler for the collection task
+        assertEquals(1, scheduler.getQueueDepth());
+        releaseCollectionTask.countDown();
+        assertTrue(done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        assertTrue(scheduler.getMaxWaitNs() > 0);
+    }
+
+    @Test
+    public void test_supersededTasksCancelled() {
+        // Queue the work so that all three tasks are scheduled before any of them starts
+        ArrayList<Runnable> queuedWork = new ArrayList<>();
+        TaskScheduler scheduler = new TaskScheduler(queuedWork::add);
+        int[] numRun = {0};
+        int[] lastRun = {0};
+        for (int i = 1; i <= 3; i++) {
+            final int taskNum = i;
+            scheduler.schedule(TaskScheduler.KEY_EXPORT, BaseActivity.TASK_EXPORT_COLLECTIONS, this, () -> {
+                numRun[0]++;
+                lastRun[0] = taskNum;
+            });
+        }
+        // A task with a different ID isn't superseded
+        scheduler.schedule(TaskScheduler.KEY_DATABASE, BaseActivity.TASK_IMPORT_COLLECTIONS, this, () -> numRun[0]++);
+        assertEquals(4, scheduler.getQueueDepth());
+
+        // Tasks are handed to the executor as the tasks they wait for finish
+        for (int i = 0; i < queuedWork.size(); i++) {
+            queuedWork.get(i).run();
+        }
+        assertEquals(2, numRun[0]);
+        assertEquals(3, lastRun[0]);
+        assertEquals(2, scheduler.getNumRun());
+        assertEquals(2, scheduler.getNumCancelled());
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getNumTrackedSchedules());
+    }
+
+    @Test
+    public void test_otherOwnersTasksNotSuperseded() {
+        ArrayList<Runnable> queuedWork = new ArrayList<>();
+        TaskScheduler scheduler = new TaskScheduler(queuedWork::add);
+        int[] numRun = {0};
+        Object otherOwner = new Object();
+        scheduler.schedule(TaskScheduler.KEY_DATABASE, BaseActivity.TASK_OPEN_DATABASE, this, () -> numRun[0]++);
+        scheduler.schedule(TaskScheduler.KEY_DATABASE, BaseActivity.TASK_OPEN_DATABASE, otherOwner, () -> numRun[0]++);
+
+        for (int i = 0; i < queuedWork.size(); i++) {
+            queuedWork.get(i).run();
+        }
+        assertEquals(2, numRun[0]);
+        assertEquals(0, scheduler.getNumCancelled());
+        assertEquals(0, scheduler.getNumTrackedSchedules());
+    }
+
+    @Test
+    public void test_waitingTasksDontHoldThreads() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(mExecutor);
+        CountDownLatch firstTaskStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstTask = new CountDownLatch(1);
+        CountDownLatch otherKeyRan = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(TaskScheduler.MAX_THREADS + 2);
+        String key = TaskScheduler.getCollectionKey("Collection");
+
+        scheduler.schedule(key, BaseActivity.TASK_CREATE_UPDATE_COLLECTION, this, () -> {
+            firstTaskStarted.countDown();
+            try {
+                releaseFirstTask.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertTrue(firstTaskStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        // Enough tasks with the same key to fill the thread pool if they took threads
+        // while waiting. Different task IDs, so they aren't superseded.
+        for (int i = 0; i < TaskScheduler.MAX_THREADS; i++) {
+            scheduler.schedule(key, BaseActivity.TASK_CREATE_UPDATE_COLLECTION + 100 + i, this, done::countDown);
+        }
+        scheduler.schedule(TaskScheduler.getCollectionKey("Other Collection"),
+                BaseActivity.TASK_CREATE_UPDATE_COLLECTION, this, () -> {
+                    otherKeyRan.countDown();
+                    done.countDown();
+                });
+
+        // The task for the other collection runs while the first task is still running
+        assertTrue(otherKeyRan.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertEquals(TaskScheduler.MAX_THREADS, scheduler.getQueueDepth());
+        releaseFirstTask.countDown();
+        assertTrue(done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_databaseReadLockWaitsForDatabaseTask() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(mExecutor);
+        CountDownLatch importStarted = new CountDownLatch(1);
+        CountDownLatch releaseImport = new CountDownLatch(1);
+
+        scheduler.schedule(TaskScheduler.KEY_DATABASE, BaseActivity.TASK_IMPORT_COLLECTIONS, this, () -> {
+            importStarted.countDown();
+            try {
+                releaseImport.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(importStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        // Database work outside of the scheduler can't start until the import is done
+        Lock readLock = scheduler.getDatabaseReadLock();
+        assertFalse(readLock.tryLock());
+        releaseImport.countDown();
+        assertTrue(readLock.tryLock(TIMEOUT_SEC, TimeUnit.SECONDS));
+        readLock.unlock();
+    }
+}
@@ -134,7 +134,7 @@ public class BaseTestCase {
                 0,
                 MainApplication.getIndexFromCollectionNameStr(collectionInfo.getCoinType()),
                 SIMPLE_DISPLAY,
-                0, 0, "", "");
+                0, 0, 0, 0);
     }
 
     /**
@@ -184,7 +184,7 @@ public class BaseTestCase {
     public boolean setupCollectionsWithNames(MainActivity activity, ArrayList<String> collectionNames) {
         int displayOrder = 0;
         for (String collectionName : collectionNames) {
-            CollectionInfo collectionInfo = COLLECTION_TYPES[displayOrder % COLLECTION_TYPES.length];
+            CollectionInfo collectionInfo = COLLECTION_TYPES.get(displayOrder % COLLECTION_TYPES.size());
             ParcelableHashMap parameters = new ParcelableHashMap();
             collectionInfo.getCreationParameters(parameters);
             ArrayList<CoinSlot> newCoinList = new ArrayList<>();
@@ -651,7 +651,7 @@ public class BaseTestCase {
      * @param check          ArrayList<CoinSlot>
      * @param compareAdvInfo if true, enables comparison of advanced details
      */
-    void compareCoinSlotLists(ArrayList<CoinSlot> base, ArrayList<CoinSlot> check, boolean compareAdvInfo) {
+    public void compareCoinSlotLists(ArrayList<CoinSlot> base, ArrayList<CoinSlot> check, boolean compareAdvInfo) {
         assertTrue(SharedTest.compareCoinSlotLists(base, check, compareAdvInfo, true));
     }
 
@@ -744,7 +744,7 @@ public class BaseTestCase {
             for (CoinSlot coinSlot : coinList) {
                 assertEquals(activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot),
                         (coinSlot.isInCollection() ? 1 : 0));
-                activity.mDbAdapter.toggleInCollection(tableName, coinSlot);
+                assertEquals(1, activity.mDbAdapter.toggleInCollection(tableName, coinSlot.getDatabaseId()));
                 assertEquals(activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot),
                         (coinSlot.isInCollection() ? 0 : 1));
 
@@ -831,8 +831,8 @@ public class BaseTestCase {
                 displayType,
                 startDate,
                 endDate,
-                Long.toString(random.nextLong() & CollectionListInfo.ALL_MINT_MASK),
-                Long.toString(random.nextLong() & CollectionListInfo.ALL_CHECKBOXES_MASK));
+                random.nextLong() & CollectionListInfo.ALL_MINT_MASK,
+                random.nextLong() & CollectionListInfo.ALL_CHECKBOXES_MASK);
 
         // Populate coin list
         ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(collectionListInfo);
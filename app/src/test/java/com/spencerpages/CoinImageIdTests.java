@@ -40,7 +40,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.ParameterizedRobolectricTestRunner;
 
-import java.util.Arrays;
 import java.util.List;
 
 @RunWith(ParameterizedRobolectricTestRunner.class)
@@ -54,7 +53,7 @@ public class CoinImageIdTests extends BaseTestCase {
 
     @ParameterizedRobolectricTestRunner.Parameters
     public static List<?> getCoinTypeObj() {
-        return Arrays.asList(MainApplication.COLLECTION_TYPES);
+        return MainApplication.COLLECTION_TYPES.getAll();
     }
 
     /**
@@ -0,0 +1,246 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static com.coincollection.CoinPageCreator.OPT_SHOW_MINT_MARKS;
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.coincollection.CoinPageCreator;
+import com.coincollection.CoinSlot;
+import com.coincollection.CollectionInfo;
+import com.coincollection.helper.ParcelableHashMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Regression tests and benchmark for CoinPageCreator.mergeCoinLists, checked against the
+ * original nested loop merge
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CoinListMergeTests extends BaseTestCase {
+
+    // Number of the largest collection types to test
+    private static final int NUM_COLLECTION_TYPES = 3;
+
+    /**
+     * The original merge, kept to check that the indexed merge gives the same results
+     */
+    private static ArrayList<CoinSlot> referenceMerge(ArrayList<CoinSlot> newCoinList, ArrayList<CoinSlot> existingCoinList,
+                                                      boolean existingHasMintMarks, boolean hasMintMarks) {
+        ArrayList<CoinSlot> mergedCoinList = new ArrayList<>();
+        while ((!existingCoinList.isEmpty()) && existingCoinList.get(0).isCustomCoin()) {
+            mergedCoinList.add(existingCoinList.remove(0));
+        }
+        for (int i = 0; i < newCoinList.size(); i++) {
+            CoinSlot newCoin = newCoinList.get(i);
+            boolean foundExistingCoinMatch = false;
+            for (int j = 0; j < existingCoinList.size(); j++) {
+                CoinSlot existingCoin = existingCoinList.get(j);
+                if (existingCoin.isCustomCoin()) {
+                    continue;
+                }
+                if (!existingHasMintMarks && hasMintMarks) {
+                    if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
+                        foundExistingCoinMatch = true;
+                        newCoin = existingCoin.copy(newCoin.getIdentifier(), newCoin.getMint(), false);
+                        break;
+                    }
+                } else if (existingHasMintMarks && !hasMintMarks) {
+                    if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
+                        existingCoin.setInCollection(existingCoin.isInCollection() || newCoin.isInCollection());
+                        existingCoin.setMint(newCoin.getMint());
+                        foundExistingCoinMatch = true;
+                        newCoin = existingCoin;
+                    }
+                } else {
+                    if (newCoin.equals(existingCoin)) {
+                        foundExistingCoinMatch = true;
+                        newCoin = existingCoin;
+                        existingCoinList.remove(j);
+                        break;
+                    }
+                }
+            }
+            if (foundExistingCoinMatch) {
+                for (int j = 0; j < existingCoinList.size(); j++) {
+                    CoinSlot existingCoin = existingCoinList.get(j);
+                    if (existingCoin.isCustomCoin() && existingCoin.getSortOrder() < newCoin.getSortOrder()) {
+                        mergedCoinList.add(existingCoinList.remove(j--));
+                    }
+                }
+            }
+            mergedCoinList.add(newCoin);
+        }
+        for (int j = 0; j < existingCoinList.size(); j++) {
+            CoinSlot existingCoin = existingCoinList.get(j);
+            if (existingCoin.isCustomCoin()) {
+                mergedCoinList.add(existingCoin);
+            }
+        }
+        return mergedCoinList;
+    }
+
+    /**
+     * Get the coins for a collection type
+     *
+     * @param collectionInfo collection type
+     * @param showMintMarks  whether mint marks are shown
+     * @param startYearDelta amount to move the start year (if the collection has one)
+     * @return coin list
+     */
+    private static ArrayList<CoinSlot> getCoinList(CollectionInfo collectionInfo, boolean showMintMarks, int startYearDelta) {
+        ParcelableHashMap parameters = getAllEnabledParams(collectionInfo);
+        if (parameters.containsKey(OPT_SHOW_MINT_MARKS)) {
+            parameters.put(OPT_SHOW_MINT_MARKS, showMintMarks);
+        }
+        if (parameters.containsKey(CoinPageCreator.OPT_START_YEAR)) {
+            parameters.put(CoinPageCreator.OPT_START_YEAR,
+                    (Integer) parameters.get(CoinPageCreator.OPT_START_YEAR) + startYearDelta);
+        }
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        collectionInfo.populateCollectionLists(parameters, coinList);
+        return coinList;
+    }
+
+    /**
+     * Create an existing collection from a coin list, as it would be read from the database,
+     * with random progress and custom coins mixed in
+     *
+     * @param coinList base coin list
+     * @param seed     random seed, so the same collection can be created more than once
+     * @return existing coins in sort order
+     */
+    private static ArrayList<CoinSlot> getExistingCoinList(ArrayList<CoinSlot> coinList, long seed) {
+        Random existingRandom = new Random(seed);
+        ArrayList<CoinSlot> existingCoinList = new ArrayList<>();
+        int sortOrder = 0;
+        for (int i = 0; i < coinList.size(); i++) {
+            // Add custom coins at the start, end and randomly throughout
+            if (i == 0 || existingRandom.nextInt(20) == 0) {
+                existingCoinList.add(new CoinSlot(0, "Custom " + i, "", existingRandom.nextBoolean(),
+                        0, 0, "", sortOrder++, true, -1));
+            }
+            CoinSlot coinSlot = coinList.get(i);
+            existingCoinList.add(new CoinSlot(i + 1, coinSlot.getIdentifier(), coinSlot.getMint(),
+                    existingRandom.nextBoolean(), existingRandom.nextInt(5), existingRandom.nextInt(5),
+                    Integer.toString(existingRandom.nextInt()), sortOrder++, false, coinSlot.getImageId()));
+        }
+        existingCoinList.add(new CoinSlot(0, "Custom End", "", true, 0, 0, "", sortOrder, true, -1));
+        return existingCoinList;
+    }
+
+    /**
+     * Check that two merged lists contain the same coins in the same order
+     */
+    private static void checkSameMerge(ArrayList<CoinSlot> expected, ArrayList<CoinSlot> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CoinSlot expectedCoin = expected.get(i);
+            CoinSlot actualCoin = actual.get(i);
+            assertEquals(expectedCoin.getDatabaseId(), actualCoin.getDatabaseId());
+            assertEquals(expectedCoin.getIdentifier(), actualCoin.getIdentifier());
+            assertEquals(expectedCoin.getMint(), actualCoin.getMint());
+            assertEquals(expectedCoin.isInCollection(), actualCoin.isInCollection());
+            assertEquals(expectedCoin.getAdvancedGrades(), actualCoin.getAdvancedGrades());
+            assertEquals(expectedCoin.getAdvancedQuantities(), actualCoin.getAdvancedQuantities());
+            assertEquals(expectedCoin.getAdvancedNotes(), actualCoin.getAdvancedNotes());
+            assertEquals(expectedCoin.getSortOrder(), actualCoin.getSortOrder());
+            assertEquals(expectedCoin.isCustomCoin(), actualCoin.isCustomCoin());
+        }
+    }
+
+    /**
+     * Get the collection types with the most coins
+     *
+     * @return largest collection types
+     */
+    private static ArrayList<CollectionInfo> getLargestCollectionTypes() {
+        ArrayList<CollectionInfo> collectionTypes = new ArrayList<>();
+        for (CollectionInfo collectionInfo : COLLECTION_TYPES) {
+            collectionTypes.add(collectionInfo);
+        }
+        collectionTypes.sort(Comparator.comparingInt(
+                (CollectionInfo collectionInfo) -> getCoinList(collectionInfo, true, 0).size()).reversed());
+        return new ArrayList<>(collectionTypes.subList(0, NUM_COLLECTION_TYPES));
+    }
+
+    /**
+     * Check that the indexed merge matches the original merge for each kind of update
+     */
+    @Test
+    public void test_mergeMatchesReference() {
+        boolean[][] mintMarkTransitions = {{true, true}, {false, false}, {false, true}, {true, false}};
+        int[] startYearDeltas = {0, 5, -5};
+        for (CollectionInfo collectionInfo : getLargestCollectionTypes()) {
+            for (boolean[] transition : mintMarkTransitions) {
+                for (int startYearDelta : startYearDeltas) {
+                    long seed = random.nextLong();
+                    ArrayList<CoinSlot> baseCoinList = getCoinList(collectionInfo, transition[0], 0);
+                    ArrayList<CoinSlot> newCoinList = getCoinList(collectionInfo, transition[1], startYearDelta);
+
+                    ArrayList<CoinSlot> expected = referenceMerge(newCoinList,
+                            getExistingCoinList(baseCoinList, seed), transition[0], transition[1]);
+                    ArrayList<CoinSlot> actual = CoinPageCreator.mergeCoinLists(newCoinList,
+                            getExistingCoinList(baseCoinList, seed), transition[0], transition[1]);
+                    checkSameMerge(expected, actual);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the time taken by the original and indexed merges on the largest collection
+     */
+    @Test
+    public void test_mergeThroughput() {
+        CollectionInfo collectionInfo = getLargestCollectionTypes().get(0);
+        ArrayList<CoinSlot> coinList = getCoinList(collectionInfo, true, 0);
+        // Repeat the coins to reach the size of a large edited collection
+        ArrayList<CoinSlot> largeCoinList = new ArrayList<>();
+        for (int i = 0; largeCoinList.size() < 3000; i++) {
+            CoinSlot coinSlot = coinList.get(i % coinList.size());
+            largeCoinList.add(new CoinSlot(coinSlot.getIdentifier() + " " + (i / coinList.size()),
+                    coinSlot.getMint(), i, coinSlot.getImageId()));
+        }
+        long seed = random.nextLong();
+
+        ArrayList<CoinSlot> existingCoinList = getExistingCoinList(largeCoinList, seed);
+        long startNs = System.nanoTime();
+        ArrayList<CoinSlot> expected = referenceMerge(largeCoinList, existingCoinList, true, true);
+        DatabasePerformanceTests.reportRowsPerSec("nested loop merge", largeCoinList.size(), System.nanoTime() - startNs);
+
+        existingCoinList = getExistingCoinList(largeCoinList, seed);
+        startNs = System.nanoTime();
+        ArrayList<CoinSlot> actual = CoinPageCreator.mergeCoinLists(largeCoinList, existingCoinList, true, true);
+        DatabasePerformanceTests.reportRowsPerSec("indexed merge", largeCoinList.size(), System.nanoTime() - startNs);
+
+        checkSameMerge(expected, actual);
+        assertTrue(actual.size() > largeCoinList.size());
+    }
+}
@@ -107,8 +107,8 @@ public class CoinPageCreatorTests extends BaseTestCase {
     public void test_getCreationParameters() {
         for (CollectionInfo collectionInfo : COLLECTION_TYPES) {
             CollectionListInfo collectionListInfo = getCollectionListInfo("X", collectionInfo, new ArrayList<>());
-            collectionListInfo.setMintMarkFlags(Long.toString(-1L)); // All possible mint marks set
-            collectionListInfo.setCheckboxFlags(Long.toString(-1L)); // All possible checkboxes set
+            collectionListInfo.setMintMarkFlags(-1L); // All possible mint marks set
+            collectionListInfo.setCheckboxFlags(-1L); // All possible checkboxes set
             ParcelableHashMap parameters = CoinPageCreator.getParametersFromCollectionListInfo(collectionListInfo);
 
             // Assert that collections don't provide the same option twice
@@ -121,6 +121,8 @@ public class CollectionPageActivityTests extends BaseTestCase {
                     }
 
                     // Check that the copied collection was made correctly in the database
+                    // - Notes are only read for coins that have been shown, so read the rest
+                    activity.mDbAdapter.fetchAdvancedNotes(collectionName, activity.mOriginalCoinList);
                     ArrayList<CoinSlot> checkCoinList = activity.mDbAdapter.getCoinList(collectionName, true);
                     compareCoinSlotLists(activity.mCoinList, checkCoinList, true);
                     checkCoinSortOrdersUnique(activity.mCoinList);
@@ -136,7 +138,7 @@ public class CollectionPageActivityTests extends BaseTestCase {
      */
     @Test
     public void test_collectionTypes() {
-        assertEquals(COLLECTION_TYPES.length, (BASIC_COLLECTIONS.length + ADVANCED_COLLECTIONS.length + MORE_COLLECTIONS.length));
+        assertEquals(COLLECTION_TYPES.size(), (BASIC_COLLECTIONS.length + ADVANCED_COLLECTIONS.length + MORE_COLLECTIONS.length));
         for (Class<?> collectionClass : BASIC_COLLECTIONS) {
             // All basic collections should be in the collection types list
             assertNotEquals(-1, getIndexFromCollectionClass(collectionClass));
@@ -32,7 +32,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.ParameterizedRobolectricTestRunner;
 
-import java.util.Arrays;
 import java.util.List;
 
 @RunWith(ParameterizedRobolectricTestRunner.class)
@@ -46,7 +45,7 @@ public class DatabaseAccessTests extends BaseTestCase {
 
     @ParameterizedRobolectricTestRunner.Parameters
     public static List<?> getCoinTypeObj() {
-        return Arrays.asList(MainApplication.COLLECTION_TYPES);
+        return MainApplication.COLLECTION_TYPES.getAll();
     }
 
     @Test
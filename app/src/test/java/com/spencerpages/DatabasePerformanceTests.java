@@ -0,0 +1,412 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.database.SQLException;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CoinSlot;
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
+import com.spencerpages.collections.AllNickels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Database throughput benchmarks. Results are printed to standard out (visible in the
+ * Gradle test output) and the tests also verify that the faster paths store the same data.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabasePerformanceTests extends BaseTestCase {
+
+    // Roughly the size of the largest collections (Ex: All Nickels with all options enabled)
+    private static final int BENCHMARK_NUM_COINS = 2000;
+
+    private DatabaseAdapter mDbAdapter;
+
+    @Before
+    public void openDatabase() {
+        mDbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        mDbAdapter.open();
+    }
+
+    @After
+    public void closeDatabase() {
+        mDbAdapter.close();
+    }
+
+    /**
+     * Get a large list of coins to use for benchmarking
+     *
+     * @param collectionInfo collection type to populate from
+     * @param numCoins       number of coins to return
+     * @return list of coins
+     */
+    ArrayList<CoinSlot> getBenchmarkCoinList(CollectionInfo collectionInfo, int numCoins) {
+        ArrayList<CoinSlot> baseList = new ArrayList<>();
+        collectionInfo.populateCollectionLists(getAllEnabledParams(collectionInfo), baseList);
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < numCoins; i++) {
+            CoinSlot baseCoin = baseList.get(i % baseList.size());
+            CoinSlot coinSlot = new CoinSlot(baseCoin.getIdentifier(), baseCoin.getMint(), i, baseCoin.getImageId());
+            coinSlot.setInCollection(random.nextBoolean());
+            coinSlot.setAdvancedNotes(Integer.toString(random.nextInt()));
+            coinList.add(coinSlot);
+        }
+        return coinList;
+    }
+
+    /**
+     * Print a throughput result
+     *
+     * @param label     description of what was measured
+     * @param numRows   number of rows written
+     * @param elapsedNs elapsed time in nanoseconds
+     */
+    public static void reportRowsPerSec(String label, int numRows, long elapsedNs) {
+        double rowsPerSec = numRows / Math.max(elapsedNs / 1e9, 1e-9);
+        System.out.println(String.format(Locale.ROOT, "[benchmark] %s: %d rows in %.1f ms (%.0f rows/sec)",
+                label, numRows, elapsedNs / 1e6, rowsPerSec));
+    }
+
+    /**
+     * Compare the per-row insert path against the batched transactional path
+     */
+    @Test
+    public void test_bulkInsertThroughput() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, BENCHMARK_NUM_COINS);
+
+        // Before: one autocommitted insert per coin
+        CollectionListInfo perRowInfo = getCollectionListInfo("Per Row", collectionInfo, coinList);
+        mDbAdapter.createAndPopulateNewTable(perRowInfo, 0, null);
+        long startNs = System.nanoTime();
+        for (CoinSlot coinSlot : coinList) {
+            mDbAdapter.addCoinSlotToCollection(coinSlot, perRowInfo.getName(), false, 0);
+        }
+        reportRowsPerSec("per-row insert", coinList.size(), System.nanoTime() - startNs);
+
+        // After: one transaction and a single compiled statement
+        CollectionListInfo batchedInfo = getCollectionListInfo("Batched", collectionInfo, coinList);
+        startNs = System.nanoTime();
+        mDbAdapter.createAndPopulateNewTable(batchedInfo, 1, coinList);
+        reportRowsPerSec("batched createAndPopulateNewTable", coinList.size(), System.nanoTime() - startNs);
+
+        // Saving the collection unchanged doesn't touch any rows
+        startNs = System.nanoTime();
+        assertEquals(0, mDbAdapter.updateExistingCollection(batchedInfo.getName(), batchedInfo, coinList));
+        reportRowsPerSec("unchanged updateExistingCollection", coinList.size(), System.nanoTime() - startNs);
+
+        // Both paths must produce the same data
+        compareCoinSlotLists(mDbAdapter.getCoinList(perRowInfo.getName(), true, true),
+                mDbAdapter.getCoinList(batchedInfo.getName(), true, true), true);
+    }
+
+    /**
+     * Check that a failure part way through creating a collection leaves nothing behind
+     */
+    @Test
+    public void test_createCollectionRollsBackOnFailure() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, 100);
+        // The identifier column is 'not null', so this insert fails
+        coinList.add(new CoinSlot(null, "", coinList.size()));
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Rollback", collectionInfo, coinList);
+        try {
+            mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+            fail();
+        } catch (SQLException ignored) {
+            // Expected
+        }
+        assertEquals(-1, mDbAdapter.checkCollectionName(collectionListInfo.getName()));
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+        assertEquals(0, collectionListEntries.size());
+    }
+
+    /**
+     * Check that a failure part way through updating a collection keeps the original coins
+     */
+    @Test
+    public void test_updateCollectionRollsBackOnFailure() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, 100);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Rollback", collectionInfo, coinList);
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+        ArrayList<CoinSlot> badCoinList = getBenchmarkCoinList(collectionInfo, 50);
+        badCoinList.add(new CoinSlot(null, "", badCoinList.size()));
+        try {
+            mDbAdapter.updateExistingCollection(collectionListInfo.getName(), collectionListInfo, badCoinList);
+            fail();
+        } catch (SQLException ignored) {
+            // Expected
+        }
+        compareCoinSlotLists(coinList, mDbAdapter.getCoinList(collectionListInfo.getName(), true, true), true);
+    }
+
+    /**
+     * Get the collected count stored in the collection info table
+     *
+     * @param collectionName collection name
+     * @return collected count
+     */
+    int getStoredCollectedCount(String collectionName) {
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+        for (CollectionListInfo collectionListInfo : collectionListEntries) {
+            if (collectionListInfo.getName().equals(collectionName)) {
+                return collectionListInfo.getCollected();
+            }
+        }
+        fail();
+        return -1;
+    }
+
+    /**
+     * Get the number of coins collected by counting the coins in the collection
+     *
+     * @param collectionName collection name
+     * @return collected count
+     */
+    int countCollectedCoins(String collectionName) {
+        int numCollected = 0;
+        for (CoinSlot coinSlot : mDbAdapter.getCoinList(collectionName, false)) {
+            numCollected += coinSlot.isInCollectionInt();
+        }
+        return numCollected;
+    }
+
+    /**
+     * Check that the stored collected count is kept up to date as coins change
+     */
+    @Test
+    public void test_collectedCountMaintained() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, 200);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Counts", collectionInfo, coinList);
+        String name = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+        assertEquals(countCollectedCoins(name), getStoredCollectedCount(name));
+
+        // Toggle
+        for (int i = 0; i < 20; i++) {
+            mDbAdapter.toggleInCollection(name, coinList.get(i).getDatabaseId());
+        }
+        mDbAdapter.updateCollectedCount(name);
+        assertEquals(countCollectedCoins(name), getStoredCollectedCount(name));
+
+        // Add and remove
+        CoinSlot newCoin = new CoinSlot("Custom", "", coinList.size());
+        newCoin.setInCollection(true);
+        mDbAdapter.addCoinSlotToCollection(newCoin, name, true, coinList.size() + 1);
+        assertEquals(countCollectedCoins(name), getStoredCollectedCount(name));
+        mDbAdapter.removeCoinSlotFromCollection(newCoin, name, coinList.size());
+        assertEquals(countCollectedCoins(name), getStoredCollectedCount(name));
+
+        // Replace the coin list
+        ArrayList<CoinSlot> newCoinList = getBenchmarkCoinList(collectionInfo, 150);
+        mDbAdapter.updateExistingCollection(name, collectionListInfo, newCoinList);
+        assertEquals(countCollectedCoins(name), getStoredCollectedCount(name));
+    }
+
+    /**
+     * Print a per-call latency result
+     *
+     * @param label     description of what was measured
+     * @param numCalls  number of calls made
+     * @param elapsedNs elapsed time in nanoseconds
+     */
+    static void reportLatency(String label, int numCalls, long elapsedNs) {
+        System.out.println(String.format(Locale.ROOT, "[benchmark] %s: %d calls in %.1f ms (%.2f us/call)",
+                label, numCalls, elapsedNs / 1e6, elapsedNs / 1e3 / Math.max(numCalls, 1)));
+    }
+
+    /**
+     * Compare per-call latency of the frequently run queries with the statement cache on and off
+     */
+    @Test
+    public void test_statementCacheLatency() {
+        final int numCalls = 5000;
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, 200);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Statements", collectionInfo, coinList);
+        String name = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+        int[] checksums = new int[2];
+        boolean[] cacheSettings = {false, true};
+        for (int run = 0; run < cacheSettings.length; run++) {
+            mDbAdapter.setStatementCacheEnabled(cacheSettings[run]);
+            long startHits = mDbAdapter.getStatementCacheHits();
+            long startNs = System.nanoTime();
+            int checksum = 0;
+            for (int i = 0; i < numCalls; i++) {
+                checksum += mDbAdapter.fetchIsInCollection(name, coinList.get(i % coinList.size()));
+                checksum += mDbAdapter.fetchTableDisplay(name);
+                checksum += mDbAdapter.getNextCoinSortOrder(name);
+            }
+            reportLatency("statement cache " + (cacheSettings[run] ? "on" : "off"), numCalls * 3,
+                    System.nanoTime() - startNs);
+            checksums[run] = checksum;
+
+            long numHits = mDbAdapter.getStatementCacheHits() - startHits;
+            if (cacheSettings[run]) {
+                // Only the first call of each query should need to compile
+                assertEquals(numCalls * 3 - 3, numHits);
+            } else {
+                assertEquals(0, numHits);
+            }
+        }
+
+        // Both runs must return the same results
+        assertEquals(checksums[0], checksums[1]);
+        assertTrue(mDbAdapter.getStatementCacheMisses() > 0);
+    }
+
+    /**
+     * Check that statements cached for a collection are dropped when it's renamed or deleted
+     */
+    @Test
+    public void test_statementCacheDroppedForRenamedTables() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, 20);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Cached", collectionInfo, coinList);
+        String name = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+        int nextSortOrder = mDbAdapter.getNextCoinSortOrder(name);
+        assertEquals(0, countSortOrderMisses(name, nextSortOrder));
+
+        // After renaming away and back, the statement is compiled again
+        mDbAdapter.updateCollectionName(name, "Cached Renamed");
+        assertEquals(1, countSortOrderMisses("Cached Renamed", nextSortOrder));
+        mDbAdapter.updateCollectionName("Cached Renamed", name);
+        assertEquals(1, countSortOrderMisses(name, nextSortOrder));
+
+        // Same after the table is dropped and recreated
+        mDbAdapter.dropCollectionTable(name);
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+        assertEquals(1, countSortOrderMisses(name, nextSortOrder));
+        assertEquals(0, countSortOrderMisses(name, nextSortOrder));
+    }
+
+    /**
+     * Get the next sort order for a collection, and check it's the expected value
+     *
+     * @param name              collection name
+     * @param expectedSortOrder the expected next sort order
+     * @return the number of statements that had to be compiled
+     */
+    private int countSortOrderMisses(String name, int expectedSortOrder) {
+        long startMisses = mDbAdapter.getStatementCacheMisses();
+        assertEquals(expectedSortOrder, mDbAdapter.getNextCoinSortOrder(name));
+        return (int) (mDbAdapter.getStatementCacheMisses() - startMisses);
+    }
+
+    /**
+     * Compare opening a collection with and without reading the notes up front, and check
+     * that the notes read later match
+     */
+    @Test
+    public void test_lazyAdvancedNotes() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, BENCHMARK_NUM_COINS);
+        StringBuilder longNotes = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longNotes.append("Notes ");
+        }
+        for (CoinSlot coinSlot : coinList) {
+            coinSlot.setAdvancedNotes(longNotes + coinSlot.getAdvancedNotes());
+        }
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Notes", collectionInfo, coinList);
+        String name = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+        long startNs = System.nanoTime();
+        ArrayList<CoinSlot> fullList = mDbAdapter.getCoinList(name, true);
+        reportRowsPerSec("getCoinList with notes", fullList.size(), System.nanoTime() - startNs);
+        startNs = System.nanoTime();
+        ArrayList<CoinSlot> displayList = mDbAdapter.getCoinListForDisplay(name, true);
+        reportRowsPerSec("getCoinListForDisplay", displayList.size(), System.nanoTime() - startNs);
+        compareCoinSlotLists(fullList, displayList, false);
+
+        // Read the notes for a window of coins, then the rest
+        mDbAdapter.fetchAdvancedNotes(name, displayList.subList(0, 50));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(fullList.get(i).getAdvancedNotes(), displayList.get(i).getAdvancedNotes());
+        }
+        mDbAdapter.fetchAdvancedNotes(name, displayList);
+        compareCoinSlotLists(fullList, displayList, true);
+    }
+
+    /**
+     * Check that updating a collection only writes the rows that changed, and that the
+     * result matches the new coin list
+     */
+    @Test
+    public void test_diffUpdateRowsTouched() {
+        CollectionInfo collectionInfo = new AllNickels();
+        ArrayList<CoinSlot> coinList = getBenchmarkCoinList(collectionInfo, BENCHMARK_NUM_COINS);
+        CollectionListInfo collectionListInfo = getCollectionListInfo("Diff", collectionInfo, coinList);
+        String name = collectionListInfo.getName();
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+        // Edit a few coins, remove a few and add a few at the end
+        ArrayList<CoinSlot> newCoinList = mDbAdapter.getCoinList(name, true);
+        for (int i = 0; i < 10; i++) {
+            CoinSlot coinSlot = newCoinList.get(i * 100);
+            coinSlot.setInCollection(!coinSlot.isInCollection());
+        }
+        for (int i = 0; i < 5; i++) {
+            newCoinList.remove(newCoinList.size() - 1 - i * 100);
+        }
+        int sortOrder = newCoinList.get(newCoinList.size() - 1).getSortOrder();
+        for (int i = 0; i < 5; i++) {
+            newCoinList.add(new CoinSlot("New " + i, "", ++sortOrder));
+        }
+        collectionListInfo.setMax(newCoinList.size());
+
+        long startNs = System.nanoTime();
+        int rowsTouched = mDbAdapter.updateExistingCollection(name, collectionListInfo, newCoinList);
+        reportRowsPerSec("diff updateExistingCollection", newCoinList.size(), System.nanoTime() - startNs);
+        assertEquals(20, rowsTouched);
+        compareCoinSlotLists(newCoinList, mDbAdapter.getCoinList(name, true), true);
+        for (CoinSlot coinSlot : newCoinList) {
+            assertTrue(coinSlot.getDatabaseId() != 0);
+        }
+
+        // Nothing left to write the second time
+        assertEquals(0, mDbAdapter.updateExistingCollection(name, collectionListInfo, newCoinList));
+    }
+}
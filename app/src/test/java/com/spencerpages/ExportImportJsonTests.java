@@ -49,7 +49,6 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 @RunWith(ParameterizedRobolectricTestRunner.class)
@@ -81,7 +80,7 @@ public class ExportImportJsonTests extends BaseTestCase {
 
     @ParameterizedRobolectricTestRunner.Parameters
     public static List<?> getCoinTypeObj() {
-        return Arrays.asList(MainApplication.COLLECTION_TYPES);
+        return MainApplication.COLLECTION_TYPES.getAll();
     }
 
     /**
@@ -29,6 +29,7 @@ import static com.coincollection.MainActivity.NUMBER_OF_COLLECTION_LIST_SPACERS;
 import static com.spencerpages.MainApplication.COLLECTION_TYPES;
 import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -59,6 +60,8 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -132,7 +135,7 @@ public class ExportImportTests extends BaseTestCase {
                 assertEquals("", helper.importCollectionsFromLegacyCSV(activity.getLegacyExportFolderName()));
                 ArrayList<String> afterCollectionNames = getCollectionNames(activity);
                 ArrayList<ArrayList<CoinSlot>> afterCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames);
-                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.length);
+                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.size());
                 assertEquals(beforeCollectionNames, afterCollectionNames);
                 compareListOfCoinSlotLists(beforeCoinLists, afterCoinLists, false);
             });
@@ -196,7 +199,7 @@ public class ExportImportTests extends BaseTestCase {
                 assertEquals("", helper.importCollectionsFromJson(inputStream));
                 ArrayList<String> afterCollectionNames = getCollectionNames(activity);
                 ArrayList<ArrayList<CoinSlot>> afterCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames);
-                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.length);
+                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.size());
                 assertEquals(beforeCollectionNames, afterCollectionNames);
                 compareListOfCoinSlotLists(beforeCoinLists, afterCoinLists, true);
                 closeStream(inputStream);
@@ -241,7 +244,7 @@ public class ExportImportTests extends BaseTestCase {
                 assertEquals("", helper.importCollectionsFromSingleCSV(inputStream));
                 ArrayList<String> afterCollectionNames = getCollectionNames(activity);
                 ArrayList<ArrayList<CoinSlot>> afterCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames);
-                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.length);
+                assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.size());
                 assertEquals(beforeCollectionNames, afterCollectionNames);
                 compareListOfCoinSlotLists(beforeCoinLists, afterCoinLists, true);
                 closeStream(inputStream);
@@ -412,4 +415,104 @@ public class ExportImportTests extends BaseTestCase {
             });
         }
     }
+
+    /**
+     * Test that a JSON import reports progress for each collection, and that a file that
+     * fails part way through leaves the existing collections untouched
+     */
+    @Test
+    public void test_jsonImportProgressAndRollback() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                activity.updateCollectionListFromDatabase();
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, beforeCollectionNames);
+
+                // Export the collections
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                helper.exportCollectionsToJson(outputStream, "export.json");
+                byte[] exportBytes = outputStream.toByteArray();
+
+                // Import a file that is cut off part way through the last collection
+                ArrayList<Integer> progress = new ArrayList<>();
+                helper.setProgressListener(progress::add);
+                byte[] truncatedBytes = Arrays.copyOf(exportBytes, exportBytes.length - 100);
+                String result = helper.importCollectionsFromJson(new ByteArrayInputStream(truncatedBytes));
+                assertNotEquals("", result);
+                assertEquals(COLLECTION_TYPES.size() - 1, progress.size());
+                ArrayList<String> afterCollectionNames = getCollectionNames(activity);
+                assertEquals(beforeCollectionNames, afterCollectionNames);
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames), true);
+
+                // Import the full file
+                progress.clear();
+                assertEquals("", helper.importCollectionsFromJson(new ByteArrayInputStream(exportBytes)));
+                assertEquals(COLLECTION_TYPES.size(), progress.size());
+                for (int i = 0; i < progress.size(); i++) {
+                    assertEquals(i + 1, (int) progress.get(i));
+                }
+                afterCollectionNames = getCollectionNames(activity);
+                assertEquals(beforeCollectionNames, afterCollectionNames);
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames), true);
+            });
+        }
+    }
+
+    /**
+     * Test that the JSON and CSV exports stream every coin, reporting progress for each
+     * collection and the export stats
+     */
+    @Test
+    public void test_streamingExportProgressAndStats() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                activity.updateCollectionListFromDatabase();
+                ArrayList<String> collectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> coinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, collectionNames);
+
+                // Streaming a collection (in chunks) gives the same coins as reading it as a list
+                int totalCoins = 0;
+                for (int i = 0; i < collectionNames.size(); i++) {
+                    ArrayList<CoinSlot> streamedCoins = new ArrayList<>();
+                    try {
+                        assertEquals(coinLists.get(i).size(),
+                                activity.mDbAdapter.streamCoins(collectionNames.get(i), streamedCoins::add));
+                    } catch (IOException e) {
+                        fail();
+                    }
+                    compareCoinSlotLists(coinLists.get(i), streamedCoins, true);
+                    totalCoins += streamedCoins.size();
+                }
+
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                ArrayList<Integer> progress = new ArrayList<>();
+                helper.setProgressListener(progress::add);
+                for (boolean isCsv : new boolean[]{false, true}) {
+                    progress.clear();
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    String result = isCsv
+                            ? helper.exportCollectionsToSingleCSV(outputStream, "export.csv")
+                            : helper.exportCollectionsToJson(outputStream, "export.json");
+                    assertEquals(activity.mRes.getString(R.string.success_export, isCsv ? "export.csv" : "export.json"), result);
+                    assertTrue(outputStream.size() > 0);
+                    assertEquals(collectionNames.size(), progress.size());
+                    for (int i = 0; i < progress.size(); i++) {
+                        assertEquals(i + 1, (int) progress.get(i));
+                    }
+                    ExportImportHelper.ExportStats stats = helper.getLastExportStats();
+                    assertNotNull(stats);
+                    assertEquals(collectionNames.size(), stats.mNumCollections);
+                    assertEquals(totalCoins, stats.mNumCoins);
+                    assertTrue(stats.getCoinsPerSec() >= 0);
+                }
+            });
+        }
+    }
 }
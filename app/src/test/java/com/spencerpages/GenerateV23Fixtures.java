@@ -49,7 +49,8 @@ import java.util.ArrayList;
 import java.util.Map;
 
 /**
- * Generator for V23 JSON fixture files used by CollectionUpgradeAllParamsTests.
+ * Generator for V23 JSON fixture files used by CollectionUpgradeAllParamsTests and
+ * UpgradeBenchmarkTests.
  *
  * <p>This test is @Ignore'd — it is only run manually when fixture files need
  * to be regenerated (e.g., after a new database version is released). It must
@@ -132,8 +133,8 @@ public class GenerateV23Fixtures extends BaseTestCase {
                     0,
                     (startYear != null) ? startYear : 0,
                     (stopYear != null) ? stopYear : 0,
-                    Long.toString(mintMarkFlags),
-                    Long.toString(checkboxFlags));
+                    mintMarkFlags,
+                    checkboxFlags);
 
             createNewTable(activity, collectionListInfo, coinList, displayOrder++);
         }
@@ -47,7 +47,6 @@ import org.robolectric.ParameterizedRobolectricTestRunner;
 import org.robolectric.Robolectric;
 import org.robolectric.shadows.ShadowDialog;
 
-import java.util.Arrays;
 import java.util.List;
 
 @RunWith(ParameterizedRobolectricTestRunner.class)
@@ -61,7 +60,7 @@ public class LaunchCoinPageTests extends BaseTestCase {
 
     @ParameterizedRobolectricTestRunner.Parameters
     public static List<?> getCoinTypeObj() {
-        return Arrays.asList(MainApplication.COLLECTION_TYPES);
+        return MainApplication.COLLECTION_TYPES.getAll();
     }
 
     /**
@@ -86,9 +86,14 @@ import static com.coincollection.CollectionListInfo.WHEAT_CENTS;
 import static com.coincollection.CollectionListInfo.WOMEN_QUARTERS;
 import static com.coincollection.CollectionListInfo.WOMEN_QUARTERS_PROOF;
 
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
 import static com.spencerpages.MainApplication.getIndexFromCollectionClass;
+import static com.spencerpages.MainApplication.getIndexFromCollectionNameStr;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionTypeRegistry;
 import com.spencerpages.collections.AllNickels;
 import com.spencerpages.collections.AmericanEagleSilverDollars;
 import com.spencerpages.collections.AmericanInnovationDollars;
@@ -205,6 +210,55 @@ public class MainApplicationTests extends BaseTestCase {
         assertEquals(51, getIndexFromCollectionClass(Semiquincentennials.class));
     }
 
+    /**
+     * Ensure the collection type names used for lookups match the collection types
+     */
+    @Test
+    public void testCollectionTypeNames() {
+        for (int i = 0; i < COLLECTION_TYPES.size(); i++) {
+            CollectionInfo collectionInfo = COLLECTION_TYPES.get(i);
+            assertEquals(collectionInfo.getCoinType(), COLLECTION_TYPES.getName(i));
+            assertEquals(i, getIndexFromCollectionNameStr(collectionInfo.getCoinType()));
+            assertEquals(i, getIndexFromCollectionClass(collectionInfo.getClass()));
+        }
+        assertEquals(-1, getIndexFromCollectionNameStr("Not a collection type"));
+    }
+
+    /**
+     * Ensure collection types are only created when first used
+     */
+    @Test
+    public void testCollectionTypesCreatedLazily() {
+        final int[] numCreated = {0, 0};
+        CollectionTypeRegistry registry = new CollectionTypeRegistry.Builder()
+                .add(LincolnCents.COLLECTION_TYPE, LincolnCents.class, () -> {
+                    numCreated[0]++;
+                    return new LincolnCents();
+                })
+                .add(StateQuarters.COLLECTION_TYPE, StateQuarters.class, () -> {
+                    numCreated[1]++;
+                    return new StateQuarters();
+                })
+                .build();
+
+        // Lookups don't create the collection types
+        assertEquals(1, registry.indexOf(StateQuarters.COLLECTION_TYPE));
+        assertEquals(1, registry.indexOf(StateQuarters.class));
+        assertEquals(LincolnCents.COLLECTION_TYPE, registry.getName(0));
+        assertEquals(0, registry.getNumCreated());
+
+        // Only the collection type used is created, and only once
+        CollectionInfo stateQuarters = registry.get(1);
+        assertSame(stateQuarters, registry.get(1));
+        assertEquals(0, numCreated[0]);
+        assertEquals(1, numCreated[1]);
+        assertEquals(1, registry.getNumCreated());
+
+        assertEquals(2, registry.getAll().size());
+        assertEquals(1, numCreated[0]);
+        assertEquals(1, numCreated[1]);
+    }
+
     /**
      * Ensure the fixed mint mark IDs are correct
      * These are used in the database and should not change
@@ -0,0 +1,84 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Intent;
+import android.os.Looper;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CollectionInfo;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+/**
+ * Startup benchmark that times launching the main activity, from Application.onCreate
+ * until the first frame, with a few collections in the database. Results are printed to
+ * standard out (visible in the Gradle test output). On a device, the same measurement is
+ * logged by MainApplication.onFirstFrame in debug builds.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StartupBenchmarkTests extends BaseTestCase {
+
+    // Most users only have collections of a few types
+    private static final int NUM_COLLECTIONS = 3;
+
+    /**
+     * Time startup to the first frame
+     */
+    @Test
+    public void test_startupToFirstFrame() {
+        MainApplication app = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(app);
+        dbAdapter.open();
+        for (int i = 0; i < NUM_COLLECTIONS; i++) {
+            CollectionInfo collectionInfo = MainApplication.COLLECTION_TYPES.get(i);
+            dbAdapter.createAndPopulateNewTable(
+                    getCollectionListInfo(collectionInfo.getCoinType(), collectionInfo, null), i, null);
+        }
+        dbAdapter.close();
+
+        long startNs = System.nanoTime();
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(app, MainActivity.class))) {
+            shadowOf(Looper.getMainLooper()).idle();
+            long launchNs = System.nanoTime() - startNs;
+            assertEquals(Lifecycle.State.RESUMED, scenario.getState());
+
+            // The first frame time is only recorded if Robolectric ran the view traversal
+            long startupMs = app.getStartupDurationMs();
+            System.out.println(String.format(Locale.ROOT,
+                    "[benchmark] startup with %d collections: activity launch %.1f ms, onCreate to first frame %s",
+                    NUM_COLLECTIONS, launchNs / 1e6, (startupMs >= 0) ? (startupMs + " ms") : "not recorded"));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static com.coincollection.DatabaseHelper.UPGRADE_STEP_COLLECTED_COUNTS;
+import static com.coincollection.DatabaseHelper.UPGRADE_STEP_COLLECTION;
+import static com.coincollection.DatabaseHelper.UPGRADE_STEP_STRUCTURE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.util.JsonWriter;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.ExportImportHelper;
+import com.coincollection.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Upgrade benchmark that replays the V23 fixtures (see GenerateV23Fixtures) and times
+ * DatabaseHelper.upgradeDb for each upgrade step and collection type. The results are
+ * printed and written to build/reports/upgrade-benchmark.json. The test checks the steps
+ * and rows changed, which don't depend on the machine. Timings are only checked against
+ * the budget when run with -Dupgrade.benchmark.enforceBudget=true, since wall-clock times
+ * vary too much on shared CI machines.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UpgradeBenchmarkTests extends BaseTestCase {
+
+    // Gradle test runner CWD is the app/ directory
+    private static final String FIXTURE_DIR = "src/test/data/v23-upgrades";
+    private static final String REPORT_FILE = "build/reports/upgrade-benchmark.json";
+    private static final int FIXTURE_VERSION = 23;
+
+    private static final String[] FIXTURES = {
+            "v23-default-params.json",
+            "v23-all-params-enabled.json",
+            "v23-alternating-A.json",
+            "v23-alternating-B.json",
+    };
+
+    // Generous limit so that only a pathologically slow migration fails the test, when the
+    // budget is enforced
+    private static final long COLLECTION_BUDGET_MS = 2000;
+    private static final String ENFORCE_BUDGET_PROPERTY = "upgrade.benchmark.enforceBudget";
+
+    /**
+     * Totals for one upgrade step, or one collection type across fixtures
+     */
+    private static class StepTotals {
+        int count = 0;
+        long elapsedNs = 0;
+        long rowsChanged = 0;
+        long maxElapsedNs = 0;
+
+        void add(long stepElapsedNs, long stepRowsChanged) {
+            count++;
+            elapsedNs += stepElapsedNs;
+            rowsChanged += stepRowsChanged;
+            maxElapsedNs = Math.max(maxElapsedNs, stepElapsedNs);
+        }
+    }
+
+    /**
+     * Records the upgrade steps reported for one fixture
+     */
+    private static class RecordingListener implements DatabaseHelper.UpgradeProgressListener {
+        final LinkedHashMap<String, StepTotals> stepTotals = new LinkedHashMap<>();
+        final LinkedHashMap<String, StepTotals> collectionTotals;
+        int numUpgraded = 0;
+        int numCollections = 0;
+
+        RecordingListener(LinkedHashMap<String, StepTotals> collectionTotals) {
+            this.collectionTotals = collectionTotals;
+        }
+
+        @Override
+        public void onCollectionUpgraded(int numUpgraded, int numCollections) {
+            this.numUpgraded = numUpgraded;
+            this.numCollections = numCollections;
+        }
+
+        @Override
+        public void onUpgradeStepFinished(String stepName, String collectionType, long elapsedNs,
+                                          long rowsChanged) {
+            getTotals(stepTotals, stepName).add(elapsedNs, rowsChanged);
+            if (UPGRADE_STEP_COLLECTION.equals(stepName)) {
+                getTotals(collectionTotals, collectionType).add(elapsedNs, rowsChanged);
+            }
+        }
+    }
+
+    private static StepTotals getTotals(Map<String, StepTotals> totals, String key) {
+        StepTotals stepTotals = totals.get(key);
+        if (stepTotals == null) {
+            stepTotals = new StepTotals();
+            totals.put(key, stepTotals);
+        }
+        return stepTotals;
+    }
+
+    private static double toMs(long elapsedNs) {
+        return elapsedNs / 1e6;
+    }
+
+    /**
+     * Write the totals as a JSON object keyed by step name or collection type
+     */
+    private static void writeTotals(JsonWriter writer, Map<String, StepTotals> totals) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, StepTotals> entry : totals.entrySet()) {
+            StepTotals stepTotals = entry.getValue();
+            writer.name(entry.getKey()).beginObject();
+            writer.name("count").value(stepTotals.count);
+            writer.name("totalMs").value(toMs(stepTotals.elapsedNs));
+            writer.name("maxMs").value(toMs(stepTotals.maxElapsedNs));
+            writer.name("rowsChanged").value(stepTotals.rowsChanged);
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Import each fixture (which upgrades it from V23) and record the upgrade timings
+     */
+    @Test
+    public void test_upgradeBenchmark() throws IOException {
+        LinkedHashMap<String, LinkedHashMap<String, StepTotals>> fixtureSteps = new LinkedHashMap<>();
+        LinkedHashMap<String, Long> fixtureElapsedNs = new LinkedHashMap<>();
+        LinkedHashMap<String, StepTotals> collectionTotals = new LinkedHashMap<>();
+
+        for (String fixture : FIXTURES) {
+            ApplicationProvider.getApplicationContext().deleteDatabase(MainApplication.DATABASE_NAME);
+            try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                    new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+                scenario.onActivity(activity -> {
+                    RecordingListener listener = new RecordingListener(collectionTotals);
+                    activity.mDbAdapter.setUpgradeProgressListener(listener);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    long startNs = System.nanoTime();
+                    try (InputStream inputStream = new FileInputStream(new File(FIXTURE_DIR, fixture))) {
+                        assertEquals("", helper.importCollectionsFromJson(inputStream));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Fixture not readable: " + fixture, e);
+                    } finally {
+                        activity.mDbAdapter.setUpgradeProgressListener(null);
+                    }
+                    fixtureElapsedNs.put(fixture, System.nanoTime() - startNs);
+                    fixtureSteps.put(fixture, listener.stepTotals);
+
+                    // Every collection was upgraded and reported
+                    ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                    activity.mDbAdapter.getAllTables(collectionListEntries);
+                    assertTrue(collectionListEntries.size() > 0);
+                    assertEquals(collectionListEntries.size(), listener.numCollections);
+                    assertEquals(collectionListEntries.size(), listener.numUpgraded);
+
+                    // The structure and collected count steps run once, and the collection step
+                    // once per collection. At most one collected count is rewritten per collection.
+                    assertEquals(1, getTotals(listener.stepTotals, UPGRADE_STEP_STRUCTURE).count);
+                    assertEquals(collectionListEntries.size(),
+                            getTotals(listener.stepTotals, UPGRADE_STEP_COLLECTION).count);
+                    StepTotals countTotals = getTotals(listener.stepTotals, UPGRADE_STEP_COLLECTED_COUNTS);
+                    assertEquals(1, countTotals.count);
+                    assertTrue(countTotals.rowsChanged <= collectionListEntries.size());
+                });
+            }
+        }
+
+        // Print the slowest collection types first
+        ArrayList<Map.Entry<String, StepTotals>> sortedTotals = new ArrayList<>(collectionTotals.entrySet());
+        sortedTotals.sort((a, b) -> Long.compare(b.getValue().elapsedNs, a.getValue().elapsedNs));
+        for (Map.Entry<String, StepTotals> entry : sortedTotals) {
+            StepTotals stepTotals = entry.getValue();
+            System.out.println(String.format(Locale.ROOT,
+                    "[benchmark] upgrade %s: %.1f ms total, %.1f ms max, %d rows changed",
+                    entry.getKey(), toMs(stepTotals.elapsedNs), toMs(stepTotals.maxElapsedNs),
+                    stepTotals.rowsChanged));
+        }
+
+        // Write the machine-readable report
+        File reportFile = new File(REPORT_FILE);
+        File reportDir = reportFile.getParentFile();
+        assertTrue(reportDir != null && (reportDir.isDirectory() || reportDir.mkdirs()));
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("fromVersion").value(FIXTURE_VERSION);
+            writer.name("toVersion").value(MainApplication.DATABASE_VERSION);
+            writer.name("fixtures").beginObject();
+            for (String fixture : fixtureSteps.keySet()) {
+                writer.name(fixture).beginObject();
+                writer.name("importMs").value(toMs(fixtureElapsedNs.get(fixture)));
+                writer.name("steps");
+                writeTotals(writer, fixtureSteps.get(fixture));
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.name("collectionTypes");
+            writeTotals(writer, collectionTotals);
+            writer.endObject();
+        }
+        System.out.println("[benchmark] upgrade report written to " + reportFile.getAbsolutePath());
+
+        if (Boolean.getBoolean(ENFORCE_BUDGET_PROPERTY)) {
+            for (Map.Entry<String, StepTotals> entry : sortedTotals) {
+                assertTrue("Upgrade of " + entry.getKey() + " is over budget",
+                        toMs(entry.getValue().maxElapsedNs) < COLLECTION_BUDGET_MS);
+            }
+        }
+    }
+}
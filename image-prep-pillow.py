@@ -7,9 +7,20 @@ Processes coin images for the coin collection app using Pillow.
 This is a standalone alternative to image-prep.py (GIMP plugin).
 Requires: pip install Pillow
 
+Images are saved without any metadata. With --format webp they are encoded as
+lossy WebP, and with --densities one image is written per density bucket
+(in drawable-<density> folders) scaled from the 92x92 mdpi size.
+
+Existing drawables can be re-encoded in place with --reencode, which replaces
+each PNG with a lossy WebP when that is smaller. This is what the
+encodeImagesWebp Gradle task runs. The build checks the results against the
+image budgets in app/build.gradle.
+
 Usage:
     python3 image-prep-pillow.py /tmp/cc_images_pre
     python3 image-prep-pillow.py /tmp/cc_images_pre --output /tmp/cc_images
+    python3 image-prep-pillow.py /tmp/cc_images_pre --format webp --densities mdpi,hdpi,xhdpi
+    python3 image-prep-pillow.py --reencode app/src/main/res
 """
 
 import argparse
@@ -18,6 +29,20 @@ import sys
 
 from PIL import Image, ImageDraw
 
+# Size of the coin images for mdpi screens
+MDPI_SIZE = 92
+
+# Scale of each density bucket relative to mdpi
+DENSITY_SCALES = {
+    "mdpi": 1.0,
+    "hdpi": 1.5,
+    "xhdpi": 2.0,
+    "xxhdpi": 3.0,
+}
+
+# Lossy WebP quality used by default
+DEFAULT_WEBP_QUALITY = 80
+
 
 def remove_white_background(img):
     """Flood-fill from all four corners to replace white background with transparency."""
@@ -27,7 +52,51 @@ def remove_white_background(img):
     return img
 
 
-def process_images(src_path, output_path):
+def save_image(img, out_base, image_format, quality):
+    """Save an image without metadata, returning the path it was written to."""
+    img = img.copy()
+    img.info = {}
+    if image_format == "webp":
+        out_file = f"{out_base}.webp"
+        img.save(out_file, "WEBP", quality=quality, method=6)
+    else:
+        out_file = f"{out_base}.png"
+        img.save(out_file, "PNG", optimize=True)
+    return out_file
+
+
+def reencode_drawables(res_path, quality):
+    """Replace the PNG drawables under res_path with lossy WebP where smaller."""
+    if not os.path.isdir(res_path):
+        print(f"Error: Unable to access res path: {res_path}", file=sys.stderr)
+        sys.exit(1)
+
+    saved_bytes = 0
+    for dir_name in sorted(os.listdir(res_path)):
+        dir_path = os.path.join(res_path, dir_name)
+        if not dir_name.startswith("drawable") or not os.path.isdir(dir_path):
+            continue
+        for img_name in sorted(os.listdir(dir_path)):
+            filename, ext = os.path.splitext(img_name)
+            if ext.lower() != ".png" or filename.endswith(".9"):
+                continue
+            png_file = os.path.join(dir_path, img_name)
+            png_size = os.path.getsize(png_file)
+            img = Image.open(png_file).convert("RGBA")
+            webp_file = save_image(img, os.path.join(dir_path, filename), "webp", quality)
+            webp_size = os.path.getsize(webp_file)
+            if webp_size < png_size:
+                os.remove(png_file)
+                saved_bytes += png_size - webp_size
+                print(f"  Re-encoded: {png_file} ({png_size} -> {webp_size} bytes)")
+            else:
+                os.remove(webp_file)
+
+    print(f"Done! Saved {saved_bytes} bytes")
+
+
+def process_images(src_path, output_path, image_format="png", quality=DEFAULT_WEBP_QUALITY,
+                   densities=("mdpi",)):
     if not os.path.exists(src_path):
         print(f"Error: Unable to access src path: {src_path}", file=sys.stderr)
         sys.exit(1)
@@ -35,7 +104,14 @@ def process_images(src_path, output_path):
     img_names = os.listdir(src_path)
     print(f"Found images: {img_names}")
 
-    os.makedirs(output_path, exist_ok=True)
+    # A single density is written straight to the output folder, as before
+    out_dirs = {}
+    for density in densities:
+        if len(densities) == 1:
+            out_dirs[density] = output_path
+        else:
+            out_dirs[density] = os.path.join(output_path, f"drawable-{density}")
+        os.makedirs(out_dirs[density], exist_ok=True)
 
     for img_name in img_names:
         input_file = os.path.join(src_path, img_name)
@@ -56,14 +132,14 @@ def process_images(src_path, output_path):
         if bbox:
             img = img.crop(bbox)
 
-        # Scale to 92x92
-        img = img.resize((92, 92), Image.LANCZOS)
-
-        # Save as PNG
-        out_file = os.path.join(output_path, f"{filename}.png")
-        img.save(out_file, "PNG")
+        # Scale to 92x92 (for mdpi) and save
+        for density in densities:
+            size = round(MDPI_SIZE * DENSITY_SCALES[density])
+            scaled = img.resize((size, size), Image.LANCZOS)
+            out_file = save_image(scaled, os.path.join(out_dirs[density], filename),
+                                  image_format, quality)
 
-        print(f"  Processed: {img_name} -> {out_file}")
+            print(f"  Processed: {img_name} -> {out_file}")
 
     print("Done!")
 
@@ -71,8 +147,25 @@ def process_images(src_path, output_path):
 if __name__ == "__main__":
     parser = argparse.ArgumentParser(
         description="Process coin images for the coin collection app.")
-    parser.add_argument("src_path", help="Directory containing source images")
+    parser.add_argument("src_path", nargs="?", help="Directory containing source images")
     parser.add_argument("--output", default="/tmp/cc_images",
                         help="Output directory (default: /tmp/cc_images)")
+    parser.add_argument("--format", choices=["png", "webp"], default="png",
+                        help="Output image format (default: png)")
+    parser.add_argument("--quality", type=int, default=DEFAULT_WEBP_QUALITY,
+                        help=f"Lossy WebP quality (default: {DEFAULT_WEBP_QUALITY})")
+    parser.add_argument("--densities", default="mdpi",
+                        help="Comma-separated density buckets to write (default: mdpi)")
+    parser.add_argument("--reencode", metavar="RES_PATH",
+                        help="Re-encode the drawables in a res directory as lossy WebP")
     args = parser.parse_args()
-    process_images(args.src_path, args.output)
+    if args.reencode:
+        reencode_drawables(args.reencode, args.quality)
+    elif args.src_path:
+        density_list = [d.strip() for d in args.densities.split(",") if d.strip()]
+        unknown = [d for d in density_list if d not in DENSITY_SCALES]
+        if unknown or not density_list:
+            parser.error(f"Unknown densities: {unknown}")
+        process_images(args.src_path, args.output, args.format, args.quality, density_list)
+    else:
+        parser.error("src_path or --reencode is required")